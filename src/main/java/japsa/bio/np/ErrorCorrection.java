@@ -34,12 +34,11 @@
 package japsa.bio.np;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.InputStream;
 import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -69,6 +68,41 @@ public class ErrorCorrection {
     public static boolean VERBOSE=false;
 	public static String prefix = "tmp";
 	public static String msa = "kalign";
+	//scoring matrix for poa, similar to blosum80.mat
+	static final String POA_MATRIX=
+			  "GAP-PENALTIES=12 6 6\n"
+			+ "   A  R  N  D  C  Q  E  G  H  I  L  K  M  F  P  S  T  W  Y  V  B  Z  X  ?  a  g  t  c  u  ]  n\n"
+			+ "A  7 -3 -3 -3 -1 -2 -2  0 -3 -3 -3 -1 -2 -4 -1  2  0 -5 -4 -1 -3 -2 -1 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "R -3  9 -1 -3 -6  1 -1 -4  0 -5 -4  3 -3 -5 -3 -2 -2 -5 -4 -4 -2  0 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "N -3 -1  9  2 -5  0 -1 -1  1 -6 -6  0 -4 -6 -4  1  0 -7 -4 -5  5 -1 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "D -3 -3  2 10 -7 -1  2 -3 -2 -7 -7 -2 -6 -6 -3 -1 -2 -8 -6 -6  6  1 -3 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "C -1 -6 -5 -7 13 -5 -7 -6 -7 -2 -3 -6 -3 -4 -6 -2 -2 -5 -5 -2 -6 -7 -4 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "Q -2  1  0 -1 -5  9  3 -4  1 -5 -4  2 -1 -5 -3 -1 -1 -4 -3 -4 -1  5 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "E -2 -1 -1  2 -7  3  8 -4  0 -6 -6  1 -4 -6 -2 -1 -2 -6 -5 -4  1  6 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "G  0 -4 -1 -3 -6 -4 -4  9 -4 -7 -7 -3 -5 -6 -5 -1 -3 -6 -6 -6 -2 -4 -3 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "H -3  0  1 -2 -7  1  0 -4 12 -6 -5 -1 -4 -2 -4 -2 -3 -4  3 -5 -1  0 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "I -3 -5 -6 -7 -2 -5 -6 -7 -6  7  2 -5  2 -1 -5 -4 -2 -5 -3  4 -6 -6 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "L -3 -4 -6 -7 -3 -4 -6 -7 -5  2  6 -4  3  0 -5 -4 -3 -4 -2  1 -7 -5 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "K -1  3  0 -2 -6  2  1 -3 -1 -5 -4  8 -3 -5 -2 -1 -1 -6 -4 -4 -1  1 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "M -2 -3 -4 -6 -3 -1 -4 -5 -4  2  3 -3  9  0 -4 -3 -1 -3 -3  1 -5 -3 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "F -4 -5 -6 -6 -4 -5 -6 -6 -2 -1  0 -5  0 10 -6 -4 -4  0  4 -2 -6 -6 -3 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "P -1 -3 -4 -3 -6 -3 -2 -5 -4 -5 -5 -2 -4 -6 12 -2 -3 -7 -6 -4 -4 -2 -3 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "S  2 -2  1 -1 -2 -1 -1 -1 -2 -4 -4 -1 -3 -4 -2  7  2 -6 -3 -3  0 -1 -1 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "T  0 -2  0 -2 -2 -1 -2 -3 -3 -2 -3 -1 -1 -4 -3  2  8 -5 -3  0 -1 -2 -1 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "W -5 -5 -7 -8 -5 -4 -6 -6 -4 -5 -4 -6 -3  0 -7 -6 -5 16  3 -5 -8 -5 -5 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "Y -4 -4 -4 -6 -5 -3 -5 -6  3 -3 -2 -4 -3  4 -6 -3 -3  3 11 -3 -5 -4 -3 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "V -1 -4 -5 -6 -2 -4 -4 -6 -5  4  1 -4  1 -2 -4 -3  0 -5 -3  7 -6 -4 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "B -3 -2  5  6 -6 -1  1 -2 -1 -6 -7 -1 -5 -6 -4  0 -1 -8 -5 -6  6  0 -3 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "Z -2  0 -1  1 -7  5  6 -4  0 -6 -5  1 -3 -6 -2 -1 -2 -5 -4 -4  0  6 -1 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "X -1 -2 -2 -3 -4 -2 -2 -3 -2 -2 -2 -2 -2 -3 -3 -1 -1 -5 -3 -2 -3 -1 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "? -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "a -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9  4 -2 -2 -2 -2 -9  0\n"
+			+ "g -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -2  4 -2 -2 -2 -9  0\n"
+			+ "t -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -2 -2  4 -2  4 -9  0\n"
+			+ "c -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -2 -2 -2  4 -2 -9  0\n"
+			+ "u -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -2 -2  4 -2  4 -9  0\n"
+			+ "] -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9\n"
+			+ "n -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9  0  0  0  0  0 -9  0";
 
 	public static double needle(Sequence seq1, Sequence seq2, String prefix) throws IOException, InterruptedException{
 		String seq1File = prefix + seq1.getName() + ".fasta";
@@ -123,47 +157,9 @@ public class ErrorCorrection {
     public static void runMultipleAlignment(String faiFile, String faoFile) throws IOException, InterruptedException{
     	{
 			String[] cmd;
-    	    File temp = File.createTempFile("tempfile", ".tmp"); 
 			if (msa.startsWith("poa")){						
-				//create a temporary matrix file similar to blosum80.mat	    		
-	    	    PrintWriter printer = new PrintWriter(new BufferedWriter(new FileWriter(temp)));
-	    	    printer.println("GAP-PENALTIES=12 6 6");
-	    	    printer.println("   A  R  N  D  C  Q  E  G  H  I  L  K  M  F  P  S  T  W  Y  V  B  Z  X  ?  a  g  t  c  u  ]  n");
-	    	    printer.println("A  7 -3 -3 -3 -1 -2 -2  0 -3 -3 -3 -1 -2 -4 -1  2  0 -5 -4 -1 -3 -2 -1 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"R -3  9 -1 -3 -6  1 -1 -4  0 -5 -4  3 -3 -5 -3 -2 -2 -5 -4 -4 -2  0 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"N -3 -1  9  2 -5  0 -1 -1  1 -6 -6  0 -4 -6 -4  1  0 -7 -4 -5  5 -1 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"D -3 -3  2 10 -7 -1  2 -3 -2 -7 -7 -2 -6 -6 -3 -1 -2 -8 -6 -6  6  1 -3 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"C -1 -6 -5 -7 13 -5 -7 -6 -7 -2 -3 -6 -3 -4 -6 -2 -2 -5 -5 -2 -6 -7 -4 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"Q -2  1  0 -1 -5  9  3 -4  1 -5 -4  2 -1 -5 -3 -1 -1 -4 -3 -4 -1  5 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"E -2 -1 -1  2 -7  3  8 -4  0 -6 -6  1 -4 -6 -2 -1 -2 -6 -5 -4  1  6 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"G  0 -4 -1 -3 -6 -4 -4  9 -4 -7 -7 -3 -5 -6 -5 -1 -3 -6 -6 -6 -2 -4 -3 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"H -3  0  1 -2 -7  1  0 -4 12 -6 -5 -1 -4 -2 -4 -2 -3 -4  3 -5 -1  0 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"I -3 -5 -6 -7 -2 -5 -6 -7 -6  7  2 -5  2 -1 -5 -4 -2 -5 -3  4 -6 -6 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"L -3 -4 -6 -7 -3 -4 -6 -7 -5  2  6 -4  3  0 -5 -4 -3 -4 -2  1 -7 -5 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"K -1  3  0 -2 -6  2  1 -3 -1 -5 -4  8 -3 -5 -2 -1 -1 -6 -4 -4 -1  1 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"M -2 -3 -4 -6 -3 -1 -4 -5 -4  2  3 -3  9  0 -4 -3 -1 -3 -3  1 -5 -3 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"F -4 -5 -6 -6 -4 -5 -6 -6 -2 -1  0 -5  0 10 -6 -4 -4  0  4 -2 -6 -6 -3 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"P -1 -3 -4 -3 -6 -3 -2 -5 -4 -5 -5 -2 -4 -6 12 -2 -3 -7 -6 -4 -4 -2 -3 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"S  2 -2  1 -1 -2 -1 -1 -1 -2 -4 -4 -1 -3 -4 -2  7  2 -6 -3 -3  0 -1 -1 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"T  0 -2  0 -2 -2 -1 -2 -3 -3 -2 -3 -1 -1 -4 -3  2  8 -5 -3  0 -1 -2 -1 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"W -5 -5 -7 -8 -5 -4 -6 -6 -4 -5 -4 -6 -3  0 -7 -6 -5 16  3 -5 -8 -5 -5 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"Y -4 -4 -4 -6 -5 -3 -5 -6  3 -3 -2 -4 -3  4 -6 -3 -3  3 11 -3 -5 -4 -3 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"V -1 -4 -5 -6 -2 -4 -4 -6 -5  4  1 -4  1 -2 -4 -3  0 -5 -3  7 -6 -4 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"B -3 -2  5  6 -6 -1  1 -2 -1 -6 -7 -1 -5 -6 -4  0 -1 -8 -5 -6  6  0 -3 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"Z -2  0 -1  1 -7  5  6 -4  0 -6 -5  1 -3 -6 -2 -1 -2 -5 -4 -4  0  6 -1 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"X -1 -2 -2 -3 -4 -2 -2 -3 -2 -2 -2 -2 -2 -3 -3 -1 -1 -5 -3 -2 -3 -1 -2 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"? -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"a -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9  4 -2 -2 -2 -2 -9  0\n"
-	    	    			+	"g -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -2  4 -2 -2 -2 -9  0\n"
-	    	    			+	"t -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -2 -2  4 -2  4 -9  0\n"
-	    	    			+	"c -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -2 -2 -2  4 -2 -9  0\n"
-	    	    			+	"u -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -2 -2  4 -2  4 -9  0\n"
-	    	    			+	"] -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9\n"
-	    	    			+	"n -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9 -9  0  0  0  0  0 -9  0");
-	    	    
-	    	    printer.close();			    	
 				//invoke
-				cmd = new String[]{"poa", "-read_fasta", faiFile, "-clustal", faoFile, "-hb", temp.getAbsolutePath()};
+				cmd = new String[]{"poa", "-read_fasta", faiFile, "-clustal", faoFile, "-hb", MsaRunner.getPoaMatrix().getPath()};
 				
 			}else if (msa.startsWith("spoa")){
 				cmd = new String[]{"spoa", faiFile};	
@@ -195,13 +191,16 @@ public class ErrorCorrection {
 			Process process = builder.start();
 			process.waitFor();
 			logger.trace("Done {}", Arrays.toString(cmd));
-			temp.deleteOnExit();
 		}
     }
     
     public static Sequence 	readPOAOutput(String faoFile, int seql) throws IOException{
+    	try (BufferedReader bf = FastaReader.openFile(faoFile)){
+    		return readPOAOutput(bf, seql);
+    	}
+    }
+    public static Sequence 	readPOAOutput(BufferedReader bf, int seql) throws IOException{
     	SequenceBuilder sb = new SequenceBuilder(Alphabet.DNA(), seql);
-		BufferedReader bf =  FastaReader.openFile(faoFile);
 		String line = bf.readLine();
 		while ( (line = bf.readLine()) != null){
 			if (line.startsWith("CONSENS0")){
@@ -218,11 +217,15 @@ public class ErrorCorrection {
 		return sb.toSequence();
     }
     public static Sequence 	readSPOAOutput(String faoFile, int seql) throws IOException{
+    	try (BufferedReader bf = FastaReader.openFile(faoFile)){
+    		return readSPOAOutput(bf, seql);
+    	}
+    }
+    public static Sequence 	readSPOAOutput(BufferedReader bf, int seql) throws IOException{
     	SequenceBuilder sb = new SequenceBuilder(Alphabet.DNA(), seql);
-		BufferedReader bf =  FastaReader.openFile(faoFile);
 		String line = bf.readLine();
 		//First line must start with Consensus
-		if (!line.startsWith("Consensus")){
+		if (line == null || !line.startsWith("Consensus")){
 			logger.trace("spoa failed: {}", line);
 			return null;	
 		}
@@ -234,9 +237,16 @@ public class ErrorCorrection {
 		return sb.toSequence();
     }
     public static ArrayList<Sequence> readMultipleAlignment(String faoFile) throws IOException{
+    	try (InputStream ins = new FileInputStream(faoFile)){
+    		return readMultipleAlignment(ins);
+    	}
+    }
+    public static ArrayList<Sequence> readMultipleAlignment(InputStream ins) throws IOException{
     	ArrayList<Sequence> seqList = new ArrayList<Sequence>();
 		{
-			SequenceReader msaReader = FastaReader.getReader(faoFile);
+			SequenceReader msaReader = SequenceReader.getReader(ins);
+			if (msaReader == null)//empty or not an alignment
+				return seqList;
 			Sequence nSeq = null;
 			while ((nSeq = msaReader.nextSequence(Alphabet.DNA())) != null) {
 				seqList.add(nSeq);						
@@ -293,39 +303,8 @@ public class ErrorCorrection {
 				readList.get(0).setName("consensus");
 				return readList.get(0);
 			}else{
-				
-				String faiFile = prefix + "_ai.fasta";//name of fasta files of reads mapped to the gene				
-				String faoFile = prefix + "_ao.fasta";//name of fasta files of reads mapped to the gene
-				//1.0 write alignment to faiFile
-
-				writeAlignmentToFaiFile(readList, faiFile, faoFile, max);
-				
-				//2.0 Run multiple alignment
-				try{
-					runMultipleAlignment(faiFile, faoFile);
-				}catch(InterruptedException exc){
-					logger.trace("Consensus is pick randomly from the list!");
-					readList.get(0).setName("consensus");
-					return readList.get(0);
-				}
-				
-				if ("poa".equals(msa))
-					consensus=readPOAOutput(faoFile, readList.get(0).length());	
-				else if("spoa".equals(msa)){
-					consensus=readSPOAOutput(faoFile, readList.get(0).length());
-				}else if("abpoa".equals(msa)) {
-					SequenceReader reader = SequenceReader.getReader(faoFile);
-					consensus=reader.nextSequence(DNA.DNA());
-				}else{
-					//3.0 Read in multiple alignment
-					ArrayList<Sequence> seqList = readMultipleAlignment(faoFile);
-					//4.0 get consensus and write to facFile	
-					
-					consensus = getConsensus(seqList);
-				}
-				
-//				Files.deleteIfExists(Paths.get(faiFile));
-//				Files.deleteIfExists(Paths.get(faoFile));
+				//reads piped to the MSA tool, no files in the working folder (prefix is not used anymore)
+				consensus = MsaRunner.consensus(readList, max, msa);
 			}
 			
 			if(consensus==null){
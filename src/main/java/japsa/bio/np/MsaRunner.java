@@ -0,0 +1,213 @@
+package japsa.bio.np;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import japsa.seq.Sequence;
+import japsa.seq.SequenceOutputStream;
+
+/**
+ * Runs an external MSA tool on a set of reads and returns their consensus, without files in the working folder:
+ * the reads are streamed to the tool's stdin and its stdout is parsed. The tools that need a path (to guess the format
+ * from the extension, or to read it twice) get a scratch file in memory (/dev/shm if available), deleted right after.
+ * At most MAX_PROCESSES tools run at the same time, each one is killed after TIMEOUT seconds.
+ */
+public class MsaRunner {
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+	public static int MAX_PROCESSES=Runtime.getRuntime().availableProcessors();
+	public static long TIMEOUT=60; //seconds
+
+	private static Semaphore slots=null;
+	private static File scratch=null, poaMatrix=null;
+	private static final AtomicInteger fileCount=new AtomicInteger();
+	private static final AtomicLong runs=new AtomicLong(), timeouts=new AtomicLong(), failures=new AtomicLong(), runNanos=new AtomicLong();
+	//writing stdin and draining stdout of the tools
+	private static final ExecutorService io=Executors.newCachedThreadPool(r->{
+		Thread t=new Thread(r, "npgraph-msa-io");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * Consensus of (the first max of) the reads by an MSA tool
+	 * @return null if the tool is not supported, failed or timed out
+	 */
+	public static Sequence consensus(List<Sequence> reads, int max, String msa) throws IOException, InterruptedException{
+		if(reads.size()>max)
+			reads=reads.subList(0, max);
+		File fai=null, fao=null; //for the tools that need paths
+		String[] cmd;
+		if(msa.startsWith("poa")){
+			cmd=new String[]{"poa", "-read_fasta", "/dev/stdin", "-clustal", "/dev/stdout", "-hb", getPoaMatrix().getPath()};
+		}else if(msa.startsWith("spoa")){
+			fai=scratchFile(".fasta"); //spoa tells the format from the extension
+			cmd=new String[]{"spoa", fai.getPath()};
+		}else if(msa.startsWith("abpoa")){
+			cmd=new String[]{"abpoa", "/dev/stdin"};
+		}else if(msa.startsWith("muscle")){
+			cmd=new String[]{"muscle", "-maxiters", "5", "-quiet"};
+		}else if(msa.startsWith("clustal")){
+			cmd=new String[]{"clustalo", "-i", "-"};
+		}else if(msa.startsWith("kalign3")){
+			cmd=new String[]{"kalign"};
+		}else if(msa.startsWith("kalign")){
+			cmd=new String[]{"kalign", "-gpo", "60", "-gpe", "10", "-tgpe", "0", "-bonus", "0", "-q"};
+		}else if(msa.startsWith("msaprobs")){
+			fai=scratchFile(".fasta");
+			fao=scratchFile(".fasta");
+			cmd=new String[]{"msaprobs", "-o", fao.getPath(), fai.getPath()};
+		}else if(msa.startsWith("mafft")){
+			fai=scratchFile(".fasta");
+			fao=scratchFile(".fasta");
+			cmd=new String[]{"mafft_wrapper.sh", fai.getPath(), fao.getPath()};
+		}else{
+			logger.debug("MSA tool {} is not supported!", msa);
+			return null;
+		}
+
+		Semaphore sem=getSlots();
+		sem.acquire();
+		long start=System.nanoTime();
+		Process process=null;
+		try{
+			if(fai!=null){
+				SequenceOutputStream out=SequenceOutputStream.makeOutputStream(fai.getPath());
+				writeReads(reads, out);
+			}
+			logger.trace("Running {}", Arrays.toString(cmd));
+			ProcessBuilder builder=new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.DISCARD);
+			if(fao!=null)
+				builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+			process=builder.start();
+			runs.incrementAndGet();
+
+			final Process p=process;
+			final List<Sequence> input=fai==null?reads:null;
+			final String tool=cmd[0];
+			CompletableFuture<Void> writing=CompletableFuture.runAsync(()->{
+				try(OutputStream os=p.getOutputStream()){
+					if(input!=null)
+						writeReads(input, new SequenceOutputStream(os));
+				}catch(IOException e){
+					//the tool stopped reading, e.g. killed: its exit tells what happened
+					logger.trace("Cannot write to {}: {}", tool, e);
+				}
+			}, io);
+			CompletableFuture<byte[]> output=fao!=null?CompletableFuture.completedFuture(null):CompletableFuture.supplyAsync(()->{
+				ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+				try{
+					p.getInputStream().transferTo(bytes);
+				}catch(IOException e){
+					logger.trace("Cannot read from {}: {}", tool, e);
+				}
+				return bytes.toByteArray();
+			}, io);
+
+			if(!process.waitFor(TIMEOUT, TimeUnit.SECONDS)){
+				timeouts.incrementAndGet();
+				logger.debug("{} timed out after {}s on {} reads", cmd[0], TIMEOUT, reads.size());
+				return null;
+			}
+			writing.join();
+			byte[] bytes=output.join();
+			if(process.exitValue()!=0){
+				failures.incrementAndGet();
+				logger.debug("{} exited with {}", cmd[0], process.exitValue());
+				return null;
+			}
+			try(InputStream ins=fao!=null?new FileInputStream(fao):new ByteArrayInputStream(bytes)){
+				return parse(ins, msa, reads.get(0).length());
+			}
+		}finally{
+			if(process!=null && process.isAlive())
+				process.destroyForcibly();
+			sem.release();
+			runNanos.addAndGet(System.nanoTime()-start);
+			if(fai!=null)
+				fai.delete();
+			if(fao!=null)
+				fao.delete();
+		}
+	}
+
+	private static void writeReads(List<Sequence> reads, SequenceOutputStream out) throws IOException{
+		try{
+			for(Sequence seq:reads)
+				seq.writeFasta(out);
+		}finally{
+			out.close();
+		}
+	}
+
+	private static Sequence parse(InputStream ins, String msa, int len) throws IOException{
+		if(msa.startsWith("poa"))
+			return ErrorCorrection.readPOAOutput(new BufferedReader(new InputStreamReader(ins)), len);
+		else if(msa.startsWith("spoa"))
+			return ErrorCorrection.readSPOAOutput(new BufferedReader(new InputStreamReader(ins)), len);
+		ArrayList<Sequence> seqList=ErrorCorrection.readMultipleAlignment(ins);
+		if(seqList.isEmpty())
+			return null;
+		if(msa.startsWith("abpoa")) //the consensus only
+			return seqList.get(0);
+		return ErrorCorrection.getConsensus(seqList);
+	}
+
+	private static synchronized Semaphore getSlots(){
+		if(slots==null)
+			slots=new Semaphore(Math.max(1, MAX_PROCESSES), true);
+		return slots;
+	}
+	//folder for the files of the tools: in memory if possible, removed on exit
+	private static synchronized File getScratch() throws IOException{
+		if(scratch==null){
+			File shm=new File("/dev/shm");
+			scratch=(shm.isDirectory() && shm.canWrite()?Files.createTempDirectory(shm.toPath(), "npgraph_msa"):Files.createTempDirectory("npgraph_msa")).toFile();
+			scratch.deleteOnExit();
+		}
+		return scratch;
+	}
+	private static File scratchFile(String ext) throws IOException{
+		return new File(getScratch(), fileCount.incrementAndGet()+ext); //deleted after each run
+	}
+	//the scoring matrix of poa, written once
+	static synchronized File getPoaMatrix() throws IOException{
+		if(poaMatrix==null){
+			File file=new File(getScratch(), "poa.mat");
+			try(PrintWriter printer=new PrintWriter(file)){
+				printer.println(ErrorCorrection.POA_MATRIX);
+			}
+			file.deleteOnExit();
+			poaMatrix=file;
+		}
+		return poaMatrix;
+	}
+
+	public static String getStats(){
+		long n=runs.get();
+		return String.format("MSA tool runs=%d timeouts=%d failures=%d avg=%.1fms",
+				n, timeouts.get(), failures.get(), n==0?0:runNanos.get()/1e6/n);
+	}
+}
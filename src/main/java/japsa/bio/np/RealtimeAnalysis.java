@@ -51,24 +51,69 @@ public abstract class RealtimeAnalysis implements Runnable {
     private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
 
 
-	private int readPeriod = 0;//Min number of reads before a new analysis
-	private int timePeriod = 0;//Min number of miliseconds before a new analysis	
-	private int powerNap = 1000;//sleep time in miliseconds (1 second by default)
+	private int readPeriod = 0;//Number of reads that triggers a new analysis
+	private int timePeriod = 0;//Number of miliseconds that triggers a new analysis	
+	private int powerNap = 1000;//longest wait in miliseconds before checking the read count again (if not notified)
+	private double maxLoad = 0.2;//max share of the time spent in analysis, the interval is stretched if they take longer
+	private int minGap = 1000;//shortest time in miliseconds from the end of an analysis to the start of the next one
 
 	protected RealtimeAnalysis(){
 	}
 
-	protected boolean waiting = true;
+	protected volatile boolean waiting = true;
 
-	protected Long lastTime = 0L;//The last time an analysis is done
+	protected volatile Long lastTime = 0L;//The last time an analysis is done
 	protected Long startTime;
-	protected Integer lastReadNumber = 0;
+	protected volatile Integer lastReadNumber = 0;
 	protected String timeNow;
 
+	//the analysis thread waits on this for any trigger: reads, time, changes or stop
+	private final Object signal = new Object();
+	private boolean changed = false;//guarded by signal
+	private long lastDuration = 0, lastEnd = 0;//of the last analysis, in miliseconds
+
 	public void stopWaiting(){	
 		logger.info("All reads received at {}", new Date());
-		waiting = false;
-		//TODO: implement notifies if I am sleeping
+		synchronized(signal){
+			waiting = false;
+			signal.notifyAll();
+		}
+	}
+
+	/**
+	 * The data being analysed has changed (e.g. the graph): trigger a new analysis as soon as the load allows
+	 */
+	public void notifyChanges(){
+		synchronized(signal){
+			changed = true;
+			signal.notifyAll();
+		}
+	}
+
+	/**
+	 * New reads received: wake the analysis up if the read period is reached, otherwise it is checked
+	 * only every powerNap
+	 */
+	public void notifyReads(){
+		if (readPeriod > 0 && getCurrentRead() - lastReadNumber >= readPeriod){
+			synchronized(signal){
+				signal.notifyAll();
+			}
+		}
+	}
+
+	/*
+	 * Miliseconds to wait before the next analysis, <=0 if it is due now.
+	 * Due if any of the read period, the time period or a change notification is reached,
+	 * but never sooner than maxLoad and minGap allow after the end of the last analysis (so a stream of
+	 * changes, or a zero time period, can't run analyses back to back).
+	 */
+	private long nextAnalysis(long now){
+		long rest = lastEnd + Math.max(minGap, (long) (lastDuration * (1 - maxLoad) / maxLoad)) - now;
+		long timeLeft = timePeriod - (now - lastTime);
+		if (changed || timeLeft <= 0 || (readPeriod > 0 && getCurrentRead() - lastReadNumber >= readPeriod))
+			return rest;
+		return Math.max(rest, Math.min(timeLeft, powerNap));
 	}
 
 	/* (non-Javadoc)
@@ -79,66 +124,77 @@ public abstract class RealtimeAnalysis implements Runnable {
 		startTime = System.currentTimeMillis();
 		logger.info("Start analysing data at {}", new Date(startTime));
 
-		while (waiting){
-			//Need to wait if timing is not right
-			long timeSleep = timePeriod - (System.currentTimeMillis() - lastTime);
-			if (timeSleep > 0){
-				try {
-					logger.info("Not due time, sleep for {} seconds", timeSleep/1000.0);
-					Thread.sleep(timeSleep);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-				continue;//the next round I wont be here again
-			}
-			//assert: time satisfied
-			int currentRead = getCurrentRead();
-			if (currentRead - lastReadNumber < readPeriod){
-				try {
-					logger.info("Not due read ({}), sleep for {} seconds", currentRead, powerNap/1000.0);
-					Thread.sleep(powerNap);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+		while (true){
+			synchronized(signal){
+				long wait;
+				while (waiting && (wait = nextAnalysis(System.currentTimeMillis())) > 0){
+					try {
+						logger.debug("Not due, wait for at most {} seconds", wait/1000.0);
+						signal.wait(wait);
+					} catch (InterruptedException e) {
+						logger.warn("Interrupted while waiting, performing the final analysis");
+						Thread.currentThread().interrupt();
+						waiting = false;
+					}
 				}
-				continue;//the next round I wont be here again
+				if (!waiting)
+					break;
+				changed = false;//changes from now on trigger the next one
 			}
-			lastReadNumber = currentRead;
-			lastTime = System.currentTimeMillis();
-			//assert: read number satisfied
-			timeNow = new Date(lastTime).toString();
-			analysis();
-			logger.info("RUNTIME\t{}\t{}\t{}\t{}", timeNow, (this.lastTime - this.startTime)/1000.0, this.lastReadNumber, (System.currentTimeMillis() - lastTime)/1000.0);
+			analyse();
 		}//while
 
 		//perform the final analysis
-		lastTime = System.currentTimeMillis();
-		lastReadNumber =  getCurrentRead();
-		timeNow = new Date(lastTime).toString();
-		analysis();
-		logger.info("RUNTIME\t{}\t{}\t{}\t{}", timeNow, (this.lastTime - this.startTime)/1000.0, this.lastReadNumber, (System.currentTimeMillis() - lastTime)/1000.0);
+		analyse();
 		//.. and close it
 		close();
 		logger.info("Real time analysis done");
 	}
 
+	private void analyse(){
+		lastReadNumber = getCurrentRead();
+		lastTime = System.currentTimeMillis();
+		timeNow = new Date(lastTime).toString();
+		analysis();
+		lastEnd = System.currentTimeMillis();
+		lastDuration = lastEnd - lastTime;
+		logger.info("RUNTIME\t{}\t{}\t{}\t{}", timeNow, (this.lastTime - this.startTime)/1000.0, this.lastReadNumber, lastDuration/1000.0);
+	}
+
 	abstract protected void close();
 	abstract protected void analysis();
 	abstract protected int getCurrentRead();	
 
 	/**
-	 * Set the minimum number of reads before a new analysis 
+	 * Set the number of reads that triggers a new analysis 
 	 * @param readNumber
 	 */
 	public void setReadPeriod(int readNumber){
 		readPeriod = readNumber;
 	}
 	/**
-	 * Set the minimum time before a new analysis
+	 * Set the time that triggers a new analysis
 	 * @param timePeriod: number of miniseconds
 	 */
 	public void setTimePeriod(int timePeriod){
 		this.timePeriod = timePeriod;
 	}
+	/**
+	 * Set the max share of time spent in analysis
+	 * @param maxLoad: in (0,1]
+	 */
+	public void setMaxLoad(double maxLoad){
+		if (maxLoad > 0 && maxLoad <= 1)
+			this.maxLoad = maxLoad;
+	}
+
+	/**
+	 * Set the shortest gap between two analyses, whatever triggers them
+	 * @param minGap: number of miliseconds
+	 */
+	public void setMinGap(int minGap){
+		this.minGap = Math.max(0, minGap);
+	}
 
 	void setPowerNap(int powerNap){
 		this.powerNap = powerNap;
@@ -134,6 +134,24 @@ Comparable<japsa.seq.AbstractSequence>, CharSequence {
 	public abstract byte getBase(int loc);
 	public abstract byte setBase(int loc, byte base);
 	
+	/**
+	 * Subsequence from start (inclusive) to end (exclusive)
+	 */
+	public abstract AbstractSequence subSequence(int start, int end);
+	
+	/**
+	 * The sequence as a (byte per base) Sequence, copied if not one already
+	 * @return
+	 */
+	public Sequence toSequence() {
+		byte[] bases = new byte[length()];
+		for (int i = 0; i < bases.length; i++)
+			bases[i] = getBase(i);
+		Sequence seq = new Sequence(alphabet, bases, name);
+		seq.setDesc(desc);
+		return seq;
+	}
+	
 
 	
 	/**
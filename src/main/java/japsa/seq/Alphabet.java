@@ -245,6 +245,14 @@ public abstract class Alphabet {
 				throw new RuntimeException(seq.alphabet() + " is not DNA");
 			}
 		}
+		/**
+		 * Reverse complement of any DNA sequence, packed sequences stay packed
+		 */
+		public static AbstractSequence complement(AbstractSequence seq){
+			if (seq instanceof PackedSequence)
+				return ((PackedSequence) seq).reverseComplement();
+			return complement(seq.toSequence());
+		}
 	}
 	
 	/**
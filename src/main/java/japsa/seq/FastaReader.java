@@ -114,13 +114,42 @@ public class FastaReader extends SequenceReader{
 	 * @throws IOException
 	 */
 	public Sequence nextSequence(Alphabet alphabet) throws IOException{
-		if (eof)
-			return null;
-
-
 		if (alphabet == null){
 			alphabet = Alphabet.DNA16();//The most conservative
 		}
+		String header = readRecord(alphabet);
+		return header == null ? null : makeSequence(alphabet, seq, seqIndex, header);
+	}
+	
+	/**
+	 * Read the next sequence packed 2 bits per base (see PackedSequence), the 
+	 * bases are packed straight from the read buffer.
+	 * 
+	 * @param alphabet: a DNA alphabet, DNA16 if null
+	 * @return
+	 * @throws IOException
+	 */
+	public PackedSequence nextPackedSequence(Alphabet.DNA alphabet) throws IOException{
+		if (alphabet == null){
+			alphabet = Alphabet.DNA16();//The most conservative
+		}
+		String header = readRecord(alphabet);
+		if (header == null)
+			return null;
+		String[] toks = header.split("\\s",2);
+		PackedSequence pseq = new PackedSequence(alphabet, seq, seqIndex, toks[0]);
+		if (toks.length >= 2)
+			pseq.setDesc(toks[1]);
+		return pseq;
+	}
+	
+	/**
+	 * Read the next record into seq (seqIndex symbols)
+	 * @return the header, null if no more
+	 */
+	private String readRecord(Alphabet alphabet) throws IOException{
+		if (eof)
+			return null;
 
 		StringBuilder header = new StringBuilder();
 		seqIndex = 0;//the number of nucletiodes read
@@ -161,7 +190,7 @@ public class FastaReader extends SequenceReader{
 				}else  if(currentByte == 62){
 					//start of a new sequence
 					//seqNo ++;
-					return makeSequence(alphabet, seq, seqIndex, header.toString().trim());
+					return header.toString().trim();
 				}else{
 					if (nucleotide == -1){
 						throw new RuntimeException("Unexecpected character '" + (char) currentByte + "' for dna {" + alphabet + "} at the line  " + lineNo);						
@@ -170,7 +199,7 @@ public class FastaReader extends SequenceReader{
 			}//if
 			else{
 				//seqNo ++;
-				return makeSequence(alphabet, seq, seqIndex, header.toString().trim());
+				return header.toString().trim();
 			}			
 
 		}
@@ -0,0 +1,93 @@
+package japsa.seq;
+
+import java.util.Arrays;
+
+/**
+ * Read-only concatenation of sequences (typically SequenceViews), without copying their bases:
+ * the parts are only referenced, until the result is written out or materialized with toSequence().
+ * Sequential access (the usual one) costs a comparison per base, random access a binary search over the parts.
+ */
+public class JoinedSequence extends AbstractSequence {
+	private AbstractSequence[] parts=new AbstractSequence[8];
+	private int[] ends=new int[8]; //ends[i]: length of parts 0..i
+	private int count=0, length=0;
+	private int last=0; //part of the last access
+
+	public JoinedSequence(Alphabet alphabet, String name){
+		super(alphabet, name);
+	}
+
+	/**
+	 * Append seq (not copied) to the end, empty sequences are ignored
+	 */
+	public JoinedSequence append(AbstractSequence seq){
+		if(seq.length()==0)
+			return this;
+		if(count==parts.length){
+			parts=Arrays.copyOf(parts, count*2);
+			ends=Arrays.copyOf(ends, count*2);
+		}
+		length+=seq.length();
+		parts[count]=seq;
+		ends[count++]=length;
+		return this;
+	}
+	/**
+	 * Append seq from start (inclusive) to end (exclusive)
+	 */
+	public JoinedSequence append(AbstractSequence seq, int start, int end){
+		return append(SequenceView.of(seq, start, end));
+	}
+
+	public int getPartCount(){
+		return count;
+	}
+
+	private int part(int loc){
+		if(loc<0 || loc>=length)
+			throw new IndexOutOfBoundsException("Index " + loc + " of a sequence of length " + length);
+		int i=last;
+		if(loc>=ends[i] || (i>0 && loc<ends[i-1])){
+			if(i+1<count && loc>=ends[i] && loc<ends[i+1])
+				i++;
+			else{
+				i=Arrays.binarySearch(ends, 0, count, loc);
+				i=i<0?-i-1:i+1;
+			}
+			last=i;
+		}
+		return i;
+	}
+
+	@Override
+	public int length(){
+		return length;
+	}
+	@Override
+	public byte getBase(int loc){
+		int i=part(loc);
+		return parts[i].getBase(i==0?loc:loc-ends[i-1]);
+	}
+	@Override
+	public int symbolAt(int loc){
+		return getBase(loc);
+	}
+	@Override
+	public void setSymbol(int loc, int symbol){
+		throw new UnsupportedOperationException("Read-only sequence");
+	}
+	@Override
+	public byte setBase(int loc, byte base){
+		throw new UnsupportedOperationException("Read-only sequence");
+	}
+	/**
+	 * A copy from start (inclusive) to end (exclusive)
+	 */
+	@Override
+	public Sequence subSequence(int start, int end){
+		byte[] bases=new byte[end-start];
+		for(int i=start;i<end;i++)
+			bases[i-start]=getBase(i);
+		return new Sequence(alphabet(), bases, getName());
+	}
+}
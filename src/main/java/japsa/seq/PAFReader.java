@@ -0,0 +1,259 @@
+package japsa.seq;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import htsjdk.samtools.TextCigarCodec;
+import japsa.util.JapsaException;
+
+/**
+ * Reader for PAF records that parses straight from a reusable byte buffer filled by an NIO channel.
+ * No String.split, no substring: integer columns are parsed from the bytes, the query name is only
+ * re-created when it changes from the previous line and target names are interned in a small table,
+ * so a steady stream of records does not allocate apart from the optional cg:Z: tag.
+ *
+ * The record returned by next() is reused: copy what is needed before calling next() again.
+ */
+public class PAFReader implements Closeable {
+	static final int BUFF_SIZE = 1<<20;
+	static final int MAX_TARGETS = 1<<20; //names interned before the table is reset
+
+	private final ReadableByteChannel channel;
+	private byte[] buff = new byte[BUFF_SIZE];
+	private ByteBuffer buffer = ByteBuffer.wrap(buff);
+	private int start = 0, limit = 0; //unread data is buff[start,limit)
+	private boolean eof = false;
+	private int lineNo = 0;
+
+	//start and end (exclusive) of the 12 mandatory columns of the current line
+	private final int[] fieldStarts = new int[12], fieldEnds = new int[12];
+	private final PAFRecord record = new PAFRecord();
+
+	private byte[] lastQname = new byte[256];
+	private int lastQnameLength = -1;
+	private final NameTable targets = new NameTable();
+
+	public PAFReader(ReadableByteChannel channel){
+		this.channel = channel;
+	}
+	public PAFReader(InputStream in){
+		this(Channels.newChannel(in));
+	}
+	public PAFReader(String fileName) throws IOException{
+		this(FileChannel.open(Paths.get(fileName), StandardOpenOption.READ));
+	}
+
+	public int getLineNumber(){
+		return lineNo;
+	}
+
+	/**
+	 * Parse the next record
+	 * @return the (reused) record, or null at the end of the stream
+	 * @throws IOException
+	 * @throws JapsaException if the line is not a valid PAF record
+	 */
+	public PAFRecord next() throws IOException, JapsaException{
+		while(true){
+			int eolPos = -1;
+			for(int i = start; i < limit; i++){
+				if(buff[i] == '\n'){
+					eolPos = i;
+					break;
+				}
+			}
+			if(eolPos < 0){
+				if(!eof){
+					fill();
+					continue;
+				}
+				if(start >= limit)
+					return null;
+				eolPos = limit; //last line without a new line
+			}
+			int lineStart = start,
+				lineEnd = eolPos;
+			if(lineEnd > lineStart && buff[lineEnd-1] == '\r')
+				lineEnd--;
+			start = Math.min(eolPos + 1, limit);
+			lineNo++;
+			if(lineEnd == lineStart) //ignore empty line
+				continue;
+
+			parse(lineStart, lineEnd);
+			return record;
+		}
+	}
+
+	//move the unread bytes to the start of the buffer (grow it if a line doesn't fit) and read more
+	private void fill() throws IOException{
+		if(start > 0){
+			System.arraycopy(buff, start, buff, 0, limit - start);
+			limit -= start;
+			start = 0;
+		}else if(limit == buff.length){
+			buff = Arrays.copyOf(buff, buff.length * 2);
+			buffer = ByteBuffer.wrap(buff);
+		}
+		buffer.limit(buff.length);
+		buffer.position(limit);
+		int n = channel.read(buffer);
+		if(n < 0)
+			eof = true;
+		else
+			limit += n;
+	}
+
+	private void parse(int lineStart, int lineEnd) throws JapsaException{
+		int nFields = 0;
+		fieldStarts[0] = lineStart;
+		int i = lineStart;
+		for(; i < lineEnd && nFields < 12; i++){
+			if(buff[i] == '\t'){
+				fieldEnds[nFields++] = i;
+				if(nFields < 12)
+					fieldStarts[nFields] = i + 1;
+			}
+		}
+		if(nFields < 12 && i == lineEnd)
+			fieldEnds[nFields++] = lineEnd;
+		if(nFields < 12)
+			throw new JapsaException("Error reading PAF line " + lineNo + ": " + nFields + " < 12" + "\n" + new String(buff, lineStart, lineEnd - lineStart, StandardCharsets.ISO_8859_1));
+
+		record.qname = queryName(fieldStarts[0], fieldEnds[0]);
+		record.tname = targets.get(buff, fieldStarts[5], fieldEnds[5] - fieldStarts[5]);
+
+		record.strand = buff[fieldStarts[4]] == '+';
+
+		record.qlen = parseInt(1);
+		record.tlen = parseInt(6);
+		//convert coordinates from 0-based to 1-based
+		record.qstart = parseInt(2) + 1; //inclusive -> inclusive
+		record.qend = parseInt(3); //exclusive -> inclusive
+
+		record.tstart = parseInt(7) + 1;
+		record.tend = parseInt(8);
+
+		record.qual = parseInt(11);
+		record.score = parseInt(9);
+
+		//Looking for cigar tag in the optional fields
+		record.cigar = null;
+		int tagStart = i;
+		for(; i <= lineEnd; i++){
+			if(i == lineEnd || buff[i] == '\t'){
+				if(i - tagStart > 5
+					&& (buff[tagStart] == 'c' || buff[tagStart] == 'C')
+					&& (buff[tagStart+1] == 'g' || buff[tagStart+1] == 'G')
+					&& buff[tagStart+2] == ':'){
+					record.cigar = TextCigarCodec.decode(new String(buff, tagStart + 5, i - tagStart - 5, StandardCharsets.ISO_8859_1));
+				}
+				tagStart = i + 1;
+			}
+		}
+	}
+
+	//the query name String is reused while the records are of the same read
+	private String queryName(int s, int e){
+		int len = e - s;
+		if(len == lastQnameLength && Arrays.equals(buff, s, e, lastQname, 0, len))
+			return record.qname;
+
+		if(len > lastQname.length)
+			lastQname = new byte[len * 2];
+		System.arraycopy(buff, s, lastQname, 0, len);
+		lastQnameLength = len;
+		return new String(buff, s, len, StandardCharsets.ISO_8859_1);
+	}
+
+	private int parseInt(int field) throws JapsaException{
+		int s = fieldStarts[field], e = fieldEnds[field];
+		boolean neg = false;
+		if(s < e && buff[s] == '-'){
+			neg = true;
+			s++;
+		}
+		if(s >= e)
+			throw new JapsaException("Error reading PAF line " + lineNo + ": empty column " + (field + 1));
+		int val = 0;
+		for(int i = s; i < e; i++){
+			int d = buff[i] - '0';
+			if(d < 0 || d > 9)
+				throw new JapsaException("Error reading PAF line " + lineNo + ": invalid integer in column " + (field + 1));
+			val = val * 10 + d;
+		}
+		return neg ? -val : val;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/*
+	 * Open-addressing table interning names from raw bytes without creating a String per lookup
+	 */
+	static class NameTable{
+		private byte[][] keys = new byte[1024][];
+		private String[] names = new String[1024];
+		private int size = 0;
+
+		String get(byte[] buf, int off, int len){
+			int h = 1;
+			for(int i = off; i < off + len; i++)
+				h = 31 * h + buf[i];
+			int mask = keys.length - 1;
+			int idx = (h ^ (h >>> 16)) & mask;
+			while(keys[idx] != null){
+				if(keys[idx].length == len && Arrays.equals(keys[idx], 0, len, buf, off, off + len))
+					return names[idx];
+				idx = (idx + 1) & mask;
+			}
+			if(size >= MAX_TARGETS){
+				clear();
+				return get(buf, off, len);
+			}
+			keys[idx] = Arrays.copyOfRange(buf, off, off + len);
+			names[idx] = new String(buf, off, len, StandardCharsets.ISO_8859_1);
+			size++;
+			if(size * 2 > keys.length)
+				rehash();
+			return names[idx];
+		}
+
+		private void rehash(){
+			byte[][] oldKeys = keys;
+			String[] oldNames = names;
+			keys = new byte[oldKeys.length * 2][];
+			names = new String[oldKeys.length * 2];
+			int mask = keys.length - 1;
+			for(int j = 0; j < oldKeys.length; j++){
+				if(oldKeys[j] == null)
+					continue;
+				int h = 1;
+				for(byte b:oldKeys[j])
+					h = 31 * h + b;
+				int idx = (h ^ (h >>> 16)) & mask;
+				while(keys[idx] != null)
+					idx = (idx + 1) & mask;
+				keys[idx] = oldKeys[j];
+				names[idx] = oldNames[j];
+			}
+		}
+
+		private void clear(){
+			Arrays.fill(keys, null);
+			Arrays.fill(names, null);
+			size = 0;
+		}
+	}
+}
@@ -30,6 +30,9 @@ public class PAFRecord {
 	public int qual, score;
 	Cigar cigar=null;
 	
+	//empty record to be filled by PAFReader
+	PAFRecord(){}
+	
 	public PAFRecord(String qname, int qlen, int qstart, int qend, 
 					boolean strand, 
 					String tname, int tlen, int tstart, int tend, 
@@ -0,0 +1,455 @@
+package japsa.seq;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * DNA sequence packed 2 bits per base, 32 bases per long (base i at bits 2*(i%32) of word i/32).
+ * A, C, G and T (0-3 in all the DNA alphabets) are packed; the other symbols (N and the
+ * ambiguity codes) are kept in a side table of (position, symbol), sorted by position,
+ * and their bits are 0. Reverse complement, subsequence and comparison work on whole words.
+ *
+ * Takes a quarter of the memory of a Sequence, meant for the long lived sequences (contigs).
+ */
+public class PackedSequence extends AbstractSequence implements Cloneable {
+	private final long[] words;
+	private final int length;
+	private int[] excPos; //positions of the other symbols, sorted
+	private byte[] excBase;
+
+	private static final int[] NO_POS=new int[0];
+	private static final byte[] NO_BASE=new byte[0];
+
+	private PackedSequence(Alphabet.DNA alphabet, long[] words, int length, int[] excPos, byte[] excBase, String name){
+		super(alphabet, name);
+		this.words=words;
+		this.length=length;
+		this.excPos=excPos;
+		this.excBase=excBase;
+	}
+
+	/**
+	 * Pack the first length symbols of a byte array
+	 * @param alphabet a DNA alphabet
+	 * @param byteArray
+	 * @param length
+	 * @param name
+	 */
+	public PackedSequence(Alphabet.DNA alphabet, byte[] byteArray, int length, String name){
+		super(alphabet, name);
+		this.length=length;
+		words=new long[(length+31)>>>5];
+		int nExc=0;
+		for(int i=0;i<length;i++)
+			if((byteArray[i]&~3)!=0)
+				nExc++;
+		excPos=nExc==0?NO_POS:new int[nExc];
+		excBase=nExc==0?NO_BASE:new byte[nExc];
+		nExc=0;
+		for(int w=0;w<words.length;w++){
+			long word=0;
+			for(int i=w<<5, end=Math.min(length, i+32), shift=0;i<end;i++, shift+=2){
+				byte b=byteArray[i];
+				if((b&~3)!=0){
+					excPos[nExc]=i;
+					excBase[nExc++]=b;
+				}else
+					word|=(long)b<<shift;
+			}
+			words[w]=word;
+		}
+	}
+	public PackedSequence(Alphabet.DNA alphabet, byte[] byteArray, String name){
+		this(alphabet, byteArray, byteArray.length, name);
+	}
+	/**
+	 * Pack any DNA sequence
+	 * @param seq
+	 */
+	public PackedSequence(AbstractSequence seq){
+		this((Alphabet.DNA) seq.alphabet(), seq instanceof Sequence?((Sequence) seq).toBytes():bytesOf(seq), seq.length(), seq.getName());
+		setDesc(seq.getDesc());
+	}
+	private static byte[] bytesOf(AbstractSequence seq){
+		byte[] retval=new byte[seq.length()];
+		for(int i=0;i<retval.length;i++)
+			retval[i]=seq.getBase(i);
+		return retval;
+	}
+
+	@Override
+	public int length(){
+		return length;
+	}
+
+	@Override
+	public byte getBase(int loc){
+		if(loc<0 || loc>=length)
+			throw new IndexOutOfBoundsException(loc + " out of " + length);
+		if(excPos.length>0){
+			int i=Arrays.binarySearch(excPos, loc);
+			if(i>=0)
+				return excBase[i];
+		}
+		return (byte) ((words[loc>>>5]>>>((loc&31)<<1))&3);
+	}
+	@Override
+	public int symbolAt(int loc){
+		return getBase(loc);
+	}
+
+	@Override
+	public byte setBase(int loc, byte base){
+		if(loc<0 || loc>=length)
+			throw new IndexOutOfBoundsException(loc + " out of " + length);
+		int shift=(loc&31)<<1;
+		words[loc>>>5]&=~(3L<<shift);
+		int i=Arrays.binarySearch(excPos, loc);
+		if((base&~3)==0){
+			words[loc>>>5]|=(long)base<<shift;
+			if(i>=0){
+				//not an exception anymore
+				int[] pos=new int[excPos.length-1];
+				byte[] bases=new byte[pos.length];
+				System.arraycopy(excPos, 0, pos, 0, i);
+				System.arraycopy(excPos, i+1, pos, i, pos.length-i);
+				System.arraycopy(excBase, 0, bases, 0, i);
+				System.arraycopy(excBase, i+1, bases, i, bases.length-i);
+				excPos=pos;
+				excBase=bases;
+			}
+		}else if(i>=0)
+			excBase[i]=base;
+		else{
+			i=-i-1;
+			int[] pos=new int[excPos.length+1];
+			byte[] bases=new byte[pos.length];
+			System.arraycopy(excPos, 0, pos, 0, i);
+			System.arraycopy(excPos, i, pos, i+1, excPos.length-i);
+			System.arraycopy(excBase, 0, bases, 0, i);
+			System.arraycopy(excBase, i, bases, i+1, excBase.length-i);
+			pos[i]=loc;
+			bases[i]=base;
+			excPos=pos;
+			excBase=bases;
+		}
+		return base;
+	}
+	@Override
+	public void setSymbol(int loc, int symbol){
+		setBase(loc, (byte) symbol);
+	}
+
+	/**
+	 * Number of bases that are not A, C, G or T
+	 */
+	public int getExceptionCount(){
+		return excPos.length;
+	}
+
+	/**
+	 * Number of bytes written by write()
+	 */
+	public int getSerializedSize(){
+		return 8+8*words.length+5*excPos.length;
+	}
+	/**
+	 * Write the packed form (length, number of exceptions, words, exception positions and symbols)
+	 * at the position of a buffer, read back by read()
+	 */
+	public void write(ByteBuffer buf){
+		buf.putInt(length).putInt(excPos.length);
+		for(long word:words)
+			buf.putLong(word);
+		for(int pos:excPos)
+			buf.putInt(pos);
+		buf.put(excBase);
+	}
+	/**
+	 * Sequence written by write() at the position of a buffer
+	 */
+	public static PackedSequence read(Alphabet.DNA alphabet, ByteBuffer buf, String name){
+		int length=buf.getInt(), nExc=buf.getInt();
+		long[] words=new long[(length+31)>>>5];
+		buf.asLongBuffer().get(words);
+		buf.position(buf.position()+8*words.length);
+		int[] excPos=nExc==0?NO_POS:new int[nExc];
+		byte[] excBase=nExc==0?NO_BASE:new byte[nExc];
+		for(int i=0;i<nExc;i++)
+			excPos[i]=buf.getInt();
+		buf.get(excBase);
+		return new PackedSequence(alphabet, words, length, excPos, excBase, name);
+	}
+	/**
+	 * Read-only view of the sequence written by write() at an absolute position of a buffer (e.g. a mapped file):
+	 * only the length and the exceptions are decoded, the bases are read from the buffer on demand.
+	 * The buffer must not change while the view is in use.
+	 */
+	public static MappedView view(Alphabet.DNA alphabet, ByteBuffer buf, int pos, String name){
+		int length=buf.getInt(pos), nExc=buf.getInt(pos+4);
+		int words=pos+8, exc=words+8*((length+31)>>>5);
+		int[] excPos=nExc==0?NO_POS:new int[nExc];
+		byte[] excBase=nExc==0?NO_BASE:new byte[nExc];
+		for(int i=0;i<nExc;i++){
+			excPos[i]=buf.getInt(exc+4*i);
+			excBase[i]=buf.get(exc+4*nExc+i);
+		}
+		return new MappedView(alphabet, buf, pos, length, excPos, excBase, name);
+	}
+
+	public static class MappedView extends AbstractSequence{
+		private final ByteBuffer buf;
+		private final int pos, length; //of the record
+		private final int[] excPos;
+		private final byte[] excBase;
+		private MappedView(Alphabet.DNA alphabet, ByteBuffer buf, int pos, int length, int[] excPos, byte[] excBase, String name){
+			super(alphabet, name);
+			this.buf=buf;
+			this.pos=pos;
+			this.length=length;
+			this.excPos=excPos;
+			this.excBase=excBase;
+		}
+		@Override
+		public int length(){
+			return length;
+		}
+		@Override
+		public byte getBase(int loc){
+			if(loc<0 || loc>=length)
+				throw new IndexOutOfBoundsException(loc + " out of " + length);
+			if(excPos.length>0){
+				int i=Arrays.binarySearch(excPos, loc);
+				if(i>=0)
+					return excBase[i];
+			}
+			return (byte) ((buf.getLong(pos+8+8*(loc>>>5))>>>((loc&31)<<1))&3);
+		}
+		@Override
+		public int symbolAt(int loc){
+			return getBase(loc);
+		}
+		@Override
+		public void setSymbol(int loc, int symbol){
+			throw new UnsupportedOperationException("Read-only view");
+		}
+		@Override
+		public byte setBase(int loc, byte base){
+			throw new UnsupportedOperationException("Read-only view");
+		}
+		/**
+		 * Size of the record, the next one (if any) starts there
+		 */
+		public int getSerializedSize(){
+			return 8+8*((length+31)>>>5)+5*excPos.length;
+		}
+		/**
+		 * Copy on the heap, as written
+		 */
+		public PackedSequence toPackedSequence(){
+			ByteBuffer record=buf.duplicate();
+			record.position(pos);
+			PackedSequence retval=read((Alphabet.DNA) alphabet(), record, getName());
+			retval.setDesc(getDesc());
+			return retval;
+		}
+		//only the words of the range are read
+		@Override
+		public PackedSequence subSequence(int start, int end){
+			if(start<0 || end>length || start>end)
+				throw new IndexOutOfBoundsException("[" + start + "," + end + ") out of " + length);
+			byte[] bases=new byte[end-start];
+			for(int i=start;i<end;i++)
+				bases[i-start]=getBase(i);
+			return new PackedSequence((Alphabet.DNA) alphabet(), bases, getName());
+		}
+		@Override
+		public Sequence toSequence(){
+			return toPackedSequence().toSequence();
+		}
+		@Override
+		public String toString(){
+			return toPackedSequence().toString();
+		}
+	}
+
+	/**
+	 * Bases from start (inclusive) to end (exclusive), shifted a word at a time
+	 */
+	@Override
+	public PackedSequence subSequence(int start, int end){
+		if(start<0 || end>length || start>end)
+			throw new IndexOutOfBoundsException("[" + start + "," + end + ") out of " + length);
+		int len=end-start;
+		long[] sub=new long[(len+31)>>>5];
+		int first=start>>>5, shift=(start&31)<<1;
+		for(int w=0;w<sub.length;w++){
+			long word=words[first+w]>>>shift;
+			if(shift!=0 && first+w+1<words.length)
+				word|=words[first+w+1]<<(64-shift);
+			sub[w]=word;
+		}
+		mask(sub, len);
+		int lo=lowerBound(excPos, start), hi=lowerBound(excPos, end);
+		int[] pos=hi==lo?NO_POS:new int[hi-lo];
+		for(int i=0;i<pos.length;i++)
+			pos[i]=excPos[lo+i]-start;
+		byte[] bases=hi==lo?NO_BASE:Arrays.copyOfRange(excBase, lo, hi);
+		return new PackedSequence((Alphabet.DNA) alphabet(), sub, len, pos, bases, getName());
+	}
+
+	/**
+	 * Reverse complement: reverse the 2-bit groups of each word, swap the words,
+	 * shift the padding out then complement (x^3 for 0-3) by negating the bits.
+	 */
+	public PackedSequence reverseComplement(){
+		int n=words.length;
+		long[] rev=new long[n];
+		if(n>0){
+			int pad=(n<<5)-length, shift=pad<<1;
+			for(int w=0;w<n;w++)
+				rev[w]=reverseGroups(words[n-1-w]);
+			if(shift!=0){
+				for(int w=0;w<n;w++){
+					long word=rev[w]>>>shift;
+					if(w+1<n)
+						word|=rev[w+1]<<(64-shift);
+					rev[w]=word;
+				}
+			}
+			for(int w=0;w<n;w++)
+				rev[w]=~rev[w];
+			mask(rev, length);
+		}
+		Alphabet.DNA dna=(Alphabet.DNA) alphabet();
+		int[] pos=excPos.length==0?NO_POS:new int[excPos.length];
+		byte[] bases=excPos.length==0?NO_BASE:new byte[excPos.length];
+		for(int i=0, j=excPos.length-1;j>=0;i++, j--){
+			pos[i]=length-1-excPos[j];
+			bases[i]=(byte) dna.complement(excBase[j]);
+			rev[pos[i]>>>5]&=~(3L<<((pos[i]&31)<<1)); //exceptions have 0 bits
+		}
+		return new PackedSequence(dna, rev, length, pos, bases, getName()+"_rev");
+	}
+	private static long reverseGroups(long x){
+		x=((x>>>2)&0x3333333333333333L) | ((x&0x3333333333333333L)<<2);
+		x=((x>>>4)&0x0F0F0F0F0F0F0F0FL) | ((x&0x0F0F0F0F0F0F0F0FL)<<4);
+		return Long.reverseBytes(x);
+	}
+	//clear the bits after the last base
+	private static void mask(long[] words, int length){
+		int rem=length&31;
+		if(rem!=0)
+			words[words.length-1]&=(1L<<(rem<<1))-1;
+	}
+	private static int lowerBound(int[] a, int key){
+		int i=Arrays.binarySearch(a, key);
+		return i>=0?i:-i-1;
+	}
+
+	/**
+	 * Position of the first base differing from another packed sequence, comparing a word at a time.
+	 * @return -1 if identical, the length of the shorter one if it is a prefix of the other
+	 */
+	public int mismatch(PackedSequence o){
+		int len=Math.min(length, o.length), retval=len;
+		for(int w=0, n=(len+31)>>>5;w<n;w++){
+			long x=words[w]^o.words[w];
+			if(w==n-1 && (len&31)!=0)
+				x&=(1L<<((len&31)<<1))-1;
+			if(x!=0){
+				retval=(w<<5)+(Long.numberOfTrailingZeros(x)>>>1);
+				break;
+			}
+		}
+		//the exceptions (0 bits) before it
+		int i=0, j=0;
+		while(true){
+			int p=i<excPos.length?excPos[i]:Integer.MAX_VALUE,
+				q=j<o.excPos.length?o.excPos[j]:Integer.MAX_VALUE;
+			int pos=Math.min(p, q);
+			if(pos>=retval)
+				break;
+			if(p!=q || excBase[i]!=o.excBase[j]){
+				retval=pos;
+				break;
+			}
+			i++;
+			j++;
+		}
+		return retval==len && length==o.length?-1:retval;
+	}
+
+	@Override
+	public int compareTo(AbstractSequence o){
+		int m;
+		if(o instanceof PackedSequence)
+			m=mismatch((PackedSequence) o);
+		else{
+			m=-1;
+			for(int i=0, len=Math.min(length, o.length());i<len;i++)
+				if(getBase(i)!=o.getBase(i)){
+					m=i;
+					break;
+				}
+			if(m<0 && length!=o.length())
+				m=Math.min(length, o.length());
+		}
+		if(m<0)
+			return 0;
+		if(m>=length || m>=o.length())
+			return Integer.compare(length, o.length());
+		return Integer.compare(getBase(m), o.getBase(m));
+	}
+	@Override
+	public boolean equals(Object o){
+		if(this==o)
+			return true;
+		if(!(o instanceof PackedSequence))
+			return false;
+		PackedSequence p=(PackedSequence) o;
+		return alphabet()==p.alphabet() && length==p.length && mismatch(p)<0;
+	}
+	@Override
+	public int hashCode(){
+		return 31*(31*Arrays.hashCode(words)+Arrays.hashCode(excPos))+length;
+	}
+
+	/**
+	 * Unpacked copy
+	 */
+	public byte[] toBytes(){
+		byte[] retval=new byte[length];
+		for(int w=0;w<words.length;w++){
+			long word=words[w];
+			for(int i=w<<5, end=Math.min(length, i+32);i<end;i++, word>>>=2)
+				retval[i]=(byte) (word&3);
+		}
+		for(int i=0;i<excPos.length;i++)
+			retval[excPos[i]]=excBase[i];
+		return retval;
+	}
+	@Override
+	public Sequence toSequence(){
+		Sequence retval=new Sequence(alphabet(), toBytes(), getName());
+		retval.setDesc(getDesc());
+		return retval;
+	}
+
+	@Override
+	public PackedSequence clone(){
+		PackedSequence retval=new PackedSequence((Alphabet.DNA) alphabet(), words.clone(), length, excPos.clone(), excBase.clone(), getName());
+		retval.setDesc(getDesc());
+		return retval;
+	}
+
+	@Override
+	public String toString(){
+		char[] chars=new char[length];
+		Alphabet alphabet=alphabet();
+		byte[] bytes=toBytes();
+		for(int i=0;i<length;i++)
+			chars[i]=alphabet.int2char(bytes[i]);
+		return new String(chars);
+	}
+}
@@ -222,6 +222,14 @@ public class Sequence extends AbstractSequence implements Cloneable {
 	public byte[] toBytes() {
 		return byteSeq;
 	}
+	
+	/**
+	 * Already a Sequence, no copy
+	 */
+	@Override
+	public Sequence toSequence() {
+		return this;
+	}
 
 	/**
 	 * @param loc
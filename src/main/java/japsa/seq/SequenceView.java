@@ -0,0 +1,94 @@
+package japsa.seq;
+
+/**
+ * A read-only window (offset, length and strand) on a DNA sequence, sharing its storage: no base is
+ * copied until the view is written out or materialized with toSequence(). On the reverse strand,
+ * base i of the view is the complement of base offset+length-1-i of the source.
+ *
+ * Views of views are flattened, so there is at most one level of indirection.
+ * The source should not change while the view is in use.
+ */
+public class SequenceView extends AbstractSequence {
+	private final AbstractSequence source;
+	private final int offset, length;
+	private final boolean forward;
+
+	private SequenceView(AbstractSequence source, int offset, int length, boolean forward, String name){
+		super(source.alphabet(), name);
+		if(offset<0 || length<0 || offset+length>source.length())
+			throw new IndexOutOfBoundsException("View [" + offset + "," + (offset+length) + ") of a sequence of length " + source.length());
+		this.source=source;
+		this.offset=offset;
+		this.length=length;
+		this.forward=forward;
+	}
+
+	/**
+	 * View of seq from start (inclusive) to end (exclusive)
+	 */
+	public static SequenceView of(AbstractSequence seq, int start, int end){
+		if(seq instanceof SequenceView)
+			return ((SequenceView) seq).subSequence(start, end);
+		return new SequenceView(seq, start, end-start, true, seq.getName());
+	}
+	public static SequenceView of(AbstractSequence seq){
+		return of(seq, 0, seq.length());
+	}
+	/**
+	 * Reverse complement view of seq from start (inclusive) to end (exclusive), seq must be DNA
+	 */
+	public static SequenceView reverseComplement(AbstractSequence seq, int start, int end){
+		return of(seq, start, end).reverseComplement();
+	}
+	public static SequenceView reverseComplement(AbstractSequence seq){
+		return reverseComplement(seq, 0, seq.length());
+	}
+
+	public SequenceView reverseComplement(){
+		if(!(alphabet() instanceof Alphabet.DNA))
+			throw new RuntimeException(alphabet() + " is not DNA");
+		return new SequenceView(source, offset, length, !forward, getName()+"_rev");
+	}
+
+	public AbstractSequence getSource(){
+		return source;
+	}
+	public int getOffset(){
+		return offset;
+	}
+	public boolean isForward(){
+		return forward;
+	}
+
+	@Override
+	public int length(){
+		return length;
+	}
+	@Override
+	public byte getBase(int loc){
+		if(forward)
+			return source.getBase(offset+loc);
+		return (byte) ((Alphabet.DNA) alphabet()).complement(source.getBase(offset+length-1-loc));
+	}
+	@Override
+	public int symbolAt(int loc){
+		return getBase(loc);
+	}
+	@Override
+	public void setSymbol(int loc, int symbol){
+		throw new UnsupportedOperationException("Read-only view");
+	}
+	@Override
+	public byte setBase(int loc, byte base){
+		throw new UnsupportedOperationException("Read-only view");
+	}
+	/**
+	 * Sub-view from start (inclusive) to end (exclusive) of this view, sharing the same source
+	 */
+	@Override
+	public SequenceView subSequence(int start, int end){
+		if(start<0 || end<start || end>length)
+			throw new IndexOutOfBoundsException("Subsequence [" + start + "," + end + ") of a view of length " + length);
+		return new SequenceView(source, forward?offset+start:offset+length-end, end-start, forward, getName());
+	}
+}
@@ -1,10 +1,9 @@
 package org.rtassembly;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.lang.ProcessBuilder.Redirect;
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -16,14 +15,23 @@ import org.rtassembly.npgraph.grpc.AssemblyGuideGrpc;
 import org.rtassembly.npgraph.grpc.AssemblyGuideGrpc.AssemblyGuideBlockingStub;
 import org.rtassembly.npgraph.grpc.RequestAssembly;
 import org.rtassembly.npgraph.grpc.RequestAssembly.Builder;
+import org.rtassembly.npgraph.grpc.RequestBatch;
 import org.rtassembly.npgraph.grpc.ResponseAssembly;
 import org.rtassembly.npgraph.grpc.AlignmentMsg;
 
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import japsa.seq.PAFReader;
 import japsa.seq.PAFRecord;
 import japsa.util.CommandLine;
 
@@ -32,39 +40,32 @@ public class NPGraphClientCmd extends CommandLine{
     private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
     private static ManagedChannel channel; 
     private static AssemblyGuideBlockingStub stub;
+    private static BatchSender sender; //null for one call per read
     
 	public NPGraphClientCmd(){
 		super();
 		addString("target","localhost:2105","The server to connect to.");
+		addBoolean("stream", true, "Send the chunks in batches on a bidirectional stream instead of one call per read.");
+		addInt("batch", 200, "Interval (ms) between two batches on the stream.");
+		addInt("backlog", 10000, "Maximum number of chunks kept for the stream while it is not ready, the oldest are dropped beyond.");
 		//Input settings
 		addString("si", "", "Name of the short read FASTA pre-assembly (assembly_graph.fasta) generated by the server");
 		addString("li", "", "Name of the long-read data input file (fasta/fastq), - for stdin.");
 		addStdHelp();
 	}
 	
-	private static void testServer(ArrayList<PAFRecord> hits, String readID) {
+	private static void testServer(ArrayList<AlignmentMsg> hits, String readID) {
 		if(hits.isEmpty())
 			return;
 		
 		Builder requestBuilder = RequestAssembly.newBuilder();
 		requestBuilder.setReadId(readID);
-		for(PAFRecord rec:hits){
-			AlignmentMsg msg = AlignmentMsg.newBuilder()
-											.setQueryName(rec.qname)
-											.setQueryLength(rec.qlen)
-											.setQueryStart(rec.qstart)
-											.setQueryEnd(rec.qend)
-											.setStrand(rec.strand)
-											.setTargetName(rec.tname)
-											.setTargetLength(rec.tlen)
-											.setTargetStart(rec.tstart)
-											.setTargetEnd(rec.tend)
-											.setQuality(rec.qual)
-											.setScore(rec.score)
-											.build();
-			requestBuilder.addHitsList(msg);
-		}
+		requestBuilder.addAllHitsList(hits);
 		RequestAssembly request = requestBuilder.build();
+		if(sender!=null) {
+			sender.add(request);
+			return;
+		}
 		try {
 			long before=System.currentTimeMillis();
 			ResponseAssembly response = stub.getAssemblyContribution(request);
@@ -76,6 +77,75 @@ public class NPGraphClientCmd extends CommandLine{
 		return;
 		
 	}
+
+	/*
+	 * Sends the chunks collected since the last batch every interval, unless the stream isn't ready
+	 * (the server or the network is behind): they are kept for the next batch then, up to maxPending.
+	 * Beyond, the oldest are dropped: a decision on them would come too late to matter anyway.
+	 */
+	static class BatchSender implements ClientResponseObserver<RequestBatch, ResponseAssembly>{
+		private ClientCallStreamObserver<RequestBatch> requestStream;
+		private ArrayDeque<RequestAssembly> pending=new ArrayDeque<>();
+		private final int maxPending;
+		private long batchId=0, dropped=0;
+		private final CountDownLatch finished=new CountDownLatch(1);
+		private final ScheduledExecutorService timer=Executors.newSingleThreadScheduledExecutor(r->{
+			Thread t=new Thread(r, "npgraph-client-batch");
+			t.setDaemon(true);
+			return t;
+		});
+
+		BatchSender(AssemblyGuideGrpc.AssemblyGuideStub asyncStub, long interval, int maxPending){
+			this.maxPending=Math.max(1, maxPending);
+			asyncStub.streamAssemblyContribution(this);
+			timer.scheduleAtFixedRate(()->flush(false), interval, interval, TimeUnit.MILLISECONDS);
+		}
+		@Override
+		public void beforeStart(ClientCallStreamObserver<RequestBatch> requestStream){
+			this.requestStream=requestStream;
+		}
+		synchronized void add(RequestAssembly request){
+			if(pending.size()>=maxPending){
+				pending.poll();
+				if(dropped++%1000==0)
+					logger.warn("Stream not ready, {} old chunks dropped so far", dropped);
+			}
+			pending.add(request);
+		}
+		synchronized void flush(boolean force){
+			if(pending.isEmpty() || (!force && !requestStream.isReady()))
+				return;
+			requestStream.onNext(RequestBatch.newBuilder()
+									.addAllRequests(pending)
+									.setBatchId(batchId++)
+									.setSentTime(System.currentTimeMillis())
+									.build());
+			pending=new ArrayDeque<>();
+		}
+		@Override
+		public void onNext(ResponseAssembly response){
+			logger.info("Get response from server in {} ms (batch {}, {} us on server): read {} is {}",
+					System.currentTimeMillis()-response.getSentTime(), response.getBatchId(), response.getServerLatencyUs(),
+					response.getReadId(), (response.getUsefulness()?"useful":"not useful"));
+		}
+		@Override
+		public void onError(Throwable t){
+			logger.warn("Stream failed: {}", Status.fromThrowable(t));
+			finished.countDown();
+		}
+		@Override
+		public void onCompleted(){
+			finished.countDown();
+		}
+		//send the last chunks and wait for their responses
+		void finish() throws InterruptedException{
+			timer.shutdownNow();
+			flush(true);
+			requestStream.onCompleted();
+			finished.await();
+		}
+	}
+
 	public static void main(String[] args) throws IOException, InterruptedException{
 		CommandLine cmdLine = new NPGraphClientCmd();		
 		args = cmdLine.stdParseLine(args);
@@ -120,19 +190,21 @@ public class NPGraphClientCmd extends CommandLine{
 		Process alignmentProcess  = pb.redirectError(ProcessBuilder.Redirect.to(new File(workDir+File.separator+"alignment.log"))).start();
 
 		logger.info("minimap2 started!");			
-		InputStreamReader inputStream = new InputStreamReader(alignmentProcess.getInputStream());
-		try(BufferedReader reader=new BufferedReader(inputStream)){
+		try(PAFReader reader=new PAFReader(alignmentProcess.getInputStream())){
 			String readID = "";
-			ArrayList<PAFRecord> hits =  new ArrayList<PAFRecord>();// alignment record of the same read;	
+			ArrayList<AlignmentMsg> hits =  new ArrayList<AlignmentMsg>();// alignment record of the same read;	
 			PAFRecord curRecord=null;
-			String line;
 			
 		    channel = ManagedChannelBuilder.forTarget(target).usePlaintext().build();
 		    stub = AssemblyGuideGrpc.newBlockingStub(channel);
+		    if(cmdLine.getBooleanVal("stream"))
+		    	sender = new BatchSender(AssemblyGuideGrpc.newStub(channel), cmdLine.getIntVal("batch"), cmdLine.getIntVal("backlog"));
 		    
-			while ((line=reader.readLine()) != null) {
+			while (true) {
 				try {
-					curRecord = new PAFRecord(line);
+					curRecord = reader.next();
+					if(curRecord==null)
+						break;
 					logger.info("{} {} {} {} {} {} {} {} {}", 
 								curRecord.qname,
 								curRecord.qlen,
@@ -156,11 +228,24 @@ public class NPGraphClientCmd extends CommandLine{
 						//generate request and get response
 						////////////////////////////////////
 						testServer(hits, readID);
-						hits = new ArrayList<PAFRecord>();
+						hits = new ArrayList<AlignmentMsg>();
 
 					}	
 					readID = curRecord.qname;
-					hits.add(curRecord); 
+					//the record is reused by the reader so convert it to a message right away
+					hits.add(AlignmentMsg.newBuilder()
+									.setQueryName(curRecord.qname)
+									.setQueryLength(curRecord.qlen)
+									.setQueryStart(curRecord.qstart)
+									.setQueryEnd(curRecord.qend)
+									.setStrand(curRecord.strand)
+									.setTargetName(curRecord.tname)
+									.setTargetLength(curRecord.tlen)
+									.setTargetStart(curRecord.tstart)
+									.setTargetEnd(curRecord.tend)
+									.setQuality(curRecord.qual)
+									.setScore(curRecord.score)
+									.build()); 
 					 
 				}catch(Exception e) {
 					logger.error("Error record! \n {}", e);
@@ -168,6 +253,10 @@ public class NPGraphClientCmd extends CommandLine{
 				}
 	
 			}// while
+			if(!hits.isEmpty())
+				testServer(hits, readID);
+			if(sender!=null)
+				sender.finish();
 
 		}catch(Exception e) {
 			logger.error("Error reading alignment results: \n {}", e);
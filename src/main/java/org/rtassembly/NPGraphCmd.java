@@ -6,10 +6,13 @@ import java.lang.invoke.MethodHandles;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 import org.rtassembly.gui.NPGraphFX;
+import org.rtassembly.npgraph.AbstractAlignmentSource;
 import org.rtassembly.npgraph.Alignment;
 import org.rtassembly.npgraph.BDGraph;
+import org.rtassembly.npgraph.GraphCache;
 import org.rtassembly.npgraph.RealtimeGraphWatcher;
 import org.rtassembly.npgraph.HybridAssembler;
+import org.rtassembly.npgraph.ReadPipeline;
 import org.rtassembly.npgraph.SimpleBinner;
 
 import japsa.util.CommandLine;
@@ -26,11 +29,12 @@ public class NPGraphCmd extends CommandLine{
 		addString("li", "", "Name of the long-read data input file, - for stdin.");
 		addString("lf", "", "Format of the long-read data input file. This may be FASTQ/FASTA read file or SAM/BAM/PAF alignment file");
 		addString("output", "/tmp/", "Output folder for temporary files and the final assembly npgraph_assembly.fasta");
+		addString("cache", "", "Folder of the prepared graph images reused by the next runs. Default is ~/.cache/npgraph (or the temp folder); none to disable.");
 				
 		addString("sb", "", "Name of the metaBAT file for binning information (experimental).");
-		addString("aligner","","Aligner tool that will be used, either minimap2 (default) or BWA-MEM");
+		addString("aligner","","Aligner tool that will be used, either minimap2 (default), BWA-MEM or internal (in-memory minimizer mapper, no CIGAR)");
 		addString("algOpt", "", "Settings used by aligner to align long reads to the contigs");
-		addString("msa","","MSA tools for consensus. Options include abpoa (recommended), spoa, kalign3 (fast); kalign2, poa (slow).");
+		addString("msa","","MSA tools for consensus. Default is builtin (in-process POA, no external tool). Options include abpoa, spoa, kalign3 (fast); kalign2, poa (slow); none.");
 
 		addBoolean("overwrite", true, "Whether to overwrite or reuse the intermediate file");
 		addBoolean("sp", false, "Whether to use SPAdes contigs.paths for bridging.");
@@ -44,6 +48,10 @@ public class NPGraphCmd extends CommandLine{
 		addInt("unique", 10000, "Lowerbound of a unique contig's length.");
 		addInt("time", 10, "Time interval (seconds) to considered for real-time reporting.");
 		addInt("read", 50, "Read interval to considered for real-time reporting.");
+		addInt("thread", 1, "Number of bridge-finding threads of the read ingestion pipeline, 0 for serial processing.");
+		addBoolean("strict", true, "Bridge a read only after the previous ones were reduced: same result as serial processing but the threads mostly wait on each other. Set to false for parallel bridging.");
+		addInt("batch", 64, "Number of reads per batch handed from the alignment reader to the pipeline.");
+		addInt("prefetch", 4, "Number of read batches the alignment reader reads ahead, 0 to read on demand.");
 		
 		addBoolean("gui", false, "Whether using GUI or not.");
 		addBoolean("keep", false, "Whether to keep extremely-low-coveraged contigs.");
@@ -78,6 +86,11 @@ public class NPGraphCmd extends CommandLine{
 		BDGraph.S_LIMIT=cmdLine.getIntVal("depth");
 		RealtimeGraphWatcher.R_INTERVAL=cmdLine.getIntVal("read");
 		RealtimeGraphWatcher.T_INTERVAL=cmdLine.getIntVal("time");
+		ReadPipeline.WORKERS=cmdLine.getIntVal("thread");
+		ReadPipeline.STRICT_ORDER=cmdLine.getBooleanVal("strict");
+		GraphCache.DIR=cmdLine.getStringVal("cache");
+		AbstractAlignmentSource.BATCH_SIZE=cmdLine.getIntVal("batch");
+		AbstractAlignmentSource.PREFETCH_DEPTH=cmdLine.getIntVal("prefetch");
 		
 		//Default output dir 
 		if(outputDir == null) {
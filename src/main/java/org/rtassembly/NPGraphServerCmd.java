@@ -2,6 +2,8 @@ package org.rtassembly;
 import java.io.File;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -12,6 +14,7 @@ import org.rtassembly.npgraph.RealtimeGraphWatcher;
 import org.rtassembly.npgraph.HybridAssembler;
 import org.rtassembly.npgraph.SimpleBinner;
 import org.rtassembly.npgraph.grpc.AssemblyGuideServer;
+import org.rtassembly.npgraph.grpc.AssemblyTenant;
 
 import japsa.util.CommandLine;
 import javafx.application.Application;
@@ -23,6 +26,9 @@ public class NPGraphServerCmd extends CommandLine{
 		super();
 		//Server setttings
 		addInt("port",2105, "Port number for which the server will listen to.");
+		addString("samples", "", "Tab-separated file of more assemblies to host, one per line: sample ID, assembly file[, format[, bin file]]. Requests are routed by their sample ID.");
+		addInt("threads", 1, "Number of bridge-finding threads for each assembly.");
+		addInt("memory", 0, "Estimated memory budget (MB) of each assembly, 0 for no limit.");
 		
 		//Input settings
 		addString("si", "", "Name of the short-read assembly file.");
@@ -61,7 +67,8 @@ public class NPGraphServerCmd extends CommandLine{
 		String 	shortReadsInput = cmdLine.getStringVal("si"),
 				shortReadsInputFormat = cmdLine.getStringVal("sf"),
 				outputDir = cmdLine.getStringVal("output"),
-				shortReadsBinInput = cmdLine.getStringVal("sb");
+				shortReadsBinInput = cmdLine.getStringVal("sb"),
+				samplesInput = cmdLine.getStringVal("samples");
 		boolean overwrite = cmdLine.getBooleanVal("overwrite"),
 				spaths = cmdLine.getBooleanVal("sp"),
 				gui = cmdLine.getBooleanVal("gui");
@@ -76,6 +83,8 @@ public class NPGraphServerCmd extends CommandLine{
 		RealtimeGraphWatcher.R_INTERVAL=cmdLine.getIntVal("read");
 		RealtimeGraphWatcher.T_INTERVAL=cmdLine.getIntVal("time");
 		AssemblyGuideServer.ELEN = cmdLine.getIntVal("expect");
+		AssemblyTenant.THREADS = cmdLine.getIntVal("threads");
+		AssemblyTenant.MAX_MEMORY = cmdLine.getIntVal("memory");
 		
 		//Default output dir 
 		if(outputDir == null) {
@@ -86,22 +95,7 @@ public class NPGraphServerCmd extends CommandLine{
 			outDir.mkdirs();
 			
 		//1. Create an assembler object with appropriate file loader
-		HybridAssembler hbAss = new HybridAssembler();
-		if(shortReadsInput!=null && !shortReadsInput.isEmpty())
-			hbAss.input.setShortReadsInput(shortReadsInput);
-		if(shortReadsInputFormat!=null && !shortReadsInputFormat.isEmpty())
-			hbAss.input.setShortReadsInputFormat(shortReadsInputFormat);
-		
-		hbAss.input.setLongReadsInput("-");
-		hbAss.input.setLongReadsInputFormat("paf"); //to pass prepareLongReadProcess()
-		
-		hbAss.setPrefix(outputDir);
-		if(shortReadsBinInput!=null && !shortReadsBinInput.isEmpty())
-			hbAss.input.setBinReadsInput(shortReadsBinInput);
-		
-	
-		hbAss.setOverwrite(overwrite);
-		hbAss.input.setUseSPAdesPath(spaths);
+		HybridAssembler hbAss = createAssembler(shortReadsInput, shortReadsInputFormat, shortReadsBinInput, outputDir, overwrite, spaths);
 		        
 		//4. Call the assembly function or invoke GUI to do so
         if(gui) {
@@ -114,6 +108,8 @@ public class NPGraphServerCmd extends CommandLine{
 			try {
 				if(hbAss.prepareShortReadsProcess() &&	hbAss.prepareLongReadsProcess()) {
 					AssemblyGuideServer assServer = new AssemblyGuideServer(port, hbAss);
+					if(samplesInput!=null && !samplesInput.isEmpty())
+						addSamples(assServer, samplesInput, outputDir, overwrite, spaths);
 					assServer.start();
 				}
 				else{
@@ -128,4 +124,50 @@ public class NPGraphServerCmd extends CommandLine{
         }
 		
 	}
+	
+	static HybridAssembler createAssembler(String shortReadsInput, String shortReadsInputFormat, String shortReadsBinInput, String outputDir, boolean overwrite, boolean spaths) {
+		HybridAssembler hbAss = new HybridAssembler();
+		if(shortReadsInput!=null && !shortReadsInput.isEmpty())
+			hbAss.input.setShortReadsInput(shortReadsInput);
+		if(shortReadsInputFormat!=null && !shortReadsInputFormat.isEmpty())
+			hbAss.input.setShortReadsInputFormat(shortReadsInputFormat);
+		
+		hbAss.input.setLongReadsInput("-");
+		hbAss.input.setLongReadsInputFormat("paf"); //to pass prepareLongReadProcess()
+		
+		hbAss.setPrefix(outputDir);
+		if(shortReadsBinInput!=null && !shortReadsBinInput.isEmpty())
+			hbAss.input.setBinReadsInput(shortReadsBinInput);
+		
+		hbAss.setOverwrite(overwrite);
+		hbAss.input.setUseSPAdesPath(spaths);
+		return hbAss;
+	}
+	
+	//Load the other assemblies (tenants) listed in the samples file, each with its own output folder
+	static void addSamples(AssemblyGuideServer assServer, String samplesInput, String outputDir, boolean overwrite, boolean spaths) throws IOException {
+		for(String line:Files.readAllLines(Paths.get(samplesInput))) {
+			line=line.trim();
+			if(line.isEmpty() || line.startsWith("#"))
+				continue;
+			String[] toks=line.split("\t");
+			if(toks.length < 2) {
+				logger.warn("Ignored invalid line in {}: {}", samplesInput, line);
+				continue;
+			}
+			File sampleDir = new File(outputDir, toks[0]);
+			if(!sampleDir.exists())
+				sampleDir.mkdirs();
+			HybridAssembler sampleAss = createAssembler(toks[1], toks.length>2?toks[2]:"", toks.length>3?toks[3]:"", sampleDir.getPath(), overwrite, spaths);
+			//a graph with another k than the loaded ones is refused (see BDGraph.useKmerSize())
+			if(sampleAss.prepareShortReadsProcess() && sampleAss.prepareLongReadsProcess()) {
+				try {
+					assServer.addAssembly(toks[0], sampleAss);
+				}catch(IllegalArgumentException e) {
+					logger.error("Cannot host assembly of sample {}, ignored: {}", toks[0], e.getMessage());
+				}
+			}else
+				logger.error("Cannot load assembly of sample {}, ignored!", toks[0]);
+		}
+	}
 }
@@ -85,8 +85,8 @@ public class NPScarfCmd extends CommandLine{
 		addInt("support", 1, "Minimum supporting long read needed for a link between markers");
 
 		addBoolean("realtime", false, "Process in real-time mode. Default is batch mode (false)");
-		addInt("read", 50,  "Minimum number of reads between analyses");		
-		addInt("time", 10,   "Minimum number of seconds between analyses");
+		addInt("read", 50,  "Number of new reads that triggers an analysis (whichever of -read or -time comes first, at most one analysis per second)");		
+		addInt("time", 10,   "Number of seconds after which an analysis is due even with fewer than -read new reads");
 		addBoolean("verbose", false, "Turn on debugging mode");
 
 		addStdHelp();		
@@ -52,6 +52,7 @@ import org.graphstream.ui.view.Viewer.CloseFramePolicy;
 import org.rtassembly.npgraph.Alignment;
 import org.rtassembly.npgraph.BDGraph;
 import org.rtassembly.npgraph.HybridAssembler;
+import org.rtassembly.npgraph.MinimizerMapper;
 
 import japsa.util.FxDialogs;
 import japsa.util.ImageButton;
@@ -484,7 +485,7 @@ public class NPGraphFX extends Application{
     	
     	        	
     	ComboBox<String> algCombo=new ComboBox<String>();
-    	algCombo.getItems().addAll("minimap2", "bwa");   
+    	algCombo.getItems().addAll("minimap2", "bwa", MinimizerMapper.ALIGNER);   
     	algCombo.valueProperty().bindBidirectional(myass.input.alignerProperty());
         GridPane.setConstraints(algCombo, 2, 0, 2, 1);
         optionPane.getChildren().add(algCombo);         	
@@ -521,7 +522,7 @@ public class NPGraphFX extends Application{
     	
     	
     	ComboBox<String> consCombo=new ComboBox<String>();
-    	consCombo.getItems().addAll("abpoa","spoa","kalign","kalign3","poa","none");   
+    	consCombo.getItems().addAll("builtin","abpoa","spoa","kalign","kalign3","poa","none");   
     	consCombo.valueProperty().bindBidirectional(myass.input.msaProperty());
         GridPane.setConstraints(consCombo, 2, 4, 2, 1);
         optionPane.getChildren().add(consCombo); 
@@ -0,0 +1,172 @@
+package org.rtassembly.npgraph;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import japsa.seq.Sequence;
+
+/*
+ * Grouping of consecutive alignment records of the same read and read-ahead of batches.
+ * Subclasses only need to parse one record at a time in nextRecord().
+ */
+public abstract class AbstractAlignmentSource implements AlignmentSource {
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+	
+	public static int BATCH_SIZE=64; //default number of reads per batch
+	public static int PREFETCH_DEPTH=4; //default number of batches read ahead, 0 to read on the caller thread
+
+	private static final List<ReadAlignments> END=Collections.emptyList();
+	
+	protected final BDGraph graph;
+	private int batchSize=BATCH_SIZE, prefetchDepth=PREFETCH_DEPTH;
+	
+	//Output of nextRecord(): the read (same object for all records of a read) and its alignment,
+	//null alignment if the record was filtered out
+	protected Sequence read=null;
+	protected Alignment alignment=null;
+	
+	//grouping state
+	private Sequence curRead=null;
+	private ArrayList<Alignment> curHits=new ArrayList<>();
+	private boolean exhausted=false;
+	
+	//read-ahead
+	private BlockingQueue<List<ReadAlignments>> prefetched=null;
+	private Thread prefetcher=null;
+	private volatile Exception error=null; //IOException or RuntimeException of the read-ahead thread
+	private volatile boolean closed=false;
+	
+	protected AbstractAlignmentSource(BDGraph graph){
+		this.graph=graph;
+	}
+	
+	/**
+	 * Parse the next record into read and alignment
+	 * @return false at the end of the input
+	 */
+	protected abstract boolean nextRecord() throws IOException;
+	//release the underlying input
+	protected abstract void closeInput() throws IOException;
+	
+	public void setBatchSize(int batchSize){
+		this.batchSize=batchSize>0?batchSize:1;
+	}
+	public int getBatchSize(){
+		return batchSize;
+	}
+	//must be set before the first batch is requested
+	public void setPrefetchDepth(int prefetchDepth){
+		this.prefetchDepth=prefetchDepth>0?prefetchDepth:0;
+	}
+	public int getPrefetchDepth(){
+		return prefetchDepth;
+	}
+	
+	/*
+	 * Alignment of a record on the node its target refers to, null if the node is not (or no longer) in the graph.
+	 * Records are parsed on the read-ahead thread while the graph is being reduced: the node and its attributes
+	 * are read under the graph's read lock.
+	 */
+	protected Alignment align(String targetName, Function<BDNode, Alignment> aligner){
+		graph.lockRead();
+		try{
+			BDNode node=graph.getNodeFromTargetName(targetName);
+			return node==null?null:aligner.apply(node);
+		}finally{
+			graph.unlockRead();
+		}
+	}
+	
+	@Override
+	public List<ReadAlignments> nextBatch() throws IOException, InterruptedException{
+		if(prefetchDepth==0)
+			return readBatch();
+		
+		if(prefetcher==null){
+			prefetched=new ArrayBlockingQueue<>(prefetchDepth);
+			prefetcher=new Thread(this::prefetching, "npgraph-prefetch");
+			prefetcher.setDaemon(true);
+			prefetcher.start();
+		}
+		List<ReadAlignments> batch=prefetched.take();
+		if(batch==END){
+			prefetched.put(END); //keep returning end for later calls
+			if(error instanceof IOException)
+				throw (IOException) error;
+			else if(error!=null)
+				throw (RuntimeException) error;
+		}
+		return batch;
+	}
+	
+	private void prefetching(){
+		try{
+			List<ReadAlignments> batch;
+			do{
+				batch=readBatch();
+				prefetched.put(batch.isEmpty()?END:batch);
+			}while(!batch.isEmpty());
+		}catch(IOException|RuntimeException e){
+			if(!closed){
+				logger.error("Error reading alignments: {}", e);
+				error=e;
+			}
+			putEnd();
+		}catch(InterruptedException e){
+			prefetched.offer(END); //closed
+		}
+	}
+	
+	//the caller may still be taking the batches read before the error: wait for room rather than losing END
+	private void putEnd(){
+		try{
+			prefetched.put(END);
+		}catch(InterruptedException e){
+			prefetched.offer(END);
+		}
+	}
+	
+	//group records to reads until the batch is full
+	private List<ReadAlignments> readBatch() throws IOException{
+		List<ReadAlignments> batch=new ArrayList<>(batchSize);
+		while(!exhausted && !closed && batch.size() < batchSize){
+			if(!nextRecord()){
+				exhausted=true;
+				flush(batch);
+				break;
+			}
+			if(read!=curRead){
+				flush(batch);
+				curRead=read;
+			}
+			if(alignment!=null)
+				curHits.add(alignment);
+		}
+		return batch;
+	}
+	
+	//reads without any usable alignment are not reported
+	private void flush(List<ReadAlignments> batch){
+		if(curRead!=null && !curHits.isEmpty())
+			batch.add(new ReadAlignments(curRead, curHits));
+		curRead=null;
+		curHits=new ArrayList<>();
+	}
+	
+	@Override
+	public void close() throws IOException{
+		closed=true;
+		if(prefetcher!=null)
+			prefetcher.interrupt();
+		closeInput();
+	}
+}
@@ -41,6 +41,7 @@ import java.io.File;
 import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -49,7 +50,7 @@ import org.apache.logging.log4j.LogManager;
 public class AlignedRead{
     private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
 
-	public static int PSEUDO_ID=1;
+	public static final AtomicInteger PSEUDO_ID=new AtomicInteger(1); //IDs of the consensus nodes, taken by concurrent bridging
 	public static String tmpFolder=System.getProperty("usr.dir")+File.separator+"npGraph_tmp"; //folder to save spanning reads of the bridge
 	//The query long read sequence
 	Sequence readSequence;
@@ -0,0 +1,71 @@
+package org.rtassembly.npgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.lang.invoke.MethodHandles;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Alignments produced on the fly by an aligner (minimap2/bwa) subprocess, read from its stdout
+ * as PAF or SAM. The process is destroyed when the source is closed.
+ */
+public class AlignerAlignmentSource implements AlignmentSource {
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+	private final Process process;
+	private final AbstractAlignmentSource output;
+	
+	/**
+	 * @param command aligner command line
+	 * @param paf true if the aligner outputs PAF, false for SAM
+	 * @param stdin true if the reads are given to the aligner through stdin of this process
+	 * @param logFile file to redirect the aligner's stderr to
+	 * @param graph the graph the reads are aligned to
+	 */
+	public AlignerAlignmentSource(List<String> command, boolean paf, boolean stdin, String logFile, BDGraph graph) throws IOException{
+		ProcessBuilder pb=new ProcessBuilder(command);
+		if(stdin)
+			pb.redirectInput(Redirect.INHERIT);
+		process=pb.redirectError(Redirect.to(new File(logFile))).start();
+		logger.info("{} started!", command.get(0));
+		
+		if(paf)
+			output=new PAFAlignmentSource(process.getInputStream(), graph);
+		else
+			output=new SAMAlignmentSource(process.getInputStream(), graph);
+	}
+	
+	public Process getProcess(){
+		return process;
+	}
+	
+	public void setBatchSize(int batchSize){
+		output.setBatchSize(batchSize);
+	}
+	@Override
+	public int getBatchSize(){
+		return output.getBatchSize();
+	}
+	public void setPrefetchDepth(int prefetchDepth){
+		output.setPrefetchDepth(prefetchDepth);
+	}
+	@Override
+	public int getPrefetchDepth(){
+		return output.getPrefetchDepth();
+	}
+	
+	@Override
+	public List<ReadAlignments> nextBatch() throws IOException, InterruptedException{
+		return output.nextBatch();
+	}
+	
+	@Override
+	public void close() throws IOException{
+		process.destroy();
+		output.close();
+	}
+}
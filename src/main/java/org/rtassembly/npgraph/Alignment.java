@@ -38,7 +38,6 @@ import htsjdk.samtools.Cigar;
 import htsjdk.samtools.CigarElement;
 import htsjdk.samtools.SAMRecord;
 import japsa.seq.PAFRecord;
-import japsa.seq.Sequence;
 
 /*
  * Class holding alignment of a read to reference from a SAMRecord
@@ -101,7 +100,7 @@ public class Alignment implements Comparable<Alignment> {
 		}
 
 		int refLeft = refStart - 1,
-			refRight = ((Sequence) node.getAttribute("seq")).length() - refEnd;
+			refRight = node.getSequence().length() - refEnd;
 		
 		int overhangTolerance = (int) Math.min(BDGraph.A_TOL, BDGraph.R_TOL*node.getNumber("len"));
 		if (
@@ -171,7 +170,7 @@ public class Alignment implements Comparable<Alignment> {
 		int readRight = readLength - readEnd;
 
 		int refLeft = refStart - 1;
-		int refRight = ((Sequence) node.getAttribute("seq")).length() - refEnd;
+		int refRight = node.getSequence().length() - refEnd;
 		
 		try{
 			score = sam.getIntegerAttribute("AS");
@@ -235,7 +234,7 @@ public class Alignment implements Comparable<Alignment> {
 		return node.getAttribute("name")  
 				+ ": " + refStart 
 				+ " -> " + refEnd
-				+ " / " + ((Sequence) node.getAttribute("seq")).length()
+				+ " / " + node.getSequence().length()
 				+ " map to "
 				+ readID
 				+ ": " + readStart 
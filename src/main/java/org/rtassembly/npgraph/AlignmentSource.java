@@ -0,0 +1,37 @@
+package org.rtassembly.npgraph;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import japsa.seq.Sequence;
+
+/*
+ * Stream of long-read alignments, already grouped by read.
+ * Implementations exist for PAF (plain, gzip/bgzip or stdin), SAM/BAM and an aligner subprocess.
+ * Reads are handed out in batches of getBatchSize() and up to getPrefetchDepth() batches
+ * are read ahead by a background thread so that I/O overlaps with the assembly.
+ */
+public interface AlignmentSource extends Closeable {
+	/**
+	 * Next reads (in input order) with their alignments to the graph
+	 * @return a batch of at most getBatchSize() reads, empty if there is no more data
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	List<ReadAlignments> nextBatch() throws IOException, InterruptedException;
+	
+	int getBatchSize();
+	int getPrefetchDepth();
+	
+	//A read and its usable alignments (low quality or to removed nodes are already filtered out)
+	class ReadAlignments{
+		public final Sequence read;
+		public final ArrayList<Alignment> hits;
+		public ReadAlignments(Sequence read, ArrayList<Alignment> hits){
+			this.read=read;
+			this.hits=hits;
+		}
+	}
+}
@@ -1,18 +1,24 @@
 package org.rtassembly.npgraph;
 
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.Stack;
 import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -21,31 +27,36 @@ import org.apache.logging.log4j.LogManager;
 import org.graphstream.graph.*;
 import org.graphstream.graph.implementations.*;
 
-import com.google.common.util.concurrent.AtomicDouble;
+import com.google.common.util.concurrent.Striped;
 
+
+import japsa.seq.AbstractSequence;
 import japsa.seq.Alphabet;
-import japsa.seq.JapsaAnnotation;
 import japsa.seq.Sequence;
-import japsa.seq.SequenceOutputStream;
 
 
 public class BDGraph extends MultiGraph{
     private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
 
-    static int KMER=127;
-	static boolean 	IS_CIRCULAR=true, // circular or linear preference for the output genome
-			 		IS_COMPLEX=false; // how big and complicated this graph is
-	static double RCOV=0.0;
+    static final int DEFAULT_KMER=127;
+    //k of the graphs of this JVM (overlap trimming, distances, path search cutoffs), see useKmerSize()
+    private static int KMER=DEFAULT_KMER;
+    private static final Set<BDGraph> kmerGraphs=Collections.newSetFromMap(new WeakHashMap<>()); //loaded with KMER
+    private int kmer=0; //k of this graph once loaded
+	static boolean 	IS_CIRCULAR=true; // circular or linear preference for the output genome
+	boolean isComplex=false; // how big and complicated this graph is
+	double rcov=0.0; // average read coverage of the short-read assembly
 
     SimpleBinner binner;
+    ContigStore contigs; //sequences of the nodes moved out of the heap, see BDNode.getSequence()
 	//not gonna change these parameters in other thread
     public static final double R_TOL=.25;// relative tolerate: can be interpreted as long read error rate (10-25%)
     public static final int A_TOL=300;// absolute tolerate: can be interpreted as long read absolute error bases (100bp)
 
 	public static final double ALPHA=.5; //coverage less than alpha*bin_cov will be considered noise
     public static final int D_LIMIT=5000; //distance bigger than this will be ignored
-    public static int S_LIMIT=300;// maximum number of graph traversing steps
-    public static int T_LIMIT=2188;// maximum time allowed to run DFS (milliseconds)
+    public static int S_LIMIT=300;// maximum number of candidate paths found by the path search
+    public static int EXPANSION_LIMIT=100000;// maximum number of partial paths expanded by the path search
     public static int MAX_LISTING=100; //maximum number of whatever paths
     
     //these should be changed in another thread, e.g. settings from GUI
@@ -56,12 +67,37 @@ public class BDGraph extends MultiGraph{
 	
     //provide mapping from unique directed node to its corresponding bridge
     //E.g: 103-: <103-82-> also 82+:<82+103+>
-    public final static HashMap<String, GoInBetweenBridge> bridgesMap=new HashMap<String, GoInBetweenBridge>();
+    private final BridgeRegistry bridges=new BridgeRegistry();
     ConsensusCaller consensus;
 
     //mapping long but unknown contigs to unique successors and predecessor 
-    //with number of supported reads
-    private static HashMap<String, Set<BDNodeState>> unknownBinMap=new HashMap<>();
+    //with number of supported reads, keyed by BridgeRegistry.key()
+    private final HashMap<Integer, Set<BDNodeState>> unknownBinMap=new HashMap<>();
+    //unknown nodes found unique by the long reads while bridging, i.e. under the read lock where node attributes
+    //can't be written: kept here (see SimpleBinner.getBinIfUnique()) until the next writer sets them as "unique"
+    private final ConcurrentHashMap<Node, PopBin> promotedBins=new ConcurrentHashMap<>();
+    private final AtomicInteger nodeSerials=new AtomicInteger();
+    
+    //int-indexed view of the graph for path finding, kept in sync by the GraphStream callbacks below
+    private CompactGraph core=null;
+    //connected components with their stats, also kept in sync by the callbacks once requested
+    private ConnectivityIndex connectivity=null;
+    
+    /*
+     * Locking: traversals of the graph structure (bridge/path finding, output) hold the read lock, structural changes
+     * (reducing, binning, cleaning) hold the write lock. Bridges are guarded by striped locks of their anchor nodes,
+     * which are always acquired before, never while holding, the graph lock.
+     */
+    public static int BRIDGE_STRIPES=256;
+    private final ReentrantReadWriteLock graphLock=new ReentrantReadWriteLock();
+    private final Striped<Lock> bridgeLocks=Striped.lock(BRIDGE_STRIPES);
+    
+    //alignment target name (e.g. EDGE_12_length_..._cov_...) -> node ID, resolved once per contig name
+    private final ConcurrentHashMap<String, String> targetIDMap=new ConcurrentHashMap<>();
+    private volatile long version=0; //number of write-lock releases, tells whether a copy of the graph is stale
+    private volatile long promotions=0; //number of nodes found unique by long reads, may happen under the read lock only
+    //set when another writer got in during a writeWhileReading() of this thread
+    private final ThreadLocal<Boolean> readInterrupted=ThreadLocal.withInitial(()->false);
     
     // *** Constructors ***
 	/**
@@ -137,6 +173,18 @@ public class BDGraph extends MultiGraph{
     public BDGraph(){
     	this("Assembly graph",true,false, 10000, 10000);
     }
+    
+    /**
+     * Node that an alignment target (contig name in SAM/PAF) refers to
+     * @param targetName reference name of the alignment
+     * @return the node, or null if it's not (or no longer) in the graph
+     */
+    public BDNode getNodeFromTargetName(String targetName){
+    	return (BDNode) getNode(getIDFromTargetName(targetName));
+    }
+    public String getIDFromTargetName(String targetName){
+    	return targetIDMap.computeIfAbsent(targetName, GraphUtil::getIDFromName);
+    }
 	
 	protected BDEdge addEdge(AbstractNode src, AbstractNode dst, boolean dir0, boolean dir1){
 		BDEdge tmp = (BDEdge) addEdge(BDEdge.createID(src, dst, dir0, dir1), src, dst);
@@ -144,6 +192,182 @@ public class BDGraph extends MultiGraph{
 		return tmp;
 	}
 	
+	/**
+	 * Compact representation of this graph, built at the first call then maintained incrementally
+	 * (and compacted when there are too many changes since the last build)
+	 */
+	public synchronized CompactGraph getCore(){
+		if(core==null)
+			core=new CompactGraph(this);
+		return core;
+	}
+	/**
+	 * Connected components of this graph, built at the first call then maintained incrementally
+	 */
+	public synchronized ConnectivityIndex getConnectivity(){
+		if(connectivity==null)
+			connectivity=new ConnectivityIndex(this);
+		return connectivity;
+	}
+	
+	public void lockRead(){
+		graphLock.readLock().lock();
+	}
+	public void unlockRead(){
+		graphLock.readLock().unlock();
+	}
+	public void lockWrite(){
+		graphLock.writeLock().lock();
+	}
+	public void unlockWrite(){
+		//compact the core while nobody is traversing it
+		if(graphLock.getWriteHoldCount()==1 && core!=null && core.needsRebuild())
+			core.build();
+		if(graphLock.getWriteHoldCount()==1){
+			applyPromotedBins();
+			version++;
+		}
+		graphLock.writeLock().unlock();
+	}
+	PopBin getPromotedBin(Node node){
+		return promotedBins.get(node);
+	}
+	//under the write lock: the uniqueness found by readers becomes an attribute of the node
+	private void applyPromotedBins(){
+		if(promotedBins.isEmpty())
+			return;
+		Iterator<Map.Entry<Node, PopBin>> ite=promotedBins.entrySet().iterator();
+		while(ite.hasNext()){
+			Map.Entry<Node, PopBin> e=ite.next();
+			if(getNode(e.getKey().getId())==e.getKey())
+				e.getKey().setAttribute("unique", e.getValue());
+			ite.remove();
+		}
+	}
+	public long getVersion(){
+		return version;
+	}
+	public long getPromotions(){
+		return promotions;
+	}
+	//write lock -> read lock without letting another writer in between
+	public void downgradeToRead(){
+		graphLock.readLock().lock();
+		unlockWrite();
+	}
+	/*
+	 * Structural change from a thread that may be holding the read lock (e.g. a pseudo edge added while bridging):
+	 * the read holds are released for the write lock then taken back. Other writers may get in meanwhile, so the
+	 * change must check what it relies on, and so must the reader after it (see collectPaths()).
+	 */
+	public <T> T writeWhileReading(Supplier<T> change){
+		int holds=graphLock.getReadHoldCount();
+		long before=version;
+		for(int i=0;i<holds;i++)
+			graphLock.readLock().unlock();
+		lockWrite();
+		try{
+			if(version!=before)
+				readInterrupted.set(true);
+			return change.get();
+		}finally{
+			for(int i=0;i<holds;i++)
+				graphLock.readLock().lock();
+			unlockWrite();
+		}
+	}
+	/*
+	 * Lock the stripes of a set of anchor nodes (in a fixed order so no deadlock between bridges)
+	 */
+	public Iterable<Lock> lockAnchors(Collection<Node> anchors){
+		Iterable<Lock> locks=bridgeLocks.bulkGet(anchors.stream().map(Node::getId).collect(Collectors.toList()));
+		for(Lock l:locks)
+			l.lock();
+		return locks;
+	}
+	public Iterable<Lock> lockBridge(GoInBetweenBridge brg){
+		return lockAnchors(getAnchors(brg, new HashSet<>()));
+	}
+	public static void unlockAnchors(Iterable<Lock> locks){
+		for(Lock l:locks)
+			l.unlock();
+	}
+	private static Set<Node> getAnchors(GoInBetweenBridge brg, Set<Node> anchors){
+		if(brg!=null && brg.pBridge!=null){
+			if(brg.pBridge.getNode0()!=null)
+				anchors.add(brg.pBridge.getNode0());
+			if(brg.pBridge.getNode1()!=null)
+				anchors.add(brg.pBridge.getNode1());
+		}
+		return anchors;
+	}
+	//the nodes of the (useful) alignments of a read, any can end a bridge, and the anchors of the bridges registered at them
+	private Set<Node> getAnchors(List<Alignment> alignments){
+		Set<Node> anchors=new HashSet<>();
+		for(Alignment alg:alignments){
+			if(!alg.useful || !anchors.add(alg.node))
+				continue;
+			getAnchors(bridges.get(alg.node, true), anchors);
+			getAnchors(bridges.get(alg.node, false), anchors);
+		}
+		return anchors;
+	}
+	
+	@Override
+	protected void addNodeCallback(AbstractNode node){
+		super.addNodeCallback(node);
+		if(core!=null)
+			core.nodeAdded((BDNode) node);
+		if(connectivity!=null)
+			connectivity.nodeAdded((BDNode) node);
+		markChanged(node);
+	}
+	@Override
+	protected void removeNodeCallback(AbstractNode node){
+		if(core!=null)
+			core.nodeRemoved((BDNode) node);
+		markChanged(node);
+		if(connectivity!=null)
+			connectivity.nodeRemoved((BDNode) node);
+		super.removeNodeCallback(node);
+	}
+	@Override
+	protected void addEdgeCallback(AbstractEdge edge){
+		super.addEdgeCallback(edge);
+		if(core!=null)
+			core.edgeAdded((BDEdge) edge);
+		if(connectivity!=null)
+			connectivity.edgeAdded((BDEdge) edge);
+		markChanged(edge.getNode0());
+		markChanged(edge.getNode1());
+	}
+	@Override
+	protected void removeEdgeCallback(AbstractEdge edge){
+		if(core!=null)
+			core.edgeRemoved((BDEdge) edge);
+		if(connectivity!=null)
+			connectivity.edgeRemoved((BDEdge) edge);
+		markChanged(edge.getNode0());
+		markChanged(edge.getNode1());
+		super.removeEdgeCallback(edge);
+	}
+	@Override
+	protected void clearCallback(){
+		core=null;
+		connectivity=null;
+		contigs=null;
+		bridges.clear();
+		synchronized(unknownBinMap){
+			unknownBinMap.clear();
+		}
+		promotedBins.clear();
+		synchronized(BDGraph.class){
+			kmerGraphs.remove(this);
+		}
+		kmer=0;
+		super.clearCallback();
+	}
+	
 	@Override
 	public Node removeNode(Node node){
 //		System.out.println("Remove node " + node.getAttribute("name"));
@@ -168,8 +392,21 @@ public class BDGraph extends MultiGraph{
     public static int getKmerSize(){
     	return BDGraph.KMER;
     }
-    public static void setKmerSize(int kmer){
-    	BDGraph.KMER=kmer;
+    public int getGraphKmerSize(){
+    	return kmer;
+    }
+    /**
+     * Make the k of a graph being loaded the k of the JVM. The k is process-wide: a graph is refused if its k
+     * differs from the one of the graphs already loaded (and not yet cleared or released).
+     * @throws IOException if another graph with a different k is loaded
+     */
+    static synchronized void useKmerSize(BDGraph graph, int kmer) throws IOException{
+    	kmerGraphs.remove(graph);
+    	if(!kmerGraphs.isEmpty() && kmer!=KMER)
+    		throw new IOException("k=" + kmer + " of this graph differs from k=" + KMER + " of the graph(s) already loaded");
+    	KMER=kmer;
+    	graph.kmer=kmer;
+    	kmerGraphs.add(graph);
     }
         	
     
@@ -179,34 +416,34 @@ public class BDGraph extends MultiGraph{
     /**************************************************************************************************
      ********************** utility functions to serve the assembly algo ****************************** 
      * ***********************************************************************************************/   
-	synchronized public HashSet<GoInBetweenBridge> getUnsolvedBridges(){
-		HashSet<GoInBetweenBridge> retval = new HashSet<GoInBetweenBridge>();
-		for(GoInBetweenBridge brg:bridgesMap.values()){
-			if(brg.getCompletionLevel()<4)
-				retval.add(brg);
-		}
-		
-		return retval;
+	public BridgeRegistry getBridges(){
+		return bridges;
+	}
+	public HashSet<GoInBetweenBridge> getUnsolvedBridges(){
+		return bridges.getUnsolvedBridges();
+	}
+	int nextNodeSerial(){
+		return nodeSerials.getAndIncrement();
 	}
 	
     // when this unique node actually contained by a bridge
-    synchronized public void removeNodeFromBridgesMap(Node unqNode){
-    	bridgesMap.remove(unqNode.getId()+"o");
-    	bridgesMap.remove(unqNode.getId()+"i");
+    public void removeNodeFromBridgesMap(Node unqNode){
+    	bridges.remove((BDNode) unqNode, true);
+    	bridges.remove((BDNode) unqNode, false);
     }
-    // when there is new unique bridge 
-    synchronized protected void updateBridgesMap(GoInBetweenBridge bidirectedBridge) {
+    // when there is new unique bridge (the stripes of its anchors are held)
+    protected void updateBridgesMap(GoInBetweenBridge bidirectedBridge) {
     	if(bidirectedBridge==null || bidirectedBridge.pBridge==null)
     		return;
 
 		if(bidirectedBridge.getNumberOfAnchors()==1)
-    		bridgesMap.put(bidirectedBridge.pBridge.n0.toString(), bidirectedBridge);
+    		bridges.put(bidirectedBridge.pBridge.n0, bidirectedBridge);
     	
 		if(bidirectedBridge.getNumberOfAnchors()==2){
-			String 	end0=bidirectedBridge.pBridge.n0.toString(),
-					end1=bidirectedBridge.pBridge.n1.toString();
-			GoInBetweenBridge 	brg0=bridgesMap.get(end0),		
-								brg1=bridgesMap.get(end1);
+			BDNodeState	end0=bidirectedBridge.pBridge.n0,
+						end1=bidirectedBridge.pBridge.n1;
+			GoInBetweenBridge 	brg0=bridges.get(end0),		
+								brg1=bridges.get(end1);
 			if(brg0!=null&&brg0!=bidirectedBridge) 
 				bidirectedBridge.merge(brg0,true);			
 			
@@ -214,8 +451,8 @@ public class BDGraph extends MultiGraph{
 				bidirectedBridge.merge(brg1,true);
 
 			
-			bridgesMap.put(end0, bidirectedBridge);
-    		bridgesMap.put(end1, bidirectedBridge);
+			bridges.put(end0, bidirectedBridge);
+    		bridges.put(end1, bidirectedBridge);
 
 		}
 
@@ -224,7 +461,7 @@ public class BDGraph extends MultiGraph{
     
     
     //Return bridge in the map (if any) that share the same bases (unique end) 
-    synchronized public GoInBetweenBridge getBridgeFromMap(AlignedRead algRead){
+    public GoInBetweenBridge getBridgeFromMap(AlignedRead algRead){
     	GoInBetweenBridge retval = null, tmp = null;
     	if(algRead!=null){
 	    	Node 	startNode=algRead.getFirstAlignment().node,
@@ -233,13 +470,13 @@ public class BDGraph extends MultiGraph{
 	    			endNodeDir=!algRead.getLastAlignment().strand;
 	    	
 	    	if(SimpleBinner.getBinIfUnique(startNode)!=null){
-	    		tmp=bridgesMap.get(startNode.getId()+(startNodeDir?"o":"i"));
+	    		tmp=bridges.get((BDNode) startNode, startNodeDir);
 	    		if(tmp!=null)
 	    			retval=tmp;
 	    	}
 	    	
 	    	if(SimpleBinner.getBinIfUnique(endNode)!=null){
-	    		tmp=bridgesMap.get(endNode.getId()+(endNodeDir?"o":"i"));
+	    		tmp=bridges.get((BDNode) endNode, endNodeDir);
 	    		if(tmp!=null){
 	    			if(retval==null||retval.getCompletionLevel()<tmp.getCompletionLevel())
 	    				retval=tmp;
@@ -252,9 +489,9 @@ public class BDGraph extends MultiGraph{
     	return retval;
     }
     
-    synchronized public boolean isConflictBridge(BDEdgePrototype brg){
-    	GoInBetweenBridge 	brg0=bridgesMap.get(brg.n0.toString()),
-    						brg1=bridgesMap.get(brg.n1.toString());
+    public boolean isConflictBridge(BDEdgePrototype brg){
+    	GoInBetweenBridge 	brg0=bridges.get(brg.n0),
+    						brg1=bridges.get(brg.n1);
     	return (brg0!=null&&brg0.getCompletionLevel()>=3) || (brg1!=null&&brg1.getCompletionLevel()>=3);
     }
 
@@ -263,12 +500,16 @@ public class BDGraph extends MultiGraph{
      * for unknown long contigs from initial binning step (SimpleBinner or metabat)
      *****************************************************************/
     //check if node is significant but not enough evidence to assign uniqueness
-    public static boolean isSuspectedNode(BDNode node){
-    	return unknownBinMap.containsKey(node.getId()+"o")&&unknownBinMap.containsKey(node.getId()+"i");
+    public boolean isSuspectedNode(BDNode node){
+    	synchronized(unknownBinMap){
+    		return unknownBinMap.containsKey(BridgeRegistry.key(node, true))&&unknownBinMap.containsKey(BridgeRegistry.key(node, false));
+    	}
     }
     public void addUnknownNodes(BDNode node){
-    	unknownBinMap.put(node.getId()+"o", new TreeSet<BDNodeState>());
-    	unknownBinMap.put(node.getId()+"i", new TreeSet<BDNodeState>());
+    	synchronized(unknownBinMap){
+	    	unknownBinMap.put(BridgeRegistry.key(node, true), new TreeSet<BDNodeState>());
+	    	unknownBinMap.put(BridgeRegistry.key(node, false), new TreeSet<BDNodeState>());
+    	}
     }
     
     //add successors&predecessors of unknown nodes based on AlignedRead
@@ -284,12 +525,13 @@ public class BDGraph extends MultiGraph{
     	if(SimpleBinner.getBinIfUnique(a1.node)!=null)
     		ns1=new BDNodeState(a1.node, !a1.strand,1);
     	
+    	synchronized(unknownBinMap){
     	for(Alignment alg:read.getAlignmentRecords()){
     		if(SimpleBinner.getBinIfUnique(alg.node)!=null)
     			continue;
-    		String key;
+    		int key;
     		if(ns0!=null){
-    			key=alg.node.getId()+(alg.strand?"i":"o");
+    			key=BridgeRegistry.key(alg.node, !alg.strand);
     			Set<BDNodeState> values=unknownBinMap.get(key);
     			if(values!=null){
     				Iterator<BDNodeState> iterator=values.iterator();
@@ -308,7 +550,7 @@ public class BDGraph extends MultiGraph{
     		}
     		
     		if(ns1!=null){
-      			key=alg.node.getId()+(alg.strand?"o":"i");
+      			key=BridgeRegistry.key(alg.node, alg.strand);
     			Set<BDNodeState> values=unknownBinMap.get(key);
     			if(values!=null){
     				Iterator<BDNodeState> iterator=values.iterator();
@@ -327,14 +569,25 @@ public class BDGraph extends MultiGraph{
     		}
     		
     	}
-    	
+    	}
     }
     
     //get multiplicity after a while (20X???)...
     //NOPE: can only know if unique or repetitive based on the previous&next unique nodes
-    synchronized public static PopBin getUniqueBinFromLongReads(BDNode node){
-    	String 	ko=node.getId()+"o",
-    			ki=node.getId()+"i";
+    public PopBin getUniqueBinFromLongReads(BDNode node){
+    	synchronized(unknownBinMap){
+    		return getUniqueBinFromLongReadsLocked(node, true);
+    	}
+    }
+    //same answer without promoting the node (nor forgetting its long-read neighbours)
+    public PopBin peekUniqueBinFromLongReads(BDNode node){
+    	synchronized(unknownBinMap){
+    		return getUniqueBinFromLongReadsLocked(node, false);
+    	}
+    }
+    private PopBin getUniqueBinFromLongReadsLocked(BDNode node, boolean promote){
+    	int ko=BridgeRegistry.key(node, true),
+    		ki=BridgeRegistry.key(node, false);
     	Set<BDNodeState> 	successors=unknownBinMap.get(ko),
 							predecessors=unknownBinMap.get(ki);
     	int c=0, co=0, ci=0;
@@ -372,10 +625,15 @@ public class BDGraph extends MultiGraph{
 				return null;
     	} 
     	
+    	if(!promote)
+    		return retval;
     	//reove this from unknowmap
     	unknownBinMap.remove(ko);
     	unknownBinMap.remove(ki);
-    	node.setAttribute("unique", retval);
+    	if(retval!=null){
+    		promotedBins.put(node, retval);
+    		promotions++;
+    	}
     	logger.debug("FOUND NEW UNIQUE CONTIG BY LONG READS: ID={} degree={} out={} in={} readcount={}", node.getId(), node.getDegree(), co, ci, c);
     	return retval;
     }
@@ -420,14 +678,37 @@ public class BDGraph extends MultiGraph{
 //    		
 //    }
     
-    synchronized public void binning(String binFileName) {   		
-    	binner=new SimpleBinner(this, binFileName);
-    	binner.estimatePathsByCoverage();
-    	initGraphComponents();
+    public void binning(String binFileName) {   		
+    	lockWrite();
+    	try{
+	    	binner=new SimpleBinner(this, binFileName);
+	    	binner.estimatePathsByCoverage();
+	    	initGraphComponents();
+    	}finally{
+    		unlockWrite();
+    	}
+    }
+    //binning restored from a GraphCache
+    void setBinner(SimpleBinner binner) {
+    	lockWrite();
+    	try{
+	    	this.binner=binner;
+	    	initGraphComponents();
+    	}finally{
+    		unlockWrite();
+    	}
     }
 
     //Scanning for shorter overlaps (<k) in a DBG graph. Not making difference??! 
-    synchronized public void fixDeadEnds(){
+    public void fixDeadEnds(){
+    	lockWrite();
+    	try{
+    		fixDeadEndsLocked();
+    	}finally{
+    		unlockWrite();
+    	}
+    }
+    private void fixDeadEndsLocked(){
     	List<BDNodeState> weirdNodes = new ArrayList<>();
     	for(Node node:this){
 
@@ -453,16 +734,16 @@ public class BDGraph extends MultiGraph{
 
     	}
     	BDNodeState n0,n1;
-    	Sequence seq0,seq1;
+    	AbstractSequence seq0,seq1;
     	for(int i=0;i<weirdNodes.size();i++){
     		n0 = weirdNodes.get(i);
-    		seq0=(Sequence)(n0.getNode().getAttribute("seq"));
+    		seq0=n0.getNode().getSequence();
     		if(!n0.getDir())
     			seq0=Alphabet.DNA.complement(seq0);
     		
     		for(int j=i+1; j<weirdNodes.size();j++){
     			n1 = weirdNodes.get(j);
-        		seq1=(Sequence)(n1.getNode().getAttribute("seq"));
+        		seq1=n1.getNode().getSequence();
         		if(n1.getDir())
         			seq1=Alphabet.DNA.complement(seq0);
         		
@@ -476,208 +757,151 @@ public class BDGraph extends MultiGraph{
     }
 	
     
-    //Depth First Search strategy
-	synchronized ArrayList<BDPath> DFSAllPaths(BDNode srcNode, BDNode dstNode, boolean srcDir, boolean dstDir, int distance)
+    /*
+     * Best-first search for the paths between 2 anchors (srcNode, srcDir) and (dstNode, dstDir) that fit a gap *distance*.
+     * Partial paths are expanded in the order of their estimated deviation |remaining - shortest distance to dstNode|,
+     * the shortest tree from dstNode gives a lower bound of the final deviation (max(0, shortest - remaining)) so
+     * partial paths that can't get into the current top MAX_LISTING are pruned.
+     * The search stops after EXPANSION_LIMIT expansions or S_LIMIT candidate paths, so the result doesn't depend on
+     * the speed of the host.
+     */
+	ArrayList<BDPath> searchAllPaths(BDNode srcNode, BDNode dstNode, boolean srcDir, boolean dstDir, int distance)
 	{
-    	logger.debug("Looking for DFS path between {} to {} with distance={}", srcNode.getId()+(srcDir?"o":"i"), dstNode.getId() + (dstDir?"o":"i"), distance);
-		ArrayList<BDPath> possiblePaths = new ArrayList<BDPath>(), 
-									retval=new ArrayList<BDPath>();
-
+		lockRead();
+		try{
+			return searchAllPathsLocked(srcNode, dstNode, srcDir, dstDir, distance);
+		}finally{
+			unlockRead();
+		}
+	}
+	private ArrayList<BDPath> searchAllPathsLocked(BDNode srcNode, BDNode dstNode, boolean srcDir, boolean dstDir, int distance)
+	{
+    	logger.debug("Looking for paths between {} to {} with distance={}", srcNode.getId()+(srcDir?"o":"i"), dstNode.getId() + (dstDir?"o":"i"), distance);
 		//1. First build shortest tree from dstNode 		
-		HashMap<String,Integer> shortestMap = getShortestTreeFromNode(dstNode, dstDir, distance);
-		// The good thing is that we need only 1 temporary path variable
-		BDPath path = new BDPath(srcNode);
-
-		//2. DFS from srcNode with the distance info above
-		BDNodeState curNodeState = new BDNodeState(srcNode, !srcDir); // first node is special
-		if(shortestMap.containsKey(curNodeState.toString())) {
-			
-			Stack<List<Edge>> stack = new Stack<>();
-			final List<Edge> tmpList = new ArrayList<>(); 
-			List<Edge> curList = null;
-			int tolerance = A_TOL, 
-					delta;
-			BDEdge curEdge = null;
-
-	    	logger.debug("Found {} with shortest distance={}", curNodeState.toString(), shortestMap.get(curNodeState.toString()));
-
-			AtomicDouble limit = new AtomicDouble(distance+tolerance);
-			
-			(curNodeState.getDir()?curNodeState.getNode().enteringEdges():curNodeState.getNode().leavingEdges())
-				.forEach(e->{
-					BDNode n=(BDNode) e.getOpposite(srcNode);
-
-					BDNodeState ns = new BDNodeState(n, ((BDEdge) e).getNodeDirection(n)!=null?
-														((BDEdge) e).getNodeDirection(n):!srcDir);
-					
-    				if(	shortestMap.containsKey(ns.toString()) 
-						&& shortestMap.get(ns.toString()) < limit.get()
-						)
-	    					tmpList.add(e);
-	    				
-					
-				});
-		
-			stack.push(new ArrayList<>(tmpList));
-			Stack<Double> nodeScores = new Stack<>();
-			double pathScore=0.0;
-			long startTime = System.currentTimeMillis();
-			while(true) {
-				curList=stack.peek();
-				if(curList.isEmpty()) {
-					if(path.size() <= 1)
-						break;
-					stack.pop();
-					distance += (int)path.peekNode().getNumber("len") + ((BDEdge) path.popEdge()).getLength();
-					pathScore-=nodeScores.pop();
-					
-				}else {
-					curEdge=(BDEdge) curList.remove(0);
-					BDNode 	from = (BDNode) path.peekNode(),
-							to = (BDNode) curEdge.getOpposite(from);
-					
-					//Important: an anchor is not allowed in the result path
-					if(SimpleBinner.getBinIfUnique(to)!=null && to!=dstNode)
-						continue;
-					
-					boolean dir = 	curEdge.getNodeDirection(to)!=null?
-									curEdge.getNodeDirection(to):
-									path.getLastNodeDirection();
-					
-					/*
-					 * Update path and if terminated condition is met, add the candidate path
-					 */
-					nodeScores.push(path.getExtendLikelihood(to));
-					pathScore+=nodeScores.peek();
-					path.add(curEdge);
-					
-					delta=distance-curEdge.getLength();
-					//note that traversing direction (true: template, false: reverse complement) of destination node 
-					//is opposite its defined direction (true: outward, false:inward) 
-					if(to==dstNode && dir==dstDir && Math.abs(delta) < tolerance){ 
-
-				    	BDPath 	tmpPath=new BDPath(path);
-				    	tmpPath.setDeviation(delta);
-				    	tmpPath.setPathEstats(pathScore);
-
-				    	//insert to the list with sorting
-				    	if(possiblePaths.isEmpty())
-				    		possiblePaths.add(tmpPath);
-				    	else{
-				    		int idx=0;
-				    		for(BDPath p:possiblePaths){
-				    			if(Math.abs(delta)>Math.abs(p.getDeviation()))
-				    				idx++;
-				    			else
-				    				break;
-				    		}
-				    		possiblePaths.add(idx,tmpPath);
-				    	}
-						
-						if(possiblePaths.size() > S_LIMIT || System.currentTimeMillis() > startTime+T_LIMIT) //not go too far
-							break;
-					}
-					/*
-					 * Looking for next candidate set of edges to traverse
-					 */
-					limit.set(distance + tolerance);
-			    	//get possible next edges to traverse
-					tmpList.clear(); 
-
-	    			(dir?to.enteringEdges():to.leavingEdges())
-	    			.forEach(e->{
-	    				BDNode n=(BDNode) e.getOpposite(to);
-	    				BDNodeState ns = new BDNodeState(n, ((BDEdge) e).getNodeDirection(n)!=null?
-															((BDEdge) e).getNodeDirection(n):dir);
-	    				
-	    				if(shortestMap.containsKey(ns.toString()) 
-    						&& shortestMap.get(ns.toString()) < limit.get()
-							)
-	    	    					tmpList.add(e);
-	    				
-	    			});
-//	    			
-			    	stack.push(new ArrayList<>(tmpList));
-			    						
-					distance -= (int)to.getNumber("len") + curEdge.getLength();
-					
+		CompactGraph core = getCore();
+		CompactGraph.ShortestTree shortestTree = core.getShortestTree(dstNode, dstDir, distance);
+		int src=core.indexOf(srcNode), dst=core.indexOf(dstNode);
+		if(src<0 || dst<0 || !shortestTree.contains(srcNode, !srcDir))
+			return null;
+    	logger.debug("Found {} with shortest distance={}", srcNode.getId()+(!srcDir?"o":"i"), shortestTree.get(srcNode, !srcDir));
+
+		//2. Best-first search from srcNode with the distance info above
+		final int tolerance = A_TOL,
+				  cutoff = (int) (Math.abs(distance+getKmerSize())*R_TOL);
+		PriorityQueue<SearchNode> frontier = new PriorityQueue<>();
+		//found paths, the worst (largest |deviation|) on top
+		PriorityQueue<SearchNode> found = new PriorityQueue<>((a,b)->Math.abs(a.deviation)!=Math.abs(b.deviation)?Integer.compare(Math.abs(b.deviation), Math.abs(a.deviation)):Long.compare(b.seq, a.seq));
+		CompactGraph.Adjacency adj = core.adjacency();
+		long seq=0;
+		int bestDeviation=Integer.MAX_VALUE, nFound=0, nExpanded=0;
+
+		//remaining: gap distance left before entering the node (first node is special)
+		frontier.add(new SearchNode(null, null, src, !srcDir, distance, 0, 0, seq++));
+		while(!frontier.isEmpty() && nExpanded < EXPANSION_LIMIT && nFound <= S_LIMIT){
+			SearchNode cur=frontier.poll();
+			//can't be better than what we have
+			int bound=Math.min(bestDeviation==Integer.MAX_VALUE?Integer.MAX_VALUE:bestDeviation+cutoff, found.size()>=MAX_LISTING?Math.abs(found.peek().deviation):Integer.MAX_VALUE);
+			if(cur.lowerBound > bound)
+				continue;
+			nExpanded++;
+
+			adj.reset(cur.node, !cur.dir);
+			while(adj.next()){
+				int next=adj.node();
+				BDNode to=core.getNode(next);
+				//Important: an anchor is not allowed in the result path
+				if(next!=dst && SimpleBinner.getBinIfUnique(to)!=null)
+					continue;
+				Boolean arrive=adj.arrive();
+				boolean dir=arrive!=null?arrive:cur.dir;
+				int edgeLength=adj.length(),
+					remaining=cur.remaining-edgeLength-core.getLength(next),
+					shortest=shortestTree.get(next, dir);
+				if(shortest==CompactGraph.UNKNOWN || shortest >= remaining+tolerance)
+					continue;
+
+				SearchNode child=new SearchNode(cur, adj.edge(), next, dir, remaining, Math.max(0, shortest-remaining), Math.abs(shortest-remaining), seq++);
+				//note that traversing direction (true: template, false: reverse complement) of destination node 
+				//is opposite its defined direction (true: outward, false:inward) 
+				int delta=cur.remaining-edgeLength;
+				if(next==dst && dir==dstDir && Math.abs(delta) < tolerance){
+					child.deviation=delta;
+					nFound++;
+					found.add(child);
+					if(found.size() > MAX_LISTING)
+						found.poll();
+					bestDeviation=Math.min(bestDeviation, Math.abs(delta));
 				}
-				
+				frontier.add(child);
 			}
-		} 
-			logger.debug("select from list of {} DFS paths", possiblePaths.size());
-		
-		if(possiblePaths.isEmpty())
+		}
+		logger.debug("select from list of {} paths ({} expanded, {} found)", found.size(), nExpanded, nFound);
+
+		if(found.isEmpty())
 			return null;
-		
-		double closestDist=Math.abs(possiblePaths.get(0).getDeviation());
-		int keepMax = MAX_LISTING;//only keep this many possible paths 
-		for(int i=0;i<possiblePaths.size();i++){
-			BDPath p = possiblePaths.get(i);
-			if(Math.abs(p.getDeviation())>closestDist+Math.abs(distance+getKmerSize())*R_TOL || i>=keepMax)
+
+		ArrayList<SearchNode> sorted=new ArrayList<>(found);
+		sorted.sort((a,b)->Math.abs(a.deviation)!=Math.abs(b.deviation)?Integer.compare(Math.abs(a.deviation), Math.abs(b.deviation)):Long.compare(a.seq, b.seq));
+		ArrayList<BDPath> retval=new ArrayList<BDPath>();
+		int closestDist=Math.abs(sorted.get(0).deviation);
+		for(SearchNode sn:sorted){
+			if(Math.abs(sn.deviation)>closestDist+cutoff)
 				break;
+			BDPath p=sn.toPath(srcNode);
+			p.setDeviation(sn.deviation);
 			retval.add(p);
 	    	logger.debug("Hit added: {} deviation={}; depth={}; likelihood={}", p.getId(), p.getDeviation(), p.size(), p.getPathEstats());
-
 		}
 		
 		return retval;
-	}    
+	}
+	/*
+	 * Partial path of the path search: the last edge with a link to the previous one
+	 */
+	private static class SearchNode implements Comparable<SearchNode>{
+		final SearchNode parent;
+		final BDEdge edge;
+		final int node, remaining, lowerBound, estimate, depth;
+		final boolean dir;
+		final long seq;
+		int deviation=Integer.MAX_VALUE;
+		SearchNode(SearchNode parent, BDEdge edge, int node, boolean dir, int remaining, int lowerBound, int estimate, long seq){
+			this.parent=parent;
+			this.edge=edge;
+			this.node=node;
+			this.dir=dir;
+			this.remaining=remaining;
+			this.lowerBound=lowerBound;
+			this.estimate=estimate;
+			this.depth=parent==null?0:parent.depth+1;
+			this.seq=seq;
+		}
+		BDPath toPath(BDNode root){
+			BDEdge[] edges=new BDEdge[depth];
+			for(SearchNode sn=this;sn.parent!=null;sn=sn.parent)
+				edges[sn.depth-1]=sn.edge;
+			BDPath path=new BDPath(root);
+			for(BDEdge e:edges)
+				path.add(e);
+			return path;
+		}
+		@Override
+		public int compareTo(SearchNode o) {
+			if(estimate!=o.estimate)
+				return Integer.compare(estimate, o.estimate);
+			if(depth!=o.depth)
+				return Integer.compare(depth, o.depth);
+			return Long.compare(seq, o.seq);
+		}
+	}
 	
 	
     /*
      * Get a map showing shortest distances from surrounding nodes to a *rootNode* expanding to a *direction*, within a *distance*
-     * based on Dijkstra algorithm
+     * based on Dijkstra algorithm (cached, see CompactGraph.getShortestTree())
      */
-    public static HashMap<String, Integer> getShortestTreeFromNode(BDNode rootNode, boolean expDir, int distance){
-		PriorityQueue<BDNodeState> pq = new PriorityQueue<>();
-		HashMap<String,Integer> retval = new HashMap<>();
-		
-		int curDistance=(int) -rootNode.getNumber("len"), newDistance=0;
-		BDNodeState curND = new BDNodeState(rootNode, expDir, curDistance);
-		pq.add(curND);
-		
-//		if(HybridAssembler.VERBOSE)
-//    		LOG.info("Building shortest tree for " + rootNode.getId() + " with distance=" + distance);
-
-		retval.put(curND.toString(), curDistance); // direction from the point of srcNode
-		
-		boolean direction=expDir;
-		while(!pq.isEmpty()) {
-			curND=pq.poll();
-			curDistance=curND.getWeight();
-
-			Iterator<Edge> ite=curND.getDir()?curND.getNode().leavingEdges().iterator():curND.getNode().enteringEdges().iterator();
-			while(ite.hasNext()) {
-	    		BDEdge edge = (BDEdge) ite.next();
-	    		BDNode nextNode = (BDNode) edge.getOpposite(curND.getNode());
-	    		
-	    		if(edge.getNodeDirection(nextNode)!=null)	    			
-	    			direction = !edge.getNodeDirection(nextNode);
-	    		
-	    		newDistance=curDistance+edge.getLength()+(int)curND.getNode().getNumber("len");
-    			if(newDistance-distance > BDGraph.A_TOL && GraphUtil.approxCompare(newDistance, distance)>0)
-	    			continue;
-	    		
-	    		BDNodeState nextND = new BDNodeState(nextNode, direction, newDistance);
-	    		String key=nextND.toString();
-	    		if(retval.containsKey(key)) {
-	    			if(retval.get(key) > newDistance) {
-	    				//update the map
-	    				retval.put(key, newDistance);
-	    				//update the queue
-	    				pq.remove(nextND);
-	    				pq.add(nextND);
-	    			}
-	    		}else {
-	    			retval.put(key, newDistance);
-    				pq.add(nextND);
-	    		}
-
-			}
-			
-		}
-		return retval;
+    public static CompactGraph.ShortestTree getShortestTreeFromNode(BDNode rootNode, boolean expDir, int distance){
+    	return ((BDGraph) rootNode.getGraph()).getCore().getShortestTree(rootNode, expDir, distance);
     }
     
     /*********************************************************************************************************
@@ -687,9 +911,17 @@ public class BDGraph extends MultiGraph{
      * @param alignments
      * @return usefulness (whether to reject or proceed sequencing this read)
      */
-    public synchronized boolean getRUDecision(Sequence nnpRead, ArrayList<Alignment> alignments) {
+    public boolean getRUDecision(Sequence nnpRead, ArrayList<Alignment> alignments) {
  		if(nnpRead==null || alignments.isEmpty())
  			return false;
+ 		lockRead();
+ 		try{
+ 			return getRUDecisionLocked(nnpRead, alignments);
+ 		}finally{
+ 			unlockRead();
+ 		}
+    }
+    private boolean getRUDecisionLocked(Sequence nnpRead, ArrayList<Alignment> alignments) {
  		
  		logger.debug("=================================================");
  		for(Alignment alg:alignments)
@@ -712,9 +944,28 @@ public class BDGraph extends MultiGraph{
      * Find bridges based on list of Alignments.
      * Return list of bridges with endings as markers and alignments of non-markers in-between.
      */ 
-    public synchronized List<BDPath> uniqueBridgesFinding(Sequence nnpRead, ArrayList<Alignment> alignments) {
+    public List<BDPath> uniqueBridgesFinding(Sequence nnpRead, ArrayList<Alignment> alignments) {
  		if(nnpRead==null || alignments.size()<=1)
  			return null;
+ 		//the stripes of all the bridges the read can touch, then the read lock kept for the whole read so the nodes
+ 		//and edges of its building blocks stay in the graph. Never wait for stripes with the read lock: a thread
+ 		//holding stripes may need the write lock (see writeWhileReading()).
+ 		while(true){
+ 			readInterrupted.set(false);
+ 			Set<Node> anchors=getAnchors(alignments);
+ 			Iterable<Lock> locks=lockAnchors(anchors);
+ 			lockRead();
+ 			try{
+ 				//the bridges registered at the nodes could have changed before locking
+ 				if(anchors.containsAll(getAnchors(alignments)))
+ 					return uniqueBridgesFindingLocked(nnpRead, alignments);
+ 			}finally{
+ 				unlockRead();
+ 				unlockAnchors(locks);
+ 			}
+ 		}
+    }
+    private List<BDPath> uniqueBridgesFindingLocked(Sequence nnpRead, ArrayList<Alignment> alignments) {
  		
  		logger.debug("=================================================");
  		for(Alignment alg:alignments)
@@ -795,7 +1046,8 @@ public class BDGraph extends MultiGraph{
     			curBuildingBlocks.setEFlag(flag);
     			////////////////////////////////////////////////////////////////////////////////////
     			
-    			retrievedPaths.addAll(buildBridge(curBuildingBlocks, PopBin.getDominateBin(curBin,prevUnqBin)));
+    			if(!collectPaths(retrievedPaths, buildBridge(curBuildingBlocks, PopBin.getDominateBin(curBin,prevUnqBin)), alignments))
+    				return retrievedPaths;
     			   					
     			////////////////////////////////////////////////////////////////////////////////////
     			//start new building block
@@ -810,13 +1062,36 @@ public class BDGraph extends MultiGraph{
  	    
  	    if(curBuildingBlocks.alignments.size() > 1){
  	    	curBuildingBlocks.setEFlag(1);
- 	    	retrievedPaths.addAll(buildBridge(curBuildingBlocks, PopBin.getDominateBin(curBin,prevUnqBin)));
+ 	    	collectPaths(retrievedPaths, buildBridge(curBuildingBlocks, PopBin.getDominateBin(curBin,prevUnqBin)), alignments);
  	    }
 
  	    return retrievedPaths;
  	}
+    /*
+     * Collect the paths found from a building block. If a pseudo edge let other writers in meanwhile
+     * (see writeWhileReading()), keep only the paths still in the graph and go on only if the read still is.
+     */
+    private boolean collectPaths(List<BDPath> retrieved, List<BDPath> paths, List<Alignment> alignments){
+    	if(!readInterrupted.get()){
+    		retrieved.addAll(paths);
+    		return true;
+    	}
+    	readInterrupted.set(false);
+    	paths.stream().filter(p->isInGraph(p.nodes())).forEach(retrieved::add);
+    	if(isInGraph(alignments.stream().map(a->a.node)))
+    		return true;
+    	logger.debug("Nodes of the read removed by another writer while bridging it, stop there");
+    	return false;
+    }
+    private boolean isInGraph(Stream<? extends Node> nodes){
+    	return nodes.allMatch(n->getNode(n.getId())==n);
+    }
   	
     
+    /*
+     * Build (or fortify) the bridge of a building block, with the stripes of its endings and the read lock held
+     * (see uniqueBridgesFinding())
+     */
     private List<BDPath> buildBridge(AlignedRead read, PopBin bin){
     	List<BDPath> retval=new ArrayList<BDPath>();
     	boolean complete=false;
@@ -883,7 +1158,7 @@ public class BDGraph extends MultiGraph{
 		}
 		
 		if(complete) 
-			consensus.bridgingReads.remove(read.getEndingsID());	
+			consensus.removeBridgingReads(read.getEndingsID());
 		else	
 			consensus.saveBridgingReadsFromAlignments(read);
 		
@@ -900,12 +1175,19 @@ public class BDGraph extends MultiGraph{
     	//do nothing if the path has only one node
     	if(path==null||path.getEdgeCount()<1)
     		return;
-
-    	else 
-    		logger.debug("Reducing path: {}", path.getId());
+    	lockWrite();
+    	try{
+    		reduceUniquePathLocked(path);
+    	}finally{
+    		unlockWrite();
+    	}
+    }
+    private void reduceUniquePathLocked(BDPath path){
+    	logger.debug("Reducing path: {}", path.getId());
 
 
     	Set<Edge> 	potentialRemovedEdges = binner.walkAlongUniquePath(path);
+    	path.nodes().forEach(this::markChanged); //coverage of the nodes along the path was reduced
 		Multiplicity oneBin = new Multiplicity(path.getConsensusUniqueBinOfPath(), 1);
     	
     	if(potentialRemovedEdges!=null && potentialRemovedEdges.size()>1){
@@ -954,32 +1236,37 @@ public class BDGraph extends MultiGraph{
 	//Only call for the final reduce path with 2 unique ends: if path containing other unique nodes than 2 ends then we have list of paths to reduce
     //Exclude already-reduced path (reduced edges would have composite "path" attribute,
     //but consensus pseudo edge is special case)
-	synchronized public ArrayList<BDPath> getNewSubPathsToReduce(BDPath path){
+	public ArrayList<BDPath> getNewSubPathsToReduce(BDPath path){
 		ArrayList<BDPath> retval=new ArrayList<>();
 		if(path!=null){
-			BDPath curPath = new BDPath(path.getRoot(), path.getConsensusUniqueBinOfPath());
-			BDNode curNode = (BDNode) path.getRoot(), nextNode=null;
-			String id=null;
-			for(Edge e:path.getEdgePath()) {
-				nextNode=(BDNode) e.getOpposite(curNode);
-				curPath.add(e);
-				if(SimpleBinner.getBinIfUniqueNow(nextNode)!=null) {
-					id=curPath.getEndingID();
-					if(id!=null){
-						Edge rdEdge = getEdge(id);
-						if(rdEdge==null || !rdEdge.hasAttribute("path") || rdEdge.hasAttribute("consensus"))
-							retval.add(curPath);		
+			lockRead();
+			try{
+				BDPath curPath = new BDPath(path.getRoot(), path.getConsensusUniqueBinOfPath());
+				BDNode curNode = (BDNode) path.getRoot(), nextNode=null;
+				String id=null;
+				for(Edge e:path.getEdgePath()) {
+					nextNode=(BDNode) e.getOpposite(curNode);
+					curPath.add(e);
+					if(SimpleBinner.getBinIfUniqueNow(nextNode)!=null) {
+						id=curPath.getEndingID();
+						if(id!=null){
+							Edge rdEdge = getEdge(id);
+							if(rdEdge==null || !rdEdge.hasAttribute("path") || rdEdge.hasAttribute("consensus"))
+								retval.add(curPath);		
+						}
+						curPath=new BDPath(nextNode, path.getConsensusUniqueBinOfPath());
 					}
-					curPath=new BDPath(nextNode, path.getConsensusUniqueBinOfPath());
+					curNode=nextNode;
 				}
-				curNode=nextNode;
-			}
-			//return intact if no extra unique node has been found
-			if(retval.isEmpty()) {
-				id=curPath.getEndingID();
-				if(id!=null&&getEdge(id)==null){
-					retval.add(curPath);
+				//return intact if no extra unique node has been found
+				if(retval.isEmpty()) {
+					id=curPath.getEndingID();
+					if(id!=null&&getEdge(id)==null){
+						retval.add(curPath);
+					}
 				}
+			}finally{
+				unlockRead();
 			}
 		}
 		return retval;
@@ -993,14 +1280,47 @@ public class BDGraph extends MultiGraph{
     int n50, n75, maxl; //in Kbp
     int numOfCtgs, numOfCircularCtgs;
     volatile private boolean changed=true; //init as true for the initial cleaning
-    public synchronized void notifyChanges() {
-    	changed=true;
+    private volatile Runnable changeListener=null; //e.g. to wake up the watcher
+    public void setChangeListener(Runnable listener) {
+    	changeListener=listener;
+    }
+    public void notifyChanges() {
+    	synchronized(this) {
+    		changed=true;
+    	}
+    	Runnable listener=changeListener;
+    	if(listener!=null)
+    		listener.run();
     }
     public synchronized boolean checkForChangesAndReset() {
     	boolean retval=changed;
     	changed=false;
     	return retval;
     }
+    //nodes added, removed or with their edges/coverage changed since the last drain (null if not tracked)
+    private volatile Set<Node> changedNodes=null;
+    public void trackChanges() {
+    	if(changedNodes!=null)
+    		return;
+    	changedNodes=ConcurrentHashMap.newKeySet();
+    	nodes().forEach(changedNodes::add);
+    }
+    void markChanged(Node node) {
+    	if(connectivity!=null && node!=null)
+    		connectivity.nodeChanged(node);
+    	Set<Node> tracked=changedNodes;
+    	if(tracked!=null && node!=null)
+    		tracked.add(node);
+    }
+    public Set<Node> drainChangedNodes() {
+    	Set<Node> retval=new HashSet<>();
+    	Set<Node> tracked=changedNodes;
+    	if(tracked!=null){
+    		retval.addAll(tracked);
+    		tracked.removeAll(retval);
+    	}
+    	return retval;
+    }
     
     public void updateStats() {
     	synchronized(this) {
@@ -1047,6 +1367,8 @@ public class BDGraph extends MultiGraph{
 			
 			n50=GraphUtil.getNStats(.5, lengths);
 			n75=GraphUtil.getNStats(.75, lengths);
+			if(core!=null)
+				core.refreshCoverage();
     	}
     }
     
@@ -1091,110 +1413,15 @@ public class BDGraph extends MultiGraph{
                 }
         return colors;
     }
+	//outputs through a snapshot (see GraphSnapshot): the caller must prevent changes meanwhile
 	public void outputFASTA(String fileName) throws IOException {
-		SequenceOutputStream out = SequenceOutputStream.makeOutputStream(fileName);
-		for(Node node:this) {
-			Sequence seq=(Sequence) node.getAttribute("seq");
-//			if( (node.getDegree()==0 && (seq.length() < SimpleBinner.ANCHOR_CTG_LEN)) 
-//				|| node.getNumber("cov") < 10.0 )	//not display <10% abundance pops
-//				continue;
-			if(seq!=null)
-				seq.writeFasta(out);
-			else { 
-				logger.error("Cannot read sequence from node {}", node.getId());
-				break;
-			}
-		}
-		out.close();
+		GraphSnapshot.of(this).writeFASTA(fileName);
 	}
 	public void outputJAPSA(String fileName) throws IOException {
-		SequenceOutputStream out = SequenceOutputStream.makeOutputStream(fileName);
-		JapsaAnnotation annotation;
-		for(Node node:this) {
-			annotation=(JapsaAnnotation) node.getAttribute("annotation");
-			if(annotation!=null)
-				annotation.write(out);
-			else {
-				logger.error("Cannot read annotation from node {}", node.getId());
-				break;
-			}
-
-		}	
-		out.close();
+		GraphSnapshot.of(this).writeJAPSA(fileName);
 	}
-	
 	public void outputGFA(String fileName) throws IOException {
-	    PrintWriter printWriter = new PrintWriter(new FileWriter(fileName));
-	    
-	    //Differentiate composite edges and normal edges
-	    List<Edge> compositeEdges = new ArrayList<Edge>();
-	    List<BDEdgePrototype> normalEdges = new ArrayList<BDEdgePrototype>();
-	    edges().forEach(e->{
-	    					if(e.hasAttribute("path")) 
-	    						compositeEdges.add(e); 
-	    					else 
-	    						normalEdges.add(new BDEdgePrototype((BDNode)e.getNode0(), (BDNode)e.getNode1(), ((BDEdge)e).getDir0(), ((BDEdge)e).getDir1()));
-	    					}
-	    );
-	    
-	    Set<String> addedNodes = new HashSet<String>();
-	    //Print S (Segment) with kmer count (KC) and bin (BI)
-	    for(Node node:this){
-	    	Sequence seq=(Sequence) node.getAttribute("seq");
-	    	int kmer_count=(int)(GraphUtil.getRealCoverage(node.getNumber("cov"))*(BDGraph.ILLUMINA_READ_LENGTH-BDGraph.getKmerSize())/BDGraph.ILLUMINA_READ_LENGTH);
-	    	printWriter.printf("S\t%s\t%s\tKC:i:%d\tBI:i:%d\n", node.getId(), seq.toString(),kmer_count, node.getAttribute("bin")==null?0:((PopBin)node.getAttribute("bin")).getId());
-	    	addedNodes.add(node.getId());
-	    }	    
-	    for(Edge ce:compositeEdges){
-	    	BDPath p = ((BDPath)ce.getAttribute("path")).getPrimitivePath();
-
-	    	BDNode curNode=(BDNode) p.getRoot(), nextNode=null;
-	    	String curID=curNode.getId(), nextID=null;
-	    	boolean curDir=p.getFirstNodeDirection(), nextDir=!curDir;
-
-	    	for(Edge e:p.getEdgePath()){
-	    		nextNode=(BDNode) e.getOpposite(curNode);
-	    		nextID=nextNode.getId();
-	    		if(((BDEdge)e).getNodeDirection(nextNode)!=null)
-	    			nextDir=((BDEdge)e).getNodeDirection(nextNode);
-	    		
-	    		if(nextNode!=p.peekNode()){
-		    		//create ID
-		    		int count=1;
-		    		String tmpID=nextID;
-		    		while(addedNodes.contains(tmpID)){
-		    			tmpID=nextID+"."+(count++);
-		    		}
-		    		nextID=tmpID;
-		    		addedNodes.add(nextID);
-		    		
-		    		Sequence seq=(Sequence) nextNode.getAttribute("seq");
-			    	int kmer_count=(int)(GraphUtil.getRealCoverage(nextNode.getNumber("cov"))*(BDGraph.ILLUMINA_READ_LENGTH-BDGraph.getKmerSize())/BDGraph.ILLUMINA_READ_LENGTH);
-			    	printWriter.printf("S\t%s\t%s\tKC:i:%d\tBI:i:%d\n", nextID, seq.toString(),kmer_count, nextNode.getAttribute("bin")==null?0:((PopBin)nextNode.getAttribute("bin")).getId());
-
-
-	    		}
-		    	
-	    		normalEdges.add(new BDEdgePrototype(new BDNode(this, curID), new BDNode(this, nextID), curDir, nextDir));
-	    		
-	    		curNode=nextNode;
-	    		curID=nextID;
-	    		curDir=!nextDir;
-	    	}
-	    }
-	    
-	    //Print L (Links)
-	    for(BDEdgePrototype e:normalEdges){
-	    	printWriter.printf("L\t%s\t%s\t%s\t%s\t%dM\n", 
-	    						e.getNode0().getId(), 
-	    						e.getDir0()?"+":"-",
-								e.getNode1().getId(), 
-	    						e.getDir1()?"-":"+",
-								BDGraph.getKmerSize());
-	    }
-
-	    
-	    printWriter.close();
+		GraphSnapshot.of(this).writeGFA(fileName);
 	}
     
 }
@@ -4,13 +4,17 @@ import org.graphstream.graph.implementations.AbstractEdge;
 import org.graphstream.graph.implementations.AbstractGraph;
 import org.graphstream.graph.implementations.MultiNode;
 
-import japsa.seq.Sequence;
+import japsa.seq.AbstractSequence;
 
 public class BDNode extends MultiNode {
+	int coreIndex=-1; //index in the CompactGraph of its graph
+	final int serial; //stable number of this node in its graph (never reused), e.g. key of the bridges
+	int seqIndex=-1; //record of its sequence in the ContigStore of its graph, if moved there
 
 //    private static final Logger LOG = LoggerFactory.getLogger(BDNode.class);
 	protected BDNode(AbstractGraph graph, String id) {
 		super(graph, id);
+		serial=graph instanceof BDGraph?((BDGraph) graph).nextNodeSerial():-1;
 	}
 
 	// *** Helpers ***
@@ -57,8 +61,19 @@ public class BDNode extends MultiNode {
 		return String.format("[Node %s: cov=%.2f len=%d]", getId(), getNumber("cov"), (int)getNumber("len"));
 	}
 	
+	/**
+	 * Its sequence: a view on the ContigStore of the graph, otherwise the "seq" attribute
+	 */
+	public AbstractSequence getSequence(){
+		if(seqIndex>=0){
+			Object name=getAttribute("name");
+			return ((BDGraph) graph).contigs.get(seqIndex, name==null?getId():name.toString());
+		}
+		return (AbstractSequence) getAttribute("seq");
+	}
+
 	public void setGUI(String color, String shape){
-		Sequence seq = (Sequence) getAttribute("seq");
+		AbstractSequence seq = getSequence();
 		double lengthScale = 1.0;
 		if(seq!=null)
 			lengthScale+=(Math.log10(seq.length())-2)/3.5; //100->330,000  
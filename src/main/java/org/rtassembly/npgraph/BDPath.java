@@ -1,5 +1,6 @@
 package org.rtassembly.npgraph;
 
+import japsa.seq.AbstractSequence;
 import japsa.seq.Alphabet;
 import japsa.seq.JapsaAnnotation;
 import japsa.seq.JapsaFeature;
@@ -186,14 +187,14 @@ public class BDPath extends Path{
 		BDPath realPath=getPrimitivePath();
 		JapsaFeature feature;
 		BDNode curNode = (BDNode) realPath.getRoot();
-		Sequence curSeq = (Sequence) curNode.getAttribute("seq");
+		AbstractSequence curSeq = curNode.getSequence();
 		if(realPath.getEdgeCount()==0){
 			if(annotation!=null){
 				feature=new JapsaFeature(1, curSeq.length(),"CONTIG",curSeq.getName(),'+',"");
 				feature.addDesc(curSeq.getName()+"+[1->"+curSeq.length()+"]");
 				annotation.add(feature);
 			}
-			return curSeq;
+			return curSeq.toSequence();
 		}
 		
 		SequenceBuilder seq = new SequenceBuilder(Alphabet.DNA(), 1024*1024, toString());
@@ -214,7 +215,7 @@ public class BDPath extends Path{
 		for(Edge e:realPath.getEdgePath()){
 			nextNode=(BDNode) e.getOpposite(curNode);
 
-			curSeq= (Sequence) nextNode.getAttribute("seq");
+			curSeq= nextNode.getSequence();
 			if(((BDEdge) e).getNodeDirection(nextNode)!=null)
 				curDir=!((BDEdge) e).getNodeDirection(nextNode);
 
@@ -235,7 +236,7 @@ public class BDPath extends Path{
 			else {
 				String filler=new String(new char[overlap]).replace("\0", "N");
 				Sequence fillerSeq=new Sequence(Alphabet.DNA(), filler, "gap");
-				seq.append(fillerSeq.concatenate(curSeq));				
+				seq.append(fillerSeq.concatenate(curSeq.toSequence()));				
 
 				logger.debug("Edge {} has length={} > 0: filled with Ns...", e.getId(), overlap);
 
@@ -375,7 +376,7 @@ public class BDPath extends Path{
 		int len=0;
 		double res=0;
 		for(Node n:getNodePath()){
-			Sequence seq = (Sequence) n.getAttribute("seq");
+			AbstractSequence seq = ((BDNode) n).getSequence();
 			len+=(n==getRoot())?seq.length():seq.length()-BDGraph.getKmerSize();
 			res+=seq.length()*n.getNumber("cov");
 		}
@@ -0,0 +1,128 @@
+package org.rtassembly.npgraph;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Stream;
+
+/*
+ * Bridges of a graph by their anchors. A directed anchor (node, dir) is keyed by the primitive
+ * node.serial*2+(dir?1:0), the same as the old "ID+o/i" String keys: e.g. 103-: <103-82-> also 82+:<82+103+>
+ *
+ * Lookups are lock-free: a volatile table of atomic slots, replaced only when growing.
+ * Changes are serialized on the registry (and the anchors' stripes are held by the callers, see BDGraph).
+ * So it's safe to query from other threads (e.g. the read-until server) while reads are being reduced.
+ */
+public class BridgeRegistry {
+	//rough sizes (bytes) for the memory accounting, compressed oops
+	static final int REF=4, OBJ=16, TREE_ENTRY=40, NODE_VEC_STATE=48, SEGMENT=40, PATH_EDGE=24;
+
+	private volatile AtomicReferenceArray<GoInBetweenBridge> table=new AtomicReferenceArray<>(1024);
+	//distinct bridges -> number of keys pointing to it
+	private final ConcurrentHashMap<GoInBetweenBridge, Integer> bridges=new ConcurrentHashMap<>();
+
+	static int key(BDNode node, boolean dir){
+		return 2*node.serial+(dir?1:0);
+	}
+
+	public GoInBetweenBridge get(BDNode node, boolean dir){
+		if(node==null || node.serial<0)
+			return null;
+		int k=key(node, dir);
+		AtomicReferenceArray<GoInBetweenBridge> t=table;
+		return k<t.length()?t.get(k):null;
+	}
+	public GoInBetweenBridge get(BDNodeState ns){
+		return ns==null?null:get(ns.getNode(), ns.getDir());
+	}
+
+	synchronized void put(BDNodeState ns, GoInBetweenBridge brg){
+		if(ns==null || brg==null || ns.getNode().serial<0)
+			return;
+		int k=key(ns.getNode(), ns.getDir());
+		if(k>=table.length())
+			grow(k+1);
+		GoInBetweenBridge old=table.getAndSet(k, brg);
+		if(old==brg)
+			return;
+		release(old);
+		bridges.merge(brg, 1, Integer::sum);
+	}
+	synchronized void remove(BDNode node, boolean dir){
+		int k=key(node, dir);
+		if(k<table.length())
+			release(table.getAndSet(k, null));
+	}
+	private void release(GoInBetweenBridge brg){
+		if(brg!=null)
+			bridges.computeIfPresent(brg, (b,c)->c>1?c-1:null);
+	}
+	private void grow(int minLength){
+		AtomicReferenceArray<GoInBetweenBridge> old=table,
+				t=new AtomicReferenceArray<>(Math.max(minLength, old.length()*2));
+		for(int i=0;i<old.length();i++)
+			t.set(i, old.get(i));
+		table=t;
+	}
+	synchronized void clear(){
+		table=new AtomicReferenceArray<>(1024);
+		bridges.clear();
+	}
+
+	/*
+	 * Distinct bridges (weakly consistent)
+	 */
+	public Stream<GoInBetweenBridge> bridges(){
+		return bridges.keySet().stream();
+	}
+	public int size(){
+		return bridges.size();
+	}
+	//bridges with completion level in [minLevel, maxLevel], see GoInBetweenBridge.getCompletionLevel()
+	public List<GoInBetweenBridge> getBridges(int minLevel, int maxLevel){
+		List<GoInBetweenBridge> retval=new ArrayList<>();
+		for(GoInBetweenBridge brg:bridges.keySet()){
+			int level=brg.getCompletionLevel();
+			if(level>=minLevel && level<=maxLevel)
+				retval.add(brg);
+		}
+		return retval;
+	}
+	public HashSet<GoInBetweenBridge> getUnsolvedBridges(){
+		return new HashSet<>(getBridges(0, 3));
+	}
+	//number of bridges for each completion level 0..4
+	public int[] getLevelCounts(){
+		int[] retval=new int[5];
+		for(GoInBetweenBridge brg:bridges.keySet())
+			retval[brg.getCompletionLevel()]++;
+		return retval;
+	}
+
+	/*
+	 * Estimated memory (bytes) held by the registry and its bridges: table, steps and the candidate paths of segments
+	 */
+	public long estimateMemory(){
+		long retval=OBJ+(long)REF*table.length();
+		for(GoInBetweenBridge brg:bridges.keySet()){
+			retval+=OBJ+TREE_ENTRY; //bridge and its entry
+			if(brg.steps!=null && brg.steps.nodes!=null)
+				retval+=(long)(TREE_ENTRY+NODE_VEC_STATE)*brg.steps.nodes.size();
+			if(brg.segments!=null)
+				for(GoInBetweenBridge.BridgeSegment seg:brg.segments){
+					retval+=SEGMENT;
+					if(seg.connectedPaths!=null)
+						for(BDPath p:seg.connectedPaths)
+							retval+=OBJ+(long)PATH_EDGE*p.getEdgeCount();
+				}
+		}
+		return retval;
+	}
+	public String getStats(){
+		int[] levels=getLevelCounts();
+		return String.format("bridges=%d (levels 0-4: %d %d %d %d %d) memory~%dKB",
+				size(), levels[0], levels[1], levels[2], levels[3], levels[4], estimateMemory()/1024);
+	}
+}
@@ -0,0 +1,232 @@
+package org.rtassembly.npgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import japsa.seq.AbstractSequence;
+import japsa.seq.Alphabet;
+import japsa.seq.PackedSequence;
+
+/*
+ * Reads bridging a pair of anchors (see ConsensusCaller), kept until their consensus is called.
+ * Bases are 2-bit packed (the rare others, e.g. N, as exceptions) in a direct buffer per bridge, out of the heap.
+ * When the buffers take more than MAX_MEMORY, the least recently used bridges are spilled to an append-only
+ * file and memory-mapped back when their reads are needed. Reads are handed back as read-only views.
+ * The records of removed bridges are dead space in the file: once there is more of it than SPILL_COMPACT and than
+ * live records, these are copied to a new file (the mappings of the old one stay valid for the views handed out).
+ *
+ * Records are those of PackedSequence.write(), read back as PackedSequence.MappedView.
+ */
+public class BridgingReadStore {
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+	public static long MAX_MEMORY=256L<<20; //bytes of packed reads kept in memory, colder bridges are spilled beyond
+	public static int INITIAL_CAPACITY=4096; //bytes of the buffer of a new bridge
+	public static long SPILL_COMPACT=64L<<20; //dead bytes of the spill file that trigger its compaction
+
+	static class Entry{
+		ByteBuffer mem=null; //records in memory, the first size bytes
+		int size=0;
+		List<long[]> spilled=null; //{offset, length} of the records in the spill file
+		int count=0;
+	}
+	//access order: the least recently used bridges first
+	private final LinkedHashMap<String, Entry> entries=new LinkedHashMap<>(16, .75f, true);
+	private long memory=0;
+	private FileChannel spill=null;
+	private File spillFile=null;
+	private long spillSize=0, spillLive=0, spilledBridges=0, loadedBridges=0, compactions=0;
+
+	/**
+	 * Add a read to a bridge, return the number of its reads
+	 */
+	public synchronized int add(String id, AbstractSequence seq){
+		Entry e=entries.computeIfAbsent(id, k->new Entry());
+		PackedSequence packed=seq instanceof PackedSequence?(PackedSequence) seq:new PackedSequence(seq);
+		int bytes=packed.getSerializedSize();
+		if(e.mem==null || e.mem.capacity()-e.size<bytes){
+			int cap=Math.max(e.mem==null?Math.min(INITIAL_CAPACITY, 2*bytes):2*e.mem.capacity(), e.size+bytes);
+			ByteBuffer mem=ByteBuffer.allocateDirect(cap);
+			if(e.mem!=null){
+				ByteBuffer old=e.mem.duplicate();
+				old.position(0).limit(e.size);
+				mem.put(old);
+				memory-=e.mem.capacity();
+			}
+			e.mem=mem;
+			memory+=cap;
+		}
+		//views of the old buffer (if replaced) stay valid, this one only gets appended
+		ByteBuffer mem=e.mem.duplicate();
+		mem.position(e.size);
+		packed.write(mem);
+		e.size=mem.position();
+		e.count++;
+
+		if(memory>MAX_MEMORY)
+			spillColdBridges(e);
+		return e.count;
+	}
+
+	/**
+	 * Number of reads of a bridge, -1 if none
+	 */
+	public synchronized int count(String id){
+		Entry e=entries.get(id);
+		return e==null?-1:e.count;
+	}
+
+	/**
+	 * Views of the reads of a bridge, null if none
+	 */
+	public synchronized List<PackedSequence.MappedView> get(String id){
+		Entry e=entries.get(id);
+		if(e==null)
+			return null;
+		List<PackedSequence.MappedView> retval=new ArrayList<>(e.count);
+		try{
+			if(e.spilled!=null){
+				loadedBridges++;
+				for(long[] region:e.spilled)
+					decode(spill.map(FileChannel.MapMode.READ_ONLY, region[0], region[1]), (int) region[1], id, retval);
+			}
+		}catch(IOException ex){
+			logger.error("Cannot read spilled reads of {}: {}", id, ex);
+		}
+		if(e.mem!=null)
+			decode(e.mem.asReadOnlyBuffer(), e.size, id, retval);
+		return retval;
+	}
+	private static void decode(ByteBuffer buf, int size, String id, List<PackedSequence.MappedView> views){
+		for(int pos=0;pos<size;){
+			PackedSequence.MappedView view=PackedSequence.view(Alphabet.DNA(), buf, pos, id+"_"+views.size());
+			views.add(view);
+			pos+=view.getSerializedSize();
+		}
+	}
+
+	public synchronized void remove(String id){
+		Entry e=entries.remove(id);
+		if(e==null)
+			return;
+		if(e.mem!=null)
+			memory-=e.mem.capacity();
+		if(e.spilled!=null){
+			for(long[] region:e.spilled)
+				spillLive-=region[1];
+			long dead=spillSize-spillLive;
+			if(dead>SPILL_COMPACT && dead>spillLive)
+				compactSpill();
+		}
+	}
+
+	//spill the least recently used bridges (except the one being added to) down to 3/4 of the limit
+	private void spillColdBridges(Entry current){
+		try{
+			if(spill==null)
+				openSpill();
+			Iterator<Map.Entry<String, Entry>> ite=entries.entrySet().iterator();
+			while(memory>MAX_MEMORY*3/4 && ite.hasNext()){
+				Entry e=ite.next().getValue();
+				if(e==current || e.mem==null)
+					continue;
+				ByteBuffer data=e.mem.duplicate();
+				data.position(0).limit(e.size);
+				long offset=spillSize;
+				while(data.hasRemaining())
+					spillSize+=spill.write(data, spillSize);
+				if(e.spilled==null)
+					e.spilled=new ArrayList<>();
+				e.spilled.add(new long[]{offset, e.size});
+				spillLive+=e.size;
+				memory-=e.mem.capacity();
+				e.mem=null;
+				e.size=0;
+				spilledBridges++;
+			}
+		}catch(IOException ex){
+			logger.error("Cannot spill bridging reads, keep them in memory: {}", ex);
+		}
+	}
+	private void openSpill() throws IOException{
+		spillFile=File.createTempFile("bridging_reads", ".bin", AlignedRead.tmpFolder==null?null:new File(AlignedRead.tmpFolder));
+		spillFile.deleteOnExit();
+		spill=new RandomAccessFile(spillFile, "rw").getChannel();
+		spillSize=0;
+	}
+
+	/*
+	 * Copy the live records to a new spill file, those of a bridge in one region, and drop the old file.
+	 * Never in place: views of removed bridges may still be mapped on the old one.
+	 */
+	private void compactSpill(){
+		FileChannel oldSpill=spill;
+		File oldFile=spillFile;
+		long oldSize=spillSize;
+		Map<Entry, long[]> moved=new HashMap<>();
+		try{
+			openSpill();
+			for(Entry e:entries.values()){
+				if(e.spilled==null)
+					continue;
+				long offset=spillSize;
+				for(long[] region:e.spilled){
+					ByteBuffer data=oldSpill.map(FileChannel.MapMode.READ_ONLY, region[0], region[1]);
+					while(data.hasRemaining())
+						spillSize+=spill.write(data, spillSize);
+				}
+				moved.put(e, new long[]{offset, spillSize-offset});
+			}
+		}catch(IOException ex){
+			logger.error("Cannot compact the spill file {}, keep it: {}", oldFile, ex);
+			close(spill, spillFile);
+			spill=oldSpill;
+			spillFile=oldFile;
+			spillSize=oldSize;
+			return;
+		}
+		for(Map.Entry<Entry, long[]> m:moved.entrySet())
+			m.getKey().spilled=new ArrayList<>(Arrays.asList(m.getValue()));
+		logger.debug("Spill file compacted from {}KB to {}KB", oldSize/1024, spillSize/1024);
+		spillLive=spillSize;
+		compactions++;
+		close(oldSpill, oldFile);
+	}
+	private static void close(FileChannel channel, File file){
+		if(channel==null)
+			return;
+		try{
+			channel.close();
+		}catch(IOException ex){
+			logger.debug("Cannot close {}: {}", file, ex);
+		}
+		file.delete();
+	}
+
+	public synchronized void clear(){
+		entries.clear();
+		memory=0;
+		close(spill, spillFile);
+		spill=null;
+		spillSize=spillLive=0;
+	}
+
+	public synchronized String getStats(){
+		return String.format("bridging reads: bridges=%d memory~%dKB spilled=%dKB live=%dKB (%d bridges, %d loaded back, %d compactions)",
+				entries.size(), memory/1024, spillSize/1024, spillLive/1024, spilledBridges, loadedBridges, compactions);
+	}
+}
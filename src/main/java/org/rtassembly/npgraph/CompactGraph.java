@@ -0,0 +1,542 @@
+package org.rtassembly.npgraph;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Node;
+
+/*
+ * Int-indexed compact view of a BDGraph that the path finding algorithms run on, GraphStream
+ * is kept for the attributes, the GUI and the output.
+ *
+ * Every node has an index and 2 ends: end=index*2+1 for outward (leaving) and index*2 for inward
+ * (entering) edges. The adjacency of an end is a CSR range [offsets[end], offsets[end+1]) of edge
+ * slots, followed by a chain of overflow slots for edges added after the last build.
+ * Each slot keeps the opposite node index, the direction the edge reaches it and the edge length.
+ * Removed edges/nodes leave null holes, the arrays are rebuilt when the holes and overflow grow
+ * larger than REBUILD_RATIO of the graph.
+ * Node lengths and coverages are kept as primitive arrays: lengths are read once from "len",
+ * coverages are a snapshot refreshed by refreshCoverage().
+ */
+public class CompactGraph {
+	public static double REBUILD_RATIO=.25;
+
+	//direction of an edge at its opposite node
+	static final byte ARRIVE_IN=0, ARRIVE_OUT=1, ARRIVE_BOTH=2; //both: self-loop going out and in the same node
+	static final int UNKNOWN=Integer.MIN_VALUE;
+
+	final BDGraph graph;
+
+	//nodes
+	BDNode[] nodes;
+	int[] len;
+	double[] cov;
+	int nodeSlots=0, nodeCount=0;
+
+	//edge slots: [0,csrSize) in CSR order, [csrSize,edgeSlots) overflow
+	int[] offsets; //size 2*nodeSlots+1, only for nodes indexed at the last build
+	int csrNodes=0, csrSize=0;
+	int[] overflowHead; //per end, first overflow slot or -1
+	int[] adjNode, adjLength, nextSlot;
+	byte[] adjArrive;
+	BDEdge[] adjEdge;
+	int edgeSlots=0, holes=0, overflow=0;
+
+	CompactGraph(BDGraph graph){
+		this.graph=graph;
+		build();
+	}
+
+	/*
+	 * (Re)index all nodes and edges of the graph
+	 */
+	synchronized void build(){
+		invalidateTrees();
+		int n=graph.getNodeCount();
+		nodes=new BDNode[Math.max(16, n)];
+		len=new int[nodes.length];
+		cov=new double[nodes.length];
+		nodeSlots=nodeCount=0;
+		for(Node node:graph)
+			indexNode((BDNode) node);
+
+		//count the entries of every end then fill
+		offsets=new int[2*nodes.length+1];
+		overflowHead=new int[2*nodes.length];
+		Arrays.fill(overflowHead, -1);
+		Iterator<Edge> ite=graph.edges().iterator();
+		while(ite.hasNext()){
+			BDEdge e=(BDEdge) ite.next();
+			forEachEnd(e, (end, opp, arrive)->offsets[end+1]++);
+		}
+		for(int i=1;i<offsets.length;i++)
+			offsets[i]+=offsets[i-1];
+		csrNodes=nodeSlots;
+		csrSize=offsets[2*nodeSlots];
+
+		int capacity=Math.max(16, csrSize+csrSize/4);
+		adjNode=new int[capacity];
+		adjLength=new int[capacity];
+		nextSlot=new int[capacity];
+		adjArrive=new byte[capacity];
+		adjEdge=new BDEdge[capacity];
+		int[] fill=Arrays.copyOf(offsets, offsets.length-1);
+		ite=graph.edges().iterator();
+		while(ite.hasNext()){
+			BDEdge e=(BDEdge) ite.next();
+			forEachEnd(e, (end, opp, arrive)->setSlot(fill[end]++, opp, arrive, e));
+		}
+		edgeSlots=csrSize;
+		holes=overflow=0;
+	}
+
+	private interface EndVisitor{
+		void visit(int end, int opposite, byte arrive);
+	}
+	/*
+	 * The ends an edge is attached to (a self-loop in/out is on both ends of its node),
+	 * the same as GraphStream's leavingEdges()/enteringEdges() of BDNode
+	 */
+	private void forEachEnd(BDEdge e, EndVisitor v){
+		BDNode n0=(BDNode) e.getNode0(), n1=(BDNode) e.getNode1();
+		attach(e, n0, n1, v);
+		if(n1!=n0)
+			attach(e, n1, n0, v);
+	}
+	private void attach(BDEdge e, BDNode node, BDNode opp, EndVisitor v){
+		Boolean dir=e.getNodeDirection(node);
+		Boolean oppDir=e.getNodeDirection(opp);
+		byte arrive=oppDir==null?ARRIVE_BOTH:(oppDir?ARRIVE_OUT:ARRIVE_IN);
+		int idx=node.coreIndex, oppIdx=opp.coreIndex;
+		if(dir==null || dir)
+			v.visit(2*idx+1, oppIdx, arrive);
+		if(dir==null || !dir)
+			v.visit(2*idx, oppIdx, arrive);
+	}
+	private void setSlot(int slot, int opp, byte arrive, BDEdge e){
+		adjNode[slot]=opp;
+		adjArrive[slot]=arrive;
+		adjLength[slot]=UNKNOWN; //read when first traversed: "path" is set after the edge is added
+		adjEdge[slot]=e;
+		nextSlot[slot]=-1;
+	}
+
+	private void indexNode(BDNode node){
+		if(nodeSlots==nodes.length){
+			int cap=nodes.length*2;
+			nodes=Arrays.copyOf(nodes, cap);
+			len=Arrays.copyOf(len, cap);
+			cov=Arrays.copyOf(cov, cap);
+			if(overflowHead!=null){
+				int old=overflowHead.length;
+				overflowHead=Arrays.copyOf(overflowHead, 2*cap);
+				Arrays.fill(overflowHead, old, overflowHead.length, -1);
+			}
+		}
+		node.coreIndex=nodeSlots;
+		nodes[nodeSlots]=node;
+		len[nodeSlots]=UNKNOWN; //attributes are set after the node is added
+		cov[nodeSlots]=node.hasAttribute("cov")?node.getNumber("cov"):0;
+		nodeSlots++;
+		nodeCount++;
+	}
+
+	/*
+	 * Incremental updates, called from BDGraph's GraphStream callbacks
+	 */
+	synchronized void nodeAdded(BDNode node){
+		invalidateTrees();
+		indexNode(node);
+	}
+	synchronized void nodeRemoved(BDNode node){
+		invalidateTrees();
+		int idx=indexOf(node);
+		if(idx<0)
+			return;
+		nodes[idx]=null; //its edges were removed before
+		nodeCount--;
+		holes++;
+	}
+	synchronized void edgeAdded(BDEdge e){
+		invalidateTrees();
+		forEachEnd(e, (end, opp, arrive)->{
+			if(edgeSlots==adjNode.length)
+				growSlots();
+			int slot=edgeSlots++;
+			setSlot(slot, opp, arrive, e);
+			//append to the overflow chain of the end so the iteration order stays the insertion order
+			if(overflowHead[end]<0)
+				overflowHead[end]=slot;
+			else{
+				int s=overflowHead[end];
+				while(nextSlot[s]>=0)
+					s=nextSlot[s];
+				nextSlot[s]=slot;
+			}
+			overflow++;
+		});
+	}
+	synchronized void edgeRemoved(BDEdge e){
+		invalidateTrees();
+		forEachEnd(e, (end, opp, arrive)->{
+			for(int s=firstSlot(end);s>=0;s=followingSlot(end, s))
+				if(adjEdge[s]==e){
+					adjEdge[s]=null;
+					holes++;
+					break;
+				}
+		});
+	}
+	private void growSlots(){
+		int cap=adjNode.length*2;
+		adjNode=Arrays.copyOf(adjNode, cap);
+		adjLength=Arrays.copyOf(adjLength, cap);
+		nextSlot=Arrays.copyOf(nextSlot, cap);
+		adjArrive=Arrays.copyOf(adjArrive, cap);
+		adjEdge=Arrays.copyOf(adjEdge, cap);
+	}
+
+	boolean needsRebuild(){
+		return holes+overflow > REBUILD_RATIO*(csrSize+nodeSlots) + 64;
+	}
+
+	/*
+	 * Raw slot iteration of an end: CSR range then the overflow chain (holes included)
+	 */
+	private int firstSlot(int end){
+		if((end>>1)<csrNodes && offsets[end]<offsets[end+1])
+			return offsets[end];
+		return overflowHead[end];
+	}
+	private int followingSlot(int end, int slot){
+		if(slot<csrSize){
+			if(slot+1<offsets[end+1])
+				return slot+1;
+			return overflowHead[end];
+		}
+		return nextSlot[slot];
+	}
+
+	/*
+	 * Accessors
+	 */
+	public int size(){
+		return nodeSlots;
+	}
+	public int getNodeCount(){
+		return nodeCount;
+	}
+	//index of a node, -1 if it's not (or no longer) in the graph
+	public int indexOf(BDNode node){
+		int idx=node.coreIndex;
+		return idx>=0 && idx<nodeSlots && nodes[idx]==node?idx:-1;
+	}
+	public BDNode getNode(int index){
+		return nodes[index];
+	}
+	public int getLength(int index){
+		if(len[index]==UNKNOWN && nodes[index]!=null && nodes[index].hasAttribute("len"))
+			len[index]=(int) nodes[index].getNumber("len");
+		return len[index]==UNKNOWN?0:len[index];
+	}
+	public double getCoverage(int index){
+		return cov[index];
+	}
+	//reload coverage snapshot after the coverage of nodes were re-estimated
+	public synchronized void refreshCoverage(){
+		for(int i=0;i<nodeSlots;i++)
+			if(nodes[i]!=null && nodes[i].hasAttribute("cov"))
+				cov[i]=nodes[i].getNumber("cov");
+	}
+
+	/*
+	 * Cursor over the live edges of a node end, reusable to avoid allocation
+	 */
+	public final class Adjacency{
+		private int end, slot;
+		private boolean started;
+
+		public Adjacency reset(int index, boolean leaving){
+			end=2*index+(leaving?1:0);
+			started=false;
+			return this;
+		}
+		public boolean next(){
+			slot=started?followingSlot(end, slot):firstSlot(end);
+			started=true;
+			while(slot>=0 && adjEdge[slot]==null)
+				slot=followingSlot(end, slot);
+			return slot>=0;
+		}
+		public int node(){
+			return adjNode[slot];
+		}
+		//direction of the edge at the opposite node, null for a self-loop going out and in
+		public Boolean arrive(){
+			return adjArrive[slot]==ARRIVE_BOTH?null:adjArrive[slot]==ARRIVE_OUT;
+		}
+		public int length(){
+			if(adjLength[slot]==UNKNOWN)
+				adjLength[slot]=adjEdge[slot].getLength();
+			return adjLength[slot];
+		}
+		public BDEdge edge(){
+			return adjEdge[slot];
+		}
+	}
+	public Adjacency adjacency(){
+		return new Adjacency();
+	}
+
+	/*
+	 * Shortest distances of the node states (node, direction) around a root expanding to a direction
+	 * within a distance (Dijkstra). Distances and keys as in BDGraph.getShortestTreeFromNode().
+	 * A tree is immutable: it can be computed for a larger distance (see SHORTEST_TREE_BUCKET) and
+	 * shared, get() only returns the states within the distance it was asked for.
+	 */
+	public class ShortestTree{
+		final int root;
+		final boolean rootDir;
+		final int distance;
+		//open addressing map: state=index*2+(dir?1:0) -> distance
+		final int[] keys, dists;
+		final int size;
+
+		private ShortestTree(int root, boolean rootDir, int distance, int[] keys, int[] dists, int size){
+			this.root=root;
+			this.rootDir=rootDir;
+			this.distance=distance;
+			this.keys=keys;
+			this.dists=dists;
+			this.size=size;
+		}
+		//the same tree restricted to a (shorter) distance
+		ShortestTree within(int newDistance){
+			return newDistance==distance?this:new ShortestTree(root, rootDir, newDistance, keys, dists, size);
+		}
+
+		private int slotOf(int state){
+			int mask=keys.length-1, i=hash(state) & mask;
+			while(keys[i]!=-1 && keys[i]!=state)
+				i=(i+1) & mask;
+			return i;
+		}
+		//distance of a state, UNKNOWN if not reached
+		public int get(int index, boolean dir){
+			int i=slotOf(2*index+(dir?1:0));
+			return keys[i]==-1 || !reachable(dists[i], distance)?UNKNOWN:dists[i];
+		}
+		public int get(BDNode node, boolean dir){
+			int idx=indexOf(node);
+			return idx<0?UNKNOWN:get(idx, dir);
+		}
+		public boolean contains(BDNode node, boolean dir){
+			return get(node, dir)!=UNKNOWN;
+		}
+		//number of states computed (may include some beyond the distance of this view)
+		public int size(){
+			return size;
+		}
+		//in the old String keyed format: node ID + o/i
+		public HashMap<String, Integer> toMap(){
+			HashMap<String, Integer> retval=new HashMap<>();
+			for(int i=0;i<keys.length;i++)
+				if(keys[i]!=-1 && nodes[keys[i]>>1]!=null && reachable(dists[i], distance))
+					retval.put(nodes[keys[i]>>1].getId()+((keys[i]&1)==1?"o":"i"), dists[i]);
+			return retval;
+		}
+	}
+	private static int hash(int state){
+		int h=state*0x9E3779B9;
+		return h ^ (h>>>16);
+	}
+	//the pruning condition of the Dijkstra: a state is kept if this is true
+	static boolean reachable(int dist, int distance){
+		return !(dist-distance > BDGraph.A_TOL && GraphUtil.approxCompare(dist, distance)>0);
+	}
+
+	/*
+	 * Cache of shortest trees by (root state, distance bucket): the same anchor is queried by the DFS
+	 * of every read bridging it and by the consensus caller. Cleared on any change of the graph.
+	 */
+	public static int SHORTEST_TREE_CACHE=4096; //max number of trees kept, 0 to disable
+	public static int SHORTEST_TREE_BUCKET=500; //distances are rounded up to a multiple of this
+	private final LinkedHashMap<Long, ShortestTree> treeCache=new LinkedHashMap<Long, ShortestTree>(256, .75f, true){
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, ShortestTree> eldest){
+			return size() > SHORTEST_TREE_CACHE;
+		}
+	};
+	private long cacheHits=0, cacheMisses=0;
+
+	void invalidateTrees(){
+		synchronized(treeCache){
+			treeCache.clear();
+		}
+	}
+	public String getTreeCacheStats(){
+		synchronized(treeCache){
+			return "shortest tree cache: size="+treeCache.size()+" hits="+cacheHits+" misses="+cacheMisses;
+		}
+	}
+
+	public ShortestTree getShortestTree(BDNode rootNode, boolean expDir, int distance){
+		int root=indexOf(rootNode);
+		if(root<0)
+			return new ShortestTree(root, expDir, distance, new int[]{-1}, new int[1], 0);
+		if(SHORTEST_TREE_CACHE<=0)
+			return computeShortestTree(root, expDir, distance);
+
+		int bucket=SHORTEST_TREE_BUCKET>0?Math.max(1, (distance+SHORTEST_TREE_BUCKET-1)/SHORTEST_TREE_BUCKET):distance;
+		long key=((long)(2*root+(expDir?1:0))<<32) | (bucket & 0xffffffffL);
+		ShortestTree tree;
+		synchronized(treeCache){
+			tree=treeCache.get(key);
+			if(tree!=null)
+				cacheHits++;
+			else
+				cacheMisses++;
+		}
+		if(tree==null){
+			tree=computeShortestTree(root, expDir, SHORTEST_TREE_BUCKET>0?bucket*SHORTEST_TREE_BUCKET:distance);
+			synchronized(treeCache){
+				treeCache.put(key, tree);
+			}
+		}
+		return tree.within(distance);
+	}
+
+	/*
+	 * Per-thread scratch of the Dijkstra, indexed by state=index*2+dir and reused between calls:
+	 * a state's distance/heap position is only valid if its stamp is the current one.
+	 */
+	private static final class Scratch{
+		int[] dist=new int[0], stamp=new int[0], heapPos=new int[0];
+		int[] heap=new int[64], touched=new int[64];
+		int epoch=0;
+
+		void prepare(int states){
+			if(stamp.length<states){
+				int cap=Math.max(states, stamp.length*2);
+				dist=new int[cap];
+				stamp=new int[cap];
+				heapPos=new int[cap];
+				epoch=0;
+			}
+			if(++epoch==Integer.MAX_VALUE){
+				Arrays.fill(stamp, 0);
+				epoch=1;
+			}
+		}
+	}
+	private static final ThreadLocal<Scratch> scratch=ThreadLocal.withInitial(Scratch::new);
+
+	ShortestTree computeShortestTree(int root, boolean expDir, int distance){
+		Scratch sc=scratch.get();
+		sc.prepare(2*nodeSlots);
+		final int[] dist=sc.dist, stamp=sc.stamp, heapPos=sc.heapPos;
+		final int epoch=sc.epoch;
+		int heapSize=0, nTouched=0;
+
+		int rootState=2*root+(expDir?1:0);
+		stamp[rootState]=epoch;
+		dist[rootState]=-getLength(root);
+		sc.touched[nTouched++]=rootState;
+		heapPos[rootState]=0;
+		sc.heap[heapSize++]=rootState;
+
+		Adjacency adj=new Adjacency();
+		while(heapSize>0){
+			int state=sc.heap[0];
+			heapPos[state]=-1; //settled
+			if(--heapSize>0){
+				sc.heap[0]=sc.heap[heapSize];
+				heapPos[sc.heap[0]]=0;
+				siftDown(sc.heap, heapSize, 0, dist, heapPos);
+			}
+			int cur=state>>1, curDistance=dist[state];
+			boolean curDir=(state&1)==1;
+
+			adj.reset(cur, curDir);
+			while(adj.next()){
+				Boolean arrive=adj.arrive();
+				boolean dir=arrive==null?curDir:!arrive;
+				int newDistance=curDistance+adj.length()+getLength(cur);
+				if(!reachable(newDistance, distance))
+					continue;
+				int next=2*adj.node()+(dir?1:0);
+				if(stamp[next]!=epoch){
+					stamp[next]=epoch;
+					dist[next]=newDistance;
+					heapPos[next]=-1;
+					if(nTouched==sc.touched.length)
+						sc.touched=Arrays.copyOf(sc.touched, nTouched*2);
+					sc.touched[nTouched++]=next;
+				}else if(dist[next]>newDistance)
+					dist[next]=newDistance;
+				else
+					continue;
+				if(heapPos[next]>=0) //decrease-key in place
+					siftUp(sc.heap, heapPos[next], dist, heapPos);
+				else{ //new or settled state (edges can be negative: overlaps)
+					if(heapSize==sc.heap.length)
+						sc.heap=Arrays.copyOf(sc.heap, heapSize*2);
+					sc.heap[heapSize]=next;
+					siftUp(sc.heap, heapSize++, dist, heapPos);
+				}
+			}
+		}
+
+		//copy the reached states to an exactly sized table
+		int cap=Integer.highestOneBit(Math.max(2, nTouched)*2)*2;
+		int[] keys=new int[cap], dists=new int[cap];
+		Arrays.fill(keys, -1);
+		for(int j=0;j<nTouched;j++){
+			int st=sc.touched[j], i=hash(st) & (cap-1);
+			while(keys[i]!=-1)
+				i=(i+1) & (cap-1);
+			keys[i]=st;
+			dists[i]=dist[st];
+		}
+		return new ShortestTree(root, expDir, distance, keys, dists, nTouched);
+	}
+
+	//indexed binary heap of states ordered by distance (then state for a deterministic order)
+	private static boolean less(int a, int b, int[] dist){
+		return dist[a]<dist[b] || (dist[a]==dist[b] && a<b);
+	}
+	private static void siftUp(int[] heap, int i, int[] dist, int[] pos){
+		int x=heap[i];
+		while(i>0){
+			int parent=(i-1)>>>1;
+			if(!less(x, heap[parent], dist))
+				break;
+			heap[i]=heap[parent];
+			pos[heap[i]]=i;
+			i=parent;
+		}
+		heap[i]=x;
+		pos[x]=i;
+	}
+	private static void siftDown(int[] heap, int size, int i, int[] dist, int[] pos){
+		int x=heap[i];
+		int half=size>>>1;
+		while(i<half){
+			int child=2*i+1;
+			if(child+1<size && less(heap[child+1], heap[child], dist))
+				child++;
+			if(!less(heap[child], x, dist))
+				break;
+			heap[i]=heap[child];
+			pos[heap[i]]=i;
+			i=child;
+		}
+		heap[i]=x;
+		pos[x]=i;
+	}
+}
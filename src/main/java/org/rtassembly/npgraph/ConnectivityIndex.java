@@ -0,0 +1,299 @@
+package org.rtassembly.npgraph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Node;
+
+/*
+ * Connected components of a BDGraph maintained under node/edge insertions and deletions
+ * (kept in sync by the graph callbacks, see BDGraph.getConnectivity()), with the size and coverage
+ * stats of each component so that "which component, how big, how covered" are O(1).
+ *
+ * Insertion merges the smaller component into the bigger one. Deletion of an edge runs two interleaved
+ * searches from its ends: if one runs out first, the edge was a bridge and only that (smaller) side is
+ * relabelled, otherwise they meet and nothing changes. Each node is relabelled O(log n) times over
+ * the merges/splits. The same searches answer "what if this edge were removed" without changing anything.
+ *
+ * Nodes are indexed by their BDNode.serial. Structural changes come from the graph callbacks under the write lock
+ * of the graph, attribute changes (nodeChanged) may come under its read lock. Queries should hold the read lock:
+ * all methods are synchronized on the index (queries lazily refresh the stats) and each search has its own marks.
+ */
+public class ConnectivityIndex {
+	/*
+	 * Sums over a set of nodes (a component or one side of an edge) used for its significance.
+	 * Uniqueness is not kept here as it changes with the binning without any graph event: check the nodes.
+	 */
+	public static class Stats{
+		int nodeCount=0, edgeCount=0;
+		double 	totLen=0, //sum of (len-k)
+				presentLen=0, //sum of (len-k) of nodes likely still presented, see GraphUtil.isLikelyStillPresented()
+				presentCov=0; //sum of cov*(len-k) of these nodes
+
+		public int getNodeCount(){return nodeCount;}
+		public int getEdgeCount(){return edgeCount;}
+		public double getTotalLength(){return totLen;}
+		public double getPresentLength(){return presentLen;}
+		public double getAverageCoverage(){return totLen==0?0:presentCov/totLen;}
+
+		void add(Stats o, int sign){
+			nodeCount+=sign*o.nodeCount;
+			edgeCount+=sign*o.edgeCount;
+			totLen+=sign*o.totLen;
+			presentLen+=sign*o.presentLen;
+			presentCov+=sign*o.presentCov;
+		}
+	}
+
+	public static class Component extends Stats{
+		final int id;
+		final Set<Node> nodes=new HashSet<>();
+		Component(int id){this.id=id;}
+		public int getId(){return id;}
+		public Set<Node> getNodes(){return nodes;}
+	}
+
+	/*
+	 * One side of an edge if it's a bridge: the nodes reachable from an end without it
+	 */
+	public static class Side extends Stats{
+		final Node end;
+		final List<Node> nodes=new ArrayList<>();
+		Side(Node end){this.end=end;}
+		public Node getEnd(){return end;}
+		public List<Node> getNodes(){return nodes;}
+	}
+
+	private Component[] compOf=new Component[1024];
+	private Stats[] contrib=new Stats[1024]; //current contribution of each node to its component
+	private final Set<Component> components=new HashSet<>();
+	private final Set<Node> stale=new HashSet<>(); //nodes with changed attributes (length, coverage, uniqueness)
+	private int lastId=0;
+
+	ConnectivityIndex(BDGraph graph){
+		graph.nodes().forEach(n->nodeAdded((BDNode) n));
+		graph.edges().forEach(e->edgeAdded((BDEdge) e));
+	}
+
+	public synchronized int getComponentCount(){
+		return components.size();
+	}
+	public synchronized Set<Component> getComponents(){
+		refresh();
+		return components;
+	}
+	public synchronized Component getComponent(Node node){
+		refresh();
+		int s=((BDNode) node).serial;
+		return s>=0 && s<compOf.length?compOf[s]:null;
+	}
+	public synchronized boolean isConnected(Node n0, Node n1){
+		Component c=getComponent(n0);
+		return c!=null && c==getComponent(n1);
+	}
+
+	/*
+	 * Graph callbacks
+	 */
+	synchronized void nodeAdded(BDNode node){
+		ensure(node.serial);
+		Component comp=newComponent();
+		Stats c=new Stats();
+		c.nodeCount=1;
+		contrib[node.serial]=c;
+		comp.add(c, 1);
+		comp.nodes.add(node);
+		compOf[node.serial]=comp;
+		stale.add(node); //attributes are set after the node is added
+	}
+	synchronized void nodeRemoved(BDNode node){
+		Component comp=compOf[node.serial];
+		if(comp==null)
+			return;
+		//edges were removed before, so it is alone
+		comp.add(contrib[node.serial], -1);
+		comp.nodes.remove(node);
+		if(comp.nodes.isEmpty())
+			components.remove(comp);
+		compOf[node.serial]=null;
+		contrib[node.serial]=null;
+		stale.remove(node);
+	}
+	synchronized void nodeChanged(Node node){
+		int s=((BDNode) node).serial;
+		if(s>=0 && s<compOf.length && compOf[s]!=null)
+			stale.add(node);
+	}
+	synchronized void edgeAdded(BDEdge edge){
+		Component 	c0=compOf[((BDNode) edge.getNode0()).serial],
+					c1=compOf[((BDNode) edge.getNode1()).serial];
+		if(c0==null || c1==null)
+			return;
+		if(c0!=c1){
+			//merge the smaller into the bigger
+			if(c0.nodes.size()<c1.nodes.size()){
+				Component tmp=c0;
+				c0=c1;
+				c1=tmp;
+			}
+			for(Node n:c1.nodes){
+				compOf[((BDNode) n).serial]=c0;
+				c0.nodes.add(n);
+			}
+			c0.add(c1, 1);
+			components.remove(c1);
+		}
+		c0.edgeCount++;
+	}
+	synchronized void edgeRemoved(BDEdge edge){
+		BDNode 	n0=(BDNode) edge.getNode0(),
+				n1=(BDNode) edge.getNode1();
+		Component comp=compOf[n0.serial];
+		if(comp==null)
+			return;
+		comp.edgeCount--;
+		if(n0==n1)
+			return;
+		Side side=search(edge);
+		if(side==null)
+			return;
+		//a bridge: the smaller side becomes a new component
+		Component split=newComponent();
+		for(Node n:side.nodes){
+			comp.nodes.remove(n);
+			split.nodes.add(n);
+			compOf[((BDNode) n).serial]=split;
+		}
+		split.add(side, 1);
+		comp.add(side, -1);
+	}
+
+	/**
+	 * The side of an edge that would be disconnected if it were removed
+	 * @return the smaller side, or null if the edge is not a bridge (its ends are still connected without it)
+	 */
+	public synchronized Side getSideIfRemoved(Edge edge){
+		refresh();
+		if(edge.getNode0()==edge.getNode1())
+			return null;
+		return search(edge);
+	}
+	/**
+	 * Stats of the other side of a bridge, i.e. its component minus the given side
+	 */
+	public synchronized Stats getOtherSide(Side side){
+		Stats retval=new Stats();
+		Component comp=getComponent(side.end);
+		if(comp!=null){
+			retval.add(comp, 1);
+			retval.add(side, -1);
+			retval.edgeCount--; //the bridge itself
+		}
+		return retval;
+	}
+
+	/*
+	 * Interleaved BFS from both ends of an edge without using it.
+	 * Stop when one side runs out (a bridge: return that side) or they meet (return null).
+	 * The marks (which side reached a node) are per search so concurrent queries don't share them.
+	 */
+	private Side search(Edge edge){
+		Node 	n0=edge.getNode0(),
+				n1=edge.getNode1();
+		Side 	sideA=new Side(n0),
+				sideB=new Side(n1);
+		HashMap<Node, Side> mark=new HashMap<>();
+		ArrayDeque<Node> 	queueA=new ArrayDeque<>(),
+							queueB=new ArrayDeque<>();
+		HashSet<Edge> 	edgesA=new HashSet<>(),
+						edgesB=new HashSet<>();
+		visit(n0, sideA, queueA, mark);
+		visit(n1, sideB, queueB, mark);
+		while(true){
+			boolean expandA=queueB.isEmpty() || (!queueA.isEmpty() && sideA.nodes.size()<=sideB.nodes.size());
+			ArrayDeque<Node> queue=expandA?queueA:queueB;
+			if(queue.isEmpty()){
+				Side retval=expandA?sideA:sideB;
+				retval.edgeCount=(expandA?edgesA:edgesB).size();
+				return retval;
+			}
+			Side side=expandA?sideA:sideB;
+			HashSet<Edge> edges=expandA?edgesA:edgesB;
+			Node n=queue.poll();
+			Iterator<Edge> ite=n.edges().iterator();
+			while(ite.hasNext()){
+				Edge e=ite.next();
+				if(e==edge)
+					continue;
+				edges.add(e);
+				Node o=e.getOpposite(n);
+				Side reached=mark.get(o);
+				if(reached==null)
+					visit(o, side, queue, mark);
+				else if(reached!=side)
+					return null;
+			}
+		}
+	}
+	private void visit(Node n, Side side, ArrayDeque<Node> queue, HashMap<Node, Side> mark){
+		int s=((BDNode) n).serial;
+		mark.put(n, side);
+		queue.add(n);
+		side.nodes.add(n);
+		if(contrib[s]!=null)
+			side.add(contrib[s], 1);
+	}
+
+	//re-compute the contributions of the changed nodes
+	private void refresh(){
+		if(stale.isEmpty())
+			return;
+		//copy first: computing a contribution might mark nodes again
+		List<Node> nodes=new ArrayList<>(stale);
+		stale.clear();
+		for(Node n:nodes){
+			int s=((BDNode) n).serial;
+			Component comp=compOf[s];
+			if(comp==null)
+				continue;
+			Stats c=contribution(n);
+			comp.add(contrib[s], -1);
+			comp.add(c, 1);
+			contrib[s]=c;
+		}
+	}
+	private static Stats contribution(Node n){
+		Stats retval=new Stats();
+		retval.nodeCount=1;
+		if(n.hasAttribute("len")){
+			double len=n.getNumber("len")-BDGraph.getKmerSize();
+			retval.totLen=len;
+			if(n.hasAttribute("cov") && GraphUtil.originalCoverageValues.containsKey(n) && GraphUtil.isLikelyStillPresented(n)){
+				retval.presentLen=len;
+				retval.presentCov=n.getNumber("cov")*len;
+			}
+		}
+		return retval;
+	}
+
+	private Component newComponent(){
+		Component retval=new Component(++lastId);
+		components.add(retval);
+		return retval;
+	}
+	private void ensure(int serial){
+		if(serial<compOf.length)
+			return;
+		int len=Math.max(serial+1, compOf.length*2);
+		compOf=Arrays.copyOf(compOf, len);
+		contrib=Arrays.copyOf(contrib, len);
+	}
+
+}
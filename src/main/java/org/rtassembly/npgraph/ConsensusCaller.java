@@ -1,34 +1,62 @@
 package org.rtassembly.npgraph;
 
-import java.io.File;
 import java.lang.invoke.MethodHandles;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
-import japsa.bio.np.ErrorCorrection;
+import japsa.bio.np.MsaRunner;
+import japsa.seq.AbstractSequence;
 import japsa.seq.Alphabet;
+import japsa.seq.JoinedSequence;
+import japsa.seq.PackedSequence;
 import japsa.seq.Sequence;
-import japsa.seq.SequenceBuilder;
+import japsa.seq.SequenceView;
 
 //Module for consensus bridging of contigs when they're not connected in the assembly graph
 public class ConsensusCaller {
     private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
 	
-	volatile HashMap<String, List<Sequence>> bridgingReads;
-	volatile HashMap<String, Sequence> consensusReads;
-	private Set<String> connectedPairs; //save connected node pairs in the assembly graph so that we don't need to save the in-betwwen long-read
+	public static int THREADS=1; //consensus workers, shared by all graphs
+	public static int QUEUE_SIZE=1024; //max pending consensus jobs, no more are queued (until the next read of a bridge)
+
+	/*
+	 * Consensus calling runs on a pool of workers instead of the thread building the bridges (holding the graph lock).
+	 * Jobs with more bridging reads (closer to the completion of their bridges) go first. The consensus is published
+	 * in consensusReads once done. A forced one (a last attempt on a bridge) is called inline by the caller instead.
+	 * Not reproducible run to run: whether a bridge sees its consensus yet, and from which reads it was called,
+	 * depends on the timing of the workers.
+	 */
+	private static final PriorityBlockingQueue<Runnable> queue=new PriorityBlockingQueue<>();
+	private static ThreadPoolExecutor workers=null;
+	private static final AtomicInteger running=new AtomicInteger();
+	private static final AtomicLong submitted=new AtomicLong(), completed=new AtomicLong(), 
+									failed=new AtomicLong(), rejected=new AtomicLong(),
+									latencyNanos=new AtomicLong(), maxLatencyNanos=new AtomicLong(), jobSeq=new AtomicLong();
+	private final HashMap<String, Job> jobs=new HashMap<>(); //pending or running jobs of this caller, guarded by itself
+	
+	//reads per bridge (ID of its 2 anchors), added while holding the bridge's locks and read by the workers
+	final BridgingReadStore bridgingReads;
+	final ConcurrentHashMap<String, Sequence> consensusReads;
+	private final Set<String> connectedPairs; //save connected node pairs in the assembly graph so that we don't need to save the in-betwwen long-read
 	String msa;
+	//in-process POA, buffers are reused by the bridges handled on the same thread (dropped if grown too big)
+	private static final ThreadLocal<PoaConsensus> poa=ThreadLocal.withInitial(PoaConsensus::new);
 	ConsensusCaller(){
-		consensusReads = new HashMap<String, Sequence>();
-		bridgingReads = new HashMap<String, List<Sequence>>();
-		connectedPairs = new HashSet<>();
-		msa="kalign"; //default because of popularity, recommended one is spoa
+		consensusReads = new ConcurrentHashMap<String, Sequence>();
+		bridgingReads = new BridgingReadStore();
+		connectedPairs = ConcurrentHashMap.newKeySet();
+		msa="builtin"; //no external tool needed, the others are optional backends
 	}
 	ConsensusCaller(String msa){
 		this();
@@ -46,72 +74,176 @@ public class ConsensusCaller {
 			msa="kalign3";
 		else if(aligner.startsWith("kalign")) //slow but default to many Ubuntu distro
 			msa="kalign";
-		else
+		else if(aligner.startsWith("none"))
 			msa="none";
+		else
+			msa="builtin";
 
 	}
 	public String getConsensusMSA(){return msa;}
-	public void addBridgingRead(String id, Sequence seq){
+	public void addBridgingRead(String id, AbstractSequence seq){
 		//no need to add more reads if consensus sequence is already determined
 		if(consensusReads.containsKey(id))
 			return;
-		else if(!bridgingReads.containsKey(id))
-			bridgingReads.put(id, new ArrayList<Sequence>());
-		
-		getBridgingReadList(id).add(seq);
-		if(getBridgingReadsNumber(id) >= BDGraph.GOOD_SUPPORT) {
+		int count=bridgingReads.add(id, seq);
+		if(count >= BDGraph.GOOD_SUPPORT) {
 			//TODO: check sequences length
-			setConsensusSequence(id);
+			schedule(id, count);
 		}
 	}
-	public List<Sequence> getBridgingReadList(String id){
+	//the bridge doesn't need a consensus anymore
+	public void removeBridgingReads(String id){
+		bridgingReads.remove(id);
+		cancel(id);
+	}
+	public List<PackedSequence.MappedView> getBridgingReadList(String id){
 		return bridgingReads.get(id);
 	}
 	public int getBridgingReadsNumber(String id){
-		return getBridgingReadList(id)==null?-1:getBridgingReadList(id).size();
+		return bridgingReads.count(id);
 	}
+	/**
+	 * Consensus of a bridge if already called. If forced, call it now (even not enough bridging reads).
+	 */
 	public Sequence getConsensus(String id, boolean force){
-		if(force && getBridgingReadsNumber(id)>=BDGraph.MIN_SUPPORT)
-			setConsensusSequence(id); //do it even not enough bridging reads 
-		
-		return consensusReads.get(id);
+		Sequence retval=consensusReads.get(id);
+		if(retval==null && force && getBridgingReadsNumber(id)>=BDGraph.MIN_SUPPORT){
+			//on this thread: waiting for a worker while holding the locks of the bridge would stall the others
+			cancel(id);
+			retval=setConsensusSequence(id, true);
+		}
+		return retval;
 	}
-	
-	//Scan the list and check for the length consistency & remove the odd-one out
-	//If none is removed -> good, return 1
-	//If several are removed -> return 0
-	//If more than 20% are removed -> bad list, return -1 and not to considered for consensus calling 
-	private int scanElementReads(String id) {
-		if(!bridgingReads.containsKey(id))
-			return -1;
-		int size=bridgingReads.get(id).size();
-		double average=bridgingReads.get(id).stream().mapToInt(Sequence::length).average().getAsDouble();
-		bridgingReads.get(id).removeIf(s->GraphUtil.approxCompare(average, s.length())!=0);
-		if(bridgingReads.size()==0)
-			return -1;
-		else if(bridgingReads.size()==size)
-			return 1;
-		else if(bridgingReads.size() > (1-BDGraph.R_TOL*size))
-			return 0;
-		else {
-			bridgingReads.remove(id);
-			return -1;
+	//drop the pending job of a bridge (a running one can't be stopped)
+	private void cancel(String id){
+		synchronized(jobs){
+			Job job=jobs.get(id);
+			if(job!=null && queue.remove(job))
+				jobs.remove(id);
 		}
-		
+	}
+
+	/*
+	 * Queue a consensus job for a bridge, or raise the priority of its pending one.
+	 * Return null if the queue is full.
+	 */
+	private Job schedule(String id, int priority){
+		Job job;
+		synchronized(jobs){
+			job=jobs.get(id);
+			if(job!=null){
+				if(job.priority<priority && queue.remove(job)){
+					job.priority=priority;
+					queue.add(job);
+				}
+				return job;
+			}
+			if(queue.size()>=QUEUE_SIZE){
+				rejected.incrementAndGet();
+				return null;
+			}
+			job=new Job(id, priority);
+			jobs.put(id, job);
+		}
+		submitted.incrementAndGet();
+		getWorkers().execute(job);
+		return job;
+	}
+	private static synchronized ThreadPoolExecutor getWorkers(){
+		if(workers==null){
+			AtomicInteger count=new AtomicInteger();
+			workers=new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.SECONDS, queue, r->{
+				Thread t=new Thread(r, "npgraph-consensus-"+count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return workers;
+	}
+
+	class Job implements Runnable, Comparable<Job>{
+		final String id;
+		final long seq=jobSeq.incrementAndGet(), time=System.nanoTime();
+		volatile int priority;
+		Job(String id, int priority){
+			this.id=id;
+			this.priority=priority;
+		}
+		@Override
+		public void run(){
+			running.incrementAndGet();
+			try{
+				setConsensusSequence(id, false);
+				completed.incrementAndGet();
+			}catch(Throwable e){
+				failed.incrementAndGet();
+				logger.debug("Consensus job for {} failed: {}", id, e);
+			}finally{
+				running.decrementAndGet();
+				synchronized(jobs){
+					jobs.remove(id, this);
+				}
+				long latency=System.nanoTime()-time;
+				latencyNanos.addAndGet(latency);
+				maxLatencyNanos.accumulateAndGet(latency, Math::max);
+			}
+		}
+		@Override
+		public int compareTo(Job o){
+			int retval=Integer.compare(o.priority, priority);
+			return retval!=0?retval:Long.compare(seq, o.seq);
+		}
+	}
+
+	//queue depth, jobs and their latency (from submission to the consensus) of all graphs
+	public static String getStats(){
+		long done=completed.get()+failed.get();
+		return String.format("consensus jobs: queued=%d running=%d submitted=%d done=%d failed=%d rejected=%d latency avg=%.1fms max=%.1fms",
+				queue.size(), running.get(), submitted.get(), completed.get(), failed.get(), rejected.get(),
+				done==0?0:latencyNanos.get()/1e6/done, maxLatencyNanos.get()/1e6);
 	}
 	
-	private void setConsensusSequence(String id){
+	/*
+	 * Call and publish the consensus of a bridge. A forced one replaces what a worker running meanwhile
+	 * could have published, a worker's never replaces an existing one.
+	 */
+	private Sequence setConsensusSequence(String id, boolean force){
+		List<PackedSequence.MappedView> reads=getBridgingReadList(id);
+		if(reads==null) //removed meanwhile
+			return consensusReads.get(id);
+		if(reads.isEmpty())
+			return null;
 		Sequence consensus=null;
 		try {
-			ErrorCorrection.msa=msa;
-			consensus=ErrorCorrection.consensusSequence(getBridgingReadList(id), AlignedRead.tmpFolder+File.separator+id);
+			if(msa.equals("builtin")){
+				PoaConsensus caller=poa.get();
+				try{
+					consensus=caller.consensus(reads);
+				}finally{
+					//don't keep the buffers of an unusually long bridge for the lifetime of the thread
+					if(caller.footprint()>PoaConsensus.MAX_RETAINED)
+						poa.remove();
+				}
+			}else if(reads.size()>1 && !msa.equals("none")){
+				//the tool is passed along, not set to ErrorCorrection.msa which is shared by the workers
+				List<Sequence> seqs=reads.stream().map(PackedSequence.MappedView::toSequence).collect(Collectors.toList());
+				consensus=MsaRunner.consensus(seqs, seqs.size(), msa);
+			}
+			if(consensus==null)
+				consensus=reads.get(0).toSequence();
 		} catch (Exception e) {
 			logger.debug("Invalid consensus calling for {}. Pick the first read for the consensus of bridge.\n{}", id, e);
-			consensus=getBridgingReadList(id).get(0);
+			consensus=reads.get(0).toSequence();
+		}
+		if(force)
+			consensusReads.put(id, consensus);
+		else{
+			Sequence published=consensusReads.putIfAbsent(id, consensus);
+			if(published!=null)
+				return published;
 		}
-		consensusReads.put(id, consensus);
 		bridgingReads.remove(id); //don't need anymore, release the entry to free (not much) memory!
-		
+		return consensus;
 	}
 	
 	//TODO: when to save (important) and what to save!!!
@@ -121,9 +253,8 @@ public class ConsensusCaller {
 			if(consensusReads.containsKey(id) || connectedPairs.contains(id))
 				continue;
 			Alignment first=r.getFirstAlignment(), last=r.getLastAlignment();
-			HashMap<String,Integer> shortestMap = BDGraph.getShortestTreeFromNode(last.node, !last.strand, Math.abs(last.readStart-first.readEnd));
-			String key=first.node.getId()+ (first.strand?"o":"i");
-			if(shortestMap.containsKey(key))
+			CompactGraph.ShortestTree shortestTree = BDGraph.getShortestTreeFromNode(last.node, !last.strand, Math.abs(last.readStart-first.readEnd));
+			if(shortestTree.contains(first.node, first.strand))
 				connectedPairs.add(id);
 			else{
 				saveCorrectedSequenceInBetween(r);
@@ -150,17 +281,16 @@ public class ConsensusCaller {
 			
 		}
 		//1. Appending k-flanking sequence from the start node
-		Sequence flank0=((Sequence)fromContig.getAttribute("seq"))
-						.subSequence(	(int)fromContig.getNumber("len")-BDGraph.getKmerSize(), 
+		//views on the contigs and the read: nothing is copied until the read is packed into the store
+		AbstractSequence flank0=SequenceView.of(fromContig.getSequence(),
+										(int)fromContig.getNumber("len")-BDGraph.getKmerSize(), 
 										(int)fromContig.getNumber("len"));
 		
 		if(!start.strand){
-			flank0=((Sequence)fromContig.getAttribute("seq"))
-					.subSequence(0, BDGraph.getKmerSize());
-			flank0=Alphabet.DNA.complement(flank0);
+			flank0=SequenceView.reverseComplement(fromContig.getSequence(), 0, BDGraph.getKmerSize());
 		}
 		
-		SequenceBuilder seqBuilder = new SequenceBuilder(Alphabet.DNA(), 1024*1024,  read.readSequence.getName());
+		JoinedSequence seqBuilder = new JoinedSequence(Alphabet.DNA(), read.readSequence.getName());
 		seqBuilder.append(flank0);
 		
 		//2. Filling the sequence in-between
@@ -180,7 +310,7 @@ public class ConsensusCaller {
 				//Really need to fill in using read information
 				int newPosReadEnd = Math.min(posReadFinal, record.readAlignmentStart());
 				if (newPosReadEnd > posReadEnd){
-					seqBuilder.append(read.readSequence.subSequence(posReadEnd-1, newPosReadEnd-1)); //subsequence is 0-index
+					seqBuilder.append(read.readSequence, posReadEnd-1, newPosReadEnd-1); //subsequence is 0-index
 					posReadEnd = newPosReadEnd;
 					
 				}
@@ -203,7 +333,7 @@ public class ConsensusCaller {
 					if(refLeft > refRight)
 						continue;
 			
-					seqBuilder.append(((Sequence)contig.getAttribute("seq")).subSequence(refLeft-1, refRight-1));
+					seqBuilder.append(contig.getSequence(), refLeft-1, refRight-1);
 
 				}else{//neg strand
 					int refRight = record.refStart;
@@ -219,7 +349,7 @@ public class ConsensusCaller {
 						continue;
 					
 				
-					seqBuilder.append(Alphabet.DNA.complement(((Sequence)contig.getAttribute("seq")).subSequence(refRight-1, refLeft-1)));
+					seqBuilder.append(SequenceView.reverseComplement(contig.getSequence(), refRight-1, refLeft-1));
 				}
 			}else{//Now get information on the contig from start
 				if (contig == toContig)
@@ -238,7 +368,7 @@ public class ConsensusCaller {
 						continue;
 					
 					
-					seqBuilder.append(((Sequence)contig.getAttribute("seq")).subSequence(refLeft-1, refRight-1));
+					seqBuilder.append(contig.getSequence(), refLeft-1, refRight-1);
 				}else{//neg strand						
 					int refLeft = record.getReferencePositionAtReadPosition(posReadEnd);		
 					int refRight = record.refStart;
@@ -252,26 +382,24 @@ public class ConsensusCaller {
 					if(refLeft < refRight)
 						continue;
 					
-					seqBuilder.append(Alphabet.DNA.complement(((Sequence)contig.getAttribute("seq")).subSequence(refRight - 1, refLeft-1)));
+					seqBuilder.append(SequenceView.reverseComplement(contig.getSequence(), refRight-1, refLeft-1));
 				}
 			}
 		}
 		
 		//3. Make sure the k-flanking sequence of the ending node is included at last.
 		
-		Sequence flank1=((Sequence)toContig.getAttribute("seq"))
-						.subSequence(0, BDGraph.getKmerSize());
+		AbstractSequence flank1=SequenceView.of(toContig.getSequence(), 0, BDGraph.getKmerSize());
 		if(!end.strand){
-				flank1=((Sequence)toContig.getAttribute("seq"))
-						.subSequence(	(int)toContig.getNumber("len")-BDGraph.getKmerSize(), 
+				flank1=SequenceView.reverseComplement(toContig.getSequence(),
+										(int)toContig.getNumber("len")-BDGraph.getKmerSize(), 
 										(int)toContig.getNumber("len"));
-				flank1=Alphabet.DNA.complement(flank1);
 		}
 		if(posReadEnd>posReadFinal){
 			//scan for overlap
 			int overlap=GraphUtil.overlap(flank0, flank1);
 			if(overlap>0)
-				seqBuilder.append(flank1.subSequence(overlap, flank1.length()));
+				seqBuilder.append(flank1, overlap, flank1.length());
 		}else{
 			//just append
 			seqBuilder.append(flank1);
@@ -284,7 +412,6 @@ public class ConsensusCaller {
 						key,
 						fromContig.getId()+(start.strand?"+":"-"),
 						toContig.getId() + (end.strand?"+":"-"));		
-		Sequence seq=seqBuilder.toSequence();
-		addBridgingRead(key, seq);
+		addBridgingRead(key, seqBuilder);
 	}
 }
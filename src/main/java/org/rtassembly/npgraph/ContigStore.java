@@ -0,0 +1,122 @@
+package org.rtassembly.npgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.graphstream.graph.Node;
+
+import japsa.seq.AbstractSequence;
+import japsa.seq.Alphabet;
+import japsa.seq.PackedSequence;
+
+/*
+ * Contig sequences of a graph out of the heap: 2-bit packed records (see PackedSequence.write()) in a
+ * memory-mapped file, either a temporary file written after loading or the SEQS section of a GraphCache image.
+ * A node only keeps the index of its record (BDNode.seqIndex) and its bases are read on demand through a
+ * read-only view (BDNode.getSequence()), so the OS pages them in and out instead of the GC.
+ *
+ * The store is immutable: the nodes added later (consensus, output contigs) keep their "seq" attribute.
+ */
+public class ContigStore {
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+	public static boolean ENABLED=true;
+
+	static final long WINDOW=1L<<30; //mapping window, overlapping the next one by the biggest record
+	private final ByteBuffer[] windows;
+	private final long[] offsets; //of the records, increasing
+
+	/**
+	 * Map the records at the offsets (increasing, relative to start) of a region of a file
+	 */
+	ContigStore(File file, long start, long length, long[] offsets) throws IOException{
+		this.offsets=offsets;
+		long maxRecord=0;
+		for(int i=0;i<offsets.length;i++){
+			long end=i+1<offsets.length?offsets[i+1]:length;
+			if(end<offsets[i] || end>length)
+				throw new IOException("Corrupted contig store " + file + ": record " + i + " at " + offsets[i] + " out of " + length);
+			maxRecord=Math.max(maxRecord, end-offsets[i]);
+		}
+		if(WINDOW+maxRecord>Integer.MAX_VALUE)
+			throw new IOException("Contig too long for the store: " + maxRecord + " bytes");
+		windows=new ByteBuffer[(int) ((length+WINDOW-1)/WINDOW)];
+		try(RandomAccessFile raf=new RandomAccessFile(file, "r"); FileChannel channel=raf.getChannel()){
+			//mappings stay valid after closing
+			for(int w=0;w<windows.length;w++){
+				long pos=w*WINDOW;
+				windows[w]=channel.map(FileChannel.MapMode.READ_ONLY, start+pos, Math.min(length-pos, WINDOW+maxRecord));
+			}
+		}
+	}
+
+	/**
+	 * Move the sequences of the nodes of a graph to a temporary store, the nodes keep their index only
+	 */
+	public static ContigStore create(BDGraph graph) throws IOException{
+		long start=System.currentTimeMillis();
+		File file=File.createTempFile("contigs", ".bin", AlignedRead.tmpFolder==null?null:new File(AlignedRead.tmpFolder));
+		file.deleteOnExit();
+		List<BDNode> nodes=new ArrayList<>();
+		long[] offsets=new long[graph.getNodeCount()];
+		long size=0;
+		try(RandomAccessFile raf=new RandomAccessFile(file, "rw"); FileChannel channel=raf.getChannel()){
+			ByteBuffer buf=ByteBuffer.allocateDirect(1<<20);
+			for(Node n:graph){
+				BDNode node=(BDNode) n;
+				AbstractSequence seq=(AbstractSequence) node.getAttribute("seq");
+				if(seq==null)
+					continue;
+				PackedSequence packed=seq instanceof PackedSequence?(PackedSequence) seq:new PackedSequence(seq);
+				int bytes=packed.getSerializedSize();
+				if(buf.remaining()<bytes){
+					size=flush(channel, buf, size);
+					if(buf.capacity()<bytes)
+						buf=ByteBuffer.allocateDirect(bytes);
+				}
+				offsets[nodes.size()]=size+buf.position();
+				packed.write(buf);
+				nodes.add(node);
+			}
+			size=flush(channel, buf, size);
+		}catch(IOException | RuntimeException e){
+			file.delete();
+			throw e;
+		}
+		ContigStore retval=new ContigStore(file, 0, size, Arrays.copyOf(offsets, nodes.size()));
+		for(int i=0;i<nodes.size();i++){
+			nodes.get(i).seqIndex=i;
+			nodes.get(i).removeAttribute("seq");
+		}
+		graph.contigs=retval;
+		logger.info("Sequences of {} contigs moved to {} ({}MB) in {}ms", nodes.size(), file, size>>20, System.currentTimeMillis()-start);
+		return retval;
+	}
+	private static long flush(FileChannel channel, ByteBuffer buf, long pos) throws IOException{
+		buf.flip();
+		while(buf.hasRemaining())
+			pos+=channel.write(buf, pos);
+		buf.clear();
+		return pos;
+	}
+
+	public int size(){
+		return offsets.length;
+	}
+
+	/**
+	 * View of a stored sequence, decoding only its header
+	 */
+	public PackedSequence.MappedView get(int index, String name){
+		long offset=offsets[index];
+		return PackedSequence.view(Alphabet.DNA(), windows[(int) (offset/WINDOW)], (int) (offset%WINDOW), name);
+	}
+}
@@ -525,7 +525,7 @@ public class GoInBetweenBridge {
 			startNV = nv1; endNV = nv2;
 			int d = ScaffoldVector.composition(nv2.getVector(), ScaffoldVector.reverse(nv1.getVector())).distance(srcNode, dstNode);
 			if(d<=(greedy?3:1)*BDGraph.D_LIMIT) //greedy search will tolerate 3 times longer gap
-	    		connectedPaths = graph.DFSAllPaths(srcNode, dstNode, dir1, dir2, d);
+	    		connectedPaths = graph.searchAllPaths(srcNode, dstNode, dir1, dir2, d);
 
 			//call consensus when time come!
 			if(	(connectedPaths==null || connectedPaths.isEmpty())){				
@@ -538,7 +538,7 @@ public class GoInBetweenBridge {
 					String id = BDEdge.createID(srcNode, dstNode, dir1, dir2);				
 					try{
 						//Option 1: hide long-read consensus from the graph
-						BDNode n=new BDNode(graph, "000"+AlignedRead.PSEUDO_ID++);
+						BDNode n=new BDNode(graph, "000"+AlignedRead.PSEUDO_ID.getAndIncrement());
 						Sequence seq=graph.consensus.getConsensus(id, greedy);
 						//FIXME: review this case!
 						if(seq==null||seq.length()<Math.min(BDGraph.getKmerSize(),100))//ignore empty or too short sequences 
@@ -554,9 +554,22 @@ public class GoInBetweenBridge {
 						BDPath p = new BDPath(srcNode);					
 						p.add(e0);
 						p.add(e1);
-						BDEdge pseudoEdge=graph.addEdge(srcNode, dstNode, dir1, dir2);
-						pseudoEdge.setAttribute("path", p);
-						pseudoEdge.setAttribute("consensus");
+						//other writers may get in while the read lock is given up: check the anchors again
+						BDEdge pseudoEdge=graph.writeWhileReading(()->{
+							if(graph.getNode(srcNode.getId())!=srcNode || graph.getNode(dstNode.getId())!=dstNode)
+								return null;
+							BDEdge e=(BDEdge) graph.getEdge(id);
+							if(e==null){ //not added by another read meanwhile
+								e=graph.addEdge(srcNode, dstNode, dir1, dir2);
+								e.setAttribute("path", p);
+								e.setAttribute("consensus");
+							}
+							return e;
+						});
+						if(pseudoEdge==null){
+							logger.debug("Anchors of {} removed while adding its pseudo edge", id);
+							return;
+						}
 						path.add(pseudoEdge);
 						
 						connectedPaths.add(path);
@@ -888,7 +901,7 @@ public class GoInBetweenBridge {
 				if(end.qc()>0)
 					retval=true;			
 				else if(start.getScore() >= BDGraph.GOOD_SUPPORT*Alignment.GOOD_QUAL) {
-					GoInBetweenBridge brg=BDGraph.bridgesMap.get(end.dest.getId()+(end.getDirection(pBridge.getDir0())?"o":"i"));
+					GoInBetweenBridge brg=graph.getBridges().get(end.dest, end.getDirection(pBridge.getDir0()));
 
 					if(brg!=null && brg.steps!=null && brg.steps.isIdentifiable() && brg.steps.end.dest.getId().equals(start.dest.getId()))
 						retval=true;
@@ -0,0 +1,536 @@
+package org.rtassembly.npgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Node;
+
+import japsa.seq.AbstractSequence;
+import japsa.seq.Alphabet;
+import japsa.seq.PackedSequence;
+
+/*
+ * Binary image of a prepared assembly graph (loaded, cleaned and binned, before the SPAdes paths are reduced),
+ * saved in a cache folder (see getDir()) so that the next runs on the same assembly memory-map it instead of parsing
+ * and binning again. The image is only used if its key (graph and bin files, their sizes and dates, the parameters of
+ * the preparation) matches, otherwise it is rebuilt.
+ *
+ * Layout (big-endian): long MAGIC, int VERSION, int number of sections, then the index of the sections
+ * (int id, long offset, long length) followed by the sections:
+ * 	META	key, k-mer size, average read coverage, complexity, node and edge counts
+ * 	STRINGS	node IDs and names (int length + UTF-8 bytes), referred to by offset
+ * 	NODES	fixed-size records (NODE_RECORD bytes) in graph order: ID, name, sequence offset, length, unique bin,
+ * 			coverage, original coverage, A-statistics. The record of node i is at i*NODE_RECORD.
+ * 	SEQS	2-bit packed sequences (see PackedSequence.write())
+ * 	EDGES	fixed-size records (EDGE_RECORD bytes): node indices, directions and coverage
+ * 	BINS	population bins (of the binner or only referred to) with their core nodes, the least covered bin
+ * 	MULTI	multiplicities of the nodes and edges, unresolved edges
+ * 	PATHS	SPAdes paths to reduce after loading
+ */
+public class GraphCache {
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+	public static boolean ENABLED=true;
+	public static String DIR=""; //folder of the images, empty for the user cache folder, "none" to disable caching
+	public static String EXTENSION=".npgc";
+
+	static final long MAGIC=0x4e5047524150484cL; //"NPGRAPHL"
+	static final int VERSION=1;
+	static final int META=0, STRINGS=1, NODES=2, SEQS=3, EDGES=4, BINS=5, MULTI=6, PATHS=7, SECTIONS=8;
+	static final int NODE_RECORD=48, EDGE_RECORD=24;
+	static final int HEADER=16+SECTIONS*20;
+	static final long WINDOW=1L<<30; //mapping window of the big sections
+
+	/**
+	 * Folder of the images: DIR if set, else the user cache folder ($XDG_CACHE_HOME or ~/.cache, then npgraph)
+	 * or the temp folder if that one can't be written.
+	 * @return null if caching is disabled or the folder can't be written
+	 */
+	public static File getDir(){
+		if(!ENABLED || "none".equalsIgnoreCase(DIR))
+			return null;
+		List<File> candidates=new ArrayList<>();
+		if(DIR!=null && !DIR.isEmpty())
+			candidates.add(new File(DIR));
+		else{
+			String cache=System.getenv("XDG_CACHE_HOME");
+			if(cache==null || cache.isEmpty())
+				cache=System.getProperty("user.home")+File.separator+".cache";
+			candidates.add(new File(cache, "npgraph"));
+			candidates.add(new File(System.getProperty("java.io.tmpdir"), "npgraph"));
+		}
+		for(File dir:candidates){
+			dir.mkdirs();
+			if(dir.isDirectory() && dir.canWrite())
+				return dir;
+			logger.warn("Cannot write graph images to {}", dir);
+		}
+		return null;
+	}
+	/**
+	 * The image file of a graph file, null if caching is disabled
+	 */
+	public static File getFile(String graphFile){
+		File dir=getDir();
+		if(dir==null)
+			return null;
+		//graph files of the same name in different folders get different images
+		File graph=new File(graphFile).getAbsoluteFile();
+		return new File(dir, graph.getName()+"."+Integer.toHexString(graph.getPath().hashCode())+EXTENSION);
+	}
+
+	/**
+	 * Key of a preparation: the image is valid only for the same inputs and parameters
+	 */
+	public static String getKey(String graphFile, String binFile, boolean spadesBridging){
+		//k comes from the graph file (stored in the image, see read()), capped by DEFAULT_KMER
+		return String.join("|", describe(graphFile), describe(binFile), String.valueOf(spadesBridging), "kmax="+BDGraph.DEFAULT_KMER,
+				"rlen="+BDGraph.ILLUMINA_READ_LENGTH, "unique="+SimpleBinner.UNIQUE_CTG_LEN,
+				"dist="+GraphUtil.DISTANCE_THRES);
+	}
+	private static String describe(String fileName){
+		if(fileName==null || fileName.isEmpty())
+			return "";
+		File file=new File(fileName);
+		return file.getAbsolutePath()+":"+file.length()+":"+file.lastModified();
+	}
+
+	/*
+	 * Writing
+	 */
+	//buffered writer on a channel which knows its position
+	private static class Output{
+		final FileChannel channel;
+		ByteBuffer buf=ByteBuffer.allocateDirect(1<<20);
+		long flushed;
+		Output(FileChannel channel, long start){
+			this.channel=channel;
+			flushed=start;
+		}
+		long position(){
+			return flushed+buf.position();
+		}
+		ByteBuffer ensure(int n) throws IOException{
+			if(buf.remaining()<n){
+				flush();
+				if(buf.capacity()<n)
+					buf=ByteBuffer.allocateDirect(n);
+			}
+			return buf;
+		}
+		void flush() throws IOException{
+			buf.flip();
+			while(buf.hasRemaining())
+				flushed+=channel.write(buf, flushed);
+			buf.clear();
+		}
+		int putString(String s, long base) throws IOException{
+			byte[] bytes=s.getBytes(StandardCharsets.UTF_8);
+			int offset=(int) (position()-base);
+			ensure(4+bytes.length).putInt(bytes.length).put(bytes);
+			return offset;
+		}
+	}
+
+	/**
+	 * Save the image of a prepared graph (after binning, before reducing the SPAdes paths)
+	 * @param spadesPaths the paths to reduce after loading
+	 */
+	public static void save(File file, String key, BDGraph graph, List<String> spadesPaths) throws IOException{
+		long start=System.currentTimeMillis();
+		File tmp=new File(file.getPath()+".tmp"+ProcessHandle.current().pid());
+		long[][] sections=new long[SECTIONS][2];
+		try(RandomAccessFile raf=new RandomAccessFile(tmp, "rw"); FileChannel channel=raf.getChannel()){
+			raf.setLength(0);
+			Output out=new Output(channel, HEADER);
+
+			List<Node> nodes=new ArrayList<>(graph.getNodeCount());
+			Map<Node, Integer> nodeIndex=new HashMap<>();
+			graph.nodes().forEach(n->{
+				nodeIndex.put(n, nodes.size());
+				nodes.add(n);
+			});
+			List<Edge> edges=new ArrayList<>(graph.getEdgeCount());
+			Map<Edge, Integer> edgeIndex=new HashMap<>();
+			graph.edges().forEach(e->{
+				edgeIndex.put(e, edges.size());
+				edges.add(e);
+			});
+			SimpleBinner binner=graph.binner;
+			//the bins of the binner, plus any other referred to as unique
+			Set<PopBin> binSet=new LinkedHashSet<>();
+			if(binner!=null)
+				binSet.addAll(binner.binList);
+			for(Node n:nodes)
+				if(SimpleBinner.getBinIfUnique(n)!=null)
+					binSet.add(SimpleBinner.getBinIfUnique(n));
+			if(binner!=null){
+				binner.node2BinMap.values().forEach(m->binSet.addAll(m.getBinsSet()));
+				binner.edge2BinMap.values().forEach(m->binSet.addAll(m.getBinsSet()));
+			}
+			List<PopBin> bins=new ArrayList<>(binSet);
+			Map<PopBin, Integer> binIndex=new HashMap<>();
+			for(PopBin b:bins)
+				binIndex.put(b, binIndex.size());
+
+			//META
+			sections[META][0]=out.position();
+			out.putString(key, 0);
+			out.ensure(25).putInt(graph.getGraphKmerSize()).putDouble(graph.rcov).put((byte) (graph.isComplex?1:0))
+				.putInt(nodes.size()).putInt(edges.size());
+
+			//STRINGS, SEQS: remember the offsets for the node records
+			int[] idOffsets=new int[nodes.size()], nameOffsets=new int[nodes.size()];
+			long[] seqOffsets=new long[nodes.size()];
+			sections[STRINGS][0]=out.position();
+			for(int i=0;i<nodes.size();i++){
+				Node n=nodes.get(i);
+				idOffsets[i]=out.putString(n.getId(), sections[STRINGS][0]);
+				Object name=n.getAttribute("name");
+				nameOffsets[i]=name==null?-1:out.putString(name.toString(), sections[STRINGS][0]);
+			}
+			sections[SEQS][0]=out.position();
+			for(int i=0;i<nodes.size();i++){
+				AbstractSequence seq=((BDNode) nodes.get(i)).getSequence();
+				if(seq==null){
+					seqOffsets[i]=-1;
+					continue;
+				}
+				PackedSequence packed=seq instanceof PackedSequence?(PackedSequence) seq:
+					seq instanceof PackedSequence.MappedView?((PackedSequence.MappedView) seq).toPackedSequence():new PackedSequence(seq);
+				seqOffsets[i]=out.position()-sections[SEQS][0];
+				packed.write(out.ensure(packed.getSerializedSize()));
+			}
+
+			//NODES
+			sections[NODES][0]=out.position();
+			for(int i=0;i<nodes.size();i++){
+				Node n=nodes.get(i);
+				PopBin unique=SimpleBinner.getBinIfUnique(n);
+				Double origCov=GraphUtil.originalCoverageValues.get(n);
+				out.ensure(NODE_RECORD).putInt(idOffsets[i]).putInt(nameOffsets[i]).putLong(seqOffsets[i])
+					.putInt(n.hasAttribute("len")?(int) n.getNumber("len"):-1).putInt(unique==null?-1:binIndex.get(unique))
+					.putDouble(n.getNumber("cov")).putDouble(origCov==null?Double.NaN:origCov).putDouble(n.getNumber("astats"));
+			}
+
+			//EDGES
+			sections[EDGES][0]=out.position();
+			for(Edge e:edges){
+				BDEdge edge=(BDEdge) e;
+				out.ensure(EDGE_RECORD).putInt(nodeIndex.get(edge.getNode0())).putInt(nodeIndex.get(edge.getNode1()))
+					.put((byte) (edge.getDir0()?1:0)).put((byte) (edge.getDir1()?1:0)).putShort((short) 0)
+					.putDouble(e.getNumber("cov")).putInt(0);
+			}
+
+			//BINS
+			sections[BINS][0]=out.position();
+			out.ensure(8).putInt(bins.size()).putInt(binner==null || binner.leastBin==null?-1:binIndex.get(binner.leastBin));
+			for(PopBin b:bins){
+				boolean listed=binner!=null && binner.binList.contains(b);
+				out.ensure(25).putInt(b.getId()).put((byte) (listed?1:0)).putDouble(b.estCov).putLong(b.estLen).putInt(b.coreNodes.size());
+				for(Node n:b.coreNodes)
+					out.ensure(4).putInt(nodeIndex.getOrDefault(n, -1));
+			}
+
+			//MULTI
+			sections[MULTI][0]=out.position();
+			Map<Node, Multiplicity> node2Bin=binner==null?new HashMap<>():binner.node2BinMap;
+			Map<Edge, Multiplicity> edge2Bin=binner==null?new HashMap<>():binner.edge2BinMap;
+			out.ensure(4).putInt(node2Bin.size());
+			for(Map.Entry<Node, Multiplicity> entry:node2Bin.entrySet())
+				putMultiplicity(out, nodeIndex.getOrDefault(entry.getKey(), -1), entry.getValue(), binIndex);
+			out.ensure(4).putInt(edge2Bin.size());
+			for(Map.Entry<Edge, Multiplicity> entry:edge2Bin.entrySet())
+				putMultiplicity(out, edgeIndex.getOrDefault(entry.getKey(), -1), entry.getValue(), binIndex);
+			List<Edge> unresolved=binner==null?new ArrayList<>():binner.unresolvedEdges;
+			out.ensure(4).putInt(unresolved.size());
+			for(Edge e:unresolved)
+				out.ensure(4).putInt(edgeIndex.getOrDefault(e, -1));
+
+			//PATHS
+			sections[PATHS][0]=out.position();
+			out.ensure(4).putInt(spadesPaths.size());
+			for(String p:spadesPaths)
+				out.putString(p, 0);
+			long end=out.position();
+			out.flush();
+
+			for(int s=0;s<SECTIONS;s++)
+				sections[s][1]=(s+1<SECTIONS?nextStart(sections, s, end):end)-sections[s][0];
+			ByteBuffer header=ByteBuffer.allocate(HEADER);
+			header.putLong(MAGIC).putInt(VERSION).putInt(SECTIONS);
+			for(int s=0;s<SECTIONS;s++)
+				header.putInt(s).putLong(sections[s][0]).putLong(sections[s][1]);
+			header.flip();
+			while(header.hasRemaining())
+				channel.write(header, header.position());
+			channel.force(false);
+		}catch(IOException | RuntimeException e){
+			tmp.delete();
+			throw e;
+		}
+		//others may be reading the old image
+		try{
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}catch(IOException e){
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		logger.info("Graph image saved to {} ({}MB) in {}ms", file, file.length()>>20, System.currentTimeMillis()-start);
+	}
+	//sections are written in the order META, STRINGS, SEQS, NODES, EDGES, BINS, MULTI, PATHS
+	private static long nextStart(long[][] sections, int s, long end){
+		long retval=end;
+		for(long[] section:sections)
+			if(section[0]>sections[s][0] && section[0]<retval)
+				retval=section[0];
+		return retval;
+	}
+	private static void putMultiplicity(Output out, int index, Multiplicity m, Map<PopBin, Integer> binIndex) throws IOException{
+		Map<PopBin, Integer> map=m.getFullMap();
+		out.ensure(8+8*map.size()).putInt(index).putInt(map.size());
+		for(Map.Entry<PopBin, Integer> entry:map.entrySet())
+			out.buf.putInt(binIndex.get(entry.getKey())).putInt(entry.getValue());
+	}
+
+	/*
+	 * Reading
+	 */
+	//a section of the image, mapped by windows of WINDOW bytes
+	private static class Section{
+		final FileChannel channel;
+		final long offset, length;
+		ByteBuffer window=null;
+		long windowStart=-1;
+		Section(FileChannel channel, long offset, long length){
+			this.channel=channel;
+			this.offset=offset;
+			this.length=length;
+		}
+		//the bytes from pos (relative to the section), positioned at pos, at least len available
+		ByteBuffer at(long pos, int len) throws IOException{
+			if(pos<0 || pos+len>length)
+				throw new IOException("Corrupted graph image: " + pos + "+" + len + " out of a section of " + length);
+			if(window==null || pos<windowStart || pos+len>windowStart+window.capacity()){
+				long start=pos/WINDOW*WINDOW;
+				if(pos+len>start+WINDOW) //crossing windows
+					start=pos;
+				windowStart=start;
+				window=channel.map(FileChannel.MapMode.READ_ONLY, offset+start, Math.min(length-start, Math.max(WINDOW, len)));
+			}
+			window.position((int) (pos-windowStart));
+			return window;
+		}
+		//the whole section, for the small ones
+		ByteBuffer all() throws IOException{
+			if(length>Integer.MAX_VALUE)
+				throw new IOException("Graph image section too big: " + length);
+			return at(0, (int) length);
+		}
+	}
+
+	/**
+	 * Load the image of a prepared graph into an empty graph
+	 * @return the SPAdes paths to reduce, null if the image is missing, invalid or for another key (the graph is untouched then)
+	 * @throws IOException if the image can't be read or is corrupted, the graph is emptied then
+	 */
+	public static List<String> load(File file, String key, BDGraph graph) throws IOException{
+		if(!file.isFile() || graph.getNodeCount()>0)
+			return null;
+		try{
+			return read(file, key, graph);
+		}catch(IOException|RuntimeException e){
+			reset(graph);
+			//a truncated or overwritten image fails anywhere in the decoding (buffer underflow, bad index...)
+			throw e instanceof IOException?(IOException) e:new IOException("Corrupted graph image " + file, e);
+		}
+	}
+	//back to an empty graph after a partial load, including what is kept outside of the nodes and edges
+	private static void reset(BDGraph graph){
+		graph.nodes().forEach(GraphUtil.originalCoverageValues::remove);
+		graph.clear();
+		graph.contigs=null;
+		graph.binner=null;
+		graph.rcov=0;
+		graph.isComplex=false;
+	}
+	private static List<String> read(File file, String key, BDGraph graph) throws IOException{
+		long start=System.currentTimeMillis();
+		try(RandomAccessFile raf=new RandomAccessFile(file, "r"); FileChannel channel=raf.getChannel()){
+			if(channel.size()<HEADER)
+				return null;
+			ByteBuffer header=channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+			if(header.getLong()!=MAGIC || header.getInt()!=VERSION || header.getInt()!=SECTIONS){
+				logger.info("Graph image {} is from another version, ignored", file);
+				return null;
+			}
+			Section[] sections=new Section[SECTIONS];
+			for(int s=0;s<SECTIONS;s++){
+				int id=header.getInt();
+				sections[id]=new Section(channel, header.getLong(), header.getLong());
+			}
+
+			ByteBuffer meta=sections[META].all();
+			String imageKey=getString(meta);
+			if(!imageKey.equals(key)){
+				logger.info("Graph image {} is outdated, rebuilding", file);
+				return null;
+			}
+			int kmer=meta.getInt();
+			if(kmer<=0 || kmer>BDGraph.DEFAULT_KMER){
+				logger.info("Graph image {} has k={} out of (0,{}], rebuilding", file, kmer, BDGraph.DEFAULT_KMER);
+				return null;
+			}
+			double rcov=meta.getDouble();
+			boolean isComplex=meta.get()!=0;
+			int nodeCount=meta.getInt(), edgeCount=meta.getInt();
+
+			//bins first, the nodes refer to them
+			ByteBuffer binBuf=sections[BINS].all();
+			int binCount=binBuf.getInt(), leastBin=binBuf.getInt();
+			PopBin[] bins=new PopBin[binCount];
+			boolean[] listed=new boolean[binCount];
+			int[][] coreNodes=new int[binCount][];
+			for(int i=0;i<binCount;i++){
+				bins[i]=new PopBin(binBuf.getInt());
+				listed[i]=binBuf.get()!=0;
+				bins[i].estCov=binBuf.getDouble();
+				bins[i].estLen=binBuf.getLong();
+				coreNodes[i]=new int[binBuf.getInt()];
+				for(int j=0;j<coreNodes[i].length;j++)
+					coreNodes[i][j]=binBuf.getInt();
+				PopBin.lastID=Math.max(PopBin.lastID, bins[i].getId()+1);
+			}
+
+			graph.setAutoCreate(true);
+			graph.setStrict(false);
+			BDGraph.useKmerSize(graph, kmer);
+			graph.rcov=rcov;
+			graph.isComplex=isComplex;
+
+			Section strings=sections[STRINGS], seqs=sections[SEQS], nodeSection=sections[NODES];
+			BDNode[] nodes=new BDNode[nodeCount];
+			//the sequences stay in the image if they go to a ContigStore
+			long[] storeOffsets=ContigStore.ENABLED?new long[nodeCount]:null;
+			int stored=0;
+			for(int i=0;i<nodeCount;i++){
+				ByteBuffer rec=nodeSection.at((long) i*NODE_RECORD, NODE_RECORD);
+				int idOffset=rec.getInt(), nameOffset=rec.getInt();
+				long seqOffset=rec.getLong();
+				int len=rec.getInt(), bin=rec.getInt();
+				double cov=rec.getDouble(), origCov=rec.getDouble(), astats=rec.getDouble();
+
+				BDNode node=(BDNode) graph.addNode(getString(strings, idOffset));
+				String name=nameOffset<0?null:getString(strings, nameOffset);
+				if(name!=null)
+					node.setAttribute("name", name);
+				if(seqOffset>=0 && storeOffsets!=null){
+					storeOffsets[stored]=seqOffset;
+					node.seqIndex=stored++;
+				}else if(seqOffset>=0){
+					ByteBuffer buf=seqs.at(seqOffset, 8);
+					int size=8+8*((buf.getInt(buf.position())+31)>>>5)+5*buf.getInt(buf.position()+4);
+					PackedSequence seq=PackedSequence.read(Alphabet.DNA(), seqs.at(seqOffset, size), name);
+					node.setAttribute("seq", GraphUtil.PACKED_SEQUENCES?seq:seq.toSequence());
+				}
+				if(len>=0)
+					node.setAttribute("len", len);
+				if(!Double.isNaN(cov))
+					node.setAttribute("cov", cov);
+				if(!Double.isNaN(astats))
+					node.setAttribute("astats", astats);
+				if(!Double.isNaN(origCov))
+					GraphUtil.originalCoverageValues.put(node, origCov);
+				if(bin>=0)
+					node.setAttribute("unique", bins[bin]);
+				nodes[i]=node;
+			}
+			if(storeOffsets!=null)
+				graph.contigs=new ContigStore(file, seqs.offset, seqs.length, Arrays.copyOf(storeOffsets, stored));
+
+			Section edgeSection=sections[EDGES];
+			Edge[] edges=new Edge[edgeCount];
+			for(int i=0;i<edgeCount;i++){
+				ByteBuffer rec=edgeSection.at((long) i*EDGE_RECORD, EDGE_RECORD);
+				int n0=rec.getInt(), n1=rec.getInt();
+				boolean dir0=rec.get()!=0, dir1=rec.get()!=0;
+				rec.getShort();
+				double cov=rec.getDouble();
+				edges[i]=graph.addEdge(nodes[n0], nodes[n1], dir0, dir1);
+				if(!Double.isNaN(cov))
+					edges[i].setAttribute("cov", cov);
+			}
+
+			SimpleBinner binner=new SimpleBinner(graph);
+			for(int i=0;i<binCount;i++){
+				for(int n:coreNodes[i])
+					if(n>=0)
+						bins[i].coreNodes.add(nodes[n]);
+				if(listed[i]) //the others were only referred to
+					binner.binList.add(bins[i]);
+			}
+			binner.leastBin=leastBin<0?null:bins[leastBin];
+			ByteBuffer multi=sections[MULTI].all();
+			for(int i=multi.getInt();i>0;i--){
+				int n=multi.getInt();
+				Multiplicity m=getMultiplicity(multi, bins);
+				if(n>=0)
+					binner.node2BinMap.put(nodes[n], m);
+			}
+			for(int i=multi.getInt();i>0;i--){
+				int e=multi.getInt();
+				Multiplicity m=getMultiplicity(multi, bins);
+				if(e>=0)
+					binner.edge2BinMap.put(edges[e], m);
+			}
+			binner.unresolvedEdges.clear();
+			for(int i=multi.getInt();i>0;i--){
+				int e=multi.getInt();
+				if(e>=0)
+					binner.unresolvedEdges.add(edges[e]);
+			}
+			graph.setBinner(binner);
+
+			ByteBuffer pathBuf=sections[PATHS].all();
+			List<String> spadesPaths=new ArrayList<>();
+			for(int i=pathBuf.getInt();i>0;i--)
+				spadesPaths.add(getString(pathBuf));
+
+			logger.info("Graph loaded from image {} in {}ms: {} nodes, {} edges", file, System.currentTimeMillis()-start, nodeCount, edgeCount);
+			return spadesPaths;
+		}
+	}
+	private static Multiplicity getMultiplicity(ByteBuffer buf, PopBin[] bins){
+		Multiplicity m=new Multiplicity();
+		for(int k=buf.getInt();k>0;k--){
+			PopBin b=bins[buf.getInt()];
+			m.getFullMap().put(b, buf.getInt());
+		}
+		return m;
+	}
+	private static String getString(ByteBuffer buf){
+		byte[] bytes=new byte[buf.getInt()];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	private static String getString(Section strings, int offset) throws IOException{
+		ByteBuffer buf=strings.at(offset, 4);
+		int len=buf.getInt(buf.position());
+		return getString(strings.at(offset, 4+len));
+	}
+}
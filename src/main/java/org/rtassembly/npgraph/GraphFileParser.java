@@ -0,0 +1,442 @@
+package org.rtassembly.npgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.graphstream.graph.implementations.AbstractNode;
+
+import japsa.seq.AbstractSequence;
+import japsa.seq.Alphabet;
+import japsa.seq.PackedSequence;
+import japsa.seq.Sequence;
+
+/*
+ * Loader of the assembly graph files (GFA v1 and FASTG) for GraphUtil.
+ * The file is memory-mapped and cut into chunks of about CHUNK_SIZE bytes at record boundaries (lines for GFA,
+ * lines starting with '>' for FASTG). The chunks are parsed in parallel at the byte level, without regex or
+ * String splitting, into plain records. The nodes and edges are then added to the graph in bulk, in file order,
+ * so the graph is the same as the one of a sequential reading.
+ */
+public class GraphFileParser {
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+	public static int CHUNK_SIZE=32<<20; //bytes
+	public static int THREADS=Runtime.getRuntime().availableProcessors();
+
+	//base codes of the characters, as Alphabet.DNA().char2int() for GFA and byte2index() for FASTG
+	private static final byte[] GFA_CODE=new byte[256], FASTA_CODE=new byte[256];
+	static{
+		for(int c=0;c<256;c++){
+			GFA_CODE[c]=(byte) Alphabet.DNA().char2int((char) c);
+			FASTA_CODE[c]=Alphabet.DNA().byte2index((byte) c);
+		}
+	}
+
+	//what the graph loaders need from the file after the nodes and edges are built
+	static class Result{
+		int minOverlap=Integer.MAX_VALUE; //GFA: shortest overlap of the links
+		int shortestLen=Integer.MAX_VALUE; //FASTG: shortest sequence
+		boolean covFlag=true; //GFA: false if any coverage is given as df:f
+		List<String> paths=new ArrayList<>(); //GFA: paths of the P records with several segments
+	}
+
+	private static class Segment{
+		String id, name;
+		boolean forward=true; //FASTG: false for the reverse records (with a ')
+		AbstractSequence seq; //null for the reverse records of FASTG
+		Number cov;
+		List<String> nbrs; //FASTG
+		List<Boolean> nbrDirs;
+	}
+	private static class Link{
+		String id0, id1;
+		boolean dir0, dir1;
+	}
+	//records of a chunk, in file order
+	private static class Chunk{
+		final List<Segment> segments=new ArrayList<>();
+		final List<Link> links=new ArrayList<>();
+		final Result result=new Result();
+		byte[] buf=new byte[1<<16]; //bases of the current sequence
+		int lines=0;
+	}
+
+	/**
+	 * Add the segments and links of a GFA v1 file to the graph
+	 * @param keepPaths keep the paths of several segments (P records)
+	 */
+	static Result loadGFA(String fileName, BDGraph graph, boolean keepPaths) throws IOException{
+		long start=System.nanoTime();
+		List<Chunk> chunks=parse(fileName, false, keepPaths);
+		long parsed=System.nanoTime();
+
+		Result result=new Result();
+		int segments=0, links=0;
+		for(Chunk chunk:chunks){
+			for(Segment s:chunk.segments){
+				AbstractNode node=(AbstractNode) graph.addNode(s.id); //or get the existing one
+				node.setAttribute("name", s.name);
+				node.setAttribute("seq", s.seq);
+				node.setAttribute("len", s.seq.length());
+				if(s.cov!=null)
+					node.setAttribute("cov", s.cov);
+			}
+			segments+=chunk.segments.size();
+		}
+		for(Chunk chunk:chunks){
+			for(Link l:chunk.links){
+				BDNode n0=(BDNode) graph.getNode(l.id0), n1=(BDNode) graph.getNode(l.id1);
+				if(n0==null || n1==null){
+					logger.warn("Link {} -> {} to an unknown segment, ignored", l.id0, l.id1);
+					continue;
+				}
+				graph.addEdge(n0, n1, l.dir0, l.dir1);
+			}
+			links+=chunk.links.size();
+			result.minOverlap=Math.min(result.minOverlap, chunk.result.minOverlap);
+			result.covFlag&=chunk.result.covFlag;
+			result.paths.addAll(chunk.result.paths);
+		}
+		report(fileName, chunks, start, parsed, segments, links);
+		return result;
+	}
+
+	/**
+	 * Add the edges (as nodes) and their connections of a SPAdes FASTG file to the graph
+	 */
+	static Result loadFASTG(String fileName, BDGraph graph) throws IOException{
+		long start=System.nanoTime();
+		List<Chunk> chunks=parse(fileName, true, false);
+		long parsed=System.nanoTime();
+
+		Result result=new Result();
+		List<BDEdgePrototype> potentialEdgeSet=new ArrayList<>();
+		int segments=0;
+		for(Chunk chunk:chunks){
+			for(Segment s:chunk.segments){
+				BDNode node=(BDNode) graph.addNode(s.id); //or get the existing node prototype created below (to set the attributes)
+				node.setAttribute("name", s.name);
+				if(s.forward){
+					node.setAttribute("seq", s.seq);
+					node.setAttribute("len", s.seq.length());
+					node.setAttribute("cov", s.cov);
+				}
+				for(int i=0;i<s.nbrs.size();i++){
+					BDNode nbr=(BDNode) graph.addNode(s.nbrs.get(i)); //just need a prototype, attributes can be set later...
+					potentialEdgeSet.add(new BDEdgePrototype(node, nbr, s.forward, s.nbrDirs.get(i)));
+				}
+			}
+			segments+=chunk.segments.size();
+			result.shortestLen=Math.min(result.shortestLen, chunk.result.shortestLen);
+		}
+		for(BDEdgePrototype ec:potentialEdgeSet)
+			graph.addEdge(ec.getNode0(), ec.getNode1(), ec.getDir0(), ec.getDir1());
+		report(fileName, chunks, start, parsed, segments, potentialEdgeSet.size());
+		return result;
+	}
+
+	private static void report(String fileName, List<Chunk> chunks, long start, long parsed, int segments, int links){
+		long end=System.nanoTime(), size=new File(fileName).length();
+		int lines=chunks.stream().mapToInt(c->c.lines).sum();
+		logger.info("Loaded {}: {}MB, {} lines ({} segments, {} links) in {}ms ({} chunks parsed in {}ms), {} MB/s",
+				fileName, size>>20, lines, segments, links, (end-start)/1000000, chunks.size(), (parsed-start)/1000000,
+				String.format("%.1f", size/1048576.0/Math.max(1e-9, (end-start)/1e9)));
+	}
+
+	/*
+	 * Parse the chunks of a file in parallel
+	 */
+	private static List<Chunk> parse(String fileName, boolean fasta, boolean keepPaths) throws IOException{
+		List<Chunk> chunks=new ArrayList<>();
+		try(RandomAccessFile file=new RandomAccessFile(fileName, "r"); FileChannel channel=file.getChannel()){
+			long size=channel.size();
+			List<long[]> bounds=new ArrayList<>();
+			for(long s=0;s<size;){
+				long e=nextRecord(channel, Math.min(size, s+CHUNK_SIZE), size, fasta);
+				if(e-s>Integer.MAX_VALUE)
+					throw new IOException("Record too long in " + fileName + " at byte " + s);
+				bounds.add(new long[]{s, e});
+				s=e;
+			}
+			ExecutorService pool=Executors.newFixedThreadPool(Math.max(1, Math.min(THREADS, bounds.size())), r->{
+				Thread t=new Thread(r, "npgraph-loader");
+				t.setDaemon(true);
+				return t;
+			});
+			try{
+				List<Future<Chunk>> futures=new ArrayList<>(bounds.size());
+				for(long[] b:bounds){
+					MappedByteBuffer buf=channel.map(FileChannel.MapMode.READ_ONLY, b[0], b[1]-b[0]);
+					futures.add(pool.submit(()->fasta?parseFASTG(buf):parseGFA(buf, keepPaths)));
+				}
+				for(Future<Chunk> f:futures)
+					chunks.add(f.get());
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while loading " + fileName);
+			}catch(ExecutionException e){
+				throw e.getCause() instanceof IOException?(IOException) e.getCause():new IOException("Cannot parse " + fileName, e.getCause());
+			}finally{
+				pool.shutdownNow();
+			}
+		}
+		return chunks;
+	}
+
+	//first record boundary at or after pos: start of a line (starting with '>' for FASTA)
+	private static long nextRecord(FileChannel channel, long pos, long size, boolean fasta) throws IOException{
+		if(pos>=size)
+			return size;
+		ByteBuffer block=ByteBuffer.allocate(1<<16);
+		long p=pos-1; //position of block[0]
+		byte prev=0;
+		boolean first=true;
+		while(p<size){
+			block.clear();
+			int n=channel.read(block, p);
+			if(n<=0)
+				break;
+			for(int i=0;i<n;i++){
+				byte b=block.get(i);
+				if(!first && prev=='\n' && (!fasta || b=='>'))
+					return p+i;
+				prev=b;
+				first=false;
+			}
+			p+=n;
+		}
+		return size;
+	}
+
+	private static Chunk parseGFA(ByteBuffer buf, boolean keepPaths) throws IOException{
+		Chunk chunk=new Chunk();
+		int size=buf.limit();
+		int[] fs=new int[16], fe=new int[16]; //fields of the line
+		int pos=0;
+		while(pos<size){
+			int end=pos;
+			while(end<size && buf.get(end)!='\n')
+				end++;
+			int next=end+1;
+			if(end>pos && buf.get(end-1)=='\r')
+				end--;
+			chunk.lines++;
+			//fields separated by a whitespace
+			int nf=0;
+			for(int s=pos;s<=end;){
+				int e=s;
+				while(e<end && buf.get(e)!='\t' && buf.get(e)!=' ')
+					e++;
+				if(nf==fs.length){
+					fs=Arrays.copyOf(fs, nf*2);
+					fe=Arrays.copyOf(fe, nf*2);
+				}
+				fs[nf]=s;
+				fe[nf++]=e;
+				s=e+1;
+			}
+			if(end>pos){
+				byte type=buf.get(pos);
+				if(fe[0]-fs[0]==1 && type>='a' && type<='z')
+					type-='a'-'A';
+				if(type=='#' || (fe[0]-fs[0]==1 && (type=='H' || type=='C'))){
+					//comments, header, containment
+				}else if(fe[0]-fs[0]==1 && type=='S' && nf>2){
+					Segment s=new Segment();
+					s.id=string(buf, fs[1], fe[1]).trim();
+					s.name="Contig_"+s.id;
+					s.seq=sequence(chunk, buf, fs[2], fe[2], GFA_CODE, s.name);
+					for(int i=3;i<nf;i++){
+						int f=fs[i], l=fe[i]-f;
+						if(l>5 && buf.get(f)=='K' && buf.get(f+1)=='C' && buf.get(f+2)==':' && buf.get(f+3)=='i' && buf.get(f+4)==':'){
+							//here is the kmer coverage
+							long kc=parseLong(buf, f+5, fe[i]);
+							s.cov=kc==(int) kc?(Number)(int) kc:(Number) kc;
+						}else if(l>5 && buf.get(f)=='d' && buf.get(f+1)=='f' && buf.get(f+2)==':' && buf.get(f+3)=='f' && buf.get(f+4)==':'){
+							chunk.result.covFlag=false;
+							s.cov=Double.parseDouble(string(buf, f+5, fe[i]));
+						}
+					}
+					chunk.segments.add(s);
+				}else if(fe[0]-fs[0]==1 && type=='L' && nf>5){
+					Link l=new Link();
+					l.id0=string(buf, fs[1], fe[1]);
+					l.id1=string(buf, fs[3], fe[3]);
+					l.dir0=fe[2]-fs[2]==1 && buf.get(fs[2])=='+';
+					l.dir1=!(fe[4]-fs[4]==1 && buf.get(fs[4])=='+');
+					chunk.links.add(l);
+					//just do it simple for now when the last field of Links line is xxM (kmer=xx)
+					int e=fs[5];
+					while(e<fe[5] && buf.get(e)>='0' && buf.get(e)<='9')
+						e++;
+					if(e>fs[5])
+						chunk.result.minOverlap=Math.min(chunk.result.minOverlap, (int) parseLong(buf, fs[5], e));
+				}else if(fe[0]-fs[0]==1 && type=='P'){
+					if(keepPaths && nf>3){
+						String path=string(buf, fs[2], fe[2]);
+						if(path.contains(","))
+							chunk.result.paths.add(path);
+					}
+				}else
+					logger.warn("Unrecognized GFA field: {}", string(buf, fs[0], fe[0]).toUpperCase().trim());
+			}
+			pos=next;
+		}
+		return chunk;
+	}
+
+	private static Chunk parseFASTG(ByteBuffer buf) throws IOException{
+		Chunk chunk=new Chunk();
+		int size=buf.limit();
+		int pos=0;
+		while(pos<size){
+			//header line
+			int end=pos;
+			while(end<size && buf.get(end)!='\n')
+				end++;
+			chunk.lines++;
+			if(buf.get(pos)!='>'){
+				if(isBlank(buf, pos, end)){
+					pos=end+1;
+					continue;
+				}
+				throw new IOException("> is expected at the start of a FASTG record, found " + string(buf, pos, end));
+			}
+			int hs=pos+1;
+			while(hs<end && isSpace(buf.get(hs)))
+				hs++;
+			int he=hs;
+			while(he<end && !isSpace(buf.get(he)))
+				he++;
+			//name:neighbour,neighbour...;
+			int colon=hs;
+			while(colon<he && buf.get(colon)!=':')
+				colon++;
+			Segment s=new Segment();
+			s.forward=!contains(buf, hs, colon, (byte) '\'');
+			s.name=clean(buf, hs, colon); //EDGE_X_length_Y_cov_Z
+			s.id=field(s.name, 1);
+			s.nbrs=new ArrayList<>();
+			s.nbrDirs=new ArrayList<>();
+			if(colon<he){
+				int nEnd=colon+1;
+				while(nEnd<he && buf.get(nEnd)!=':')
+					nEnd++;
+				for(int ns=colon+1;ns<nEnd;){
+					int ne=ns;
+					while(ne<nEnd && buf.get(ne)!=',')
+						ne++;
+					// note that the direction is read reversely in the dest node
+					s.nbrDirs.add(contains(buf, ns, ne, (byte) '\''));
+					s.nbrs.add(field(clean(buf, ns, ne), 1));
+					ns=ne+1;
+				}
+			}
+
+			//sequence lines, up to the next record
+			int len=0;
+			pos=end+1;
+			while(pos<size && buf.get(pos)!='>'){
+				byte code=FASTA_CODE[buf.get(pos)&0xff];
+				if(code>=0){
+					if(len==chunk.buf.length)
+						chunk.buf=Arrays.copyOf(chunk.buf, len*2);
+					chunk.buf[len++]=code;
+				}else if(code==-1)
+					throw new IOException("Unexpected character '" + (char) buf.get(pos) + "' in the sequence of " + s.name);
+				else if(buf.get(pos)=='\n')
+					chunk.lines++;
+				pos++;
+			}
+			chunk.result.shortestLen=Math.min(chunk.result.shortestLen, len);
+			if(s.forward){
+				//the reverse records only give connections
+				s.seq=GraphUtil.PACKED_SEQUENCES?
+						new PackedSequence(Alphabet.DNA(), chunk.buf, len, s.name)
+						:new Sequence(Alphabet.DNA(), Arrays.copyOf(chunk.buf, len), s.name);
+				s.cov=Double.parseDouble(field(s.name, 5));
+			}
+			chunk.segments.add(s);
+		}
+		return chunk;
+	}
+
+	//sequence of the characters from start to end, packed if GraphUtil.PACKED_SEQUENCES
+	private static AbstractSequence sequence(Chunk chunk, ByteBuffer buf, int start, int end, byte[] codes, String name){
+		int len=end-start;
+		if(chunk.buf.length<len)
+			chunk.buf=new byte[Math.max(len, chunk.buf.length*2)];
+		for(int i=0;i<len;i++)
+			chunk.buf[i]=codes[buf.get(start+i)&0xff];
+		if(GraphUtil.PACKED_SEQUENCES)
+			return new PackedSequence(Alphabet.DNA(), chunk.buf, len, name);
+		return new Sequence(Alphabet.DNA(), Arrays.copyOf(chunk.buf, len), name);
+	}
+
+	private static String string(ByteBuffer buf, int start, int end){
+		char[] chars=new char[end-start];
+		for(int i=start;i<end;i++)
+			chars[i-start]=(char) (buf.get(i)&0xff);
+		return new String(chars);
+	}
+	//the characters [a-zA-Z0-9_.] only
+	private static String clean(ByteBuffer buf, int start, int end){
+		StringBuilder sb=new StringBuilder(end-start);
+		for(int i=start;i<end;i++){
+			char c=(char) (buf.get(i)&0xff);
+			if((c>='a' && c<='z') || (c>='A' && c<='Z') || (c>='0' && c<='9') || c=='_' || c=='.')
+				sb.append(c);
+		}
+		return sb.toString();
+	}
+	//i-th '_' separated field of a name
+	private static String field(String name, int i){
+		int s=0;
+		for(int k=0;k<i;k++){
+			s=name.indexOf('_', s)+1;
+			if(s==0)
+				throw new IllegalArgumentException("Invalid FASTG name " + name);
+		}
+		int e=name.indexOf('_', s);
+		return name.substring(s, e<0?name.length():e);
+	}
+	private static boolean contains(ByteBuffer buf, int start, int end, byte b){
+		for(int i=start;i<end;i++)
+			if(buf.get(i)==b)
+				return true;
+		return false;
+	}
+	private static boolean isSpace(byte b){
+		return b==' ' || b=='\t' || b=='\r';
+	}
+	private static boolean isBlank(ByteBuffer buf, int start, int end){
+		for(int i=start;i<end;i++)
+			if(!isSpace(buf.get(i)))
+				return false;
+		return true;
+	}
+	private static long parseLong(ByteBuffer buf, int start, int end){
+		long v=0;
+		boolean neg=start<end && buf.get(start)=='-';
+		for(int i=neg?start+1:start;i<end;i++){
+			byte b=buf.get(i);
+			if(b<'0' || b>'9')
+				throw new NumberFormatException("Not a number: " + string(buf, start, end));
+			v=v*10+(b-'0');
+		}
+		return neg?-v:v;
+	}
+}
@@ -0,0 +1,218 @@
+package org.rtassembly.npgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Node;
+
+import japsa.seq.JapsaAnnotation;
+import japsa.seq.AbstractSequence;
+import japsa.seq.SequenceOutputStream;
+
+/*
+ * Immutable view of a BDGraph for the outputs: segments (with the coverage and bin at the time of the snapshot),
+ * links with the composite edges already expanded as in GFA, and the stats.
+ * Taking it only copies references (sequences and annotations are not changed once set to a node) so it's cheap
+ * to do under the graph lock, the (slow) writing is then done without any lock, e.g. by a SnapshotWriter.
+ * Files are written to a temporary file then renamed so readers never see a partial output.
+ */
+public class GraphSnapshot {
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+	public static class Segment{
+		final String id;
+		final AbstractSequence seq;
+		final JapsaAnnotation annotation;
+		final int kmerCount, bin;
+		final boolean fromGraph; //a node of the graph, not an expanded node of a composite edge
+		Segment(String id, AbstractSequence seq, JapsaAnnotation annotation, int kmerCount, int bin, boolean fromGraph){
+			this.id=id;
+			this.seq=seq;
+			this.annotation=annotation;
+			this.kmerCount=kmerCount;
+			this.bin=bin;
+			this.fromGraph=fromGraph;
+		}
+		public String getId(){return id;}
+		public AbstractSequence getSequence(){return seq;}
+	}
+	public static class Link{
+		final String id0, id1;
+		final boolean dir0, dir1;
+		Link(String id0, boolean dir0, String id1, boolean dir1){
+			this.id0=id0;
+			this.dir0=dir0;
+			this.id1=id1;
+			this.dir1=dir1;
+		}
+	}
+
+	final List<Segment> segments;
+	final List<Link> links;
+	final int n50, n75, maxl, numOfCtgs, numOfCircularCtgs;
+	final int kmer;
+	final long time;
+
+	private GraphSnapshot(List<Segment> segments, List<Link> links, BDGraph graph){
+		this.segments=Collections.unmodifiableList(segments);
+		this.links=Collections.unmodifiableList(links);
+		synchronized(graph){
+			n50=graph.n50;
+			n75=graph.n75;
+			maxl=graph.maxl;
+			numOfCtgs=graph.numOfCtgs;
+			numOfCircularCtgs=graph.numOfCircularCtgs;
+		}
+		kmer=BDGraph.getKmerSize();
+		time=System.currentTimeMillis();
+	}
+
+	/**
+	 * Snapshot of a graph: the caller must prevent changes to it meanwhile (e.g. holding its read lock)
+	 */
+	public static GraphSnapshot of(BDGraph graph){
+		List<Segment> segments=new ArrayList<>(graph.getNodeCount());
+		List<Link> links=new ArrayList<>(graph.getEdgeCount());
+		//Differentiate composite edges and normal edges
+		List<Edge> compositeEdges=new ArrayList<>();
+		graph.edges().forEach(e->{
+			if(e.hasAttribute("path"))
+				compositeEdges.add(e);
+			else
+				links.add(new Link(e.getNode0().getId(), ((BDEdge)e).getDir0(), e.getNode1().getId(), ((BDEdge)e).getDir1()));
+		});
+
+		Set<String> addedNodes=new HashSet<>();
+		for(Node node:graph){
+			segments.add(segmentOf(graph, node, node.getId(), true));
+			addedNodes.add(node.getId());
+		}
+		for(Edge ce:compositeEdges){
+			BDPath p=((BDPath)ce.getAttribute("path")).getPrimitivePath();
+
+			BDNode curNode=(BDNode) p.getRoot(), nextNode=null;
+			String curID=curNode.getId(), nextID=null;
+			boolean curDir=p.getFirstNodeDirection(), nextDir=!curDir;
+
+			for(Edge e:p.getEdgePath()){
+				nextNode=(BDNode) e.getOpposite(curNode);
+				nextID=nextNode.getId();
+				if(((BDEdge)e).getNodeDirection(nextNode)!=null)
+					nextDir=((BDEdge)e).getNodeDirection(nextNode);
+
+				if(nextNode!=p.peekNode()){
+					//create ID
+					int count=1;
+					String tmpID=nextID;
+					while(addedNodes.contains(tmpID)){
+						tmpID=nextID+"."+(count++);
+					}
+					nextID=tmpID;
+					addedNodes.add(nextID);
+					segments.add(segmentOf(graph, nextNode, nextID, false));
+				}
+				links.add(new Link(curID, curDir, nextID, nextDir));
+
+				curNode=nextNode;
+				curID=nextID;
+				curDir=!nextDir;
+			}
+		}
+		return new GraphSnapshot(segments, links, graph);
+	}
+	private static Segment segmentOf(BDGraph graph, Node node, String id, boolean fromGraph){
+		int kmerCount=(int)(GraphUtil.getRealCoverage(graph, node.getNumber("cov"))*(BDGraph.ILLUMINA_READ_LENGTH-BDGraph.getKmerSize())/BDGraph.ILLUMINA_READ_LENGTH);
+		return new Segment(id, ((BDNode) node).getSequence(), (JapsaAnnotation) node.getAttribute("annotation"),
+							kmerCount, node.getAttribute("bin")==null?0:((PopBin)node.getAttribute("bin")).getId(), fromGraph);
+	}
+
+	public List<Segment> getSegments(){return segments;}
+	public int getN50(){return n50;}
+	public int getN75(){return n75;}
+	public int getLongestContig(){return maxl;}
+	public int getNumberOfSequences(){return numOfCtgs;}
+	public int getNumberOfCircularSequences(){return numOfCircularCtgs;}
+	public long getTime(){return time;}
+
+	public void writeGFA(String fileName) throws IOException{
+		File tmp=tmpFile(fileName);
+		try(PrintWriter printWriter=tmp==null?new PrintWriter(System.out):new PrintWriter(tmp)){
+			//Print S (Segment) with kmer count (KC) and bin (BI)
+			for(Segment s:segments)
+				printWriter.printf("S\t%s\t%s\tKC:i:%d\tBI:i:%d\n", s.id, s.seq.toString(), s.kmerCount, s.bin);
+			//Print L (Links)
+			for(Link l:links)
+				printWriter.printf("L\t%s\t%s\t%s\t%s\t%dM\n", l.id0, l.dir0?"+":"-", l.id1, l.dir1?"-":"+", kmer);
+		}
+		commit(tmp, fileName);
+	}
+	public void writeFASTA(String fileName) throws IOException{
+		File tmp=tmpFile(fileName);
+		SequenceOutputStream out=SequenceOutputStream.makeOutputStream(tmp==null?fileName:tmp.getPath());
+		try{
+			for(Segment s:segments){
+				if(!s.fromGraph)
+					continue;
+				if(s.seq!=null)
+					s.seq.writeFasta(out);
+				else{
+					logger.error("Cannot read sequence from node {}", s.id);
+					break;
+				}
+			}
+		}finally{
+			out.close();
+		}
+		commit(tmp, fileName);
+	}
+	public void writeJAPSA(String fileName) throws IOException{
+		File tmp=tmpFile(fileName);
+		SequenceOutputStream out=SequenceOutputStream.makeOutputStream(tmp==null?fileName:tmp.getPath());
+		try{
+			for(Segment s:segments){
+				if(!s.fromGraph)
+					continue;
+				if(s.annotation!=null)
+					s.annotation.write(out);
+				else{
+					logger.error("Cannot read annotation from node {}", s.id);
+					break;
+				}
+			}
+		}finally{
+			out.close();
+		}
+		commit(tmp, fileName);
+	}
+
+	//temporary file next to the target (same file system for the rename), keeping the extension e.g. for .gz
+	//null for the standard output
+	private static File tmpFile(String fileName){
+		if(fileName.equals("-"))
+			return null;
+		File file=new File(fileName);
+		return new File(file.getAbsoluteFile().getParentFile(), "."+file.getName().replaceFirst("(\\.[^.]+)?$", ".tmp$1"));
+	}
+	private static void commit(File tmp, String fileName) throws IOException{
+		if(tmp==null)
+			return;
+		try{
+			Files.move(tmp.toPath(), new File(fileName).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}catch(AtomicMoveNotSupportedException e){
+			Files.move(tmp.toPath(), new File(fileName).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
@@ -7,9 +7,13 @@ import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.WeakHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -19,15 +23,14 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.graphstream.graph.Edge;
 import org.graphstream.graph.Node;
-import org.graphstream.graph.implementations.AbstractNode;
 
 import com.joptimizer.functions.PDQuadraticMultivariateRealFunction;
 import com.joptimizer.optimizers.NewtonUnconstrained;
 import com.joptimizer.optimizers.OptimizationRequest;
 
 import htsjdk.samtools.SAMRecord;
+import japsa.seq.AbstractSequence;
 import japsa.seq.Alphabet;
-import japsa.seq.FastaReader;
 import japsa.seq.Sequence;
 import japsa.seq.SequenceReader;
 
@@ -39,77 +42,28 @@ public class GraphUtil {
 	 */
     //TODO: read from ABySS assembly graph (graph of final contigs, not like SPAdes)
 	public static volatile double DISTANCE_THRES=3.0; //i like number 3
-	public static HashMap<Node,Double> originalCoverageValues = new HashMap<>();
+	//weak keys: nodes of several graphs (assemblies) can be here, dropped with their graphs
+	public static Map<Node,Double> originalCoverageValues = Collections.synchronizedMap(new WeakHashMap<>());
+	//contig sequences ("seq" of the nodes) loaded 2 bits per base, see PackedSequence
+	public static boolean PACKED_SEQUENCES=true;
     
     public static void loadFromFASTG(String graphFileName, String binFileName, BDGraph graph, boolean spadesBridging) throws IOException{
+    	reduceFromSPAdesPaths(graph, prepareFromFASTG(graphFileName, binFileName, graph, spadesBridging));
+    }
+    /**
+     * Load and bin the graph from a FASTG file
+     * @return the SPAdes paths (from contigs.paths) to reduce if spadesBridging, see reduceFromSPAdesPaths()
+     */
+    public static List<String> prepareFromFASTG(String graphFileName, String binFileName, BDGraph graph, boolean spadesBridging) throws IOException{
         graph.setAutoCreate(true);
         graph.setStrict(false);
 		/*
 		 * 1. next iterate over again to read the connections
 		 */
-		SequenceReader reader = new FastaReader(graphFileName);
-		Sequence seq;
-		int shortestLen = 10000;
-		ArrayList<BDEdgePrototype> potentialEdgeSet = new ArrayList<BDEdgePrototype>();
-		while ((seq = reader.nextSequence(Alphabet.DNA())) != null){
-			if(seq.length()<shortestLen)
-				shortestLen=seq.length();
-			
-			String[] adjList = seq.getName().split(":");
-			String name = adjList[0];
-			
-			
-			boolean dir0=name.contains("'")?false:true;
-			
-			name=name.replaceAll("[^a-zA-Z0-9_.]", "").trim(); //EDGE_X_length_Y_cov_Z
-			
-			String nodeID = name.split("_")[1];
-			BDNode node = (BDNode) graph.addNode(nodeID); //or get the existing node prototype created below (to set the attributes)
-			node.setAttribute("name", name);
-			
-			if(dir0){
-				seq.setName(name);
-				node.setAttribute("seq", seq);
-				node.setAttribute("len", seq.length());
-
-				double cov = Double.parseDouble(name.split("_")[5]);
-				
-				node.setAttribute("cov", cov);
-
-			}
-			if (adjList.length > 1){
-				String[] nbList = adjList[1].split(",");
-				for(int i=0; i < nbList.length; i++){
-					String neighbor = nbList[i];
-					// note that the direction is read reversely in the dest node
-					boolean dir1=neighbor.contains("'")?true:false;
-					neighbor=neighbor.replaceAll("[^a-zA-Z0-9_.]", "").trim();
-					
-					String neighborID = neighbor.split("_")[1];
-					BDNode nbr = (BDNode) graph.addNode(neighborID); //just need a prototype, attributes can be set later...
-
-					potentialEdgeSet.add(new BDEdgePrototype(node,nbr,dir0,dir1)); //edges' prototype
-					
-				}
-			}
-			
-		}
-
-		reader.close();
-		
-		for(BDEdgePrototype ec:potentialEdgeSet) {
-			try {
-				graph.addEdge(ec.getNode0(), ec.getNode1(), ec.getDir0(), ec.getDir1());
-			} catch (Exception e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-				System.exit(1);
-			}
-		}
+		GraphFileParser.Result loaded = GraphFileParser.loadFASTG(graphFileName, graph);
+		int shortestLen = Math.min(10000, loaded.shortestLen);
 		//rough estimation of kmer used
-		if((shortestLen-1) < BDGraph.getKmerSize()){
-			BDGraph.setKmerSize(shortestLen-1);
-		}
+		BDGraph.useKmerSize(graph, Math.min(BDGraph.DEFAULT_KMER, shortestLen-1));
 		
 		double totReadsLen=0, totContigsLen=0;
 
@@ -130,7 +84,7 @@ public class GraphUtil {
 				totContigsLen += node.getNumber("len");
 			}
 		}
-		BDGraph.RCOV = totReadsLen/totContigsLen;
+		graph.rcov = totReadsLen/totContigsLen;
 		
 		
 		/**
@@ -145,15 +99,15 @@ public class GraphUtil {
 		//Celera Astats = A(delta,r,1)
 		
 		for (Node node:graph) {
-			Sequence nseq = (Sequence) node.getAttribute("seq");
+			AbstractSequence nseq = ((BDNode) node).getSequence();
 			double astats=-1;
 
-//			int estcov=(int) Math.round(node.getNumber("cov")/BDGraph.RCOV);
+//			int estcov=(int) Math.round(node.getNumber("cov")/graph.rcov);
 //			//get the first positive astats, if > 10 then assign its multiplicity (not work with different pops) 
 //			int i=0;
 //			while(astats<0){
 //				i++;
-//				astats = nseq.length()*BDGraph.RCOV/BDGraph.ILLUMINA_READ_LENGTH
+//				astats = nseq.length()*graph.rcov/BDGraph.ILLUMINA_READ_LENGTH
 //				+Math.log((i+1)*1.0/(i+2))*node.getNumber("cov")*nseq.length()/BDGraph.ILLUMINA_READ_LENGTH;
 //				astats*=Math.log10(Math.E);		
 //				System.out.printf("...A-stat at iteration %d: %.2f\n", i, astats);
@@ -165,7 +119,7 @@ public class GraphUtil {
 //				LOG.info("{} Normalized coverage={} Length={}", node.getAttribute("name"), node.getNumber("cov"), node.getNumber("len") );
 
 			//calculate 1 astat as normal
-			astats = nseq.length()*BDGraph.RCOV/BDGraph.ILLUMINA_READ_LENGTH
+			astats = nseq.length()*graph.rcov/BDGraph.ILLUMINA_READ_LENGTH
 							-Math.log(2)*node.getNumber("cov")*nseq.length()/BDGraph.ILLUMINA_READ_LENGTH;
 			astats*=Math.log10(Math.E);
 			node.setAttribute("astats", astats);
@@ -175,27 +129,28 @@ public class GraphUtil {
 		}
 		
 		logger.info("Node count = {} Edge count = {} Estimated avg. norm. read coverage = {} Total contigs length = {}",
-						graph.getNodeCount(), graph.getEdgeCount(), BDGraph.RCOV, totContigsLen );
+						graph.getNodeCount(), graph.getEdgeCount(), graph.rcov, totContigsLen );
 		if(graph.getNodeCount()>10000 || graph.getEdgeCount()>10000)
-			BDGraph.IS_COMPLEX=true;
+			graph.isComplex=true;
 		
 		/*
 		 * 2. Use a binner to estimate graph multiplicity
 		 */
-//		graph.nodes().filter(n->n.getNumber("cov") < .2*BDGraph.RCOV).forEach(n->{n.edges().forEach(e->graph.removeEdge(e));});
-		if(!BDGraph.IS_COMPLEX)
+//		graph.nodes().filter(n->n.getNumber("cov") < .2*graph.rcov).forEach(n->{n.edges().forEach(e->graph.removeEdge(e));});
+		if(!graph.isComplex)
 			graph.fixDeadEnds();
 		graph.binning(binFileName);
 
 		/*
 		 * 3. Now scan for the contigs.path file in SPAdes folder for the paths if specified
 		 */
+		List<String> spadesPaths = new ArrayList<>();
 		if(spadesBridging){
 			File graphFile = new File(graphFileName);
 			String pathsFile = FilenameUtils.getFullPathNoEndSeparator(graphFile.getAbsolutePath()) + File.separator + "contigs.paths";
 			if(! new File(pathsFile).exists()){
 				logger.warn("Path file {} not found in SPAdes output!", pathsFile);
-				return;
+				return spadesPaths;
 			}
 			BufferedReader pathReader = new BufferedReader(new FileReader(pathsFile));
 			
@@ -206,11 +161,9 @@ public class GraphUtil {
 				if(s.contains("NODE")){
 					if(flag){
 						String[] consecutivePaths = curpath.split(";");
-						BDPath path=null;
 						for(int i=0;i<consecutivePaths.length;i++){
 							//TODO: make use of the information about gapped paths (separated by ";")
-							path=new BDPath(graph, consecutivePaths[i]); //only after binning
-					    	graph.reduceFromSPAdesPath(path);
+							spadesPaths.add(consecutivePaths[i]);
 						}
 					}
 					flag=s.contains("'")?false:true;
@@ -224,100 +177,30 @@ public class GraphUtil {
 			}
 			pathReader.close();
 		}
+		return spadesPaths;
     }
     
     
     
     public static void loadFromGFA(String graphFile, String binFileName, BDGraph graph, boolean spadesBridging) throws IOException{
+    	reduceFromSPAdesPaths(graph, prepareFromGFA(graphFile, binFileName, graph, spadesBridging));
+    }
+    /**
+     * Load and bin the graph from a GFA file
+     * @return the SPAdes paths (P records) to reduce if spadesBridging, see reduceFromSPAdesPaths()
+     */
+    public static List<String> prepareFromGFA(String graphFile, String binFileName, BDGraph graph, boolean spadesBridging) throws IOException{
         graph.setAutoCreate(true);
         graph.setStrict(false);
 		/*
 		 * 1. next iterate over again to read the connections
 		 */
-        BufferedReader reader = new BufferedReader(new FileReader(graphFile));
-        String line=null;
-		Sequence seq;
-		int overlapLen = 10000;
+		GraphFileParser.Result loaded = GraphFileParser.loadGFA(graphFile, graph, spadesBridging);
+		int overlapLen = Math.min(10000, loaded.minOverlap);
+		boolean covFlag = loaded.covFlag; //true if GFA from SPAdes contains KC:i:xx; false if GFA from Unicycler dp:f:xx
 		
-		ArrayList<String> spadesPaths = new ArrayList<>();
-		boolean covFlag=true; //true if GFA from SPAdes contains KC:i:xx; false if GFA from Unicycler dp:f:xx
-		while ((line=reader.readLine()) != null){
-			String[] gfaFields = line.split("\\s");
-			String type = gfaFields[0];
-			switch (type.toUpperCase().trim()) {
-				case "#"://comments
-					break;
-				case "H"://header
-					break;
-				case "C"://containment
-					break;
-				case "S"://segment
-					String 	nodeID=gfaFields[1].trim();
-					assert gfaFields.length>3 && gfaFields[2].trim().length()>1:"Invalid GFA v1 file!";
-					seq = new Sequence(Alphabet.DNA(), gfaFields[2], nodeID);
-					AbstractNode node = (AbstractNode) graph.addNode(nodeID); //or get the existing node prototype created below (to set the attributes)
-					node.setAttribute("name", "Contig_"+nodeID);
-					seq.setName("Contig_"+nodeID);
-					node.setAttribute("seq", seq);
-					node.setAttribute("len", seq.length());
-					
-					for(int i=3; i<gfaFields.length; i++){
-						String	optField=gfaFields[i].trim();
-						String[] toks=optField.split(":");
-						if(toks[0].equals("KC") && toks[1].equals("i")){
-							//here is the kmer coverage
-							node.setAttribute("cov", Integer.parseInt(toks[2]));
-						}else if(toks[0].equals("df") && toks[1].equals("f")){
-							covFlag=false;
-							node.setAttribute("cov", Double.parseDouble((toks[2])));
-						}
-					}
-					
-					break;
-				case "L"://links
-					BDNode 	n0=(BDNode) graph.getNode(gfaFields[1]),
-							n1=(BDNode) graph.getNode(gfaFields[3]);
-					boolean dir0=gfaFields[2].equals("+")?true:false,
-							dir1=gfaFields[4].equals("+")?false:true;
-					graph.addEdge(n0, n1, dir0, dir1);
-					
-					//just do it simple for now when the last field of Links line is xxM (kmer=xx)
-					String cigar=gfaFields[5];
-					for(int i=0; i < cigar.length();i++) {
-						char c = cigar.charAt(i);
-						if(c >= '0' && c <= '9')
-							continue;
-						else {
-							int len = Integer.parseInt(cigar.substring(0, i));
-							if(overlapLen > len)
-								overlapLen=len;
-							break;
-						}
-					}
-										
-					break;
-				case "P"://path
-					if(spadesBridging){
-						if(gfaFields.length>3 && gfaFields[2].contains(",")) {
-							spadesPaths.add(gfaFields[2]);
-						}
-					}
-					break;
-	
-				default:
-					logger.warn("Unrecognized GFA field: {}", type.toUpperCase().trim());
-			}
-			
-		
-		}
-
-		reader.close();
-
 		//rough estimation of kmer used
-		if((overlapLen) < BDGraph.getKmerSize()){
-			BDGraph.setKmerSize(overlapLen);
-
-		}
+		BDGraph.useKmerSize(graph, Math.min(BDGraph.DEFAULT_KMER, overlapLen));
 
 		
 		double totReadsLen=0, totContigsLen=0;
@@ -341,7 +224,7 @@ public class GraphUtil {
 				totContigsLen += node.getNumber("len");
 			}
 		}
-		BDGraph.RCOV = totReadsLen/totContigsLen;
+		graph.rcov = totReadsLen/totContigsLen;
 		
 		
 		/**
@@ -351,8 +234,8 @@ public class GraphUtil {
 		 * Recalculated by Cx, contig_len, read_len, RCOV (average read coverage over the genome)
 		 */
 		for (Node node:graph) {
-			Sequence nseq = (Sequence) node.getAttribute("seq");
-			double astats = nseq.length()*BDGraph.RCOV/BDGraph.ILLUMINA_READ_LENGTH
+			AbstractSequence nseq = ((BDNode) node).getSequence();
+			double astats = nseq.length()*graph.rcov/BDGraph.ILLUMINA_READ_LENGTH
 							-Math.log(2)*node.getNumber("cov")*nseq.length()/BDGraph.ILLUMINA_READ_LENGTH;
 			astats*=Math.log10(Math.E);
 			node.setAttribute("astats", astats);
@@ -362,28 +245,31 @@ public class GraphUtil {
 		}
 
 		logger.info("Node count = {} Edge count = {} Estimated avg. norm. read coverage = {} Total contigs length = {}",
-						graph.getNodeCount(), graph.getEdgeCount(), BDGraph.RCOV, totContigsLen );
+						graph.getNodeCount(), graph.getEdgeCount(), graph.rcov, totContigsLen );
 		
 		if(graph.getNodeCount()>10000 || graph.getEdgeCount()>10000)
-			BDGraph.IS_COMPLEX=true;
+			graph.isComplex=true;
 		/*
 		 * 2. Binning the graph
 		 */
-		if(!BDGraph.IS_COMPLEX)
+		if(!graph.isComplex)
 			graph.fixDeadEnds();
 		graph.binning(binFileName);
 		
 		/*
-		 * 3. Reduce the SPAdes path if specified
+		 * 3. The SPAdes paths to reduce if specified
 		 */
-		if(spadesBridging){
-			for(String pID:spadesPaths)
-				graph.reduceFromSPAdesPath(new BDPath(graph,pID));
-		}
+		return loaded.paths;
+    }
+    
+    //reduce the graph (after binning) by the paths of SPAdes
+    public static void reduceFromSPAdesPaths(BDGraph graph, List<String> spadesPaths){
+    	for(String pID:spadesPaths)
+    		graph.reduceFromSPAdesPath(new BDPath(graph, pID)); //only after binning
     }
     
    
-    public static int overlap(Sequence s0, Sequence s1){
+    public static int overlap(AbstractSequence s0, AbstractSequence s1){
     	int retval;
     	for(retval=BDGraph.getKmerSize() ; retval>0; retval--){
     		int match=0;
@@ -397,22 +283,26 @@ public class GraphUtil {
     
     public static String getIDFromName(String readName){
     	String retval=readName; 
-		if(readName.contains("_"))
-			retval=readName.split("_")[1];	//SPAdes style
+		if(readName.contains("_")){
+			String[] toks=readName.split("_");
+			if(toks.length > 1)
+				retval=toks[1];	//SPAdes style
+		}
    	
     	return retval;
     }
     
     //Normalized the average cov to 100
     public static void normalizedCoverage(Node node){
-    	assert BDGraph.RCOV!=0 && node.hasAttribute("cov"):"Cannot normalize coverage of node " + node.getId();
-    	node.setAttribute("cov", node.getNumber("cov")*100.0/BDGraph.RCOV);
+    	double rcov=((BDGraph) node.getGraph()).rcov;
+    	assert rcov!=0 && node.hasAttribute("cov"):"Cannot normalize coverage of node " + node.getId();
+    	node.setAttribute("cov", node.getNumber("cov")*100.0/rcov);
     	originalCoverageValues.put(node, node.getNumber("cov"));
     }
     
     //Get real value for output
-    public static double getRealCoverage(double cov){
-    	return cov*BDGraph.RCOV/100.0;
+    public static double getRealCoverage(BDGraph graph, double cov){
+    	return cov*graph.rcov/100.0;
     }
     
     //Check if a node has been likely used up its coverage. Return true iff its current coverage still suggest its residence somewhere.
@@ -422,7 +312,7 @@ public class GraphUtil {
     
     
 	public static void gradientDescent(BDGraph graph) {
-		int 	maxIterations=(BDGraph.IS_COMPLEX?5:21), 
+		int 	maxIterations=(graph.isComplex?5:21), 
 				eIteCount=0, nIteCount=0;
 		double epsilon=.01;
 		while(true) {
@@ -1,11 +1,7 @@
 package org.rtassembly.npgraph;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.lang.ProcessBuilder.Redirect;
 import java.lang.invoke.MethodHandles;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -17,14 +13,8 @@ import java.util.HashSet;
 import java.util.List;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
+import org.rtassembly.npgraph.AlignmentSource.ReadAlignments;
 
-import htsjdk.samtools.SAMRecord;
-import htsjdk.samtools.SAMRecordIterator;
-import htsjdk.samtools.SamInputResource;
-import htsjdk.samtools.SamReader;
-import htsjdk.samtools.SamReaderFactory;
-import htsjdk.samtools.ValidationStringency;
-import japsa.seq.PAFRecord;
 import japsa.seq.Sequence;
 import javafx.beans.property.StringProperty;
 import javafx.beans.property.SimpleStringProperty;
@@ -38,9 +28,10 @@ public class HybridAssembler {
     private StringProperty 	prefix;
 	public InputData input;
 	Process alignmentProcess = null;
+	private MinimizerIndex mmIndex = null;
 	private boolean stop=false;
-	public int currentReadCount = 0;
-	public long currentBaseCount = 0;	
+	public volatile int currentReadCount = 0;
+	public volatile long currentBaseCount = 0;	
 	//Getters and Setters
 	//==============================================================================================//
 	public void setReady(boolean isReady) {ready=isReady;}
@@ -110,8 +101,8 @@ public class HybridAssembler {
 			AlignedRead.tmpFolder=tmpFolder.getAbsolutePath();
 		}
 		
-		//if long reads data not given in SAM/BAM, need to invoke minimap2
-        if(input.getLongReadsInputFormat().contains("fast")) {
+		//if long reads data not given in SAM/BAM, need to invoke minimap2 (the internal mapper indexes the graph in memory)
+        if(input.getLongReadsInputFormat().contains("fast") && !MinimizerMapper.ALIGNER.equals(input.getAligner())) {
         	File indexFile=null;
         	ArrayList<String> idxCmd = new ArrayList<>();
         	idxCmd.add(input.getAligner());
@@ -152,9 +143,13 @@ public class HybridAssembler {
         }
         
         //check consensus tool
-    	if(!GraphUtil.checkMSA(input.getMSA())){
-    		logger.warn("WARNING: MSA tool \"{}\" not found! Set to none", input.getMSA());
-    		input.setMSA("none");
+    	if(input.getMSA().isEmpty() || input.getMSA().equals("builtin") || input.getMSA().equals("none")){
+    		if(input.getMSA().isEmpty())
+    			input.setMSA("builtin");
+    		logger.info("MSA for consensus calling is set to {}", input.getMSA());
+    	}else if(!GraphUtil.checkMSA(input.getMSA())){
+    		logger.warn("WARNING: MSA tool \"{}\" not found! Set to builtin", input.getMSA());
+    		input.setMSA("builtin");
     	}else
     		logger.info("MSA for consensus calling is set to {}", input.getMSA());
     	
@@ -166,15 +161,48 @@ public class HybridAssembler {
 	//binning, ...
 	public boolean prepareShortReadsProcess() {
 	
-		//try to read input file
+		//try to read input file, or its prepared image (see GraphCache) if any
 		try {
-			if(input.getShortReadsInputFormat().toLowerCase().equals("gfa")) 
-				GraphUtil.loadFromGFA(input.getShortReadsInput(), input.getBinReadsInput(), simGraph, input.getUseSPAdesPath());
-			else if(input.getShortReadsInputFormat().toLowerCase().equals("fastg"))
-				GraphUtil.loadFromFASTG(input.getShortReadsInput(), input.getBinReadsInput(), simGraph, input.getUseSPAdesPath());
-			else 				
+			String format=input.getShortReadsInputFormat().toLowerCase();
+			if(!format.equals("gfa") && !format.equals("fastg"))
 				throw new IOException("Assembly graph file must have .gfa or .fastg extension!");
-			
+
+			File cacheFile=GraphCache.getFile(input.getShortReadsInput());
+			String cacheKey=GraphCache.getKey(input.getShortReadsInput(), input.getBinReadsInput(), input.getUseSPAdesPath());
+			List<String> spadesPaths=null;
+			if(cacheFile==null)
+				logger.info("Graph image cache disabled: {} is prepared from scratch and not saved", input.getShortReadsInput());
+			else{
+				try{
+					spadesPaths=GraphCache.load(cacheFile, cacheKey, simGraph);
+				}catch(IOException e){
+					//the graph is reset by the loader
+					logger.warn("Cannot load the graph image {}, rebuilding: {}", cacheFile, e);
+				}
+			}
+			if(spadesPaths==null){
+				if(format.equals("gfa"))
+					spadesPaths=GraphUtil.prepareFromGFA(input.getShortReadsInput(), input.getBinReadsInput(), simGraph, input.getUseSPAdesPath());
+				else
+					spadesPaths=GraphUtil.prepareFromFASTG(input.getShortReadsInput(), input.getBinReadsInput(), simGraph, input.getUseSPAdesPath());
+				if(cacheFile!=null){
+					try{
+						GraphCache.save(cacheFile, cacheKey, simGraph, spadesPaths);
+					}catch(IOException e){
+						logger.warn("Cannot save the graph image {}: {}", cacheFile, e);
+					}
+				}
+			}
+			//the image maps its own store
+			if(ContigStore.ENABLED && simGraph.contigs==null){
+				try{
+					ContigStore.create(simGraph);
+				}catch(IOException e){
+					logger.warn("Cannot move the contig sequences out of the heap, keeping them: {}", e);
+				}
+			}
+			GraphUtil.reduceFromSPAdesPaths(simGraph, spadesPaths);
+
 		}catch(IOException e) {
 			logger.error("Issue when loading pre-assembly:\n{}", e);
 			return false;
@@ -188,7 +216,7 @@ public class HybridAssembler {
 		//re-estimate timely report based on graph complexity
 //		int timeInterval=(int) (Math.round(Math.log10(simGraph.getNodeCount()))-1); //estimated interval time based on graph complexity
 //		timeInterval=(timeInterval>1?timeInterval:1)*10;
-		logger.info("The results will be reported every {} seconds and {} reads pass", RealtimeGraphWatcher.T_INTERVAL, RealtimeGraphWatcher.R_INTERVAL);
+		logger.info("The results will be reported every {} seconds or {} reads pass, or when the graph changes", RealtimeGraphWatcher.T_INTERVAL, RealtimeGraphWatcher.R_INTERVAL);
 		return true;
 	}
 
@@ -206,184 +234,7 @@ public class HybridAssembler {
 		}else
 			logger.info("Scaffolding ready at ", new Date());
 
-		Thread thread = new Thread(observer);
-		thread.start();	
-		/*PAF*/
-		if (input.getLongReadsInputFormat().endsWith("paf")){//bam or sam
-			InputStreamReader inputStream=null;
-			if ("-".equals(input.getLongReadsInput()))
-				inputStream = new InputStreamReader(System.in);
-			else
-				inputStream = new FileReader(input.getLongReadsInput());	
-			
-			try(BufferedReader reader=new BufferedReader(inputStream)){
-				String readID = "";
-				Sequence read = null;
-				ArrayList<Alignment> hits =  new ArrayList<Alignment>();// alignment record of the same read;	
-				PAFRecord curRecord=null;
-				
-				String line;
-				while ((line=reader.readLine()) != null) {
-					if(getStopSignal())
-						break;
-					
-					try {
-						curRecord = new PAFRecord(line);
-					}catch(Exception e) {
-						logger.error("Error reading PAF record: \n {}", e);
-		//				continue;
-						break;
-					}
-					
-					if (curRecord.qual < Alignment.MIN_QUAL){		
-						logger.debug("Ignore low-quality map record!");
-						if (!readID.equals(curRecord.qname)){
-							update(read, hits);
-							hits = new ArrayList<Alignment>();
-							readID = curRecord.qname;
-							read = GraphUtil.getNSequence(curRecord.qname, curRecord.qlen);//there is no read data from PAF, so just fake one!
-
-						}
-						continue;		
-					}
-					
-					String refName = curRecord.tname;
-					String refID = refName.split("_").length > 1 ? refName.split("_")[1]:refName;
-					
-					//check if this node still in. FIXME: do not remove nodes for metagenomics' graph?
-					if (simGraph.getNode(refID)==null) {
-						logger.debug("Ignore record with reference {} not found (removed) from the graph!", refID);
-						if (!readID.equals(curRecord.qname)){
-							update(read, hits);
-							hits = new ArrayList<Alignment>();
-							readID = curRecord.qname;
-							read = GraphUtil.getNSequence(curRecord.qname, curRecord.qlen);//there is no read data from PAF, so just fake one!
-
-						}
-						continue;
-					}
-					Alignment curAlignment = new Alignment(curRecord, (BDNode) simGraph.getNode(refID)); 
-		
-					//////////////////////////////////////////////////////////////////
-					
-					if (!readID.equals("") && !readID.equals(curRecord.qname)) {	
-						update(read, hits);
-						hits = new ArrayList<Alignment>();
-						readID = curRecord.qname;
-						read = GraphUtil.getNSequence(curRecord.qname, curRecord.qlen);//there is no read data from PAF, so just fake one!
-
-					}	
-					hits.add(curAlignment); 
-				}// while
-	
-			}
-		/*SAM/BAM/FASTA/FASTQ*/
-		}else {
-			SamReaderFactory.setDefaultValidationStringency(ValidationStringency.SILENT);
-			SamReader reader = null;
-	
-			if (input.getLongReadsInputFormat().endsWith("am")){//bam or sam
-				if ("-".equals(input.getLongReadsInput()))
-					reader = SamReaderFactory.makeDefault().open(SamInputResource.of(System.in));
-				else
-					reader = SamReaderFactory.makeDefault().open(new File(input.getLongReadsInput()));	
-			}else{
-				logger.info("Starting alignment by {} at {}", input.getAligner(), new Date());
-				ProcessBuilder pb = null;
-				List<String> command = new ArrayList<>();
-				command.add(input.getAligner());
-				if(input.getAligner().endsWith("minimap2")) {
-					command.add("-a");
-					command.addAll(Arrays.asList(input.getAlignerOpts().split("\\s")));
-					command.add("-K20000");
-					command.add(getPrefix()+File.separator+"assembly_graph.mmi");
-					command.add(input.getLongReadsInput());
-				}
-				else if(input.getAligner().endsWith("bwa")) {
-					command.add("mem");
-					command.addAll(Arrays.asList(input.getAlignerOpts().split("\\s")));
-					command.add("-K20000");
-					command.add(getPrefix()+File.separator+"assembly_graph.fasta");
-					command.add(input.getLongReadsInput());
-				}
-				
-				if ("-".equals(input.getLongReadsInput())){
-					pb = new ProcessBuilder(command).redirectInput(Redirect.INHERIT);
-				}else{
-					pb = new ProcessBuilder(command);
-				}
-	
-				alignmentProcess  = pb.redirectError(ProcessBuilder.Redirect.to(new File(getPrefix()+File.separator+"alignment.log"))).start();
-	
-				logger.info("{} started!", input.getAligner());			
-	
-				reader = SamReaderFactory.makeDefault().open(SamInputResource.of(alignmentProcess.getInputStream()));
-	
-			}
-			SAMRecordIterator iter = reader.iterator();
-	
-			String readID = "";
-			Sequence read = null;
-			ArrayList<Alignment> hits =  new ArrayList<Alignment>();// alignment record of the same read;	
-			SAMRecord curRecord=null;
-						
-			while (iter.hasNext()) {
-				if(getStopSignal())
-					break;
-				
-				try {
-					curRecord = iter.next();
-				}catch(Exception e) {
-					logger.error("Error SAM record: \n {}", e);
-					break;
-				}
-				
-				if (curRecord.getReadUnmappedFlag() || curRecord.getMappingQuality() < Alignment.MIN_QUAL){		
-					logger.debug("Ignore one unmapped or low-quality map record!");
-					if (!readID.equals(curRecord.getReadName())){
-						update(read, hits);
-						hits = new ArrayList<Alignment>();
-						read = GraphUtil.getQueryReadFromSAMRecord(curRecord);
-						readID = curRecord.getReadName();
-					}
-					continue;		
-				}
-				
-				String refName = curRecord.getReferenceName();
-				String refID = refName.split("_").length > 1 ? refName.split("_")[1]:refName;
-				
-				//check if this node still in. FIXME: do not remove nodes for metagenomics' graph?
-				if (simGraph.getNode(refID)==null) {
-					logger.debug("Ignore record with reference {} not found (removed) from the graph!", refID);
-					if (!readID.equals(curRecord.getReadName())){
-						update(read, hits);
-						hits = new ArrayList<Alignment>();
-						read = GraphUtil.getQueryReadFromSAMRecord(curRecord);
-						readID = curRecord.getReadName();
-					}
-					continue;
-				}
-				Alignment curAlignment = new Alignment(curRecord, (BDNode) simGraph.getNode(refID)); 
-	
-				//////////////////////////////////////////////////////////////////
-				
-				if (!readID.equals("") && !readID.equals(curRecord.getReadName())) {	
-					update(read, hits);
-					hits = new ArrayList<Alignment>();
-					read = GraphUtil.getQueryReadFromSAMRecord(curRecord);
-					readID = curRecord.getReadName();
-	
-				}	
-				hits.add(curAlignment); 
-			}// while
-			iter.close();
-			reader.close();
-		}
-		
-		
-		observer.stopWaiting();
-		thread.join();
-		terminateAlignmentProcess();
+		ingest(openAlignmentSource(false));
 	}
 	
 	/**
@@ -400,108 +251,96 @@ public class HybridAssembler {
 		}else
 			logger.info("Scaffolding ready at {}", new Date());
 
-
-		InputStreamReader inputStream = null;
-
-		if (input.getLongReadsInputFormat().endsWith("paf")){//bam or sam
-			if ("-".equals(input.getLongReadsInput()))
-				inputStream = new InputStreamReader(System.in);
+		ingest(openAlignmentSource(true));
+	}
+	
+	/*
+	 * Alignments of the long reads: read from the input file (PAF, SAM/BAM, - for stdin) 
+	 * or from an aligner run on the fly for FASTA/FASTQ input.
+	 * @param pafFromAligner let minimap2 report PAF instead of SAM
+	 */
+	private AlignmentSource openAlignmentSource(boolean pafFromAligner) throws IOException{
+		String 	format=input.getLongReadsInputFormat(),
+				fileName=input.getLongReadsInput();
+		
+		if (format.endsWith("paf"))
+			return PAFAlignmentSource.open(fileName, simGraph);
+		else if (format.endsWith("am"))//bam or sam
+			return SAMAlignmentSource.open(fileName, simGraph);
+		
+		logger.info("Starting alignment by {} at {}", input.getAligner(), new Date());
+		if(MinimizerMapper.ALIGNER.equals(input.getAligner()))
+			return MinimizerAlignmentSource.open(fileName, getMinimizerIndex(), simGraph);
+		
+		List<String> command = new ArrayList<>();
+		boolean paf=false;
+		command.add(input.getAligner());
+		if(input.getAligner().endsWith("minimap2")) {
+			if(pafFromAligner)
+				paf=true;
 			else
-				inputStream = new FileReader(input.getLongReadsInput());	
-		}else if(input.getLongReadsInputFormat().contains("fast")){
-			logger.info("Alignment command: {} {} start at {}", input.getAligner(), input.getAlignerOpts(), new Date());
-			ProcessBuilder pb = null;
-			List<String> command = new ArrayList<>();
-			command.add(input.getAligner());
-//			command.add("-a");
+				command.add("-a");
 			command.addAll(Arrays.asList(input.getAlignerOpts().split("\\s")));
 			command.add("-K20000");
 			command.add(getPrefix()+File.separator+"assembly_graph.mmi");
-			command.add(input.getLongReadsInput());
-			
-
-			
-			if ("-".equals(input.getLongReadsInput())){
-				pb = new ProcessBuilder(command).redirectInput(Redirect.INHERIT);
-			}else{
-				pb = new ProcessBuilder(command);
+			command.add(fileName);
+		}
+		else if(input.getAligner().endsWith("bwa")) {
+			command.add("mem");
+			command.addAll(Arrays.asList(input.getAlignerOpts().split("\\s")));
+			command.add("-K20000");
+			command.add(getPrefix()+File.separator+"assembly_graph.fasta");
+			command.add(fileName);
+		}
+		
+		AlignerAlignmentSource source = new AlignerAlignmentSource(command, paf, "-".equals(fileName), 
+																	getPrefix()+File.separator+"alignment.log", simGraph);
+		alignmentProcess = source.getProcess();
+		return source;
+	}
+	
+	//Index of the graph for the internal mapper, k and w can be set by -k and -w in the aligner options
+	private MinimizerIndex getMinimizerIndex(){
+		if(mmIndex==null){
+			int k=MinimizerIndex.K, w=MinimizerIndex.W;
+			for(String opt:input.getAlignerOpts().split("\\s")){
+				if(opt.startsWith("-k") && opt.length() > 2)
+					k=Integer.parseInt(opt.substring(2));
+				else if(opt.startsWith("-w") && opt.length() > 2)
+					w=Integer.parseInt(opt.substring(2));
 			}
-
-			alignmentProcess  = pb.redirectError(ProcessBuilder.Redirect.to(new File(getPrefix()+File.separator+"alignment.log"))).start();
-
-			logger.info("{} started!", input.getAligner());			
-
-			inputStream = new InputStreamReader(alignmentProcess.getInputStream());
-
+			mmIndex=new MinimizerIndex(simGraph, k, w);
 		}
+		return mmIndex;
+	}
+	
+	//Feed the grouped alignments to the ingestion pipeline while the observer reports the progress
+	private void ingest(AlignmentSource source) throws IOException, InterruptedException{
+		Thread thread = new Thread(observer);
+		thread.start();	
+		ReadPipeline pipeline = new ReadPipeline(this);
 		
-		try(BufferedReader reader=new BufferedReader(inputStream)){
-			String readID = "";
-			Sequence read = null;
-			ArrayList<Alignment> hits =  new ArrayList<Alignment>();// alignment record of the same read;	
-			PAFRecord curRecord=null;
-			
-			Thread thread = new Thread(observer);
-			thread.start();	
-			String line;
-			while ((line=reader.readLine()) != null) {
-				if(getStopSignal())
-					break;
-				
-				try {
-					curRecord = new PAFRecord(line);
-				}catch(Exception e) {
-					logger.error("Error reading PAF record: \n {}", e);
-	//				continue;
-					break;
-				}
-				
-				if (curRecord.qual < Alignment.MIN_QUAL){		
-					logger.debug("Ignore low-quality map record!");
-					if (!readID.equals(curRecord.qname)){
-						update(read, hits);
-						hits = new ArrayList<Alignment>();
-						readID = curRecord.qname;
-						read = GraphUtil.getNSequence(curRecord.qname, curRecord.qlen);//there is no read data from PAF, so just fake one!
-
-					}
-					continue;		
-				}
-				
-				String refName = curRecord.tname;
-				String refID = refName.split("_").length > 1 ? refName.split("_")[1]:refName;
-				
-				//check if this node still in. FIXME: do not remove nodes for metagenomics' graph?
-				if (simGraph.getNode(refID)==null) {
-					logger.debug("Ignore record with reference {} not found (removed) from the graph!", refID);
-					if (!readID.equals(curRecord.qname)){
-						update(read, hits);
-						hits = new ArrayList<Alignment>();
-						readID = curRecord.qname;
-						read = GraphUtil.getNSequence(curRecord.qname, curRecord.qlen);//there is no read data from PAF, so just fake one!
-
-					}
-					continue;
+		try{
+			pipeline.start();
+			try{
+				List<ReadAlignments> batch;
+				while(!getStopSignal() && !pipeline.hasFailed() && !(batch=source.nextBatch()).isEmpty()){
+					for(ReadAlignments readAlignments:batch)
+						pipeline.submit(readAlignments.read, readAlignments.hits);
 				}
-				Alignment curAlignment = new Alignment(curRecord, (BDNode) simGraph.getNode(refID)); 
-	
-				//////////////////////////////////////////////////////////////////
-				
-				if (!readID.equals("") && !readID.equals(curRecord.qname)) {	
-					update(read, hits);
-					hits = new ArrayList<Alignment>();
-					readID = curRecord.qname;
-					read = GraphUtil.getNSequence(curRecord.qname, curRecord.qlen);//there is no read data from PAF, so just fake one!
-
-				}	
-				hits.add(curAlignment); 
-			}// while
-			
-			observer.stopWaiting();
-			thread.join();
-			terminateAlignmentProcess();	
+			}finally{
+				source.close();
+			}
+		}finally{
+			//stages and observer are stopped whatever happened to the reading
+			try{
+				pipeline.finish();
+			}finally{
+				observer.stopWaiting();
+				thread.join();
+			}
 		}
-
+		terminateAlignmentProcess();
 	}
 	
 	//update when more read alignments coming in
@@ -509,13 +348,25 @@ public class HybridAssembler {
 		if(alignments.isEmpty() || nnpRead==null)
 			return;
 		
+		reduce(nnpRead, simGraph.uniqueBridgesFinding(nnpRead, alignments));
+	} 		
+	
+	//graph mutation of a read after its bridges were found: only one thread should call this
+	void reduce(Sequence nnpRead, List<BDPath> paths){
 		currentReadCount ++;
 		currentBaseCount += nnpRead.length();
+		if(observer!=null)
+			observer.notifyReads();
 
-		List<BDPath> paths=simGraph.uniqueBridgesFinding(nnpRead, alignments);
-		if(paths!=null)
-		    paths.stream().forEach(p->simGraph.reduceUniquePath(p));
-	} 		
+		if(paths!=null && !paths.isEmpty()){
+			simGraph.lockWrite();
+			try{
+				paths.stream().forEach(p->simGraph.reduceUniquePath(p));
+			}finally{
+				simGraph.unlockWrite();
+			}
+		}
+	}
 	
 	public void terminateAlignmentProcess() {
  		if (alignmentProcess != null){
@@ -143,7 +143,7 @@ public class InputData {
 						setLongReadsInputFormat("fasta/fastq");
 					else if(fn.endsWith(".sam") || fn.endsWith(".bam")) 
 						setLongReadsInputFormat("sam/bam");
-					else if(fn.endsWith(".paf")) 
+					else if(fn.endsWith(".paf") || fn.endsWith(".paf.gz") || fn.endsWith(".paf.bgz")) 
 						setLongReadsInputFormat("paf");	
 	    		}	 
 	        );
@@ -164,7 +164,7 @@ public class InputData {
 					if(newValue.equals("sam/bam") && !oldFile.endsWith(".sam") && !oldFile.endsWith(".bam"))
 						setLongReadsInput("");
 					
-					if(newValue.equals("paf") && !oldFile.endsWith(".paf"))
+					if(newValue.equals("paf") && !oldFile.endsWith(".paf") && !oldFile.endsWith(".paf.gz") && !oldFile.endsWith(".paf.bgz"))
 						setLongReadsInput("");
 				}	 
 
@@ -177,6 +177,8 @@ public class InputData {
 						setAlignerOpts("-t4 -k15 -w5");
 					else if (aligner.toLowerCase().endsWith("bwa"))
 						setAlignerOpts("-t4 -k11 -W20 -r10 -A1 -B1 -O1 -E1 -L0 -a -Y");			
+					else if (aligner.equals(MinimizerMapper.ALIGNER))
+						setAlignerOpts("-k15 -w10");
 				}	 
 
 	        );
@@ -0,0 +1,89 @@
+package org.rtassembly.npgraph;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import japsa.seq.Alphabet;
+import japsa.seq.Sequence;
+import japsa.seq.SequenceReader;
+
+/*
+ * Alignments of FASTA/FASTQ reads computed in this JVM by MinimizerMapper, 
+ * replacing the minimap2/bwa subprocess. Mapping runs on the read-ahead thread of the source.
+ */
+public class MinimizerAlignmentSource extends AbstractAlignmentSource {
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+	private final SequenceReader reader;
+	private final MinimizerMapper mapper;
+	private ArrayList<Alignment> pending=new ArrayList<>();
+	private int next=0;
+	
+	public MinimizerAlignmentSource(SequenceReader reader, MinimizerIndex index, BDGraph graph){
+		super(graph);
+		this.reader=reader;
+		mapper=new MinimizerMapper(index);
+	}
+	
+	/**
+	 * Open a FASTA/FASTQ file (can be gzipped), - for stdin
+	 */
+	public static MinimizerAlignmentSource open(String fileName, MinimizerIndex index, BDGraph graph) throws IOException{
+		SequenceReader reader=SequenceReader.getReader(fileName);
+		if(reader==null)
+			throw new IOException("Unknown format of read file " + fileName);
+		return new MinimizerAlignmentSource(reader, index, graph);
+	}
+	
+	@Override
+	protected boolean nextRecord() throws IOException{
+		if(next>=pending.size()){
+			Sequence seq=reader.nextSequence(Alphabet.DNA());
+			if(seq==null)
+				return false;
+			read=seq;
+			//the contigs (attributes) are read while the graph is being reduced
+			graph.lockRead();
+			try{
+				pending=mapper.map(seq);
+			}finally{
+				graph.unlockRead();
+			}
+			next=0;
+			if(pending.isEmpty()){
+				logger.debug("Read {} not mapped!", seq.getName());
+				alignment=null;
+				return true;
+			}
+		}
+		
+		alignment=pending.get(next++);
+		if (alignment.quality < Alignment.MIN_QUAL){		
+			logger.debug("Ignore low-quality map record!");
+			alignment=null;
+		}else if (!isInGraph(alignment.node)) {
+			//check if this node still in. FIXME: do not remove nodes for metagenomics' graph?
+			logger.debug("Ignore record with reference {} not found (removed) from the graph!", alignment.node.getId());
+			alignment=null;
+		}
+		return true;
+	}
+	
+	private boolean isInGraph(BDNode node){
+		graph.lockRead();
+		try{
+			return graph.getNode(node.getId())==node;
+		}finally{
+			graph.unlockRead();
+		}
+	}
+	
+	@Override
+	protected void closeInput() throws IOException{
+		reader.close();
+	}
+}
@@ -0,0 +1,193 @@
+package org.rtassembly.npgraph;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.graphstream.graph.Node;
+
+import japsa.seq.AbstractSequence;
+
+/*
+ * In-memory (w,k)-minimizer index of the contig sequences of the assembly graph, 
+ * in the spirit of minimap2's index: canonical k-mers hashed with an invertible hash,
+ * the smallest hash of every w consecutive k-mers is kept.
+ * Entries are stored in two flat arrays sorted by hash, looked up by binary search.
+ */
+public class MinimizerIndex {
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+	
+	public static int K=15, W=10; //k-mer size (up to 15) and window size
+	public static int MAX_OCC=200; //minimizers occurring more than this are ignored as repeats
+	
+	final int k, w;
+	final BDNode[] targets;
+	final int[] targetLengths;
+	
+	//entries sorted by hash: hashes[i] and hits[i]=target index<<32 | position<<1 | strand
+	private final int[] hashes;
+	private final long[] hits;
+	
+	public MinimizerIndex(BDGraph graph){
+		this(graph, K, W);
+	}
+	public MinimizerIndex(BDGraph graph, int k, int w){
+		this.k=Math.max(1, Math.min(k, 15));
+		this.w=Math.max(1, w);
+		long start=System.currentTimeMillis();
+		
+		List<BDNode> nodes=new ArrayList<>();
+		for(Node n:graph)
+			if(((BDNode) n).getSequence()!=null)
+				nodes.add((BDNode) n);
+		targets=nodes.toArray(new BDNode[nodes.size()]);
+		targetLengths=new int[targets.length];
+		
+		//sort key: hash<<32 | entry number (hash < 2^30, so no sign issue)
+		long[] keys=new long[1024], values=new long[1024];
+		int n=0;
+		Sketch sketch=new Sketch();
+		for(int t=0;t<targets.length;t++){
+			AbstractSequence seq=targets[t].getSequence();
+			targetLengths[t]=seq.length();
+			sketch.compute(seq, this.k, this.w);
+			for(int i=0;i<sketch.size;i++){
+				if(n==keys.length){
+					keys=Arrays.copyOf(keys, n*2);
+					values=Arrays.copyOf(values, n*2);
+				}
+				long m=sketch.mins[i];
+				keys[n]=(Sketch.hash(m)<<32) | n;
+				values[n]=((long)t<<32) | (m & 0xffffffffL);
+				n++;
+			}
+		}
+		Arrays.sort(keys, 0, n);
+		hashes=new int[n];
+		hits=new long[n];
+		for(int i=0;i<n;i++){
+			hashes[i]=(int) (keys[i]>>>32);
+			hits[i]=values[(int) keys[i]];
+		}
+		logger.info("Minimizer index (k={}, w={}) of {} contigs: {} entries built in {}ms", 
+					this.k, this.w, targets.length, n, System.currentTimeMillis()-start);
+	}
+	
+	public int getTargetCount(){
+		return targets.length;
+	}
+	
+	/**
+	 * Entries of a minimizer hash
+	 * @return start (inclusive) in the entry arrays, end is returned by the next binary search
+	 * or use count(); -1 if not found
+	 */
+	int lookup(int hash){
+		int lo=0, hi=hashes.length;
+		while(lo<hi){
+			int mid=(lo+hi)>>>1;
+			if(hashes[mid]<hash)
+				lo=mid+1;
+			else
+				hi=mid;
+		}
+		return lo<hashes.length && hashes[lo]==hash?lo:-1;
+	}
+	int count(int start){
+		int end=start, hash=hashes[start];
+		while(end<hashes.length && hashes[end]==hash)
+			end++;
+		return end-start;
+	}
+	long getHit(int i){
+		return hits[i];
+	}
+	
+	/*
+	 * Minimizers of a sequence: each packed as hash<<32 | position<<1 | strand
+	 * (position of the k-mer start, strand 1 if the canonical k-mer is the reverse complement).
+	 * Buffers are reused between calls, so one instance per thread.
+	 */
+	static class Sketch{
+		long[] mins=new long[1024];
+		int size=0;
+		private long[] kmers=new long[1024]; //hashed k-mer at each position, MAX_VALUE if none
+		private int[] queue=new int[1024]; //monotonic queue of positions for the sliding minimum
+		
+		static long hash(long m){
+			return m>>>32;
+		}
+		static int position(long m){
+			return (int) ((m & 0xffffffffL)>>>1);
+		}
+		static boolean reverse(long m){
+			return (m & 1)==1;
+		}
+		
+		//invertible integer hash as in minimap2
+		static long hash64(long key, long mask){
+			key=(~key + (key << 21)) & mask;
+			key=key ^ key >>> 24;
+			key=((key + (key << 3)) + (key << 8)) & mask;
+			key=key ^ key >>> 14;
+			key=((key + (key << 2)) + (key << 4)) & mask;
+			key=key ^ key >>> 28;
+			key=(key + (key << 31)) & mask;
+			return key;
+		}
+		
+		void compute(AbstractSequence seq, int k, int w){
+			size=0;
+			int len=seq.length(), nKmers=len-k+1;
+			if(nKmers<=0)
+				return;
+			if(kmers.length<nKmers){
+				kmers=new long[nKmers];
+				queue=new int[nKmers];
+			}
+			long mask=(1L<<(2*k))-1, fwd=0, rev=0;
+			int shift=2*(k-1), valid=0;
+			for(int i=0;i<len;i++){
+				int c=seq.getBase(i);
+				if(c<4){
+					fwd=((fwd<<2) | c) & mask;
+					rev=(rev>>>2) | ((long)(3-c)<<shift);
+					valid++;
+				}else
+					valid=0; //ambiguous base breaks the k-mer
+				
+				if(i<k-1)
+					continue;
+				int pos=i-k+1;
+				if(valid<k || fwd==rev) //skip palindromic k-mers, their strand is undefined
+					kmers[pos]=Long.MAX_VALUE;
+				else{
+					boolean z=rev<fwd;
+					kmers[pos]=(hash64(z?rev:fwd, mask)<<32) | ((long)pos<<1) | (z?1:0);
+				}
+			}
+			
+			//sliding window minimum, reporting each distinct minimizer once
+			int head=0, tail=0, last=-1;
+			for(int i=0;i<nKmers;i++){
+				while(tail>head && kmers[queue[tail-1]]>kmers[i])
+					tail--;
+				queue[tail++]=i;
+				if(queue[head]<=i-w)
+					head++;
+				if(i<w-1 && i<nKmers-1)
+					continue;
+				int best=queue[head];
+				if(best!=last && kmers[best]!=Long.MAX_VALUE){
+					if(size==mins.length)
+						mins=Arrays.copyOf(mins, size*2);
+					mins[size++]=kmers[best];
+					last=best;
+				}
+			}
+		}
+	}
+}
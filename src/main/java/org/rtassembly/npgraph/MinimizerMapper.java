@@ -0,0 +1,224 @@
+package org.rtassembly.npgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import japsa.seq.PAFRecord;
+import japsa.seq.Sequence;
+
+/*
+ * Map long reads to the contigs of a MinimizerIndex: minimizer hits (anchors) are grouped per
+ * contig and relative strand, chained by dynamic programming with minimap2-like gap costs and
+ * each chain is reported as an Alignment with approximate coordinates (no base-level CIGAR).
+ * Only the best chain of an overlapping query region is reported, with a mapping quality 
+ * estimated from the score of the best competing chain.
+ * Scratch buffers are reused, so one mapper per thread.
+ */
+public class MinimizerMapper {
+	public static final String ALIGNER="internal"; //aligner name to select this mapper instead of minimap2/bwa
+	
+	public static int MAX_GAP=5000; //maximum distance between 2 chained anchors
+	public static int BANDWIDTH=500; //maximum difference of the distances on read and contig between 2 chained anchors
+	public static int LOOKBACK=50; //number of previous anchors tried for chaining
+	public static int MIN_CNT=3; //minimum number of anchors of a chain
+	public static int MIN_CHAIN_SCORE=40;
+	public static double MASK_LEVEL=0.5; //chains overlapping more than this fraction of a better one are secondary
+	
+	private static final double LOG2=Math.log(2);
+	
+	private final MinimizerIndex index;
+	private final MinimizerIndex.Sketch sketch=new MinimizerIndex.Sketch();
+	
+	//anchors: sort key is (target<<1 | relative strand)<<32 | anchor number
+	private long[] anchorKeys=new long[4096];
+	private int[] anchorX=new int[4096], anchorY=new int[4096];
+	//chaining DP of the anchors of a group in read order
+	private int[] groupX=new int[4096], groupY=new int[4096], scores=new int[4096], preds=new int[4096];
+	private long[] ends=new long[4096];
+	private boolean[] used=new boolean[4096];
+	private final ArrayList<Chain> chains=new ArrayList<>();
+	
+	public MinimizerMapper(MinimizerIndex index){
+		this.index=index;
+	}
+	
+	static class Chain implements Comparable<Chain>{
+		int target;
+		boolean strand;
+		int qstart, qend, tstart, tend; //0-based, end exclusive, query on the read's forward strand
+		int score, count, secondScore=0;
+		boolean primary=true;
+		@Override
+		public int compareTo(Chain o){
+			return Integer.compare(o.score, score);
+		}
+	}
+	
+	/**
+	 * Map a read to the graph
+	 * @param read the read sequence
+	 * @return alignments to the contigs the read chained to, in order of decreasing chaining score
+	 */
+	public ArrayList<Alignment> map(Sequence read){
+		ArrayList<Alignment> retval=new ArrayList<>();
+		int qlen=read.length(), k=index.k;
+		
+		//1. collect anchors
+		sketch.compute(read, k, index.w);
+		int n=0;
+		for(int i=0;i<sketch.size;i++){
+			long m=sketch.mins[i];
+			int start=index.lookup((int) MinimizerIndex.Sketch.hash(m));
+			if(start<0)
+				continue;
+			int cnt=index.count(start);
+			if(cnt>MinimizerIndex.MAX_OCC)
+				continue;
+			int qpos=MinimizerIndex.Sketch.position(m);
+			boolean qrev=MinimizerIndex.Sketch.reverse(m);
+			for(int j=start;j<start+cnt;j++){
+				long hit=index.getHit(j);
+				int target=(int) (hit>>>32);
+				int tpos=MinimizerIndex.Sketch.position(hit);
+				boolean rev=qrev!=MinimizerIndex.Sketch.reverse(hit);
+				ensureCapacity(n+1);
+				anchorKeys[n]=((long)((target<<1) | (rev?1:0))<<32) | n;
+				anchorX[n]=tpos;
+				//on reverse strand use the coordinate on the reverse complement of the read, so that both increase
+				anchorY[n]=rev?qlen-(qpos+k):qpos;
+				n++;
+			}
+		}
+		if(n==0)
+			return retval;
+		
+		//2. sort by contig and strand, anchors of the same group are kept in read order (reverse for - strand)
+		Arrays.sort(anchorKeys, 0, n);
+		chains.clear();
+		for(int s=0, e;s<n;s=e){
+			long group=anchorKeys[s]>>>32;
+			for(e=s+1;e<n && (anchorKeys[e]>>>32)==group;e++);
+			if(e-s>=MIN_CNT)
+				chainGroup(s, e, (int) (group>>>1), (group & 1)==0, qlen, k);
+		}
+		if(chains.isEmpty())
+			return retval;
+		
+		//3. primary/secondary by overlap on the read, mapping quality from the best secondary
+		chains.sort(null);
+		ArrayList<Chain> primaries=new ArrayList<>();
+		for(Chain c:chains){
+			for(Chain p:primaries){
+				int overlap=Math.min(c.qend, p.qend)-Math.max(c.qstart, p.qstart);
+				if(overlap>MASK_LEVEL*Math.min(c.qend-c.qstart, p.qend-p.qstart)){
+					c.primary=false;
+					p.secondScore=Math.max(p.secondScore, c.score);
+					break;
+				}
+			}
+			if(c.primary)
+				primaries.add(c);
+		}
+		
+		for(Chain c:primaries){
+			BDNode node=index.targets[c.target];
+			double mapq=40*(1-(double)c.secondScore/c.score)*Math.min(1, c.count/10.0)*Math.log(c.score);
+			int qual=(int) Math.max(0, Math.min(60, mapq));
+			//1-based inclusive coordinates as from a PAF line
+			PAFRecord record=new PAFRecord(	read.getName(), qlen, c.qstart+1, c.qend, 
+											c.strand, 
+											node.getId(), index.targetLengths[c.target], c.tstart+1, c.tend, 
+											c.score, qual);
+			retval.add(new Alignment(record, node));
+		}
+		return retval;
+	}
+	
+	/*
+	 * DP chaining of anchors [s,e) of a contig/strand, ordered by y (for - strand in reverse)
+	 */
+	private void chainGroup(int s, int e, int target, boolean strand, int qlen, int k){
+		int n=e-s;
+		int[] x=groupX, y=groupY, f=scores, p=preds;
+		for(int i=0;i<n;i++){
+			int idx=(int) anchorKeys[strand?s+i:e-1-i];
+			x[i]=anchorX[idx];
+			y[i]=anchorY[idx];
+			used[i]=false;
+		}
+		
+		for(int i=0;i<n;i++){
+			f[i]=k;
+			p[i]=-1;
+			for(int j=i-1;j>=0 && j>=i-LOOKBACK;j--){
+				int dy=y[i]-y[j], dx=x[i]-x[j];
+				if(dy>MAX_GAP)
+					break;
+				if(dy<=0 || dx<=0 || dx>MAX_GAP)
+					continue;
+				int dd=Math.abs(dx-dy);
+				if(dd>BANDWIDTH)
+					continue;
+				int gap=dd==0?0:(int) (0.01*k*dd + 0.5*Math.log(dd)/LOG2);
+				int sc=f[j]+Math.min(Math.min(dx, dy), k)-gap;
+				if(sc>f[i]){
+					f[i]=sc;
+					p[i]=j;
+				}
+			}
+		}
+		
+		//extract chains from the best ending anchors, each anchor used once
+		int nEnds=0;
+		for(int i=0;i<n;i++)
+			if(f[i]>=MIN_CHAIN_SCORE)
+				ends[nEnds++]=((long)f[i]<<32) | i;
+		Arrays.sort(ends, 0, nEnds);
+		for(int ei=nEnds-1;ei>=0;ei--){
+			int last=(int) ends[ei], first=last, cnt=0;
+			if(used[last])
+				continue;
+			int i=last;
+			while(i>=0 && !used[i]){
+				used[i]=true;
+				first=i;
+				cnt++;
+				i=p[i];
+			}
+			int score=f[last]-(i>=0?f[i]:0);
+			if(cnt<MIN_CNT || score<MIN_CHAIN_SCORE)
+				continue;
+			
+			Chain c=new Chain();
+			c.target=target;
+			c.strand=strand;
+			c.score=score;
+			c.count=cnt;
+			c.tstart=x[first];
+			c.tend=x[last]+k;
+			if(strand){
+				c.qstart=y[first];
+				c.qend=y[last]+k;
+			}else{
+				c.qstart=qlen-(y[last]+k);
+				c.qend=qlen-y[first];
+			}
+			chains.add(c);
+		}
+	}
+	
+	private void ensureCapacity(int n){
+		if(n<=anchorKeys.length)
+			return;
+		int cap=Math.max(n, anchorKeys.length*2);
+		anchorKeys=Arrays.copyOf(anchorKeys, cap);
+		anchorX=Arrays.copyOf(anchorX, cap);
+		anchorY=Arrays.copyOf(anchorY, cap);
+		groupX=new int[cap];
+		groupY=new int[cap];
+		scores=new int[cap];
+		preds=new int[cap];
+		ends=new long[cap];
+		used=new boolean[cap];
+	}
+}
@@ -0,0 +1,94 @@
+package org.rtassembly.npgraph;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import japsa.seq.PAFReader;
+import japsa.seq.PAFRecord;
+import japsa.util.JapsaException;
+
+/*
+ * Alignments from PAF: a file (plain or gzip/bgzip compressed), stdin ("-") or any stream
+ */
+public class PAFAlignmentSource extends AbstractAlignmentSource {
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+	private final PAFReader reader;
+	private String readID="";
+	
+	public PAFAlignmentSource(PAFReader reader, BDGraph graph){
+		super(graph);
+		this.reader=reader;
+	}
+	public PAFAlignmentSource(InputStream in, BDGraph graph) throws IOException{
+		this(new PAFReader(decompress(in)), graph);
+	}
+	
+	/**
+	 * Open a PAF file, - for stdin. Compressed files are recognized by .gz/.bgz extension,
+	 * streams by the gzip magic number.
+	 */
+	public static PAFAlignmentSource open(String fileName, BDGraph graph) throws IOException{
+		if("-".equals(fileName))
+			return new PAFAlignmentSource(System.in, graph);
+		
+		if(fileName.endsWith(".gz") || fileName.endsWith(".bgz"))
+			return new PAFAlignmentSource(new FileInputStream(fileName), graph);
+		//plain file: read through a file channel directly
+		return new PAFAlignmentSource(new PAFReader(fileName), graph);
+	}
+	
+	//gzip (and bgzip, which is a series of gzip members) is decompressed on the fly
+	static InputStream decompress(InputStream in) throws IOException{
+		BufferedInputStream bin=new BufferedInputStream(in, 1<<16);
+		bin.mark(2);
+		int b0=bin.read(), b1=bin.read();
+		bin.reset();
+		if(b0==0x1f && b1==0x8b)
+			return new GZIPInputStream(bin, 1<<16);
+		return bin;
+	}
+	
+	@Override
+	protected boolean nextRecord() throws IOException{
+		PAFRecord curRecord;
+		try {
+			curRecord=reader.next();
+		}catch(JapsaException e) {
+			logger.error("Error reading PAF record: \n {}", e);
+			return false;
+		}
+		if(curRecord==null)
+			return false;
+		
+		//the reader reuses the name String for consecutive records of a read
+		if (readID!=curRecord.qname && !readID.equals(curRecord.qname)){
+			readID=curRecord.qname;
+			read=GraphUtil.getNSequence(curRecord.qname, curRecord.qlen);//there is no read data from PAF, so just fake one!
+		}
+		alignment=null;
+		
+		if (curRecord.qual < Alignment.MIN_QUAL){		
+			logger.debug("Ignore low-quality map record!");
+			return true;		
+		}
+		
+		alignment=align(curRecord.tname, node->new Alignment(curRecord, node));
+		//check if this node still in. FIXME: do not remove nodes for metagenomics' graph?
+		if (alignment==null)
+			logger.debug("Ignore record with reference {} not found (removed) from the graph!", curRecord.tname);
+		return true;
+	}
+	
+	@Override
+	protected void closeInput() throws IOException{
+		reader.close();
+	}
+}
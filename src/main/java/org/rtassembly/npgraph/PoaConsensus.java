@@ -0,0 +1,313 @@
+package org.rtassembly.npgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import japsa.seq.AbstractSequence;
+import japsa.seq.Alphabet;
+import japsa.seq.Sequence;
+
+/*
+ * In-process consensus by partial order alignment (POA) of the reads bridging 2 contigs, no temp files or forking.
+ * Reads are aligned one by one (the one closest to the median length first) to a DAG of bases by a global,
+ * linear-gap, banded DP: the row of a node only covers the read positions around its expected position
+ * (its depth in the DAG scaled to the read length) +/- BAND. The consensus is the heaviest path of the DAG.
+ *
+ * Meant for a few (3-20) reads of some kb: one instance per thread, its buffers are reused between calls.
+ */
+public class PoaConsensus {
+	public static int MATCH=2, MISMATCH=-4, GAP=-4; //scoring, roughly as abpoa for nanopore reads
+	public static int BAND=256; //half width of the DP band
+	public static long MAX_RETAINED=64L<<20; //bytes of buffers worth keeping between calls, see footprint()
+	static final int NEG=Integer.MIN_VALUE/4;
+
+	//the DAG: nodes are 0..nodeCount-1
+	private int nodeCount=0;
+	private byte[] base=new byte[1024];
+	private int[] group=new int[1024]; //nodes aligned to each other (different bases at the same column) share a group
+	private int[][] in=new int[1024][], inWeight=new int[1024][], out=new int[1024][];
+	private int[] inCount=new int[1024], outCount=new int[1024];
+	private int groupCount=0;
+	private int[][] groupNodes=new int[1024][];
+	private int[] groupSize=new int[1024];
+
+	//topological order and rank of the nodes, expected read position of the rows
+	private int[] order=new int[1024], rank=new int[1024], depth=new int[1024], rowLo=new int[1024];
+	private int[] score=new int[1<<16]; //DP band of all rows
+	private int[] alnNode=new int[1024]; //node aligned to each read position, -1 for insertions
+	private byte[] seq=new byte[1024]; //bases of the read being aligned
+
+	/**
+	 * Consensus of the reads, null if none
+	 */
+	public Sequence consensus(List<? extends AbstractSequence> reads){
+		if(reads==null || reads.isEmpty())
+			return null;
+		//start with the most typical read
+		List<AbstractSequence> sorted=new ArrayList<>(reads);
+		int[] lengths=sorted.stream().mapToInt(AbstractSequence::length).sorted().toArray();
+		int median=lengths[lengths.length/2];
+		sorted.sort(Comparator.comparingInt(s->Math.abs(s.length()-median)));
+
+		clear();
+		for(AbstractSequence read:sorted)
+			if(read.length()>0)
+				add(read);
+		return heaviestPath();
+	}
+
+	/**
+	 * Rough size in bytes of the buffers, which only grow: the DP band and the per-node arrays
+	 */
+	public long footprint(){
+		return 4L*score.length + 64L*base.length + 4L*alnNode.length + seq.length;
+	}
+
+	private void clear(){
+		for(int i=0;i<nodeCount;i++){
+			inCount[i]=outCount[i]=0;
+		}
+		for(int i=0;i<groupCount;i++)
+			groupSize[i]=0;
+		nodeCount=groupCount=0;
+	}
+
+	private void add(AbstractSequence read){
+		int len=read.length();
+		if(alnNode.length<len)
+			alnNode=new int[len];
+		if(nodeCount==0)
+			Arrays.fill(alnNode, 0, len, -1);
+		else
+			align(read);
+
+		int prev=-1;
+		for(int j=0;j<len;j++){
+			byte b=read.getBase(j);
+			int v=alnNode[j], node=-1;
+			if(v>=0){
+				//the aligned node or one of its group with the same base
+				int g=group[v];
+				for(int k=0;k<groupSize[g];k++)
+					if(base[groupNodes[g][k]]==b){
+						node=groupNodes[g][k];
+						break;
+					}
+				if(node<0)
+					node=newNode(b, g);
+			}else
+				node=newNode(b, -1);
+			if(prev>=0)
+				addEdge(prev, node);
+			prev=node;
+		}
+	}
+
+	/*
+	 * Global alignment of a read to the DAG, banded: sets alnNode
+	 */
+	private void align(AbstractSequence read){
+		int len=read.length();
+		if(seq.length<len)
+			seq=new byte[len];
+		for(int j=0;j<len;j++)
+			seq[j]=read.getBase(j);
+		sort();
+		int width=Math.min(2*BAND+1, len+1);
+		int maxDepth=0;
+		for(int r=0;r<nodeCount;r++)
+			maxDepth=Math.max(maxDepth, depth[order[r]]);
+		if(score.length<(long)nodeCount*width)
+			score=new int[(int)Math.min(Integer.MAX_VALUE-8, 2L*nodeCount*width)];
+
+		for(int r=0;r<nodeCount;r++){
+			int v=order[r];
+			int center=(int)((long)depth[v]*len/maxDepth);
+			int lo=Math.max(0, Math.min(center-BAND, len+1-width));
+			rowLo[r]=lo;
+			int off=r*width;
+			byte b=base[v];
+			//from the predecessors (or the start if none): match/mismatch or deletion
+			if(inCount[v]==0){
+				for(int c=0;c<width;c++){
+					int j=lo+c;
+					score[off+c]=Math.max(j>0?(j-1)*GAP+(seq[j-1]==b?MATCH:MISMATCH):NEG, j*GAP+GAP);
+				}
+			}else{
+				Arrays.fill(score, off, off+width, NEG);
+				for(int k=0;k<inCount[v];k++){
+					int pr=rank[in[v][k]], plo=rowLo[pr], poff=pr*width;
+					//diagonal: cell j-1 of the predecessor
+					for(int c=Math.max(0, plo+1-lo), end=Math.min(width, plo+width+1-lo);c<end;c++){
+						int j=lo+c, x=score[poff+j-1-plo]+(seq[j-1]==b?MATCH:MISMATCH);
+						if(x>score[off+c])
+							score[off+c]=x;
+					}
+					//deletion: cell j of the predecessor
+					for(int c=Math.max(0, plo-lo), end=Math.min(width, plo+width-lo);c<end;c++){
+						int x=score[poff+lo+c-plo]+GAP;
+						if(x>score[off+c])
+							score[off+c]=x;
+					}
+				}
+			}
+			//insertion
+			for(int c=1;c<width;c++)
+				if(score[off+c-1]+GAP>score[off+c])
+					score[off+c]=score[off+c-1]+GAP;
+		}
+
+		//best sink at the end of the read
+		int r=-1, best=NEG;
+		for(int i=0;i<nodeCount;i++){
+			int v=order[i];
+			if(outCount[v]==0 && get(i, len, width)>best){
+				best=get(i, len, width);
+				r=i;
+			}
+		}
+		//trace back
+		Arrays.fill(alnNode, 0, len, -1);
+		int j=len;
+		while(r>=0){
+			int v=order[r], cur=get(r, j, width), next=-2;
+			byte b=base[v];
+			if(inCount[v]==0){
+				if(j>0 && cur==(j-1)*GAP+(seq[j-1]==b?MATCH:MISMATCH)){
+					alnNode[--j]=v;
+					next=-1;
+				}else if(cur==j*GAP+GAP)
+					next=-1;
+			}else{
+				for(int k=0;k<inCount[v] && next==-2;k++){
+					int pr=rank[in[v][k]];
+					if(j>0 && cur==get(pr, j-1, width)+(seq[j-1]==b?MATCH:MISMATCH)){
+						alnNode[--j]=v;
+						next=pr;
+					}
+				}
+				for(int k=0;k<inCount[v] && next==-2;k++){
+					int pr=rank[in[v][k]];
+					if(cur==get(pr, j, width)+GAP)
+						next=pr;
+				}
+			}
+			if(next==-2){
+				//insertion, stay at this node
+				if(j==0 || cur!=get(r, j-1, width)+GAP)
+					break; //should not happen
+				j--;
+			}else
+				r=next;
+		}
+	}
+	private int get(int r, int j, int width){
+		int c=j-rowLo[r];
+		return c<0 || c>=width?NEG:score[r*width+c];
+	}
+
+	//topological order (Kahn) and depth (longest path from a source) of the nodes
+	private void sort(){
+		int[] pending=new int[nodeCount];
+		int head=0, tail=0;
+		for(int v=0;v<nodeCount;v++){
+			pending[v]=inCount[v];
+			if(inCount[v]==0){
+				order[tail++]=v;
+				depth[v]=1;
+			}
+		}
+		while(head<tail){
+			int v=order[head];
+			rank[v]=head++;
+			for(int k=0;k<outCount[v];k++){
+				int w=out[v][k];
+				depth[w]=Math.max(pending[w]==inCount[w]?0:depth[w], depth[v]+1);
+				if(--pending[w]==0)
+					order[tail++]=w;
+			}
+		}
+	}
+
+	private Sequence heaviestPath(){
+		if(nodeCount==0)
+			return null;
+		sort();
+		int[] best=new int[nodeCount], from=new int[nodeCount];
+		int end=-1;
+		for(int r=0;r<nodeCount;r++){
+			int v=order[r];
+			from[v]=-1;
+			best[v]=0;
+			int w=-1;
+			for(int k=0;k<inCount[v];k++){
+				int p=in[v][k];
+				if(inWeight[v][k]>w || (inWeight[v][k]==w && best[p]>best[from[v]])){
+					w=inWeight[v][k];
+					from[v]=p;
+				}
+			}
+			if(from[v]>=0)
+				best[v]=best[from[v]]+w;
+			if(end<0 || best[v]>best[end])
+				end=v;
+		}
+		int n=0;
+		for(int v=end;v>=0;v=from[v])
+			n++;
+		byte[] bases=new byte[n];
+		for(int v=end;v>=0;v=from[v])
+			bases[--n]=base[v];
+		return new Sequence(Alphabet.DNA(), bases, "consensus");
+	}
+
+	private int newNode(byte b, int g){
+		int v=nodeCount++;
+		if(v>=base.length){
+			int size=base.length*2;
+			base=Arrays.copyOf(base, size);
+			group=Arrays.copyOf(group, size);
+			in=Arrays.copyOf(in, size);
+			inWeight=Arrays.copyOf(inWeight, size);
+			out=Arrays.copyOf(out, size);
+			inCount=Arrays.copyOf(inCount, size);
+			outCount=Arrays.copyOf(outCount, size);
+			order=Arrays.copyOf(order, size);
+			rank=Arrays.copyOf(rank, size);
+			depth=Arrays.copyOf(depth, size);
+			rowLo=Arrays.copyOf(rowLo, size);
+		}
+		base[v]=b;
+		if(g<0){
+			g=groupCount++;
+			if(g>=groupSize.length){
+				groupNodes=Arrays.copyOf(groupNodes, groupSize.length*2);
+				groupSize=Arrays.copyOf(groupSize, groupSize.length*2);
+			}
+		}
+		group[v]=g;
+		if(groupNodes[g]==null || groupSize[g]==groupNodes[g].length)
+			groupNodes[g]=groupNodes[g]==null?new int[4]:Arrays.copyOf(groupNodes[g], groupSize[g]*2);
+		groupNodes[g][groupSize[g]++]=v;
+		return v;
+	}
+	private void addEdge(int from, int to){
+		for(int k=0;k<inCount[to];k++)
+			if(in[to][k]==from){
+				inWeight[to][k]++;
+				return;
+			}
+		if(in[to]==null || inCount[to]==in[to].length){
+			int size=in[to]==null?2:inCount[to]*2;
+			in[to]=in[to]==null?new int[size]:Arrays.copyOf(in[to], size);
+			inWeight[to]=inWeight[to]==null?new int[size]:Arrays.copyOf(inWeight[to], size);
+		}
+		in[to][inCount[to]]=from;
+		inWeight[to][inCount[to]++]=1;
+		if(out[from]==null || outCount[from]==out[from].length)
+			out[from]=out[from]==null?new int[2]:Arrays.copyOf(out[from], outCount[from]*2);
+		out[from][outCount[from]++]=to;
+	}
+}
@@ -0,0 +1,297 @@
+package org.rtassembly.npgraph;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import japsa.bio.np.MsaRunner;
+import japsa.seq.Sequence;
+
+/*
+ * Staged ingestion of long-read alignments: reading (AlignmentSource) -> bridge finding -> graph reduction.
+ * Stages are joined by bounded queues so that a slow stage blocks (backpressure) the one before it.
+ * The reading stage is the thread calling submit() with reads already grouped by the AlignmentSource,
+ * the graph reduction stage is a single thread applying the reduced paths in the same order as the reads were read in.
+ * With WORKERS=0 everything runs on the caller thread, which is the old serial behaviour.
+ * Note that STRICT_ORDER is on by default: a read is only bridged after the previous ones were reduced, so the
+ * workers mostly overlap with the reading stage, not with each other. Turn it off (-strict=false) to bridge in parallel.
+ * The first failure of a stage stops the pipeline (the reads left are drained, not processed) and is rethrown by finish().
+ */
+public class ReadPipeline {
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+	public static int WORKERS=1; //number of bridge-finding threads, 0 for serial processing
+	public static int QUEUE_SIZE=1024; //capacity of each queue between stages
+	public static int REPORT_INTERVAL=1000; //log stages stats every this many reads reduced
+	//Bridge finding of a read waits until all previous reads were reduced so the final graph is
+	//the same as serial processing. Set to false to let workers run ahead of the reduction: bridges with
+	//different anchors are then built in parallel (see the locking in BDGraph), the result can differ from serial.
+	public static boolean STRICT_ORDER=true;
+
+	private static final ReadTask END=new ReadTask(-1, null, null); //poison pill
+
+	final HybridAssembler hAss;
+	final int nWorkers;
+
+	private final BlockingQueue<ReadTask> groupedQueue, reducingQueue;
+	private final List<Thread> threads=new ArrayList<>();
+
+	private long nextSeq=0; //only touched by the caller thread
+	private final AtomicReference<Throwable> failure=new AtomicReference<>(); //first failure of a stage
+
+	//Number of the last read reduced to the graph
+	private final Object reducedLock=new Object();
+	private long reducedSeq=-1;
+
+	final StageStats 	readStats=new StageStats("read"),
+						bridgeStats=new StageStats("bridge"),
+						reduceStats=new StageStats("reduce");
+	private long startTime;
+
+	public ReadPipeline(HybridAssembler hAss){
+		this(hAss, WORKERS);
+	}
+	public ReadPipeline(HybridAssembler hAss, int nWorkers){
+		this.hAss=hAss;
+		this.nWorkers=nWorkers<0?0:nWorkers;
+		groupedQueue=new ArrayBlockingQueue<>(QUEUE_SIZE);
+		reducingQueue=new ArrayBlockingQueue<>(QUEUE_SIZE);
+	}
+
+	public boolean isSerial(){
+		return nWorkers==0;
+	}
+	//a stage failed: no point to submit more reads
+	public boolean hasFailed(){
+		return failure.get()!=null;
+	}
+
+	public void start(){
+		startTime=System.currentTimeMillis();
+		if(isSerial())
+			return;
+		for(int i=0;i<nWorkers;i++)
+			threads.add(new Thread(this::bridgingStage, "npgraph-bridge-"+i));
+		threads.add(new Thread(this::reducingStage, "npgraph-reduce"));
+		threads.forEach(Thread::start);
+		logger.info("Read pipeline started with {} bridge-finding worker(s), queue size={}", nWorkers, QUEUE_SIZE);
+	}
+
+	/**
+	 * Reading stage output: a read with its (filtered) alignments, in input order.
+	 */
+	public void submit(Sequence read, ArrayList<Alignment> hits) throws InterruptedException{
+		if(read==null || hits.isEmpty() || hasFailed())
+			return;
+		readStats.count();
+		ReadTask task=new ReadTask(nextSeq++, read, hits);
+		if(isSerial()){
+			bridge(task);
+			reduce(task);
+		}else
+			groupedQueue.put(task);
+	}
+
+	/**
+	 * No more reads from the reading stage: wait for all stages to drain.
+	 * The first failure of a stage, if any, is rethrown here.
+	 */
+	public void finish() throws InterruptedException{
+		if(!isSerial()){
+			for(int i=0;i<nWorkers;i++)
+				groupedQueue.put(END);
+			for(Thread t:threads)
+				t.join();
+			threads.clear();
+		}
+		report();
+		Throwable e=failure.get();
+		if(e instanceof InterruptedException)
+			throw (InterruptedException) e;
+		else if(e instanceof RuntimeException)
+			throw (RuntimeException) e;
+		else if(e instanceof Error)
+			throw (Error) e;
+		else if(e!=null)
+			throw new IllegalStateException("Read pipeline failed", e);
+
+		logger.debug(hAss.simGraph.getCore().getTreeCacheStats());
+		logger.debug(hAss.simGraph.getBridges().getStats());
+		logger.debug(ConsensusCaller.getStats());
+		logger.debug(hAss.simGraph.consensus.bridgingReads.getStats());
+		if(!hAss.simGraph.consensus.msa.equals("builtin"))
+			logger.debug(MsaRunner.getStats());
+	}
+
+	/*
+	 * Looking for bridges from the alignments of a read
+	 */
+	private void bridgingStage(){
+		try{
+			while(true){
+				ReadTask task=groupedQueue.take();
+				if(task==END)
+					break;
+				try{
+					if(STRICT_ORDER)
+						waitForReduced(task.seq-1);
+					if(hasFailed())
+						continue; //drain until END so that the reading stage never blocks
+					bridge(task);
+				}catch(InterruptedException e){
+					throw e;
+				}catch(Throwable e){
+					fail(e, task);
+					continue;
+				}
+				reducingQueue.put(task);
+			}
+		}catch(InterruptedException e){
+			fail(e, null);
+			Thread.currentThread().interrupt();
+		}finally{
+			putEnd(reducingQueue);
+		}
+	}
+
+	private void bridge(ReadTask task){
+		long t=System.nanoTime();
+		task.paths=hAss.simGraph.uniqueBridgesFinding(task.read, task.hits);
+		bridgeStats.busy(System.nanoTime()-t);
+		bridgeStats.count();
+	}
+
+	/*
+	 * Only one thread mutating the graph, reads are reduced in their input order
+	 */
+	private void reducingStage(){
+		PriorityQueue<ReadTask> pending=new PriorityQueue<>();
+		long expected=0;
+		int ended=0;
+		boolean interrupted=false;
+		//keep taking until every worker ended, even after a failure, so that no worker blocks on a full queue
+		while(ended<nWorkers){
+			ReadTask task=null;
+			try{
+				task=reducingQueue.take();
+				if(task==END){
+					ended++;
+					continue;
+				}
+				if(hasFailed())
+					continue;
+				pending.add(task);
+				while(!pending.isEmpty() && pending.peek().seq==expected){
+					task=pending.poll();
+					reduce(task);
+					expected++;
+				}
+			}catch(InterruptedException e){
+				fail(e, null);
+				interrupted=true;
+			}catch(Throwable e){
+				fail(e, task);
+			}
+		}
+		//reads after a gap (a read that failed or was dropped) are not reduced, so the order is kept
+		if(!pending.isEmpty())
+			logger.warn("{} read(s) not reduced: read #{} never reached the reducing stage", pending.size(), expected);
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private void reduce(ReadTask task){
+		long t=System.nanoTime();
+		hAss.reduce(task.read, task.paths);
+		reduceStats.busy(System.nanoTime()-t);
+		reduceStats.count();
+
+		synchronized(reducedLock){
+			reducedSeq=task.seq;
+			reducedLock.notifyAll();
+		}
+		if(REPORT_INTERVAL > 0 && reduceStats.getCount()%REPORT_INTERVAL==0)
+			report();
+	}
+
+	private void waitForReduced(long seq) throws InterruptedException{
+		synchronized(reducedLock){
+			while(reducedSeq < seq && !hasFailed())
+				reducedLock.wait();
+		}
+	}
+
+	//keep the first failure and wake up the workers waiting for a read that won't be reduced
+	private void fail(Throwable e, ReadTask task){
+		if(failure.compareAndSet(null, e))
+			logger.error("Read pipeline failed{}, dropping the reads left", task==null?"":" on read "+task.read.getName(), e);
+		else
+			logger.debug("Read pipeline: another failure after the first one", e);
+		synchronized(reducedLock){
+			reducedLock.notifyAll();
+		}
+	}
+
+	//END must get through even if this thread was interrupted: the reducer is always taking
+	private static void putEnd(BlockingQueue<ReadTask> queue){
+		boolean interrupted=Thread.interrupted();
+		while(true){
+			try{
+				queue.put(END);
+				break;
+			}catch(InterruptedException e){
+				interrupted=true;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/*
+	 * Throughput (items per second of wall time), busy time and queue depth of every stage
+	 */
+	public void report(){
+		double elapsed=Math.max(1, System.currentTimeMillis()-startTime)/1000.0;
+		logger.info("Pipeline after {}s: {} queue={}; {} queue={}; {}",
+					elapsed,
+					readStats.summary(elapsed), groupedQueue.size(),
+					bridgeStats.summary(elapsed), reducingQueue.size(),
+					reduceStats.summary(elapsed));
+	}
+
+	static class StageStats{
+		final String name;
+		final AtomicLong count=new AtomicLong(), busyNanos=new AtomicLong();
+		StageStats(String name){this.name=name;}
+		void count(){count.incrementAndGet();}
+		void busy(long nanos){busyNanos.addAndGet(nanos);}
+		public long getCount(){return count.get();}
+		String summary(double elapsed){
+			return String.format("%s=%d (%.1f/s, busy %.1fs)", name, count.get(), count.get()/elapsed, busyNanos.get()/1e9);
+		}
+	}
+
+	static class ReadTask implements Comparable<ReadTask>{
+		final long seq;
+		final Sequence read;
+		final ArrayList<Alignment> hits;
+		List<BDPath> paths=null;
+		ReadTask(long seq, Sequence read, ArrayList<Alignment> hits){
+			this.seq=seq;
+			this.read=read;
+			this.hits=hits;
+		}
+		@Override
+		public int compareTo(ReadTask o) {
+			return Long.compare(seq, o.seq);
+		}
+	}
+}
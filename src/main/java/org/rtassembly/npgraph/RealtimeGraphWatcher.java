@@ -1,22 +1,20 @@
 package org.rtassembly.npgraph;
 
-import java.io.File;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.time.LocalTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
-import org.graphstream.algorithm.ConnectedComponents;
-import org.graphstream.algorithm.ConnectedComponents.ConnectedComponent;
 import org.graphstream.graph.Edge;
 import org.graphstream.graph.Node;
 
@@ -29,20 +27,23 @@ public class RealtimeGraphWatcher extends RealtimeAnalysis{
 
 	public static boolean KEEP=false; //whether or not keeping the low-coverage nodes
 	public static int R_INTERVAL, T_INTERVAL;
+	public static boolean OUTPUT_EVERY_UPDATE=false; //write the outputs (in background) during the run too, not only at the end
+	public static int OUTPUT_INTERVAL=60; //seconds between two of these intermediate outputs (each copies the whole graph)
+	private long lastOutput=0;
 	BDGraph outputGraph;
-	final ConnectedComponents rtComponents;
-	HashSet<BDEdge> cutEdges;
-	int numberOfComponents=0;
+	//latest state of the output graph: stats and outputs are read from it without any lock
+	private volatile GraphSnapshot snapshot=null;
+	private SnapshotWriter writer=null;
+	final ConnectivityIndex rtComponents;
 	final HybridAssembler hAss;
 	HashMap<PopBin, List<Integer>> binn50;
 	
 	public RealtimeGraphWatcher(HybridAssembler hAss) {
 		this.hAss=hAss;
 		outputGraph=hAss.simGraph;
-		rtComponents = new ConnectedComponents();
-		rtComponents.init(hAss.simGraph);
-		rtComponents.setCutAttribute("cut");
-		numberOfComponents=rtComponents.getConnectedComponentsCount();
+		rtComponents = hAss.simGraph.getConnectivity();
+		hAss.simGraph.trackChanges();
+		hAss.simGraph.setChangeListener(this::notifyChanges);
 		//initial cleaning
 		removeDeadEdges();
 		
@@ -50,7 +51,9 @@ public class RealtimeGraphWatcher extends RealtimeAnalysis{
 	
 	//Should be applied for a Collection of Edges, or subgraph instead of the whole graph???
 	private void removeDeadEdges(){
-		synchronized(hAss.simGraph) {
+		hAss.simGraph.lockWrite();
+		try{
+			//removing an edge only changes the sides of the edges around it: check again until nothing removed
 			Set<Edge> cleanedEdges = new HashSet<>();
 			while(true){
 				cleanedEdges.stream().forEach(e->hAss.simGraph.removeEdge(e));
@@ -61,6 +64,8 @@ public class RealtimeGraphWatcher extends RealtimeAnalysis{
 				else
 					hAss.simGraph.notifyChanges();
 			}
+		}finally{
+			hAss.simGraph.unlockWrite();
 		}
 	}
 	
@@ -72,270 +77,351 @@ public class RealtimeGraphWatcher extends RealtimeAnalysis{
 			return false;
 		boolean srcDir=((BDEdge)e).getDir0(),
 				dstDir=((BDEdge)e).getDir1();
-		e.setAttribute("cut");
-		if( numberOfComponents<rtComponents.getConnectedComponentsCount() 
-			&&
-			((srcDir?src.getOutDegree():src.getInDegree())>1 || (dstDir?dst.getOutDegree():dst.getInDegree())>1)
-			&&
-			(!isSignificantComponent(rtComponents.getConnectedComponentOf(dst))) || !isSignificantComponent(rtComponents.getConnectedComponentOf(src))
-			){
-				return true;
-		}
-		e.removeAttribute("cut");
-		return false;
+		//only edges at a branching end are candidates: cheap degree check before the search
+		if((srcDir?src.getOutDegree():src.getInDegree())<=1 && (dstDir?dst.getOutDegree():dst.getInDegree())<=1)
+			return false;
+		//a bridge of the graph with an insignificant side
+		ConnectivityIndex.Side side=rtComponents.getSideIfRemoved(e);
+		if(side==null)
+			return false;
+		if(!isSignificant(side, side.getNodes()))
+			return true;
+		Set<Node> sideNodes=new HashSet<>(side.getNodes());
+		ConnectivityIndex.Component comp=rtComponents.getComponent(side.getEnd());
+		return !isSignificant(rtComponents.getOtherSide(side), 
+							comp.getNodes().stream().filter(n->!sideNodes.contains(n)).collect(Collectors.toList()));
 	}
 	
-	private void removeBadComponents() {
-//		synchronized(hAss.simGraph) {
-		synchronized(rtComponents) {
-				List<Node> 	removeNodes=new ArrayList<Node>();
-				for (Iterator<ConnectedComponent> compIter = rtComponents.iterator(); compIter.hasNext(); ) {
-					ConnectedComponent comp = compIter.next();		
-					if(!isSignificantComponent(comp))
-						comp.nodes().forEach(n->removeNodes.add(n));			
-				}
-				//Remove abundant components here
-				removeNodes.stream().forEach(n->hAss.simGraph.removeNode(n));
-//		}
+	//only the components of the changed nodes can become insignificant
+	private void removeBadComponents(Collection<Node> changed) {
+		Set<ConnectivityIndex.Component> checked=new HashSet<>();
+		List<Node> 	removeNodes=new ArrayList<Node>();
+		for(Node n:changed) {
+			if(!isInGraph(n))
+				continue;
+			ConnectivityIndex.Component comp = rtComponents.getComponent(n);
+			if(comp!=null && checked.add(comp) && !isSignificant(comp, comp.getNodes()))
+				removeNodes.addAll(comp.getNodes());
 		}
+		//Remove abundant components here
+		removeNodes.stream().forEach(n->hAss.simGraph.removeNode(n));
 	}
 	//FIXME: find most significant path and check if it cover >90%?
-	private boolean isSignificantComponent(ConnectedComponent comp){
-		synchronized(comp) {
-			int clen = 1, tlen=0;
-			double ccov = 0;
-			double threshold=KEEP?0:hAss.simGraph.binner.leastBin.estCov; //lower-bound for coverage?!
-			for(Node n:comp.getNodeSet()){
-				if(SimpleBinner.getBinIfUniqueNow(n)!=null)
-					return true;
-				
-				int len = (int) (n.getNumber("len")-BDGraph.getKmerSize());
-				double cov = n.getNumber("cov");
-				tlen+=len;
-				if(GraphUtil.isLikelyStillPresented(n)){
-					ccov+=cov*len;
-					clen+=len;
-				}
-				
-			}
-			double 	aveCov=ccov/tlen;
-			if(GraphUtil.approxCompare(aveCov, threshold) < 0 || clen < Math.max(SimpleBinner.ANCHOR_CTG_LEN,.5*tlen) || (!KEEP&&comp.getEdgeCount() < 1))
-				return false;
-			else{
-	//			System.out.printf("Keep non-unique components with cov=%.2f, clen=%d, tlen=%d\n", aveCov, clen, tlen);
+	private boolean isSignificant(ConnectivityIndex.Stats stats, Collection<Node> nodes){
+		double threshold=KEEP?0:hAss.simGraph.binner.leastBin.estCov; //lower-bound for coverage?!
+		double clen=1+stats.getPresentLength(), tlen=stats.getTotalLength();
+		if(GraphUtil.approxCompare(stats.getAverageCoverage(), threshold) >= 0 && clen >= Math.max(SimpleBinner.ANCHOR_CTG_LEN,.5*tlen) && (KEEP||stats.getEdgeCount() >= 1))
+			return true;
+		//otherwise kept only if it has a unique node
+		for(Node n:nodes)
+			if(SimpleBinner.getBinIfUniqueNow(n)!=null)
 				return true;
-			}
-		}
+		return false;
 	}
 	/*
-	 * FIXME: output graph updating is significantly slower as the graph getting more complex
+	 * Incremental: only the output units of the nodes changed since the last update are rebuilt,
+	 * the rest of the output graph is kept as is. The last update rebuilds all of them for the annotations.
 	 */
 	void update(boolean lastTime) {
-		synchronized(hAss.simGraph) {
+		//cleaning under the write lock, output graph under the read lock
+		hAss.simGraph.lockWrite();
+		boolean reading=false;
+		try{
 			//cleaning...
 			if(lastTime)
 				removeDeadEdges();
-			if(hAss.simGraph.checkForChangesAndReset()){
-				removeBadComponents();
+			if(hAss.simGraph.checkForChangesAndReset() || lastTime){
+				Set<Node> changed=hAss.simGraph.drainChangedNodes();
+				removeBadComponents(changed);
+				changed.addAll(hAss.simGraph.drainChangedNodes());
+				if(lastTime){
+					changed.addAll(unitOf.keySet());
+					hAss.simGraph.nodes().forEach(changed::add);
+				}
 //				hAss.simGraph.updateStats();
 				
-				cutEdges = new HashSet<BDEdge>();
-				//then set the cut edges: just for outputGraph stats (will reset after). FIXME: need a Eulerian paths finding iff lastTime
-				hAss.simGraph.nodes()
-				.forEach(n->{
-					if(n.getInDegree()>=2)
-						n.enteringEdges().forEach(e->{e.setAttribute("cut");cutEdges.add((BDEdge) e);});
-					if(n.getOutDegree()>=2)
-						n.leavingEdges().forEach(e->{e.setAttribute("cut");cutEdges.add((BDEdge) e);});
-		
-				});
-				
+				//building the output graph only reads the graph: let the bridge finding go on meanwhile
+				hAss.simGraph.downgradeToRead();
+				reading=true;
 				
-				outputGraph=new BDGraph();
-				JapsaAnnotation annotation=null;
-				BDPath repPath=null; //representative path of a component
 				System.out.println("+++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
 				System.out.println("Current time: " + LocalTime.now());
-		
-				binn50 = new HashMap<>();
-				PopBin b=null;
-				synchronized(rtComponents) {
-					for (Iterator<ConnectedComponent> compIter = rtComponents.iterator(); compIter.hasNext(); ) {
-						ConnectedComponent comp = compIter.next();
-			//			System.out.printf("... id=%s edges=%d nodes=%d \n", comp.id, comp.getEdgeCount(), comp.getNodeCount());
-						if(comp.getNodeCount()==0)
-							continue;
-						//Start analyzing significant components from here
-						//check comp: should be linear paths, should start with node+
-						 Node node = comp.nodes().toArray(Node[]::new)[0];
-						 repPath = new BDPath(node);
-						 boolean isCircular=false;
-						 
-						 if(comp.getEdgeCount()>=1){
-							 //extend to
-							 Node curNode=node;
-							 boolean curDir=true;
-							 List<Edge> ways = (curDir?curNode.leavingEdges():curNode.enteringEdges()).filter(e->!e.hasAttribute("cut")).collect(Collectors.toList());
-							 while(ways.size()==1){
-								 Edge edge = ways.get(0);
-								 repPath.add(edge);
-								 curNode=edge.getOpposite(curNode);
-								 
-								 if(curNode==node){//circular
-									 isCircular=true;
-									 break;
-								 }
-								 if(((BDEdge) edge).getNodeDirection((BDNode)curNode)!=null)
-									 curDir=!((BDEdge) edge).getNodeDirection((BDNode)curNode);
-								 ways = (curDir?curNode.leavingEdges():curNode.enteringEdges()).filter(e->!e.hasAttribute("cut")).collect(Collectors.toList());
-							 }
-							 
-							 //if linear: reverse
-							 if(!isCircular){
-								 repPath=repPath.reverse();
-								 //extend in opposite direction
-								 curNode=node;
-								 curDir=false;
-								 ways = (curDir?curNode.leavingEdges():curNode.enteringEdges()).filter(e->!e.hasAttribute("cut")).collect(Collectors.toList());
-			
-								 while(ways.size()==1){
-									 Edge edge = ways.get(0);
-									 repPath.add(edge);
-									 curNode=edge.getOpposite(curNode);
-									 if(((BDEdge) edge).getNodeDirection((BDNode)curNode)!=null)
-										 curDir=!((BDEdge) edge).getNodeDirection((BDNode)curNode);
-									 ways = (curDir?curNode.leavingEdges():curNode.enteringEdges()).filter(e->!e.hasAttribute("cut")).collect(Collectors.toList());
-								 }
-							 }
-							 
-						 }
-						 //now we have repPath
-						 if(lastTime){
-							 annotation = new JapsaAnnotation();
-						 }
-						 Sequence seq=repPath.spelling(annotation);
-						 
-						 double cov=GraphUtil.getRealCoverage(repPath.averageCov());
-						 Node n=outputGraph.addNode(Integer.toString(comp.id));
-						 seq.setName("Contig_"+comp.id+"_"+(isCircular?"circular":"linear")+"_length_"+seq.length()+"_cov_"+cov);
-						 n.setAttribute("seq", seq);
-						 n.setAttribute("len", seq.length());
-						 n.setAttribute("cov",cov);
-						 n.setAttribute("path", repPath);
-						 
-						 b=SimpleBinner.getBinOfPath(repPath);
-						 if(b!=null) {
-							 n.setAttribute("bin", b);
-							 if(!binn50.containsKey(b))
-								 binn50.put(b, new ArrayList<Integer>());
-							 else
-								 binn50.get(b).add(seq.length());
-						 }
-						 
-						 
-						 if(isCircular){
-							 n.setAttribute("circular");
-						 }
-						 if(lastTime){
-							 annotation.setSequence(seq);
-							 n.setAttribute("annotation", annotation);
-						 }
-			//			 System.out.println("\n" + seq.getName() + ":" + repPath.getId() + "\n=> "+ repPath.getPrimitivePath().getId());
-			
+				if(outputGraph==hAss.simGraph)
+					outputGraph=new BDGraph();
+				synchronized(outputGraph) {
+					int nUnits=rebuildUnits(changed, lastTime);
+					logger.debug("Output graph: {} changed nodes, {} units rebuilt, {} units in total", changed.size(), nUnits, units.size());
+					
+					binn50 = new HashMap<>();
+					for(Node n:outputGraph) {
+						PopBin b=(PopBin) n.getAttribute("bin");
+						if(b!=null)
+							binn50.computeIfAbsent(b, k->new ArrayList<Integer>()).add((int) n.getNumber("len"));
 					}
+					outputGraph.updateStats();
+					snapshot=GraphSnapshot.of(outputGraph);
 				}
-		
-				//now set the edge of outputGraph based on the cut edges
-				for(Edge e:cutEdges) {
-					Node n0=e.getNode0(), n1=e.getNode1();
-					//get corresponding grouped nodes in outputGraph
-					ConnectedComponent 	comp0=rtComponents.getConnectedComponentOf(n0),
-										comp1=rtComponents.getConnectedComponentOf(n1);
-					if(comp0==null || comp1==null)
-						continue;
-					Node 	nn0=outputGraph.getNode(Integer.toString(comp0.id)),
-							nn1=outputGraph.getNode(Integer.toString(comp1.id));
-					if(nn0!=null && nn1!=null) {
-						boolean d0=((BDEdge)e).getDir0(),
-								d1=((BDEdge)e).getDir1();
-						//If it consists of a path, should be the direction of the whole path, not a particular node anymore!
-						if(((BDPath)nn0.getAttribute("path")).getNodeCount()>1) 
-							d0=(n0==((BDPath)nn0.getAttribute("path")).peekNode())?true:false; 
-						
-						if(((BDPath)nn1.getAttribute("path")).getNodeCount()>1) 
-							d1=(n1==((BDPath)nn1.getAttribute("path")).getRoot())?false:true;	
-						
-						if(e.hasAttribute("path")){
-							BDPath path = (BDPath)e.getAttribute("path");
-							BDPath trimedPath=path.trimEndingNodes();
-							if(trimedPath!=null){
-								//Add the "middle" node
-								if(lastTime)
-									annotation = new JapsaAnnotation();
-								Sequence seq=trimedPath.spelling(annotation);
-								double cov=GraphUtil.getRealCoverage(trimedPath.averageCov());
-								int id=0;
-								while(outputGraph.getNode(Integer.toString(++id))!=null);
-								Node n=outputGraph.addNode(Integer.toString(id));
-								seq.setName("Contig_"+id+"_linear_length_"+seq.length()+"_cov_"+cov);
-								n.setAttribute("seq", seq);
-								n.setAttribute("len", seq.length());
-								n.setAttribute("cov",cov);
-								n.setAttribute("path", trimedPath);
-								b=SimpleBinner.getBinOfPath(repPath);
-								if(b!=null) {
-									n.setAttribute("bin", b);
-									if(!binn50.containsKey(b))
-										binn50.put(b, new ArrayList<Integer>());
-									else
-										binn50.get(b).add(seq.length());
-								}
-								 
-								if(lastTime){
-									annotation.setSequence(seq);
-									n.setAttribute("annotation", annotation);
-								}
-								//Add 2 edges
-								Boolean dd0=((BDEdge)path.getEdgePath().get(0)).getNodeDirection(trimedPath.getFirstNode()), 
-										dd1=((BDEdge)path.peekEdge()).getNodeDirection(trimedPath.getLastNode());
-								if(dd0==null)
-									dd0=!path.getFirstNodeDirection();
-								if(dd1==null)
-									dd1=!path.getLastNodeDirection();
-								 
-								//if trimedPath has more than 1 nodes and has been merged into one
-								if(trimedPath.getNodeCount()>1){
-									if(trimedPath.getRoot()==path.getNodePath().get(1)){
-										dd0=false;
-										dd1=true;
-									}else{
-										dd0=true;
-										dd1=false;
-									}
-								}
-								outputGraph.addEdge((BDNode)nn0, (BDNode)n , d0, dd0);
-								outputGraph.addEdge((BDNode)n, (BDNode)nn1 , dd1, d1);
-							}
-								
-						}else{
-							String id=BDEdge.createID((BDNode)nn0, (BDNode)nn1 , d0, d1);
-							if(outputGraph.getEdge(id)==null)
-								outputGraph.addEdge((BDNode)nn0, (BDNode)nn1 , d0, d1);
-						}
-		
-					}
+				//still under the read lock of the graph: copy the components too if they will be written
+				long now=System.currentTimeMillis();
+				if(OUTPUT_EVERY_UPDATE && now-lastOutput>=OUTPUT_INTERVAL*1000L){
+					lastOutput=now;
+					getWriter().submit(snapshot, GraphSnapshot.of(hAss.simGraph));
 				}
-				outputGraph.updateStats();
 			}
-			
 			printCurrentStats();
 				
 			if(lastTime)
 				System.out.println("FINISH!");
-			//reset the cutting attributes
-			hAss.simGraph.edges().filter(Objects::nonNull)
-								.forEach(e->{if(e.hasAttribute("cut")) e.removeAttribute("cut");});
-
+		}finally{
+			if(reading)
+				hAss.simGraph.unlockRead();
+			else
+				hAss.simGraph.unlockWrite();
+		}
+	}
+	
+	/*
+	 * An output contig: a connected component of the graph without the cut edges, i.e. edges entering (leaving)
+	 * a node with more than one entering (leaving) edges. Kept between the updates together with the cut edges.
+	 */
+	static class Unit{
+		final int id;
+		final List<Node> nodes=new ArrayList<>();
+		final Set<Edge> cutEdges=new HashSet<>(); //cut edges around this unit that were added to the output graph
+		Node outNode;
+		Unit(int id){this.id=id;}
+	}
+	private final HashMap<Node, Unit> unitOf=new HashMap<>();
+	private final Set<Unit> units=new HashSet<>();
+	private final Set<Edge> cutEdges=new HashSet<>();
+	private final HashMap<Edge, Node> middleOf=new HashMap<>(); //output node of the path of a composite cut edge
+	private int lastId=0; //ids of the output nodes
+	
+	private boolean isInGraph(Node n) {
+		return hAss.simGraph.getNode(n.getId())==n;
+	}
+	private static boolean isCut(Edge e) {
+		return isCutAt(e.getNode0(), e) || isCutAt(e.getNode1(), e);
+	}
+	private static boolean isCutAt(Node n, Edge e) {
+		return 	(n.getInDegree()>=2 && n.enteringEdges().anyMatch(x->x==e))
+				|| (n.getOutDegree()>=2 && n.leavingEdges().anyMatch(x->x==e));
+	}
+	
+	//rebuild the units of the changed nodes (and any unit merged with them), return the number of units built
+	private int rebuildUnits(Set<Node> changed, boolean lastTime) {
+		//cut status only changes for the edges of the nodes with changed degrees
+		for(Node n:changed)
+			if(isInGraph(n))
+				n.edges().forEach(e->{
+					if(isCut(e))
+						cutEdges.add(e);
+					else
+						cutEdges.remove(e);
+				});
+		
+		ArrayDeque<Node> seeds=new ArrayDeque<>();
+		for(Node n:changed) {
+			Unit u=unitOf.get(n);
+			if(u!=null)
+				invalidate(u, seeds);
+			else
+				seeds.add(n);
+		}
+		List<Unit> rebuilt=new ArrayList<>();
+		while(!seeds.isEmpty()) {
+			Node n=seeds.poll();
+			if(unitOf.containsKey(n) || !isInGraph(n))
+				continue;
+			rebuilt.add(buildUnit(n, seeds, lastTime));
+		}
+		//the cut edges of the rebuilt units link them to each other and to the kept units
+		Set<Edge> added=new HashSet<>();
+		for(Unit u:rebuilt) {
+			if(!units.contains(u)) //merged into another one later
+				continue;
+			for(Node n:u.nodes)
+				n.edges().filter(e->cutEdges.contains(e) && added.add(e)).forEach(e->addCutEdge(e, lastTime));
+		}
+		return rebuilt.size();
+	}
+	
+	private void invalidate(Unit u, Collection<Node> seeds) {
+		if(!units.remove(u))
+			return;
+		for(Node n:u.nodes) {
+			unitOf.remove(n);
+			seeds.add(n);
+		}
+		for(Edge e:u.cutEdges) {
+			Node m=middleOf.remove(e);
+			if(m!=null)
+				outputGraph.removeNode(m);
+			if(hAss.simGraph.getEdge(e.getId())!=e)
+				cutEdges.remove(e);
+		}
+		outputGraph.removeNode(u.outNode);
+	}
+	
+	private Unit buildUnit(Node node, Collection<Node> seeds, boolean lastTime) {
+		Unit unit=new Unit(++lastId);
+		units.add(unit);
+		//the component of node without the cut edges
+		ArrayDeque<Node> queue=new ArrayDeque<>();
+		unitOf.put(node, unit);
+		queue.add(node);
+		while(!queue.isEmpty()) {
+			Node n=queue.poll();
+			unit.nodes.add(n);
+			for(Edge e:n.edges().filter(e->!cutEdges.contains(e)).collect(Collectors.toList())) {
+				Node o=e.getOpposite(n);
+				Unit ou=unitOf.get(o);
+				if(ou==unit)
+					continue;
+				if(ou!=null) //merged with a unit that was kept
+					invalidate(ou, seeds);
+				unitOf.put(o, unit);
+				queue.add(o);
+			}
+		}
+		
+		//check comp: should be linear paths, should start with node+
+		BDPath repPath = new BDPath(node); //representative path of a component
+		boolean isCircular=false;
+		if(unit.nodes.size()>1 || node.getDegree()>0){
+			//extend to
+			Node curNode=node;
+			boolean curDir=true;
+			List<Edge> ways = (curDir?curNode.leavingEdges():curNode.enteringEdges()).filter(e->!cutEdges.contains(e)).collect(Collectors.toList());
+			while(ways.size()==1){
+				Edge edge = ways.get(0);
+				repPath.add(edge);
+				curNode=edge.getOpposite(curNode);
+				 
+				if(curNode==node){//circular
+					isCircular=true;
+					break;
+				}
+				if(((BDEdge) edge).getNodeDirection((BDNode)curNode)!=null)
+					curDir=!((BDEdge) edge).getNodeDirection((BDNode)curNode);
+				ways = (curDir?curNode.leavingEdges():curNode.enteringEdges()).filter(e->!cutEdges.contains(e)).collect(Collectors.toList());
+			}
+			 
+			//if linear: reverse
+			if(!isCircular){
+				repPath=repPath.reverse();
+				//extend in opposite direction
+				curNode=node;
+				curDir=false;
+				ways = (curDir?curNode.leavingEdges():curNode.enteringEdges()).filter(e->!cutEdges.contains(e)).collect(Collectors.toList());
+				 
+				while(ways.size()==1){
+					Edge edge = ways.get(0);
+					repPath.add(edge);
+					curNode=edge.getOpposite(curNode);
+					if(((BDEdge) edge).getNodeDirection((BDNode)curNode)!=null)
+						curDir=!((BDEdge) edge).getNodeDirection((BDNode)curNode);
+					ways = (curDir?curNode.leavingEdges():curNode.enteringEdges()).filter(e->!cutEdges.contains(e)).collect(Collectors.toList());
+				}
+			}
+		}
+		//now we have repPath
+		JapsaAnnotation annotation=lastTime?new JapsaAnnotation():null;
+		Sequence seq=repPath.spelling(annotation);
+		 
+		double cov=GraphUtil.getRealCoverage(hAss.simGraph, repPath.averageCov());
+		Node n=outputGraph.addNode(Integer.toString(unit.id));
+		seq.setName("Contig_"+unit.id+"_"+(isCircular?"circular":"linear")+"_length_"+seq.length()+"_cov_"+cov);
+		n.setAttribute("seq", seq);
+		n.setAttribute("len", seq.length());
+		n.setAttribute("cov",cov);
+		n.setAttribute("path", repPath);
+		 
+		PopBin b=SimpleBinner.getBinOfPath(repPath);
+		if(b!=null)
+			n.setAttribute("bin", b);
+		if(isCircular){
+			n.setAttribute("circular");
+		}
+		if(lastTime){
+			annotation.setSequence(seq);
+			n.setAttribute("annotation", annotation);
+		}
+		unit.outNode=n;
+		return unit;
+	}
+	
+	//set the edge of outputGraph based on a cut edge
+	private void addCutEdge(Edge e, boolean lastTime) {
+		Node n0=e.getNode0(), n1=e.getNode1();
+		//get corresponding grouped nodes in outputGraph
+		Unit 	u0=unitOf.get(n0),
+				u1=unitOf.get(n1);
+		if(u0==null || u1==null)
+			return;
+		u0.cutEdges.add(e);
+		u1.cutEdges.add(e);
+		Node 	nn0=u0.outNode,
+				nn1=u1.outNode;
+		boolean d0=((BDEdge)e).getDir0(),
+				d1=((BDEdge)e).getDir1();
+		//If it consists of a path, should be the direction of the whole path, not a particular node anymore!
+		if(((BDPath)nn0.getAttribute("path")).getNodeCount()>1) 
+			d0=(n0==((BDPath)nn0.getAttribute("path")).peekNode())?true:false; 
+		
+		if(((BDPath)nn1.getAttribute("path")).getNodeCount()>1) 
+			d1=(n1==((BDPath)nn1.getAttribute("path")).getRoot())?false:true;	
+		
+		if(e.hasAttribute("path")){
+			BDPath path = (BDPath)e.getAttribute("path");
+			BDPath trimedPath=path.trimEndingNodes();
+			if(trimedPath!=null){
+				//Add the "middle" node
+				JapsaAnnotation annotation=lastTime?new JapsaAnnotation():null;
+				Sequence seq=trimedPath.spelling(annotation);
+				double cov=GraphUtil.getRealCoverage(hAss.simGraph, trimedPath.averageCov());
+				int id=++lastId;
+				Node n=outputGraph.addNode(Integer.toString(id));
+				seq.setName("Contig_"+id+"_linear_length_"+seq.length()+"_cov_"+cov);
+				n.setAttribute("seq", seq);
+				n.setAttribute("len", seq.length());
+				n.setAttribute("cov",cov);
+				n.setAttribute("path", trimedPath);
+				PopBin b=SimpleBinner.getBinOfPath(trimedPath);
+				if(b!=null)
+					n.setAttribute("bin", b);
+				 
+				if(lastTime){
+					annotation.setSequence(seq);
+					n.setAttribute("annotation", annotation);
+				}
+				middleOf.put(e, n);
+				//Add 2 edges
+				Boolean dd0=((BDEdge)path.getEdgePath().get(0)).getNodeDirection(trimedPath.getFirstNode()), 
+						dd1=((BDEdge)path.peekEdge()).getNodeDirection(trimedPath.getLastNode());
+				if(dd0==null)
+					dd0=!path.getFirstNodeDirection();
+				if(dd1==null)
+					dd1=!path.getLastNodeDirection();
+				 
+				//if trimedPath has more than 1 nodes and has been merged into one
+				if(trimedPath.getNodeCount()>1){
+					if(trimedPath.getRoot()==path.getNodePath().get(1)){
+						dd0=false;
+						dd1=true;
+					}else{
+						dd0=true;
+						dd1=false;
+					}
+				}
+				outputGraph.addEdge((BDNode)nn0, (BDNode)n , d0, dd0);
+				outputGraph.addEdge((BDNode)n, (BDNode)nn1 , dd1, d1);
+			}
+				
+		}else{
+			String id=BDEdge.createID((BDNode)nn0, (BDNode)nn1 , d0, d1);
+			if(outputGraph.getEdge(id)==null)
+				outputGraph.addEdge((BDNode)nn0, (BDNode)nn1 , d0, d1);
 		}
 	}
 	
@@ -360,60 +446,66 @@ public class RealtimeGraphWatcher extends RealtimeAnalysis{
 	}
 	
 	public int getN50() {
-		synchronized(outputGraph) {
-			return outputGraph.n50;
-		}
+		GraphSnapshot s=snapshot;
+		return s==null?0:s.getN50();
 	}
 	public int getN75() {
-		synchronized(outputGraph) {
-			return outputGraph.n75;
-		}
+		GraphSnapshot s=snapshot;
+		return s==null?0:s.getN75();
 	}
 	public int getLongestContig() {
-		synchronized(outputGraph) {
-			return outputGraph.maxl;
-		}
+		GraphSnapshot s=snapshot;
+		return s==null?0:s.getLongestContig();
 	}
 	public int getNumberOfSequences() {
-		synchronized(outputGraph) {
-			return outputGraph.numOfCtgs;
-		}
+		GraphSnapshot s=snapshot;
+		return s==null?0:s.getNumberOfSequences();
 	}
 	public int getNumberOfCircularSequences() {
-		synchronized(outputGraph) {
-			return outputGraph.numOfCircularCtgs;
+		GraphSnapshot s=snapshot;
+		return s==null?0:s.getNumberOfCircularSequences();
+	}
+	
+	private synchronized SnapshotWriter getWriter() {
+		if(writer==null)
+			writer=new SnapshotWriter(hAss.getPrefix());
+		return writer;
+	}
+	private GraphSnapshot getOrigSnapshot() {
+		hAss.simGraph.lockRead();
+		try{
+			return GraphSnapshot.of(hAss.simGraph);
+		}finally{
+			hAss.simGraph.unlockRead();
 		}
 	}
+	//the outputs are written from the latest snapshot, without holding any lock
 	public void outputAssGFA(String fileName) throws IOException{
-		synchronized(outputGraph) {
-			outputGraph.outputGFA(fileName);
-		}	
+		if(snapshot!=null)
+			snapshot.writeGFA(fileName);
 	}
 	public void outputOrigGFA(String fileName) throws IOException{
-		synchronized(hAss.simGraph) {
-			hAss.simGraph.outputGFA(fileName);
-		}
+		getOrigSnapshot().writeGFA(fileName);
 	}
 	public void outputFASTA(String fileName) throws IOException {
-		synchronized(outputGraph) {
-			outputGraph.outputFASTA(fileName);
-		}
+		if(snapshot!=null)
+			snapshot.writeFASTA(fileName);
 	}
 	public void outputJAPSA(String fileName) throws IOException {
-		synchronized(outputGraph) {
-			outputGraph.outputJAPSA(fileName);
-		}
+		if(snapshot!=null)
+			snapshot.writeJAPSA(fileName);
 	}
 
 	@Override
 	protected void close() {
+		//the final outputs, wait for them to be written
+		SnapshotWriter w=getWriter();
+		w.submit(snapshot, getOrigSnapshot());
 		try {
-			outputFASTA(hAss.getPrefix()+File.separator+"npgraph_assembly.fasta");
-			outputJAPSA(hAss.getPrefix()+File.separator+"npgraph_assembly.japsa");
-			outputAssGFA(hAss.getPrefix()+File.separator+"npgraph_assembly.gfa");
-			outputOrigGFA(hAss.getPrefix()+File.separator+"npgraph_components.gfa");
-		}catch(IOException e) {
-			logger.error("Could not output assembly results: {}", e);
+			w.close();
+		}catch(InterruptedException e) {
+			logger.error("Interrupted while writing the assembly results: {}", e);
+			Thread.currentThread().interrupt();
 		}
 	}
 
@@ -429,24 +521,35 @@ public class RealtimeGraphWatcher extends RealtimeAnalysis{
 			while(true){
 				boolean changed=false;
 				for(GoInBetweenBridge brg:unsolved){
-					logger.debug("Last attempt on incomplete bridge {} : anchors={}\n{}",
-									brg.getEndingsID(), brg.getNumberOfAnchors(), brg.getAllPossiblePaths());
-					//Take the current best path among the candidate of a bridge and connect the bridge(greedy)
-					if(brg.getCompletionLevel()==3){ 
-						hAss.simGraph.getNewSubPathsToReduce(brg.getBestPath(brg.pBridge.getNode0(),brg.pBridge.getNode1())).stream().forEach(p->hAss.simGraph.reduceUniquePath(p));
-						solved.add(brg);
-						changed=true;
-					}else{
-						brg.scanForAnEnd(true);	
-						changed=brg.steps.connectBridgeSteps(true);
-						
-						//return appropriate path
-						if(changed){
-							hAss.simGraph.getNewSubPathsToReduce(brg.getBestPath(brg.steps.start.getNode(),brg.steps.end.getNode())).stream().forEach(p->hAss.simGraph.reduceUniquePath(p));
+					//same locking order as the bridge finding: the bridge's stripes then the graph
+					Iterable<Lock> locks=hAss.simGraph.lockBridge(brg);
+					try{
+						logger.debug("Last attempt on incomplete bridge {} : anchors={}\n{}",
+										brg.getEndingsID(), brg.getNumberOfAnchors(), brg.getAllPossiblePaths());
+						//Take the current best path among the candidate of a bridge and connect the bridge(greedy)
+						if(brg.getCompletionLevel()==3){ 
+							hAss.simGraph.getNewSubPathsToReduce(brg.getBestPath(brg.pBridge.getNode0(),brg.pBridge.getNode1())).stream().forEach(p->hAss.simGraph.reduceUniquePath(p));
 							solved.add(brg);
+							changed=true;
+						}else{
+							hAss.simGraph.lockRead();
+							try{
+								brg.scanForAnEnd(true);
+								changed=brg.steps.connectBridgeSteps(true);
+							}finally{
+								hAss.simGraph.unlockRead();
+							}
+							
+							//return appropriate path
+							if(changed){
+								hAss.simGraph.getNewSubPathsToReduce(brg.getBestPath(brg.steps.start.getNode(),brg.steps.end.getNode())).stream().forEach(p->hAss.simGraph.reduceUniquePath(p));
+								solved.add(brg);
+							}
+							else 
+								logger.debug("Last attempt failed");
 						}
-						else 
-							logger.debug("Last attempt failed");
+					}finally{
+						BDGraph.unlockAnchors(locks);
 					}
 		
 				}
@@ -0,0 +1,86 @@
+package org.rtassembly.npgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+
+/*
+ * Alignments from SAM/BAM: a file, stdin ("-") or any stream
+ */
+public class SAMAlignmentSource extends AbstractAlignmentSource {
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+	private final SamReader reader;
+	private final SAMRecordIterator iter;
+	private String readID="";
+	
+	public SAMAlignmentSource(SamReader reader, BDGraph graph){
+		super(graph);
+		this.reader=reader;
+		iter=reader.iterator();
+	}
+	public SAMAlignmentSource(InputStream in, BDGraph graph){
+		this(openReader(SamInputResource.of(in)), graph);
+	}
+	
+	/**
+	 * Open a SAM/BAM file, - for stdin
+	 */
+	public static SAMAlignmentSource open(String fileName, BDGraph graph){
+		if("-".equals(fileName))
+			return new SAMAlignmentSource(System.in, graph);
+		return new SAMAlignmentSource(openReader(SamInputResource.of(new File(fileName))), graph);
+	}
+	
+	private static SamReader openReader(SamInputResource resource){
+		SamReaderFactory.setDefaultValidationStringency(ValidationStringency.SILENT);
+		return SamReaderFactory.makeDefault().open(resource);
+	}
+	
+	@Override
+	protected boolean nextRecord() throws IOException{
+		SAMRecord curRecord;
+		try {
+			if(!iter.hasNext()) //htsjdk reads ahead here too
+				return false;
+			curRecord=iter.next();
+		}catch(Exception e) {
+			logger.error("Error SAM record: \n {}", e);
+			return false;
+		}
+		
+		if (!readID.equals(curRecord.getReadName())){
+			read=GraphUtil.getQueryReadFromSAMRecord(curRecord);
+			readID=curRecord.getReadName();
+		}
+		alignment=null;
+		
+		if (curRecord.getReadUnmappedFlag() || curRecord.getMappingQuality() < Alignment.MIN_QUAL){		
+			logger.debug("Ignore one unmapped or low-quality map record!");
+			return true;		
+		}
+		
+		alignment=align(curRecord.getReferenceName(), node->new Alignment(curRecord, node));
+		//check if this node still in. FIXME: do not remove nodes for metagenomics' graph?
+		if (alignment==null)
+			logger.debug("Ignore record with reference {} not found (removed) from the graph!", curRecord.getReferenceName());
+		return true;
+	}
+	
+	@Override
+	protected void closeInput() throws IOException{
+		iter.close();
+		reader.close();
+	}
+}
@@ -33,7 +33,7 @@ public class SimpleBinner {
 	ArrayList<PopBin> binList;
 	PopBin leastBin;
 	HashMap<Edge, Multiplicity> edge2BinMap;
-	static HashMap<Node, Multiplicity> node2BinMap;
+	HashMap<Node, Multiplicity> node2BinMap;
 	ArrayList<Edge> unresolvedEdges;
 	public SimpleBinner(BDGraph graph){
 		this.graph = graph;
@@ -405,28 +405,49 @@ public class SimpleBinner {
 			return GraphUtil.approxCompare(bin.estCov, node.getNumber("cov"))>=0;
 	}
 	
-	//unique node from the beginning
+	//unique node from the beginning (or found unique by the long reads, maybe not set as its attribute yet)
 	static public PopBin getBinIfUnique(Node node){
-		return (PopBin)node.getAttribute("unique");
+		PopBin retval=(PopBin)node.getAttribute("unique");
+		if(retval==null && node.getGraph() instanceof BDGraph)
+			retval=((BDGraph) node.getGraph()).getPromotedBin(node);
+		return retval;
 	}
 	//also take into account nodes that transformed to unique after reduced
 	static public PopBin getBinIfUniqueNow(Node node){
+		return getBinIfUniqueNow(node, true);
+	}
+	//same as getBinIfUniqueNow() but without promoting a node found unique by long reads
+	static public PopBin peekBinIfUniqueNow(Node node){
+		return getBinIfUniqueNow(node, false);
+	}
+	static private PopBin getBinIfUniqueNow(Node node, boolean promote){
 		PopBin retval=getBinIfUnique(node);
-		if(retval==null && node.getNumber("len") > TRANSFORMED_ANCHOR_CTG_LEN){
+		HashMap<Node, Multiplicity> node2BinMap=getBinMapOf(node);
+		if(retval==null && node2BinMap!=null && node.getNumber("len") > TRANSFORMED_ANCHOR_CTG_LEN){
 			if(node2BinMap.containsKey(node)){
 				Multiplicity bc = node2BinMap.get(node);
 				if(bc.getSum() == 1){
 					retval=Iterables.getOnlyElement(bc.getBinsSet());
 				}
-			}else //for unknown nodes only
-				retval=BDGraph.getUniqueBinFromLongReads((BDNode) node);
+			}else if(promote) //for unknown nodes only
+				retval=((BDGraph) node.getGraph()).getUniqueBinFromLongReads((BDNode) node);
+			else
+				retval=((BDGraph) node.getGraph()).peekUniqueBinFromLongReads((BDNode) node);
 		}
 		return retval;
 		  
 	}
+	//bin map of the graph the node belongs to
+	static HashMap<Node, Multiplicity> getBinMapOf(Node node){
+		SimpleBinner binner=((BDGraph) node.getGraph()).binner;
+		return binner==null?null:binner.node2BinMap;
+	}
 	//return representative bin from walking a path
 	static public PopBin getBinOfPath(BDPath path) {
 		PopBin retval=null;
+		HashMap<Node, Multiplicity> node2BinMap=getBinMapOf(path.getRoot());
+		if(node2BinMap==null)
+			return null;
 		HashMap<PopBin, Integer> b2l = new HashMap<>();
 		BDNode curNode = (BDNode) path.getRoot();
 		for(Edge e:path.getEdgePath()) {
@@ -446,7 +467,7 @@ public class SimpleBinner {
 	}
 	
 	static public boolean isPotentialAnchorNode(BDNode node){
-		return getBinIfUnique(node)!=null||(BDGraph.isSuspectedNode(node)&&node.getInDegree()<=1&&node.getOutDegree()<=1);
+		return getBinIfUnique(node)!=null||(((BDGraph) node.getGraph()).isSuspectedNode((BDNode) node)&&node.getInDegree()<=1&&node.getOutDegree()<=1);
 	}
 //	public boolean checkRemovableNode(Node node) {
 ////		LOG.info("Checking node {}", node.getAttribute("name"));
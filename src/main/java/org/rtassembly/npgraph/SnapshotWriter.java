@@ -0,0 +1,108 @@
+package org.rtassembly.npgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Background thread writing the assembly outputs from GraphSnapshot, so that disk latency never holds
+ * the graph (or its lock). Only the latest submitted snapshots are kept: if the writer is slower than
+ * the updates, intermediate ones are skipped.
+ */
+public class SnapshotWriter implements Runnable {
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+	final String prefix;
+	private GraphSnapshot assembly=null, components=null; //pending, guarded by this
+	private boolean stopped=false;
+	private long submitted=0, written=0; //number of requests, guarded by this
+	private final Thread thread;
+
+	public SnapshotWriter(String prefix){
+		this.prefix=prefix;
+		thread=new Thread(this, "npgraph-writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queue the snapshots to write, replacing any pending ones. Either can be null to keep the pending one.
+	 * @param assembly output graph: written to FASTA, JAPSA (if annotated) and GFA
+	 * @param components original graph: written to GFA
+	 */
+	public synchronized void submit(GraphSnapshot assembly, GraphSnapshot components){
+		if(assembly!=null)
+			this.assembly=assembly;
+		if(components!=null)
+			this.components=components;
+		submitted++;
+		notifyAll();
+	}
+
+	/**
+	 * Wait until everything submitted so far is written
+	 */
+	public synchronized void flush() throws InterruptedException{
+		long target=submitted;
+		while(written<target && thread.isAlive())
+			wait();
+	}
+
+	//flush then stop the thread
+	public void close() throws InterruptedException{
+		flush();
+		synchronized(this){
+			stopped=true;
+			notifyAll();
+		}
+		thread.join();
+	}
+
+	@Override
+	public void run(){
+		while(true){
+			GraphSnapshot ass, comp;
+			long target;
+			synchronized(this){
+				while(!stopped && assembly==null && components==null)
+					try{
+						wait();
+					}catch(InterruptedException e){
+						logger.warn("Writer interrupted, pending outputs are dropped");
+						return;
+					}
+				if(assembly==null && components==null)
+					return;
+				ass=assembly;
+				comp=components;
+				assembly=components=null;
+				target=submitted;
+			}
+			write(ass, comp);
+			synchronized(this){
+				written=target;
+				notifyAll();
+			}
+		}
+	}
+
+	private void write(GraphSnapshot ass, GraphSnapshot comp){
+		try{
+			long t=System.currentTimeMillis();
+			if(ass!=null){
+				ass.writeFASTA(prefix+File.separator+"npgraph_assembly.fasta");
+				if(ass.getSegments().stream().allMatch(s->s.annotation!=null))
+					ass.writeJAPSA(prefix+File.separator+"npgraph_assembly.japsa");
+				ass.writeGFA(prefix+File.separator+"npgraph_assembly.gfa");
+			}
+			if(comp!=null)
+				comp.writeGFA(prefix+File.separator+"npgraph_components.gfa");
+			logger.debug("Outputs written in {}ms", System.currentTimeMillis()-t);
+		}catch(IOException e){
+			logger.error("Could not output assembly results: {}", e);
+		}
+	}
+}
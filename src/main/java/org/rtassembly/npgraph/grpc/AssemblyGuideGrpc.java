@@ -61,6 +61,37 @@ public final class AssemblyGuideGrpc {
     return getGetAssemblyContributionMethod;
   }
 
+  private static volatile io.grpc.MethodDescriptor<org.rtassembly.npgraph.grpc.RequestBatch,
+      org.rtassembly.npgraph.grpc.ResponseAssembly> getStreamAssemblyContributionMethod;
+
+  @io.grpc.stub.annotations.RpcMethod(
+      fullMethodName = SERVICE_NAME + '/' + "StreamAssemblyContribution",
+      requestType = org.rtassembly.npgraph.grpc.RequestBatch.class,
+      responseType = org.rtassembly.npgraph.grpc.ResponseAssembly.class,
+      methodType = io.grpc.MethodDescriptor.MethodType.BIDI_STREAMING)
+  public static io.grpc.MethodDescriptor<org.rtassembly.npgraph.grpc.RequestBatch,
+      org.rtassembly.npgraph.grpc.ResponseAssembly> getStreamAssemblyContributionMethod() {
+    io.grpc.MethodDescriptor<org.rtassembly.npgraph.grpc.RequestBatch, org.rtassembly.npgraph.grpc.ResponseAssembly> getStreamAssemblyContributionMethod;
+    if ((getStreamAssemblyContributionMethod = AssemblyGuideGrpc.getStreamAssemblyContributionMethod) == null) {
+      synchronized (AssemblyGuideGrpc.class) {
+        if ((getStreamAssemblyContributionMethod = AssemblyGuideGrpc.getStreamAssemblyContributionMethod) == null) {
+          AssemblyGuideGrpc.getStreamAssemblyContributionMethod = getStreamAssemblyContributionMethod =
+              io.grpc.MethodDescriptor.<org.rtassembly.npgraph.grpc.RequestBatch, org.rtassembly.npgraph.grpc.ResponseAssembly>newBuilder()
+              .setType(io.grpc.MethodDescriptor.MethodType.BIDI_STREAMING)
+              .setFullMethodName(generateFullMethodName(SERVICE_NAME, "StreamAssemblyContribution"))
+              .setSampledToLocalTracing(true)
+              .setRequestMarshaller(io.grpc.protobuf.ProtoUtils.marshaller(
+                  org.rtassembly.npgraph.grpc.RequestBatch.getDefaultInstance()))
+              .setResponseMarshaller(io.grpc.protobuf.ProtoUtils.marshaller(
+                  org.rtassembly.npgraph.grpc.ResponseAssembly.getDefaultInstance()))
+              .setSchemaDescriptor(new AssemblyGuideMethodDescriptorSupplier("StreamAssemblyContribution"))
+              .build();
+        }
+      }
+    }
+    return getStreamAssemblyContributionMethod;
+  }
+
   /**
    * Creates a new async stub that supports all call types for the service
    */
@@ -119,6 +150,16 @@ public final class AssemblyGuideGrpc {
       asyncUnimplementedUnaryCall(getGetAssemblyContributionMethod(), responseObserver);
     }
 
+    /**
+     * <pre>
+     * Batches of chunks (e.g. of all channels) in, a decision out as soon as it's made
+     * </pre>
+     */
+    public io.grpc.stub.StreamObserver<org.rtassembly.npgraph.grpc.RequestBatch> streamAssemblyContribution(
+        io.grpc.stub.StreamObserver<org.rtassembly.npgraph.grpc.ResponseAssembly> responseObserver) {
+      return asyncUnimplementedStreamingCall(getStreamAssemblyContributionMethod(), responseObserver);
+    }
+
     @java.lang.Override public final io.grpc.ServerServiceDefinition bindService() {
       return io.grpc.ServerServiceDefinition.builder(getServiceDescriptor())
           .addMethod(
@@ -128,6 +169,13 @@ public final class AssemblyGuideGrpc {
                 org.rtassembly.npgraph.grpc.RequestAssembly,
                 org.rtassembly.npgraph.grpc.ResponseAssembly>(
                   this, METHODID_GET_ASSEMBLY_CONTRIBUTION)))
+          .addMethod(
+            getStreamAssemblyContributionMethod(),
+            asyncBidiStreamingCall(
+              new MethodHandlers<
+                org.rtassembly.npgraph.grpc.RequestBatch,
+                org.rtassembly.npgraph.grpc.ResponseAssembly>(
+                  this, METHODID_STREAM_ASSEMBLY_CONTRIBUTION)))
           .build();
     }
   }
@@ -156,6 +204,17 @@ public final class AssemblyGuideGrpc {
       asyncUnaryCall(
           getChannel().newCall(getGetAssemblyContributionMethod(), getCallOptions()), request, responseObserver);
     }
+
+    /**
+     * <pre>
+     * Batches of chunks (e.g. of all channels) in, a decision out as soon as it's made
+     * </pre>
+     */
+    public io.grpc.stub.StreamObserver<org.rtassembly.npgraph.grpc.RequestBatch> streamAssemblyContribution(
+        io.grpc.stub.StreamObserver<org.rtassembly.npgraph.grpc.ResponseAssembly> responseObserver) {
+      return asyncBidiStreamingCall(
+          getChannel().newCall(getStreamAssemblyContributionMethod(), getCallOptions()), responseObserver);
+    }
   }
 
   /**
@@ -210,6 +269,7 @@ public final class AssemblyGuideGrpc {
   }
 
   private static final int METHODID_GET_ASSEMBLY_CONTRIBUTION = 0;
+  private static final int METHODID_STREAM_ASSEMBLY_CONTRIBUTION = 1;
 
   private static final class MethodHandlers<Req, Resp> implements
       io.grpc.stub.ServerCalls.UnaryMethod<Req, Resp>,
@@ -242,6 +302,9 @@ public final class AssemblyGuideGrpc {
     public io.grpc.stub.StreamObserver<Req> invoke(
         io.grpc.stub.StreamObserver<Resp> responseObserver) {
       switch (methodId) {
+        case METHODID_STREAM_ASSEMBLY_CONTRIBUTION:
+          return (io.grpc.stub.StreamObserver<Req>) serviceImpl.streamAssemblyContribution(
+              (io.grpc.stub.StreamObserver<org.rtassembly.npgraph.grpc.ResponseAssembly>) responseObserver);
         default:
           throw new AssertionError();
       }
@@ -294,6 +357,7 @@ public final class AssemblyGuideGrpc {
           serviceDescriptor = result = io.grpc.ServiceDescriptor.newBuilder(SERVICE_NAME)
               .setSchemaDescriptor(new AssemblyGuideFileDescriptorSupplier())
               .addMethod(getGetAssemblyContributionMethod())
+              .addMethod(getStreamAssemblyContributionMethod())
               .build();
         }
       }
@@ -29,6 +29,11 @@ public final class AssemblyGuideProto {
   static final 
     com.google.protobuf.GeneratedMessageV3.FieldAccessorTable
       internal_static_assembly_ResponseAssembly_fieldAccessorTable;
+  static final com.google.protobuf.Descriptors.Descriptor
+    internal_static_assembly_RequestBatch_descriptor;
+  static final 
+    com.google.protobuf.GeneratedMessageV3.FieldAccessorTable
+      internal_static_assembly_RequestBatch_fieldAccessorTable;
 
   public static com.google.protobuf.Descriptors.FileDescriptor
       getDescriptor() {
@@ -44,15 +49,21 @@ public final class AssemblyGuideProto {
       "ry_end\030\004 \001(\005\022\016\n\006strand\030\005 \001(\010\022\023\n\013target_n" +
       "ame\030\006 \001(\t\022\025\n\rtarget_length\030\007 \001(\005\022\024\n\014targ" +
       "et_start\030\010 \001(\005\022\022\n\ntarget_end\030\t \001(\005\022\017\n\007qu" +
-      "ality\030\n \001(\005\022\r\n\005score\030\013 \001(\005\"M\n\017RequestAss" +
+      "ality\030\n \001(\005\022\r\n\005score\030\013 \001(\005\"`\n\017RequestAss" +
       "embly\022\017\n\007read_id\030\001 \001(\t\022)\n\thits_list\030\002 \003(" +
-      "\0132\026.assembly.AlignmentMsg\"7\n\020ResponseAss" +
-      "embly\022\017\n\007read_id\030\001 \001(\t\022\022\n\nusefulness\030\002 \001" +
-      "(\0102c\n\rAssemblyGuide\022R\n\027GetAssemblyContri" +
-      "bution\022\031.assembly.RequestAssembly\032\032.asse" +
-      "mbly.ResponseAssembly\"\000B9\n\033org.rtassembl" +
-      "y.npgraph.grpcB\022AssemblyGuideProtoP\001\242\002\003A" +
-      "GPb\006proto3"
+      "\0132\026.assembly.AlignmentMsg\022\021\n\tsample_id\030\003" +
+      " \001(\t\"w\n\020ResponseAssembly\022\017\n\007read_id\030\001 \001(" +
+      "\t\022\022\n\nusefulness\030\002 \001(\010\022\020\n\010batch_id\030\003 \001(\003\022" +
+      "\021\n\tsent_time\030\004 \001(\003\022\031\n\021server_latency_us\030" +
+      "\005 \001(\003\"`\n\014RequestBatch\022+\n\010requests\030\001 \003(\0132" +
+      "\031.assembly.RequestAssembly\022\020\n\010batch_id\030\002" +
+      " \001(\003\022\021\n\tsent_time\030\003 \001(\0032\273\001\n\rAssemblyGuid" +
+      "e\022R\n\027GetAssemblyContribution\022\031.assembly." +
+      "RequestAssembly\032\032.assembly.ResponseAssem" +
+      "bly\"\000\022V\n\032StreamAssemblyContribution\022\026.as" +
+      "sembly.RequestBatch\032\032.assembly.ResponseA" +
+      "ssembly\"\000(\0010\001B9\n\033org.rtassembly.npgraph." +
+      "grpcB\022AssemblyGuideProtoP\001\242\002\003AGPb\006proto3"
     };
     descriptor = com.google.protobuf.Descriptors.FileDescriptor
       .internalBuildGeneratedFileFrom(descriptorData,
@@ -69,13 +80,19 @@ public final class AssemblyGuideProto {
     internal_static_assembly_RequestAssembly_fieldAccessorTable = new
       com.google.protobuf.GeneratedMessageV3.FieldAccessorTable(
         internal_static_assembly_RequestAssembly_descriptor,
-        new java.lang.String[] { "ReadId", "HitsList", });
+        new java.lang.String[] { "ReadId", "HitsList", "SampleId", });
     internal_static_assembly_ResponseAssembly_descriptor =
       getDescriptor().getMessageTypes().get(2);
     internal_static_assembly_ResponseAssembly_fieldAccessorTable = new
       com.google.protobuf.GeneratedMessageV3.FieldAccessorTable(
         internal_static_assembly_ResponseAssembly_descriptor,
-        new java.lang.String[] { "ReadId", "Usefulness", });
+        new java.lang.String[] { "ReadId", "Usefulness", "BatchId", "SentTime", "ServerLatencyUs", });
+    internal_static_assembly_RequestBatch_descriptor =
+      getDescriptor().getMessageTypes().get(3);
+    internal_static_assembly_RequestBatch_fieldAccessorTable = new
+      com.google.protobuf.GeneratedMessageV3.FieldAccessorTable(
+        internal_static_assembly_RequestBatch_descriptor,
+        new java.lang.String[] { "Requests", "BatchId", "SentTime", });
   }
 
   // @@protoc_insertion_point(outer_class_scope)
@@ -2,42 +2,36 @@ package org.rtassembly.npgraph.grpc;
 
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
-import japsa.seq.PAFRecord;
-import japsa.seq.Sequence;
 
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
-import org.rtassembly.npgraph.Alignment;
 import org.rtassembly.npgraph.BDGraph;
-import org.rtassembly.npgraph.BDNode;
-import org.rtassembly.npgraph.BDPath;
-import org.rtassembly.npgraph.GoInBetweenBridge;
-import org.rtassembly.npgraph.GraphUtil;
 import org.rtassembly.npgraph.HybridAssembler;
-import org.rtassembly.npgraph.SimpleBinner;
 
+/*
+ * Read-until guide for one or several assemblies (tenants) in the same JVM.
+ * A request goes to the assembly of its sample_id, requests without it go to the default assembly.
+ * Requests come one per call (GetAssemblyContribution) or in batches on a stream (StreamAssemblyContribution).
+ */
 public class AssemblyGuideServer {
     private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+	  public static final String DEFAULT_SAMPLE = "";
 
 	  public int port;
 	  public final Server server;
-	  public static HybridAssembler myAss;
 	  public static int ELEN = 10000;
-//	  public final Thread myThread;
-	  public final static ExecutorService executor = Executors.newFixedThreadPool(2); //one for GUI, one for real-time graph reduction
+	  private final ConcurrentHashMap<String, AssemblyTenant> tenants = new ConcurrentHashMap<>();
+	  private volatile boolean started = false;
 	  
 	  public AssemblyGuideServer(int port, HybridAssembler ass) {
 		  this(ServerBuilder.forPort(port), port, ass);
@@ -47,17 +41,46 @@ public class AssemblyGuideServer {
 		  this.port = port;
 		  server = serverBuilder.addService(new AssemblyGuideService())
 				  				.build();
-		  myAss=badAss;
-//		  myThread = new Thread(badAss.observer);
+		  if(badAss != null)
+			  addAssembly(DEFAULT_SAMPLE, badAss);
+	  }
+
+	  /** Host another assembly, started right away if the server is running */
+	  public AssemblyTenant addAssembly(String sampleId, HybridAssembler ass) {
+		  return addAssembly(new AssemblyTenant(sampleId, ass));
+	  }
+	  public AssemblyTenant addAssembly(AssemblyTenant tenant) {
+		  //k is process-wide (see BDGraph.useKmerSize()), the graphs loaded since may have another one
+		  int kmer = tenant.getAssembler().simGraph.getGraphKmerSize();
+		  if(kmer > 0 && kmer != BDGraph.getKmerSize())
+			  throw new IllegalArgumentException("Assembly " + tenant.getName() + " has k=" + kmer + ", the hosted assemblies k=" + BDGraph.getKmerSize());
+		  if(tenants.putIfAbsent(tenant.getId(), tenant) != null)
+			  throw new IllegalArgumentException("Assembly " + tenant.getName() + " is already hosted");
+		  if(started)
+			  tenant.start();
+		  return tenant;
+	  }
+	  /** Stop guiding reads for an assembly and release it */
+	  public AssemblyTenant removeAssembly(String sampleId) throws InterruptedException {
+		  AssemblyTenant tenant = tenants.remove(sampleId);
+		  if(tenant != null)
+			  tenant.stop();
+		  return tenant;
+	  }
+	  public AssemblyTenant getAssembly(String sampleId) {
+		  return tenants.get(sampleId);
+	  }
+	  public Collection<AssemblyTenant> getAssemblies() {
+		  return tenants.values();
 	  }
 
 	  /** Start serving requests. */
 	  public void start() throws IOException {
-//		  myThread.start();
-		  executor.execute(myAss.observer);
+		  started = true;
+		  tenants.values().forEach(AssemblyTenant::start);
 		  server.start();
 		  
-		  logger.info("Server started, listening on {}", port);
+		  logger.info("Server started, listening on {} for {} assembly(s)", port, tenants.size());
 		  Runtime.getRuntime().addShutdownHook(new Thread() {
 			  @Override
 			  public void run() {
@@ -78,183 +101,83 @@ public class AssemblyGuideServer {
 		  if (server != null) {
 			  server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
 		  }
-		  
-		  executor.shutdown();
-//		  if(myThread.isAlive()) {
-//				myAss.observer.stopWaiting();
-//				myThread.join();
-//		  }
+		  for(AssemblyTenant tenant:tenants.values())
+			  tenant.stop();
 	  }
 
 	  /**
-	   * Our implementation of assembly service.
+	   * Our implementation of assembly service: dispatch to the assembly of the request.
 	   *
 	   * <p>See src/main/proto/npgraph_service.proto for details of the methods.
 	   */
-	  private static class AssemblyGuideService extends AssemblyGuideGrpc.AssemblyGuideImplBase {
-		  private static final HashMap<String, Alignment> lastMap = new HashMap<>(); //readID to the last unique contig it mapped to
-		  private static final HashMap<String, Integer> reduceRead = new HashMap<>(); //readID to the length of chunk used to reduce
-		  
+	  private class AssemblyGuideService extends AssemblyGuideGrpc.AssemblyGuideImplBase {
 		  @Override
 		  public void getAssemblyContribution(RequestAssembly request,
 				StreamObserver<ResponseAssembly> responseObserver) {
-			  	ArrayList<Alignment> hits = getAlignmentsFromRequest(request);
-			  	boolean continueing=true;
-			  	Future<ReducePathInfo> f=null;
-			  	
-			  	if(hits.size() > 0) {//this should be checked from client side
-			  		Collections.sort(hits);
-			  		Alignment 	a = hits.get(hits.size()-1), //get the last alignment of current hit list
-			  					b = lastMap.get(a.readID); //previous last unique alignment
-			  		//1. compare the last mapped contig, proceed if the same
-			  		//TODO: index repeats of long bridges that already resolved?
-			  		
-			  		//with read chunk shorter than 1000bp, mapping to unique contig cannot be missed 
-			  		//when sequentially considering only last Alignment
-			  		if(SimpleBinner.getBinIfUniqueNow(a.node)!=null) {
-			  			//if the same as prevAlg, proceed
-			  			boolean investigating=true;
-			  			if(b==null || a.node != b.node) {
-			  				lastMap.put(a.readID, a);
-			  			}else{
-			  				int alignedReadLen = Math.abs(a.readEnd - a.readStart) + Math.abs(b.readEnd - b.readStart),
-			  					alignedRefLen = Math.abs(a.refEnd - a.refStart) + Math.abs(b.refEnd - b.refStart);
-			  				double rate = 1.0 * alignedRefLen/alignedReadLen;		
+			  AssemblyTenant tenant = tenants.get(request.getSampleId());
+			  if(tenant == null) {
+				  responseObserver.onError(Status.NOT_FOUND.withDescription("No assembly for sample " + request.getSampleId()).asRuntimeException());
+				  return;
+			  }
+			  tenant.getAssemblyContribution(request, responseObserver);
+		  }
 
-			  				int alignP = (int) ((b.readStart - a.readStart) * rate);
-			  				//(rough) relative position from ref_b (contig of b) to ref_a (contig of a) in the assembled genome
-			  				int gP = Math.abs((alignP + (a.strand ? a.refStart:-a.refStart) - (b.strand?b.refStart:-b.refStart)));
-			  				if(GraphUtil.approxCompare(gP, a.node.getNumber("len")) ==0 ) { //circular
-			  					lastMap.put(a.readID, a);
-			  					investigating=continueing=false; //terminate sequencing this one
-			  				}else {
-			  				  	//just another fragmented alignment of a same contig
-						  		logger.debug("...read {} with same contig alignment: continue", a.readID);
-			  				  	responseObserver.onNext(ResponseAssembly.newBuilder().setUsefulness(continueing).setReadId(request.getReadId()).build());
-			  				  	responseObserver.onCompleted();
-			  				  	return;
-			  				}
-			  			}
-			  			
-			  			//3. estimate distance to the end of this unique contig to calculate usefulness
-			  			if(investigating) {
-			  				int eLen = a.readAlignmentEnd();
-			  				eLen+=(a.strand?a.node.getNumber("len")-a.refEnd:a.refStart);
-			  				
-			  				BDNode prevNode, unqNode;
-			  				prevNode=unqNode=a.node;
-			  				boolean dir=a.strand;
-			  				GoInBetweenBridge brg=BDGraph.bridgesMap.get(unqNode.getId()+(dir?"o":"i"));
-			  				while(brg!=null&&brg.getCompletionLevel()==4) {
-			  					
-			  					if(unqNode==brg.pBridge.getNode0() && dir==brg.pBridge.getDir0()) {
-			  						unqNode=brg.pBridge.getNode1();
-			  						dir=!brg.pBridge.getDir1();
-			  					}else {
-			  						unqNode=brg.pBridge.getNode0();
-			  						dir=!brg.pBridge.getDir0();
-			  					}
-			  					eLen+=brg.steps.getSpanVector().distance(prevNode, unqNode);
-			  					eLen+=unqNode.getNumber("len");
-			  					
-			  					prevNode=unqNode;
-			  					brg=BDGraph.bridgesMap.get(unqNode.getId()+(dir?"o":"i"));
-			  				}
-			  				
-			  				continueing=(eLen < ELEN);//??too simple!
-						  	if(!continueing)
-						  		logger.debug("...read {}, eLen={} is difficult to span next unresolved bridge: stop!", a.readID, eLen);
-						  	else
-						  		logger.debug("...read {}, eLen={} is expected to span next unresoved bridge: continue!", a.readID, eLen);
-			  			}
-			  			
-				  		//4. reduce
-					  	Sequence read = GraphUtil.getNSequence(a.readID, a.readLength); 	
+		  @Override
+		  public StreamObserver<RequestBatch> streamAssemblyContribution(StreamObserver<ResponseAssembly> responseObserver) {
+			  return new BatchStream((ServerCallStreamObserver<ResponseAssembly>) responseObserver);
+		  }
+	  }
 
-			  			
-					  	Callable<ReducePathInfo> callableObj = () -> {
-					  		return new ReducePathInfo(myAss.simGraph.uniqueBridgesFinding(read, hits), a.readID, a.readLength);
-					  	};
-					  	f=executor.submit(callableObj);
-					  	
-//						List<BDPath> paths=myAss.simGraph.uniqueBridgesFinding(read, hits);
-//						if(paths!=null) {
-//						    paths.stream().forEach(p->myAss.simGraph.reduceUniquePath(p));
-//							if(reduceRead.containsKey(a.readID)) {//already used for reduction
-//								myAss.currentBaseCount += a.readLength-reduceRead.get(a.readID);
-//								reduceRead.replace(a.readID, a.readLength);
-//							}else {//new
-//								reduceRead.put(a.readID, a.readLength);
-//								myAss.currentReadCount++;
-//								myAss.currentBaseCount+=a.readLength;
-//							}
-//			
-//						}	
-						
-//						return;
-			  		}
-			  			
+	  /**
+	   * A stream of batches: each decision is sent as soon as it's made, the reductions are left to the reducers
+	   * of the tenants. The next batch is only requested when the client keeps up with the responses.
+	   */
+	  private class BatchStream implements StreamObserver<RequestBatch> {
+		  final ServerCallStreamObserver<ResponseAssembly> responseObserver;
+		  final AtomicBoolean wasReady = new AtomicBoolean(false);
 
-			  	}
-			  	//5. send control signal back to client
-			  	responseObserver.onNext(ResponseAssembly.newBuilder().setUsefulness(continueing).setReadId(request.getReadId()).build());
-			  	
-			  	if(f!=null) {
-			  		try {
-			  			ReducePathInfo result = f.get();
-			  			if(!result.isEmpty()) {
-			  				result.paths.stream().forEach(p->myAss.simGraph.reduceUniquePath(p));
-							if(reduceRead.containsKey(result.readID)) {//already used for reduction
-								myAss.currentBaseCount += result.readLength-reduceRead.get(result.readID);
-								reduceRead.replace(result.readID, result.readLength);
-							}else {//new
-								reduceRead.put(result.readID, result.readLength);
-								myAss.currentReadCount++;
-								myAss.currentBaseCount+=result.readLength;
-							}
-			  			}
-			  		}catch(Exception e) {
-			  			logger.debug(e);
-			  		}
-			  	}
-			  	
-			  	responseObserver.onCompleted();
+		  BatchStream(ServerCallStreamObserver<ResponseAssembly> responseObserver) {
+			  this.responseObserver = responseObserver;
+			  responseObserver.disableAutoInboundFlowControl();
+			  responseObserver.setOnReadyHandler(() -> {
+				  if(responseObserver.isReady() && wasReady.compareAndSet(false, true))
+					  responseObserver.request(1);
+			  });
 		  }
-		  
-		  private ArrayList<Alignment> getAlignmentsFromRequest(RequestAssembly request){
-			  ArrayList<Alignment> retval = new ArrayList<>();
-			  String refID;
-			  for(AlignmentMsg msg:request.getHitsListList()) {
-				  String refName=msg.getTargetName();
-				  refID = refName.split("_").length > 1 ? refName.split("_")[1]:refName;
-				  BDNode node = (BDNode) myAss.simGraph.getNode(refID);
-				  if(node==null)
-					  return retval;
-				  //Convert the hit message to a PAFRecord: [0-based inclusive; 0-based exlusive] -> [1-based inclusive; 1-based inclusive]
-				  PAFRecord record = new PAFRecord(msg.getQueryName(), msg.getQueryLength(), msg.getQueryStart()+1, msg.getQueryEnd(), 
-						  							msg.getStrand(), 
-						  							msg.getTargetName(), msg.getTargetLength(), msg.getTargetStart()+1, msg.getTargetEnd(), 
-						  							msg.getScore(), msg.getQuality());
-				  retval.add(new Alignment(record, node));
-				  
+
+		  @Override
+		  public void onNext(RequestBatch batch) {
+			  long received = System.nanoTime();
+			  for(RequestAssembly request:batch.getRequestsList()) {
+				  AssemblyTenant tenant = tenants.get(request.getSampleId());
+				  //an unknown sample mustn't end the stream of the others: keep sequencing its reads
+				  boolean useful = tenant == null || tenant.decide(request);
+				  if(tenant == null)
+					  logger.debug("No assembly for sample {} of read {}", request.getSampleId(), request.getReadId());
+				  responseObserver.onNext(ResponseAssembly.newBuilder()
+						  					.setReadId(request.getReadId())
+						  					.setUsefulness(useful)
+						  					.setBatchId(batch.getBatchId())
+						  					.setSentTime(batch.getSentTime())
+						  					.setServerLatencyUs((System.nanoTime() - received)/1000)
+						  					.build());
 			  }
-			  
-			  return retval;
+			  logger.debug("Batch {} of {} chunks done in {}us", batch.getBatchId(), batch.getRequestsCount(), (System.nanoTime() - received)/1000);
+
+			  if(responseObserver.isReady())
+				  responseObserver.request(1);
+			  else
+				  wasReady.set(false);
 		  }
-		  
-		  class ReducePathInfo{
-			  List<BDPath> paths = null;
-			  String readID = "";
-			  int  readLength = 0;
-			  ReducePathInfo(List<BDPath> paths, String id, int length){
-				  this.paths = paths;
-				  readID = id;
-				  readLength = length;
-			  }
-			  public boolean isEmpty() {
-				  return paths==null;
-			  }
-			  
+
+		  @Override
+		  public void onError(Throwable t) {
+			  logger.warn("Stream of batches cancelled: {}", Status.fromThrowable(t));
 		  }
-	  }	  
+
+		  @Override
+		  public void onCompleted() {
+			  responseObserver.onCompleted();
+		  }
+	  }
 }
@@ -0,0 +1,443 @@
+package org.rtassembly.npgraph.grpc;
+
+import io.grpc.stub.StreamObserver;
+import japsa.seq.PAFRecord;
+import japsa.seq.Sequence;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.rtassembly.npgraph.Alignment;
+import org.rtassembly.npgraph.BDNode;
+import org.rtassembly.npgraph.BDPath;
+import org.rtassembly.npgraph.GoInBetweenBridge;
+import org.rtassembly.npgraph.GraphUtil;
+import org.rtassembly.npgraph.HybridAssembler;
+
+/*
+ * One assembly (run/sample) hosted by the AssemblyGuideServer: its assembler and graph watcher,
+ * the bridge-finding pool, the per-read state of the read-until decision and the stats.
+ * Tenants share nothing but the JVM so a slow or over-budget sample doesn't hold the others back.
+ *
+ * A decision reads a snapshot of the graph (DecisionSnapshot) and the lock-free bridge registry, so it's
+ * mostly answered right away: only the walk along the completed bridges from a unique contig takes the read lock,
+ * since their steps change with the reductions. The chunks to reduce with go to an ordered backlog: their bridges are found by the pool
+ * and the reducer thread applies them to the graph one by one, in the order they came. The snapshot is refreshed
+ * by a thread of its own so that the copy doesn't hold the backlog up.
+ */
+public class AssemblyTenant {
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+	public static int THREADS=1; //bridge-finding threads per tenant
+	public static int QUEUE_SIZE=256; //pending bridge-finding tasks per tenant, more than that are answered without reduction
+	public static long MAX_MEMORY=0; //estimated memory budget (MB) per tenant, 0 for no limit
+	public static int MEMORY_CHECK_INTERVAL=1000; //re-estimate the memory every this many requests
+	public static int STATS_INTERVAL=10000; //log the stats every this many requests
+	public static int SNAPSHOT_INTERVAL=1000; //ms between refreshes of the graph snapshot for the decisions (when it has changed)
+	static final int READ_ENTRY=160; //rough size (bytes) of a read kept in lastMap/reduceRead
+
+	final String id;
+	final HybridAssembler ass;
+	int elen=AssemblyGuideServer.ELEN;
+	final long maxMemory;
+
+	private final ThreadPoolExecutor executor;
+	private Thread watcher, reducer, snapshotter;
+	private final ArrayBlockingQueue<PendingReduction> backlog; //in the order of submission
+	private volatile boolean reducing=true;
+	private volatile DecisionSnapshot snapshot;
+
+	private final ConcurrentHashMap<String, Alignment> lastMap = new ConcurrentHashMap<>(); //readID to the last unique contig it mapped to
+	private final ConcurrentHashMap<String, Integer> reduceRead = new ConcurrentHashMap<>(); //readID to the length of chunk used to reduce
+
+	final AtomicLong 	requests=new AtomicLong(),
+						stopped=new AtomicLong(), //reads told to stop (unblock)
+						reduced=new AtomicLong(), //chunks used for graph reduction
+						rejected=new AtomicLong(), //chunks not reduced because of a full queue or the memory budget
+						decisionTime=new AtomicLong(), decisionMax=new AtomicLong(), //ns
+						applied=new AtomicLong(), //chunks out of the backlog
+						lagTime=new AtomicLong(), lagMax=new AtomicLong(), //ns from the decision to the reduction
+						backlogMax=new AtomicLong(),
+						failed=new AtomicLong(); //chunks whose bridge finding or reduction threw
+	private volatile boolean overBudget=false;
+	private volatile long memory=0;
+
+	public AssemblyTenant(String id, HybridAssembler ass){
+		this(id, ass, THREADS, MAX_MEMORY*1024*1024);
+	}
+	public AssemblyTenant(String id, HybridAssembler ass, int nThreads, long maxMemory){
+		this.id=id;
+		this.ass=ass;
+		this.maxMemory=maxMemory;
+		AtomicInteger count=new AtomicInteger();
+		executor=new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE),
+										r->{
+											Thread t=new Thread(r, "npgraph-"+getName()+"-bridge-"+count.getAndIncrement());
+											t.setDaemon(true);
+											return t;
+										});
+		backlog=new ArrayBlockingQueue<>(QUEUE_SIZE+nThreads);
+	}
+
+	public String getId(){
+		return id;
+	}
+	String getName(){
+		return id.isEmpty()?"default":id;
+	}
+	public HybridAssembler getAssembler(){
+		return ass;
+	}
+	public void setExpectedLength(int elen){
+		this.elen=elen;
+	}
+
+	synchronized void start(){
+		if(watcher!=null)
+			return;
+		watcher=new Thread(ass.observer, "npgraph-"+getName()+"-watcher");
+		watcher.start();
+		reducer=new Thread(this::reduceLoop, "npgraph-"+getName()+"-reducer");
+		reducer.setDaemon(true);
+		reducer.start();
+		snapshotter=new Thread(this::snapshotLoop, "npgraph-"+getName()+"-snapshot");
+		snapshotter.setDaemon(true);
+		snapshotter.start();
+		logger.info("Assembly {} started with {} bridge-finding thread(s), memory budget={}MB", getName(), executor.getMaximumPoolSize(), maxMemory>>20);
+	}
+
+	synchronized void stop() throws InterruptedException{
+		executor.shutdown();
+		executor.awaitTermination(30, TimeUnit.SECONDS);
+		reducing=false;
+		if(reducer!=null)
+			reducer.join(); //after the backlog is drained
+		reducer=null;
+		if(snapshotter!=null){
+			snapshotter.interrupt();
+			snapshotter.join();
+		}
+		snapshotter=null;
+		if(watcher!=null && watcher.isAlive()){
+			ass.observer.stopWaiting();
+			watcher.join();
+		}
+		watcher=null;
+		logger.info("Assembly {} stopped: {}", getName(), getStats());
+	}
+
+	/*
+	 * The read-until decision for a chunk of a read, the call is completed without waiting for the graph
+	 */
+	void getAssemblyContribution(RequestAssembly request, StreamObserver<ResponseAssembly> responseObserver) {
+	  	boolean useful=decide(request);
+	  	responseObserver.onNext(ResponseAssembly.newBuilder().setUsefulness(useful).setReadId(request.getReadId()).build());
+	  	responseObserver.onCompleted();
+	}
+
+	/*
+	 * Whether to keep sequencing the read of a chunk. The chunk is queued for reduction (if useful for the graph)
+	 * but not waited for.
+	 */
+	boolean decide(RequestAssembly request) {
+		long start=System.nanoTime();
+		try{
+			return decide(request, getSnapshot());
+		}finally{
+			long time=System.nanoTime()-start;
+			decisionTime.addAndGet(time);
+			decisionMax.accumulateAndGet(time, Math::max);
+		}
+	}
+	private boolean decide(RequestAssembly request, DecisionSnapshot snap) {
+	  	ArrayList<Alignment> hits = getAlignmentsFromRequest(request, snap);
+	  	boolean continueing=true;
+	  	long nReq=requests.incrementAndGet();
+	  	if(MEMORY_CHECK_INTERVAL > 0 && nReq%MEMORY_CHECK_INTERVAL==0)
+	  		checkMemory();
+	  	if(STATS_INTERVAL > 0 && nReq%STATS_INTERVAL==0)
+	  		logger.info("Assembly {}: {}", getName(), getStats());
+
+	  	if(hits.size() > 0) {//this should be checked from client side
+	  		Collections.sort(hits);
+	  		Alignment 	a = hits.get(hits.size()-1), //get the last alignment of current hit list
+	  					b = lastMap.get(a.readID); //previous last unique alignment
+	  		//1. compare the last mapped contig, proceed if the same
+	  		//TODO: index repeats of long bridges that already resolved?
+
+	  		//with read chunk shorter than 1000bp, mapping to unique contig cannot be missed
+	  		//when sequentially considering only last Alignment
+	  		if(snap.isUnique(a.node)) {
+	  			//if the same as prevAlg, proceed
+	  			boolean investigating=true;
+	  			if(b==null || a.node != b.node) {
+	  				lastMap.put(a.readID, a);
+	  			}else{
+	  				int alignedReadLen = Math.abs(a.readEnd - a.readStart) + Math.abs(b.readEnd - b.readStart),
+	  					alignedRefLen = Math.abs(a.refEnd - a.refStart) + Math.abs(b.refEnd - b.refStart);
+	  				double rate = 1.0 * alignedRefLen/alignedReadLen;
+
+	  				int alignP = (int) ((b.readStart - a.readStart) * rate);
+	  				//(rough) relative position from ref_b (contig of b) to ref_a (contig of a) in the assembled genome
+	  				int gP = Math.abs((alignP + (a.strand ? a.refStart:-a.refStart) - (b.strand?b.refStart:-b.refStart)));
+	  				if(GraphUtil.approxCompare(gP, snap.length(a.node)) ==0 ) { //circular
+	  					lastMap.put(a.readID, a);
+	  					investigating=continueing=false; //terminate sequencing this one
+	  				}else {
+	  				  	//just another fragmented alignment of a same contig
+				  		logger.debug("...read {} with same contig alignment: continue", a.readID);
+	  				  	return continueing;
+	  				}
+	  			}
+
+	  			//3. estimate distance to the end of this unique contig to calculate usefulness
+	  			if(investigating) {
+	  				int eLen = a.readAlignmentEnd();
+	  				eLen+=(a.strand?snap.length(a.node)-a.refEnd:a.refStart);
+
+	  				eLen+=spanOfCompletedBridges(a.node, a.strand, snap);
+
+	  				continueing=(eLen < elen);//??too simple!
+				  	if(!continueing)
+				  		logger.debug("...read {}, eLen={} is difficult to span next unresolved bridge: stop!", a.readID, eLen);
+				  	else
+				  		logger.debug("...read {}, eLen={} is expected to span next unresoved bridge: continue!", a.readID, eLen);
+	  			}
+
+		  		//4. reduce (unless this tenant is out of its budget)
+			  	if(overBudget)
+			  		rejected.incrementAndGet();
+			  	else
+			  		submit(GraphUtil.getNSequence(a.readID, a.readLength), hits, a);
+	  		}
+	  	}
+	  	if(!continueing)
+	  		stopped.incrementAndGet();
+	  	return continueing;
+	}
+
+	/*
+	 * Length spanned by the completed bridges in a row from a unique contig. The reducer may be changing
+	 * the steps of a bridge, so they're read under the graph's read lock.
+	 */
+	private int spanOfCompletedBridges(BDNode node, boolean strand, DecisionSnapshot snap) {
+		int retval=0;
+		BDNode prevNode, unqNode;
+		prevNode=unqNode=node;
+		boolean dir=strand;
+		ass.simGraph.lockRead();
+		try{
+			GoInBetweenBridge brg=ass.simGraph.getBridges().get(unqNode, dir);
+			while(brg!=null&&brg.getCompletionLevel()==4) {
+
+				if(unqNode==brg.pBridge.getNode0() && dir==brg.pBridge.getDir0()) {
+					unqNode=brg.pBridge.getNode1();
+					dir=!brg.pBridge.getDir1();
+				}else {
+					unqNode=brg.pBridge.getNode0();
+					dir=!brg.pBridge.getDir0();
+				}
+				retval+=brg.steps.getSpanVector().distance(prevNode, unqNode);
+				retval+=snap.length(unqNode);
+
+				prevNode=unqNode;
+				brg=ass.simGraph.getBridges().get(unqNode, dir);
+			}
+		}finally{
+			ass.simGraph.unlockRead();
+		}
+		return retval;
+	}
+
+	/*
+	 * Find the bridges of a chunk in the pool and queue it for the reducer, unless the backlog is full
+	 */
+	private void submit(Sequence read, ArrayList<Alignment> hits, Alignment a) {
+		synchronized(backlog){//the backlog keeps the order of the decisions
+			if(backlog.remainingCapacity()==0) {
+				rejected.incrementAndGet();
+				return;
+			}
+			try{
+				Future<ReducePathInfo> f=executor.submit(() -> new ReducePathInfo(ass.simGraph.uniqueBridgesFinding(read, hits), a.readID, a.readLength));
+				backlog.add(new PendingReduction(f, a.readID));
+			}catch(RejectedExecutionException e){
+				rejected.incrementAndGet();
+				return;
+			}
+		}
+		backlogMax.accumulateAndGet(backlog.size(), Math::max);
+	}
+
+	/*
+	 * The reducer: apply the backlog in order.
+	 * Runs until stop() and the backlog is empty.
+	 */
+	private void reduceLoop() {
+		while(true) {
+			PendingReduction pending;
+			try {
+				pending=backlog.poll(100, TimeUnit.MILLISECONDS);
+			}catch(InterruptedException e) {
+				break;
+			}
+			if(pending!=null)
+				reduce(pending);
+			else if(!reducing)
+				break;
+		}
+	}
+
+	/*
+	 * Refresh the snapshot every SNAPSHOT_INTERVAL if the graph has changed (every write, the reductions included).
+	 * Only the uniqueness of the nodes is copied again, under the read lock: the reductions wait for it at most.
+	 */
+	private void snapshotLoop() {
+		while(true) {
+			try {
+				Thread.sleep(SNAPSHOT_INTERVAL);
+			}catch(InterruptedException e) {
+				break;
+			}
+			DecisionSnapshot snap=snapshot;
+			if(snap==null || snap.isStale())
+				snapshot=DecisionSnapshot.of(ass.simGraph, snap);
+		}
+	}
+
+	/*
+	 * Wait for the bridge finding of a chunk and reduce the graph with its paths
+	 */
+	private void reduce(PendingReduction pending) {
+		try {
+			ReducePathInfo result = pending.reduction.get();
+			if(!result.isEmpty()) {
+				ass.simGraph.lockWrite();
+				try{
+					result.paths.stream().forEach(p->ass.simGraph.reduceUniquePath(p));
+				}finally{
+					ass.simGraph.unlockWrite();
+				}
+				reduced.incrementAndGet();
+				synchronized(reduceRead){
+					Integer prevLength=reduceRead.put(result.readID, result.readLength);
+					if(prevLength!=null)//already used for reduction
+						ass.currentBaseCount += result.readLength-prevLength;
+					else {//new
+						ass.currentReadCount++;
+						ass.currentBaseCount+=result.readLength;
+					}
+				}
+				ass.observer.notifyReads();
+			}
+		}catch(ExecutionException e) {
+			failed.incrementAndGet();
+			logger.warn("Assembly {}: bridge finding of read {} failed", getName(), pending.readID, e.getCause());
+		}catch(InterruptedException e) {
+			failed.incrementAndGet();
+			logger.warn("Assembly {}: interrupted while waiting for read {}", getName(), pending.readID);
+			Thread.currentThread().interrupt();
+		}catch(RuntimeException e) {
+			failed.incrementAndGet();
+			logger.error("Assembly {}: reduction with read {} failed", getName(), pending.readID, e);
+		}
+		applied.incrementAndGet();
+		long lag=System.nanoTime()-pending.queued;
+		lagTime.addAndGet(lag);
+		lagMax.accumulateAndGet(lag, Math::max);
+	}
+
+	private DecisionSnapshot getSnapshot(){
+		DecisionSnapshot retval=snapshot;
+		if(retval==null)//first decision before the reducer's copy
+			synchronized(this){
+				if(snapshot==null)
+					snapshot=DecisionSnapshot.of(ass.simGraph);
+				retval=snapshot;
+			}
+		return retval;
+	}
+
+	private ArrayList<Alignment> getAlignmentsFromRequest(RequestAssembly request, DecisionSnapshot snap){
+		ArrayList<Alignment> retval = new ArrayList<>();
+		for(AlignmentMsg msg:request.getHitsListList()) {
+			BDNode node = snap.getNodeFromTargetName(msg.getTargetName());
+			if(node==null)
+				return retval;
+			//Convert the hit message to a PAFRecord: [0-based inclusive; 0-based exlusive] -> [1-based inclusive; 1-based inclusive]
+			PAFRecord record = new PAFRecord(msg.getQueryName(), msg.getQueryLength(), msg.getQueryStart()+1, msg.getQueryEnd(),
+					  							msg.getStrand(),
+					  							msg.getTargetName(), msg.getTargetLength(), msg.getTargetStart()+1, msg.getTargetEnd(),
+					  							msg.getScore(), msg.getQuality());
+			retval.add(new Alignment(record, node));
+		}
+		return retval;
+	}
+
+	/*
+	 * Estimated memory of the bridges and the per-read state. When over the budget the per-read state is
+	 * dropped first (it only saves some work), then new chunks stop being used for reduction.
+	 */
+	void checkMemory(){
+		memory=ass.simGraph.getBridges().estimateMemory()+(long)READ_ENTRY*(lastMap.size()+reduceRead.size());
+		if(maxMemory <= 0 || memory <= maxMemory){
+			overBudget=false;
+			return;
+		}
+		logger.warn("Assembly {} is over its memory budget ({}MB > {}MB): clearing the per-read state", getName(), memory>>20, maxMemory>>20);
+		lastMap.clear();
+		synchronized(reduceRead){
+			reduceRead.clear();
+		}
+		memory=ass.simGraph.getBridges().estimateMemory();
+		if(memory > maxMemory && !overBudget)
+			logger.warn("Assembly {} is still over its memory budget: new reads won't be used for the graph", getName());
+		overBudget=memory > maxMemory;
+	}
+
+	public String getStats(){
+		long nReq=Math.max(requests.get(), 1), nApplied=Math.max(applied.get(), 1);
+		return String.format("requests=%d stopped=%d reduced=%d rejected=%d failed=%d decision=%d/%dus(avg/max) backlog=%d/%d(now/max) lag=%d/%dms(avg/max) reads=%d bases=%d memory~%dMB%s",
+				requests.get(), stopped.get(), reduced.get(), rejected.get(), failed.get(),
+				decisionTime.get()/nReq/1000, decisionMax.get()/1000,
+				backlog.size(), backlogMax.get(), lagTime.get()/nApplied/1000000, lagMax.get()/1000000,
+				ass.currentReadCount, ass.currentBaseCount, memory>>20, overBudget?" (over budget)":"");
+	}
+
+	static class PendingReduction{
+		final Future<ReducePathInfo> reduction;
+		final String readID;
+		final long queued=System.nanoTime();
+		PendingReduction(Future<ReducePathInfo> reduction, String readID){
+			this.reduction=reduction;
+			this.readID=readID;
+		}
+	}
+
+	static class ReducePathInfo{
+		List<BDPath> paths = null;
+		String readID = "";
+		int  readLength = 0;
+		ReducePathInfo(List<BDPath> paths, String id, int length){
+			this.paths = paths;
+			readID = id;
+			readLength = length;
+		}
+		public boolean isEmpty() {
+			return paths==null;
+		}
+	}
+}
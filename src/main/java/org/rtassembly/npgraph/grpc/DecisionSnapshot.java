@@ -0,0 +1,87 @@
+package org.rtassembly.npgraph.grpc;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.graphstream.graph.Node;
+import org.rtassembly.npgraph.BDGraph;
+import org.rtassembly.npgraph.BDNode;
+import org.rtassembly.npgraph.SimpleBinner;
+
+/*
+ * What the read-until decision needs from a graph (nodes by ID, their length and whether they're unique now),
+ * copied under the read lock and published as a whole. Decisions read it without any lock, so they never wait
+ * for a reduction nor see half of one. It's immutable: a newer graph means a new copy.
+ *
+ * The nodes and their lengths are fixed once the graph is loaded (reductions only remove edges and nodes):
+ * they are copied once and shared by the next snapshots, only the unique nodes are copied again.
+ */
+class DecisionSnapshot {
+	final BDGraph graph;
+	final long version, promotions; //of the graph when copied
+	final long time; //copied at (ms)
+	private final Catalog catalog;
+	private final HashSet<BDNode> unique=new HashSet<>();
+
+	private static class Catalog{
+		final HashMap<String, BDNode> nodes=new HashMap<>(); //by ID
+		final HashMap<BDNode, Integer> lengths=new HashMap<>();
+		Catalog(BDGraph graph){
+			for(Node n:graph){
+				BDNode node=(BDNode) n;
+				nodes.put(node.getId(), node);
+				lengths.put(node, (int) node.getNumber("len"));
+			}
+		}
+	}
+
+	private DecisionSnapshot(BDGraph graph, long version, long promotions, Catalog catalog){
+		this.graph=graph;
+		this.version=version;
+		this.promotions=promotions;
+		this.catalog=catalog;
+		time=System.currentTimeMillis();
+	}
+
+	static DecisionSnapshot of(BDGraph graph){
+		return of(graph, null);
+	}
+	/*
+	 * A new snapshot of the graph, with the nodes of the previous one if any
+	 */
+	static DecisionSnapshot of(BDGraph graph, DecisionSnapshot previous){
+		graph.lockRead();
+		try{
+			Catalog catalog=previous!=null && previous.graph==graph?previous.catalog:new Catalog(graph);
+			DecisionSnapshot retval=new DecisionSnapshot(graph, graph.getVersion(), graph.getPromotions(), catalog);
+			for(Node n:graph){
+				BDNode node=(BDNode) n;
+				if(!catalog.lengths.containsKey(node)) //not expected after loading, but then copy them all again
+					return of(graph, null);
+				if(SimpleBinner.peekBinIfUniqueNow(node)!=null) //copying must not change the graph
+					retval.unique.add(node);
+			}
+			return retval;
+		}finally{
+			graph.unlockRead();
+		}
+	}
+
+	//nodes found unique by long reads don't wait for a write lock (see BDGraph.getUniqueBinFromLongReads())
+	boolean isStale(){
+		return version!=graph.getVersion() || promotions!=graph.getPromotions();
+	}
+	BDNode getNodeFromTargetName(String targetName){
+		return catalog.nodes.get(graph.getIDFromTargetName(targetName));
+	}
+	int length(BDNode node){
+		Integer len=catalog.lengths.get(node);
+		return len==null?0:len;
+	}
+	boolean isUnique(BDNode node){
+		return unique.contains(node);
+	}
+	int size(){
+		return catalog.nodes.size();
+	}
+}
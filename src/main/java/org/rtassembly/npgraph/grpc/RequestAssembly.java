@@ -22,6 +22,7 @@ private static final long serialVersionUID = 0L;
   private RequestAssembly() {
     readId_ = "";
     hitsList_ = java.util.Collections.emptyList();
+    sampleId_ = "";
   }
 
   @java.lang.Override
@@ -70,6 +71,12 @@ private static final long serialVersionUID = 0L;
                 input.readMessage(org.rtassembly.npgraph.grpc.AlignmentMsg.parser(), extensionRegistry));
             break;
           }
+          case 26: {
+            java.lang.String s = input.readStringRequireUtf8();
+
+            sampleId_ = s;
+            break;
+          }
           default: {
             if (!parseUnknownField(
                 input, unknownFields, extensionRegistry, tag)) {
@@ -176,6 +183,42 @@ private static final long serialVersionUID = 0L;
     return hitsList_.get(index);
   }
 
+  public static final int SAMPLE_ID_FIELD_NUMBER = 3;
+  private volatile java.lang.Object sampleId_;
+  /**
+   * <code>string sample_id = 3;</code>
+   * @return The sampleId.
+   */
+  public java.lang.String getSampleId() {
+    java.lang.Object ref = sampleId_;
+    if (ref instanceof java.lang.String) {
+      return (java.lang.String) ref;
+    } else {
+      com.google.protobuf.ByteString bs = 
+          (com.google.protobuf.ByteString) ref;
+      java.lang.String s = bs.toStringUtf8();
+      sampleId_ = s;
+      return s;
+    }
+  }
+  /**
+   * <code>string sample_id = 3;</code>
+   * @return The bytes for sampleId.
+   */
+  public com.google.protobuf.ByteString
+      getSampleIdBytes() {
+    java.lang.Object ref = sampleId_;
+    if (ref instanceof java.lang.String) {
+      com.google.protobuf.ByteString b = 
+          com.google.protobuf.ByteString.copyFromUtf8(
+              (java.lang.String) ref);
+      sampleId_ = b;
+      return b;
+    } else {
+      return (com.google.protobuf.ByteString) ref;
+    }
+  }
+
   private byte memoizedIsInitialized = -1;
   @java.lang.Override
   public final boolean isInitialized() {
@@ -196,6 +239,9 @@ private static final long serialVersionUID = 0L;
     for (int i = 0; i < hitsList_.size(); i++) {
       output.writeMessage(2, hitsList_.get(i));
     }
+    if (!getSampleIdBytes().isEmpty()) {
+      com.google.protobuf.GeneratedMessageV3.writeString(output, 3, sampleId_);
+    }
     unknownFields.writeTo(output);
   }
 
@@ -212,6 +258,9 @@ private static final long serialVersionUID = 0L;
       size += com.google.protobuf.CodedOutputStream
         .computeMessageSize(2, hitsList_.get(i));
     }
+    if (!getSampleIdBytes().isEmpty()) {
+      size += com.google.protobuf.GeneratedMessageV3.computeStringSize(3, sampleId_);
+    }
     size += unknownFields.getSerializedSize();
     memoizedSize = size;
     return size;
@@ -231,6 +280,8 @@ private static final long serialVersionUID = 0L;
         .equals(other.getReadId())) return false;
     if (!getHitsListList()
         .equals(other.getHitsListList())) return false;
+    if (!getSampleId()
+        .equals(other.getSampleId())) return false;
     if (!unknownFields.equals(other.unknownFields)) return false;
     return true;
   }
@@ -248,6 +299,8 @@ private static final long serialVersionUID = 0L;
       hash = (37 * hash) + HITS_LIST_FIELD_NUMBER;
       hash = (53 * hash) + getHitsListList().hashCode();
     }
+    hash = (37 * hash) + SAMPLE_ID_FIELD_NUMBER;
+    hash = (53 * hash) + getSampleId().hashCode();
     hash = (29 * hash) + unknownFields.hashCode();
     memoizedHashCode = hash;
     return hash;
@@ -394,6 +447,8 @@ private static final long serialVersionUID = 0L;
       } else {
         hitsListBuilder_.clear();
       }
+      sampleId_ = "";
+
       return this;
     }
 
@@ -431,6 +486,7 @@ private static final long serialVersionUID = 0L;
       } else {
         result.hitsList_ = hitsListBuilder_.build();
       }
+      result.sampleId_ = sampleId_;
       onBuilt();
       return result;
     }
@@ -509,6 +565,10 @@ private static final long serialVersionUID = 0L;
           }
         }
       }
+      if (!other.getSampleId().isEmpty()) {
+        sampleId_ = other.sampleId_;
+        onChanged();
+      }
       this.mergeUnknownFields(other.unknownFields);
       onChanged();
       return this;
@@ -854,6 +914,82 @@ private static final long serialVersionUID = 0L;
       }
       return hitsListBuilder_;
     }
+    private java.lang.Object sampleId_ = "";
+    /**
+     * <code>string sample_id = 3;</code>
+     * @return The sampleId.
+     */
+    public java.lang.String getSampleId() {
+      java.lang.Object ref = sampleId_;
+      if (!(ref instanceof java.lang.String)) {
+        com.google.protobuf.ByteString bs =
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        sampleId_ = s;
+        return s;
+      } else {
+        return (java.lang.String) ref;
+      }
+    }
+    /**
+     * <code>string sample_id = 3;</code>
+     * @return The bytes for sampleId.
+     */
+    public com.google.protobuf.ByteString
+        getSampleIdBytes() {
+      java.lang.Object ref = sampleId_;
+      if (ref instanceof String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        sampleId_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+    /**
+     * <code>string sample_id = 3;</code>
+     * @param value The sampleId to set.
+     * @return This builder for chaining.
+     */
+    public Builder setSampleId(
+        java.lang.String value) {
+      if (value == null) {
+    throw new NullPointerException();
+  }
+  
+      sampleId_ = value;
+      onChanged();
+      return this;
+    }
+    /**
+     * <code>string sample_id = 3;</code>
+     * @return This builder for chaining.
+     */
+    public Builder clearSampleId() {
+      
+      sampleId_ = getDefaultInstance().getSampleId();
+      onChanged();
+      return this;
+    }
+    /**
+     * <code>string sample_id = 3;</code>
+     * @param value The bytes for sampleId to set.
+     * @return This builder for chaining.
+     */
+    public Builder setSampleIdBytes(
+        com.google.protobuf.ByteString value) {
+      if (value == null) {
+    throw new NullPointerException();
+  }
+  checkByteStringIsUtf8(value);
+      
+      sampleId_ = value;
+      onChanged();
+      return this;
+    }
+
     @java.lang.Override
     public final Builder setUnknownFields(
         final com.google.protobuf.UnknownFieldSet unknownFields) {
@@ -42,4 +42,16 @@ public interface RequestAssemblyOrBuilder extends
    */
   org.rtassembly.npgraph.grpc.AlignmentMsgOrBuilder getHitsListOrBuilder(
       int index);
+
+  /**
+   * <code>string sample_id = 3;</code>
+   * @return The sampleId.
+   */
+  java.lang.String getSampleId();
+  /**
+   * <code>string sample_id = 3;</code>
+   * @return The bytes for sampleId.
+   */
+  com.google.protobuf.ByteString
+      getSampleIdBytes();
 }
@@ -64,6 +64,21 @@ private static final long serialVersionUID = 0L;
             usefulness_ = input.readBool();
             break;
           }
+          case 24: {
+
+            batchId_ = input.readInt64();
+            break;
+          }
+          case 32: {
+
+            sentTime_ = input.readInt64();
+            break;
+          }
+          case 40: {
+
+            serverLatencyUs_ = input.readInt64();
+            break;
+          }
           default: {
             if (!parseUnknownField(
                 input, unknownFields, extensionRegistry, tag)) {
@@ -142,6 +157,36 @@ private static final long serialVersionUID = 0L;
     return usefulness_;
   }
 
+  public static final int BATCH_ID_FIELD_NUMBER = 3;
+  private long batchId_;
+  /**
+   * <code>int64 batch_id = 3;</code>
+   * @return The batchId.
+   */
+  public long getBatchId() {
+    return batchId_;
+  }
+
+  public static final int SENT_TIME_FIELD_NUMBER = 4;
+  private long sentTime_;
+  /**
+   * <code>int64 sent_time = 4;</code>
+   * @return The sentTime.
+   */
+  public long getSentTime() {
+    return sentTime_;
+  }
+
+  public static final int SERVER_LATENCY_US_FIELD_NUMBER = 5;
+  private long serverLatencyUs_;
+  /**
+   * <code>int64 server_latency_us = 5;</code>
+   * @return The serverLatencyUs.
+   */
+  public long getServerLatencyUs() {
+    return serverLatencyUs_;
+  }
+
   private byte memoizedIsInitialized = -1;
   @java.lang.Override
   public final boolean isInitialized() {
@@ -162,6 +207,15 @@ private static final long serialVersionUID = 0L;
     if (usefulness_ != false) {
       output.writeBool(2, usefulness_);
     }
+    if (batchId_ != 0L) {
+      output.writeInt64(3, batchId_);
+    }
+    if (sentTime_ != 0L) {
+      output.writeInt64(4, sentTime_);
+    }
+    if (serverLatencyUs_ != 0L) {
+      output.writeInt64(5, serverLatencyUs_);
+    }
     unknownFields.writeTo(output);
   }
 
@@ -178,6 +232,18 @@ private static final long serialVersionUID = 0L;
       size += com.google.protobuf.CodedOutputStream
         .computeBoolSize(2, usefulness_);
     }
+    if (batchId_ != 0L) {
+      size += com.google.protobuf.CodedOutputStream
+        .computeInt64Size(3, batchId_);
+    }
+    if (sentTime_ != 0L) {
+      size += com.google.protobuf.CodedOutputStream
+        .computeInt64Size(4, sentTime_);
+    }
+    if (serverLatencyUs_ != 0L) {
+      size += com.google.protobuf.CodedOutputStream
+        .computeInt64Size(5, serverLatencyUs_);
+    }
     size += unknownFields.getSerializedSize();
     memoizedSize = size;
     return size;
@@ -197,6 +263,12 @@ private static final long serialVersionUID = 0L;
         .equals(other.getReadId())) return false;
     if (getUsefulness()
         != other.getUsefulness()) return false;
+    if (getBatchId()
+        != other.getBatchId()) return false;
+    if (getSentTime()
+        != other.getSentTime()) return false;
+    if (getServerLatencyUs()
+        != other.getServerLatencyUs()) return false;
     if (!unknownFields.equals(other.unknownFields)) return false;
     return true;
   }
@@ -213,6 +285,15 @@ private static final long serialVersionUID = 0L;
     hash = (37 * hash) + USEFULNESS_FIELD_NUMBER;
     hash = (53 * hash) + com.google.protobuf.Internal.hashBoolean(
         getUsefulness());
+    hash = (37 * hash) + BATCH_ID_FIELD_NUMBER;
+    hash = (53 * hash) + com.google.protobuf.Internal.hashLong(
+        getBatchId());
+    hash = (37 * hash) + SENT_TIME_FIELD_NUMBER;
+    hash = (53 * hash) + com.google.protobuf.Internal.hashLong(
+        getSentTime());
+    hash = (37 * hash) + SERVER_LATENCY_US_FIELD_NUMBER;
+    hash = (53 * hash) + com.google.protobuf.Internal.hashLong(
+        getServerLatencyUs());
     hash = (29 * hash) + unknownFields.hashCode();
     memoizedHashCode = hash;
     return hash;
@@ -354,6 +435,12 @@ private static final long serialVersionUID = 0L;
 
       usefulness_ = false;
 
+      batchId_ = 0L;
+
+      sentTime_ = 0L;
+
+      serverLatencyUs_ = 0L;
+
       return this;
     }
 
@@ -382,6 +469,9 @@ private static final long serialVersionUID = 0L;
       org.rtassembly.npgraph.grpc.ResponseAssembly result = new org.rtassembly.npgraph.grpc.ResponseAssembly(this);
       result.readId_ = readId_;
       result.usefulness_ = usefulness_;
+      result.batchId_ = batchId_;
+      result.sentTime_ = sentTime_;
+      result.serverLatencyUs_ = serverLatencyUs_;
       onBuilt();
       return result;
     }
@@ -437,6 +527,15 @@ private static final long serialVersionUID = 0L;
       if (other.getUsefulness() != false) {
         setUsefulness(other.getUsefulness());
       }
+      if (other.getBatchId() != 0L) {
+        setBatchId(other.getBatchId());
+      }
+      if (other.getSentTime() != 0L) {
+        setSentTime(other.getSentTime());
+      }
+      if (other.getServerLatencyUs() != 0L) {
+        setServerLatencyUs(other.getServerLatencyUs());
+      }
       this.mergeUnknownFields(other.unknownFields);
       onChanged();
       return this;
@@ -571,6 +670,96 @@ private static final long serialVersionUID = 0L;
       onChanged();
       return this;
     }
+
+    private long batchId_ ;
+    /**
+     * <code>int64 batch_id = 3;</code>
+     * @return The batchId.
+     */
+    public long getBatchId() {
+      return batchId_;
+    }
+    /**
+     * <code>int64 batch_id = 3;</code>
+     * @param value The batchId to set.
+     * @return This builder for chaining.
+     */
+    public Builder setBatchId(long value) {
+      
+      batchId_ = value;
+      onChanged();
+      return this;
+    }
+    /**
+     * <code>int64 batch_id = 3;</code>
+     * @return This builder for chaining.
+     */
+    public Builder clearBatchId() {
+      
+      batchId_ = 0L;
+      onChanged();
+      return this;
+    }
+
+    private long sentTime_ ;
+    /**
+     * <code>int64 sent_time = 4;</code>
+     * @return The sentTime.
+     */
+    public long getSentTime() {
+      return sentTime_;
+    }
+    /**
+     * <code>int64 sent_time = 4;</code>
+     * @param value The sentTime to set.
+     * @return This builder for chaining.
+     */
+    public Builder setSentTime(long value) {
+      
+      sentTime_ = value;
+      onChanged();
+      return this;
+    }
+    /**
+     * <code>int64 sent_time = 4;</code>
+     * @return This builder for chaining.
+     */
+    public Builder clearSentTime() {
+      
+      sentTime_ = 0L;
+      onChanged();
+      return this;
+    }
+
+    private long serverLatencyUs_ ;
+    /**
+     * <code>int64 server_latency_us = 5;</code>
+     * @return The serverLatencyUs.
+     */
+    public long getServerLatencyUs() {
+      return serverLatencyUs_;
+    }
+    /**
+     * <code>int64 server_latency_us = 5;</code>
+     * @param value The serverLatencyUs to set.
+     * @return This builder for chaining.
+     */
+    public Builder setServerLatencyUs(long value) {
+      
+      serverLatencyUs_ = value;
+      onChanged();
+      return this;
+    }
+    /**
+     * <code>int64 server_latency_us = 5;</code>
+     * @return This builder for chaining.
+     */
+    public Builder clearServerLatencyUs() {
+      
+      serverLatencyUs_ = 0L;
+      onChanged();
+      return this;
+    }
     @java.lang.Override
     public final Builder setUnknownFields(
         final com.google.protobuf.UnknownFieldSet unknownFields) {
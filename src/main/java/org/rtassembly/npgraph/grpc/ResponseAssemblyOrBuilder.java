@@ -24,4 +24,22 @@ public interface ResponseAssemblyOrBuilder extends
    * @return The usefulness.
    */
   boolean getUsefulness();
+
+  /**
+   * <code>int64 batch_id = 3;</code>
+   * @return The batchId.
+   */
+  long getBatchId();
+
+  /**
+   * <code>int64 sent_time = 4;</code>
+   * @return The sentTime.
+   */
+  long getSentTime();
+
+  /**
+   * <code>int64 server_latency_us = 5;</code>
+   * @return The serverLatencyUs.
+   */
+  long getServerLatencyUs();
 }
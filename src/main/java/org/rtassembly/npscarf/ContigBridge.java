@@ -42,6 +42,7 @@ import japsa.seq.JapsaAnnotation;
 import japsa.seq.JapsaFeature;
 import japsa.seq.Sequence;
 import japsa.seq.SequenceBuilder;
+import japsa.seq.SequenceView;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.BitSet;
@@ -1249,7 +1250,7 @@ public class ContigBridge implements Comparable<ContigBridge>{
 						anno.add(feature);
 
 						
-						seqBuilder.append(contig.contigSequence.subSequence(refLeft - 1, refRight));
+						seqBuilder.append(contig.contigSequence, refLeft - 1, refRight);
 						//count the appearance by 1 more
 						ScaffoldGraph.oneMore(contig);
 						if(ScaffoldGraph.verbose)
@@ -1276,7 +1277,7 @@ public class ContigBridge implements Comparable<ContigBridge>{
 						feature.addDesc(contig.getName() + "-("+(refRight ) +"," + refLeft+")");
 						anno.add(feature);
 						
-						seqBuilder.append(Alphabet.DNA.complement(contig.contigSequence.subSequence(refRight - 1, refLeft)));
+						seqBuilder.append(SequenceView.reverseComplement(contig.contigSequence, refRight - 1, refLeft));
 						//count the appearance by 1 more
 						ScaffoldGraph.oneMore(contig);
 						
@@ -1308,7 +1309,7 @@ public class ContigBridge implements Comparable<ContigBridge>{
 						feature.addDesc(contig.getName() + "+("+(refLeft ) +"," + refRight+")");
 						anno.add(feature);
 						
-						seqBuilder.append(contig.contigSequence.subSequence(refLeft - 1, refRight));
+						seqBuilder.append(contig.contigSequence, refLeft - 1, refRight);
 						//count the appearance by 1 more
 						ScaffoldGraph.oneMore(contig);
 						
@@ -1335,7 +1336,7 @@ public class ContigBridge implements Comparable<ContigBridge>{
 						feature.addDesc(contig.getName() + "-("+(refRight ) +"," + refLeft+")");
 						anno.add(feature);
 						
-						seqBuilder.append(Alphabet.DNA.complement(contig.contigSequence.subSequence(refRight - 1, refLeft)));
+						seqBuilder.append(SequenceView.reverseComplement(contig.contigSequence, refRight - 1, refLeft));
 						//count the appearance by 1 more
 						ScaffoldGraph.oneMore(contig);
 						
@@ -131,6 +131,7 @@ public class RealtimeScaffolding {
 						currentReadCount ++;
 						currentBaseCount += rec.getReadLength();
 					}
+					scaffolder.notifyReads();
 				}
 				continue;		
 			}
@@ -158,6 +159,7 @@ public class RealtimeScaffolding {
 					currentReadCount ++;
 					currentBaseCount += rec.getReadLength();
 				}
+				scaffolder.notifyReads();
 			}
 
 			samList.add(myRec);
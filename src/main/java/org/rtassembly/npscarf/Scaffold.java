@@ -38,6 +38,7 @@ import japsa.seq.Alphabet;
 import japsa.seq.JapsaAnnotation;
 import japsa.seq.JapsaFeature;
 import japsa.seq.SequenceBuilder;
+import japsa.seq.SequenceView;
 import japsa.seq.SequenceOutputStream;
 
 import java.io.BufferedWriter;
@@ -417,7 +418,7 @@ public final class Scaffold extends LinkedList<Contig>{
 				if(ScaffoldGraph.verbose)
 					System.out.println("Append " + leftContig.getName() + ": " + startLeft + " to " + (endLeft-1));
 				
-				seq.append(leftContig.contigSequence.subSequence(startLeft, endLeft));
+				seq.append(leftContig.contigSequence, startLeft, endLeft);
 				//seq.append(leftContig.contigSequence.subSequence(startLeft-1, endLeft));
 
 			}else{
@@ -431,7 +432,7 @@ public final class Scaffold extends LinkedList<Contig>{
 				if(ScaffoldGraph.verbose)
 					System.out.println("Append RC of " + leftContig.getName() + ": " + endLeft + " to " + (startLeft-1));
 
-				seq.append(Alphabet.DNA.complement(leftContig.contigSequence.subSequence(endLeft, startLeft)));
+				seq.append(SequenceView.reverseComplement(leftContig.contigSequence, endLeft, startLeft));
 				//seq.append(Alphabet.DNA.complement(leftContig.contigSequence.subSequence(endLeft-1, startLeft)));
 			}			
 			//count the appearance by 1 more
@@ -475,7 +476,7 @@ public final class Scaffold extends LinkedList<Contig>{
 			if(ScaffoldGraph.verbose)
 				System.out.println("Append " + leftContig.getName() + ": " + startLeft + " to " + (endLeft-1));
 
-			seq.append(leftContig.contigSequence.subSequence(startLeft, endLeft));
+			seq.append(leftContig.contigSequence, startLeft, endLeft);
 
 			//seq.append(leftContig.contigSequence.subSequence(startLeft - 1, endLeft));
 		}else{
@@ -488,7 +489,7 @@ public final class Scaffold extends LinkedList<Contig>{
 			
 			if(ScaffoldGraph.verbose)
 				System.out.println("Append RC of " + leftContig.getName() + ": " + endLeft + " to " + (startLeft-1));
-			seq.append(Alphabet.DNA.complement(leftContig.contigSequence.subSequence(endLeft, startLeft)));
+			seq.append(SequenceView.reverseComplement(leftContig.contigSequence, endLeft, startLeft));
 
 			//seq.append(Alphabet.DNA.complement(leftContig.contigSequence.subSequence(endLeft - 1, startLeft)));
 		}
@@ -594,9 +595,9 @@ public final class Scaffold extends LinkedList<Contig>{
 			/**********************************************************************************************/
 
 			if (startLeft<endLeft)			
-				seq.append(leftContig.contigSequence.subSequence(startLeft, endLeft));
+				seq.append(leftContig.contigSequence, startLeft, endLeft);
 			else
-				seq.append(Alphabet.DNA.complement(leftContig.contigSequence.subSequence(endLeft, startLeft)));
+				seq.append(SequenceView.reverseComplement(leftContig.contigSequence, endLeft, startLeft));
 			//count the appearance by 1 more
 			ScaffoldGraph.oneMore(leftContig);
 
@@ -641,10 +642,10 @@ public final class Scaffold extends LinkedList<Contig>{
 		/**********************************************************************************************/
 
 		if (startLeft<endLeft)			
-			seq.append(leftContig.contigSequence.subSequence(startLeft, endLeft));
+			seq.append(leftContig.contigSequence, startLeft, endLeft);
 
 		else
-			seq.append(Alphabet.DNA.complement(leftContig.contigSequence.subSequence(endLeft, startLeft)));
+			seq.append(SequenceView.reverseComplement(leftContig.contigSequence, endLeft, startLeft));
 		//count the appearance by 1 more
 		ScaffoldGraph.oneMore(leftContig);
 		
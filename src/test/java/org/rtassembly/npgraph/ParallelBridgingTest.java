@@ -0,0 +1,43 @@
+package org.rtassembly.npgraph;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/*
+ * Stress of the graph and bridge locking: bridge finding of many reads in parallel, not waiting for the reduction
+ * of the previous reads (STRICT_ORDER off). The fixture has no conflicting evidence, so whatever the order the
+ * reads are merged in, the final graph and bridges must be the serial ones.
+ */
+public class ParallelBridgingTest {
+	@Rule
+	public TemporaryFolder tmp=new TemporaryFolder();
+
+	private static boolean cacheEnabled, strictOrder;
+
+	@BeforeClass
+	public static void setUp(){
+		cacheEnabled=GraphCache.ENABLED;
+		strictOrder=ReadPipeline.STRICT_ORDER;
+		GraphCache.ENABLED=false;
+	}
+	@AfterClass
+	public static void tearDown(){
+		GraphCache.ENABLED=cacheEnabled;
+		ReadPipeline.STRICT_ORDER=strictOrder;
+	}
+
+	@Test
+	public void parallelMatchesSerial() throws Exception{
+		PipelineFixture fixture=new PipelineFixture(tmp.getRoot(), 2, 200);
+		fixture.write();
+		String expected=ReadPipelineTest.serial(fixture);
+		ReadPipeline.STRICT_ORDER=false;
+		for(int i=0;i<10;i++)
+			assertEquals("run " + i, expected, ReadPipelineTest.pipelined(fixture, 8));
+	}
+}
@@ -0,0 +1,122 @@
+package org.rtassembly.npgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Node;
+import org.rtassembly.npgraph.AlignmentSource.ReadAlignments;
+
+/*
+ * Small assembly graph with a repeat and long-read alignments resolving it, written as GFA + PAF:
+ * two genomes u1-r-u3 and u2-r-u4 share the repeat r, the contigs overlap by K as in a de Bruijn graph.
+ * Reads span r with both unique flanks, on both strands, interleaved between the genomes.
+ */
+class PipelineFixture {
+	static final String GFA="graph.gfa", PAF="reads.paf";
+	static final int K=55, UNIQUE_LEN=12000, REPEAT_LEN=2000, READS=25;
+
+	final File dir;
+	final int reads; //per genome
+	private final Random rand;
+
+	PipelineFixture(File dir, long seed){
+		this(dir, seed, READS);
+	}
+	PipelineFixture(File dir, long seed, int reads){
+		this.dir=dir;
+		this.reads=reads;
+		rand=new Random(seed);
+	}
+
+	void write() throws IOException{
+		String r=random(REPEAT_LEN);
+		String[] u=new String[4];
+		for(int i=0;i<u.length;i++)
+			u[i]=random(UNIQUE_LEN);
+		//contigs 1,2 -> 3 (repeat) -> 4,5
+		String[] contigs={u[0]+r.substring(0, K), u[1]+r.substring(0, K), r, r.substring(REPEAT_LEN-K)+u[2], r.substring(REPEAT_LEN-K)+u[3]};
+		try(PrintWriter gfa=new PrintWriter(new File(dir, GFA))){
+			gfa.println("H\tVN:Z:1.0");
+			for(int i=0;i<contigs.length;i++){
+				int cov=i==2?60:30;
+				gfa.printf("S\t%d\t%s\tKC:i:%d\n", i+1, contigs[i], cov*(contigs[i].length()-K));
+			}
+			gfa.printf("L\t1\t+\t3\t+\t%dM\n", K);
+			gfa.printf("L\t2\t+\t3\t+\t%dM\n", K);
+			gfa.printf("L\t3\t+\t4\t+\t%dM\n", K);
+			gfa.printf("L\t3\t+\t5\t+\t%dM\n", K);
+		}
+		//contig -> start in its genome
+		int[][] placement={{1, 0}, {3, UNIQUE_LEN}, {4, UNIQUE_LEN+REPEAT_LEN-K}};
+		try(PrintWriter paf=new PrintWriter(new File(dir, PAF))){
+			for(int n=0;n<reads;n++){
+				for(int g=0;g<2;g++){
+					int start=UNIQUE_LEN-1000-rand.nextInt(3000),
+						end=start+7000+rand.nextInt(2000);
+					boolean strand=rand.nextBoolean();
+					String name="read_"+g+"_"+n;
+					for(int[] p:placement){
+						int id=p[0]==1?1+g:p[0]==4?4+g:3;
+						int cStart=p[1], cEnd=cStart+contigs[id-1].length(),
+							a=Math.max(start, cStart), b=Math.min(end, cEnd);
+						if(a>=b)
+							continue;
+						int qs=strand?a-start:end-b, qe=strand?b-start:end-a;
+						paf.printf("%s\t%d\t%d\t%d\t%s\t%d\t%d\t%d\t%d\t%d\t%d\t60\tcg:Z:%dM\n",
+									name, end-start, qs, qe, strand?"+":"-", id, contigs[id-1].length(), a-cStart, b-cStart, b-a, b-a, b-a);
+					}
+				}
+			}
+		}
+	}
+
+	private String random(int length){
+		StringBuilder seq=new StringBuilder(length);
+		for(int i=0;i<length;i++)
+			seq.append("ACGT".charAt(rand.nextInt(4)));
+		return seq.toString();
+	}
+
+	/*
+	 * The graph loaded (binned) from the GFA, nothing reduced yet
+	 */
+	HybridAssembler load(){
+		HybridAssembler hAss=new HybridAssembler();
+		hAss.input.setShortReadsInput(new File(dir, GFA).getPath());
+		hAss.setPrefix(dir.getPath());
+		AlignedRead.tmpFolder=dir.getPath();
+		if(!hAss.prepareShortReadsProcess())
+			throw new IllegalStateException("Cannot load " + GFA);
+		return hAss;
+	}
+
+	/*
+	 * Alignments of the reads grouped as the ingestion sees them, in input order
+	 */
+	List<ReadAlignments> reads(HybridAssembler hAss) throws IOException, InterruptedException{
+		List<ReadAlignments> retval=new ArrayList<>();
+		try(AlignmentSource source=PAFAlignmentSource.open(new File(dir, PAF).getPath(), hAss.simGraph)){
+			List<ReadAlignments> batch;
+			while(!(batch=source.nextBatch()).isEmpty())
+				retval.addAll(batch);
+		}
+		return retval;
+	}
+
+	/*
+	 * Nodes, edges and bridges (with their completion) of a graph, sorted so that equal graphs give equal strings
+	 */
+	static String dump(BDGraph graph){
+		return "nodes: " + graph.nodes().map(Node::getId).sorted().collect(Collectors.joining(" "))
+			+ "\nedges: " + graph.edges().map(Edge::getId).sorted().collect(Collectors.joining(" "))
+			+ "\nbridges: " + graph.getBridges().bridges()
+									.map(b->b.getEndingsID()+"@"+b.getCompletionLevel()+"/"+b.getNumberOfAnchors())
+									.sorted().collect(Collectors.joining(" "));
+	}
+}
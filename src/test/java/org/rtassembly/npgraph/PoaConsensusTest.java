@@ -0,0 +1,114 @@
+package org.rtassembly.npgraph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import japsa.seq.Alphabet;
+import japsa.seq.Sequence;
+
+/*
+ * The builtin consensus (PoaConsensus) on noisy copies of a known random sequence
+ */
+public class PoaConsensusTest {
+	private static final String BASES="ACGT";
+
+	private int band;
+	private final Random random=new Random(17);
+
+	@Before
+	public void setUp(){
+		band=PoaConsensus.BAND;
+	}
+	@After
+	public void tearDown(){
+		PoaConsensus.BAND=band;
+	}
+
+	private String randomSequence(int len){
+		StringBuilder sb=new StringBuilder(len);
+		for(int i=0;i<len;i++)
+			sb.append(BASES.charAt(random.nextInt(4)));
+		return sb.toString();
+	}
+	//substitutions, insertions and deletions, each at the given rate
+	private String mutate(String truth, double rate){
+		StringBuilder sb=new StringBuilder(truth.length());
+		for(int i=0;i<truth.length();i++){
+			double r=random.nextDouble();
+			if(r<rate) //substitution
+				sb.append(BASES.charAt((BASES.indexOf(truth.charAt(i))+1+random.nextInt(3))%4));
+			else if(r<2*rate) //insertion
+				sb.append(truth.charAt(i)).append(BASES.charAt(random.nextInt(4)));
+			else if(r>=3*rate) //otherwise deletion
+				sb.append(truth.charAt(i));
+		}
+		return sb.toString();
+	}
+	private List<Sequence> reads(String truth, int count, double rate){
+		List<Sequence> retval=new ArrayList<>();
+		for(int i=0;i<count;i++)
+			retval.add(new Sequence(Alphabet.DNA(), mutate(truth, rate), "read"+i));
+		return retval;
+	}
+	static int editDistance(String a, String b){
+		int[] prev=new int[b.length()+1], cur=new int[b.length()+1];
+		for(int j=0;j<=b.length();j++)
+			prev[j]=j;
+		for(int i=1;i<=a.length();i++){
+			cur[0]=i;
+			for(int j=1;j<=b.length();j++)
+				cur[j]=Math.min(prev[j-1]+(a.charAt(i-1)==b.charAt(j-1)?0:1), Math.min(prev[j], cur[j-1])+1);
+			int[] t=prev; prev=cur; cur=t;
+		}
+		return prev[b.length()];
+	}
+
+	@Test
+	public void noisyReads(){
+		String truth=randomSequence(2000);
+		Sequence consensus=new PoaConsensus().consensus(reads(truth, 10, .03));
+		assertNotNull(consensus);
+		int dist=editDistance(truth, consensus.toString());
+		assertTrue("edit distance to the truth: "+dist, dist <= truth.length()/100);
+	}
+
+	@Test
+	public void emptyInput(){
+		PoaConsensus poa=new PoaConsensus();
+		assertNull(poa.consensus(null));
+		assertNull(poa.consensus(Collections.<Sequence>emptyList()));
+		assertNull(poa.consensus(Collections.singletonList(new Sequence(Alphabet.DNA(), "", "empty"))));
+	}
+
+	@Test
+	public void singleRead(){
+		String read=mutate(randomSequence(500), .05);
+		Sequence consensus=new PoaConsensus().consensus(Collections.singletonList(new Sequence(Alphabet.DNA(), read, "read")));
+		assertEquals(read, consensus.toString());
+	}
+
+	@Test
+	public void readsLongerThanBand(){
+		PoaConsensus.BAND=16;
+		String truth=randomSequence(1500);
+		PoaConsensus poa=new PoaConsensus();
+		Sequence consensus=poa.consensus(reads(truth, 8, .03));
+		int dist=editDistance(truth, consensus.toString());
+		assertTrue("edit distance to the truth: "+dist, dist <= truth.length()/50);
+		//the buffers are reused by the next call
+		consensus=poa.consensus(reads(truth, 8, .03));
+		dist=editDistance(truth, consensus.toString());
+		assertTrue("edit distance to the truth on reuse: "+dist, dist <= truth.length()/50);
+	}
+}
@@ -0,0 +1,62 @@
+package org.rtassembly.npgraph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rtassembly.npgraph.AlignmentSource.ReadAlignments;
+
+/*
+ * The pipelined ingestion (ReadPipeline) against the old serial path (HybridAssembler.update()) on the same input
+ */
+public class ReadPipelineTest {
+	@Rule
+	public TemporaryFolder tmp=new TemporaryFolder();
+
+	private static boolean cacheEnabled, strictOrder;
+
+	@BeforeClass
+	public static void setUp(){
+		cacheEnabled=GraphCache.ENABLED;
+		strictOrder=ReadPipeline.STRICT_ORDER;
+		GraphCache.ENABLED=false; //every run loads the GFA
+	}
+	@AfterClass
+	public static void tearDown(){
+		GraphCache.ENABLED=cacheEnabled;
+		ReadPipeline.STRICT_ORDER=strictOrder;
+	}
+
+	static String serial(PipelineFixture fixture) throws Exception{
+		HybridAssembler hAss=fixture.load();
+		for(ReadAlignments r:fixture.reads(hAss))
+			hAss.update(r.read, r.hits);
+		assertTrue("no bridge built from the fixture", hAss.simGraph.getBridges().size() > 0);
+		return PipelineFixture.dump(hAss.simGraph);
+	}
+
+	static String pipelined(PipelineFixture fixture, int workers) throws Exception{
+		HybridAssembler hAss=fixture.load();
+		ReadPipeline pipeline=new ReadPipeline(hAss, workers);
+		pipeline.start();
+		for(ReadAlignments r:fixture.reads(hAss))
+			pipeline.submit(r.read, r.hits);
+		pipeline.finish();
+		return PipelineFixture.dump(hAss.simGraph);
+	}
+
+	@Test
+	public void strictOrderMatchesSerial() throws Exception{
+		PipelineFixture fixture=new PipelineFixture(tmp.getRoot(), 1);
+		fixture.write();
+		ReadPipeline.STRICT_ORDER=true;
+		String expected=serial(fixture);
+		assertEquals(expected, pipelined(fixture, 0));
+		for(int i=0;i<3;i++)
+			assertEquals(expected, pipelined(fixture, 4));
+	}
+}